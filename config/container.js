@@ -82,6 +82,11 @@
 // substituted with the current host.
 "gadgets.osDataUri" : "http://%host%/social/rpc",
 
+// Strip comments and whitespace from JavaScript and CSS served through the
+// proxy and concat servlets. Gadgets may override this with the minify param
+// of the content-rewrite feature.
+"gadgets.minifyProxiedContent" : false,
+
 // Uncomment these to switch to a secure version
 //
 //"gadgets.securityTokenType" : "secure",
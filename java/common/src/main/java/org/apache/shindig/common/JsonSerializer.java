@@ -155,6 +155,8 @@ public final class JsonSerializer {
       appendString(buf, value.toString());
     } else if (value instanceof Date) {
       appendString(buf, DateUtil.formatIso8601Date((Date)value));
+    } else if (value instanceof LazyJson) {
+      ((LazyJson) value).appendTo(buf);
     } else if (value instanceof JSONObject) {
       appendJsonObject(buf, (JSONObject) value);
     } else if (value instanceof JSONArray) {
@@ -47,6 +47,10 @@ public class JsonUtil {
     Preconditions.checkNotNull(value);
     Preconditions.checkNotNull(propertyName);
 
+    if (value instanceof LazyJson) {
+      value = ((LazyJson) value).getValue();
+    }
+
     if (value instanceof JSONObject) {
       return ((JSONObject) value).opt(propertyName);
     } else if (value instanceof Map<?, ?>) {
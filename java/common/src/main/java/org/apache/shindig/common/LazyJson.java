@@ -0,0 +1,365 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import java.io.IOException;
+
+/**
+ * A JSON object or array that is held as its original text and only parsed when something
+ * actually reads into it.
+ *
+ * Large JSON payloads (such as the content of an os:HttpRequest preload) are usually just written
+ * back out into the page. Holding them as text avoids building a JSONObject tree that is only
+ * serialized again. The text is validated against the strict JSON grammar on creation, so it is
+ * always safe to write verbatim; {@link #appendTo} only escapes the characters that
+ * {@link JsonSerializer} escapes inside strings, which keeps the output safe inside a script tag.
+ *
+ * Instances are safe to share between threads. {@link #getValue} parses the text once and hands
+ * the same value to every caller, so that value must be treated as read-only; a change to it would
+ * never reach the text written by appendTo. The expression language resolver rejects writes to
+ * LazyJson values.
+ */
+public final class LazyJson implements JSONString {
+  // Deeper structures are rejected by the validator; callers fall back to a full parse.
+  private static final int MAX_DEPTH = 256;
+
+  private static final char[] HEX_DIGITS = {
+    '0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'
+  };
+
+  private final String json;
+  private final boolean array;
+  private volatile Object value;
+
+  private LazyJson(String json, boolean array) {
+    this.json = json;
+    this.array = array;
+  }
+
+  /**
+   * Wraps JSON text without parsing it.
+   *
+   * @return the wrapped text, or null if the text is not a strictly valid JSON object or array.
+   */
+  public static LazyJson wrap(String json) {
+    if (json == null) {
+      return null;
+    }
+    int start = new Validator(json).validate();
+    if (start == -1) {
+      return null;
+    }
+    return new LazyJson(json, json.charAt(start) == '[');
+  }
+
+  /**
+   * @return The original JSON text.
+   */
+  public String getRawJson() {
+    return json;
+  }
+
+  /**
+   * @return True if the text is a JSON array rather than an object.
+   */
+  public boolean isArray() {
+    return array;
+  }
+
+  /**
+   * @return The parsed value, either a JSONObject or a JSONArray. The text is parsed on the first
+   *     call only, and the result is shared, so it must not be modified.
+   */
+  public Object getValue() {
+    Object parsed = value;
+    if (parsed == null) {
+      try {
+        parsed = array ? new JSONArray(json) : new JSONObject(json);
+      } catch (JSONException e) {
+        // Can't happen, the text was validated when it was wrapped.
+        throw new IllegalStateException(e);
+      }
+      value = parsed;
+    }
+    return parsed;
+  }
+
+  /**
+   * Appends the JSON text to the buffer without parsing it.
+   *
+   * @throws IOException If {@link Appendable#append(char)} throws an exception.
+   */
+  public void appendTo(Appendable buf) throws IOException {
+    int last = 0;
+    for (int i = 0, j = json.length(); i < j; ++i) {
+      char current = json.charAt(i);
+      // The validator guarantees these only ever occur inside of strings.
+      if (current == '<' || current == '>' || (current >= '\u0080' && current < '\u00a0') ||
+          (current >= '\u2000' && current < '\u2100')) {
+        buf.append(json, last, i);
+        buf.append("\\u");
+        buf.append(HEX_DIGITS[(current >> 12) & 0xF]);
+        buf.append(HEX_DIGITS[(current >>  8) & 0xF]);
+        buf.append(HEX_DIGITS[(current >>  4) & 0xF]);
+        buf.append(HEX_DIGITS[current & 0xF]);
+        last = i + 1;
+      }
+    }
+    buf.append(json, last, json.length());
+  }
+
+  public String toJSONString() {
+    StringBuilder buf = new StringBuilder(json.length() + 16);
+    try {
+      appendTo(buf);
+    } catch (IOException e) {
+      // Shouldn't ever happen with a StringBuilder.
+      throw new RuntimeException(e);
+    }
+    return buf.toString();
+  }
+
+  @Override
+  public String toString() {
+    return toJSONString();
+  }
+
+  /**
+   * Single pass, allocation free check of the strict JSON grammar (RFC 4627).
+   */
+  private static class Validator {
+    private final String json;
+    private final int length;
+    private int pos;
+
+    Validator(String json) {
+      this.json = json;
+      this.length = json.length();
+    }
+
+    /**
+     * @return The index of the opening bracket of the top level value, or -1 if invalid.
+     */
+    int validate() {
+      skipWhitespace();
+      int start = pos;
+      if (pos == length || (json.charAt(pos) != '{' && json.charAt(pos) != '[')) {
+        return -1;
+      }
+      if (!value(0)) {
+        return -1;
+      }
+      skipWhitespace();
+      return pos == length ? start : -1;
+    }
+
+    private boolean value(int depth) {
+      if (pos == length) {
+        return false;
+      }
+      char c = json.charAt(pos);
+      switch (c) {
+        case '{':
+          return object(depth + 1);
+        case '[':
+          return array(depth + 1);
+        case '"':
+          return string();
+        case 't':
+          return literal("true");
+        case 'f':
+          return literal("false");
+        case 'n':
+          return literal("null");
+        default:
+          return number();
+      }
+    }
+
+    private boolean object(int depth) {
+      if (depth > MAX_DEPTH) {
+        return false;
+      }
+      pos++;
+      skipWhitespace();
+      if (pos < length && json.charAt(pos) == '}') {
+        pos++;
+        return true;
+      }
+      while (true) {
+        skipWhitespace();
+        if (pos == length || json.charAt(pos) != '"' || !string()) {
+          return false;
+        }
+        skipWhitespace();
+        if (pos == length || json.charAt(pos) != ':') {
+          return false;
+        }
+        pos++;
+        skipWhitespace();
+        if (!value(depth)) {
+          return false;
+        }
+        skipWhitespace();
+        if (pos == length) {
+          return false;
+        }
+        char c = json.charAt(pos++);
+        if (c == '}') {
+          return true;
+        }
+        if (c != ',') {
+          return false;
+        }
+      }
+    }
+
+    private boolean array(int depth) {
+      if (depth > MAX_DEPTH) {
+        return false;
+      }
+      pos++;
+      skipWhitespace();
+      if (pos < length && json.charAt(pos) == ']') {
+        pos++;
+        return true;
+      }
+      while (true) {
+        skipWhitespace();
+        if (!value(depth)) {
+          return false;
+        }
+        skipWhitespace();
+        if (pos == length) {
+          return false;
+        }
+        char c = json.charAt(pos++);
+        if (c == ']') {
+          return true;
+        }
+        if (c != ',') {
+          return false;
+        }
+      }
+    }
+
+    private boolean string() {
+      pos++;
+      while (pos < length) {
+        char c = json.charAt(pos++);
+        if (c == '"') {
+          return true;
+        }
+        if (c < ' ') {
+          return false;
+        }
+        if (c == '\\') {
+          if (pos == length) {
+            return false;
+          }
+          switch (json.charAt(pos++)) {
+            case '"':
+            case '\\':
+            case '/':
+            case 'b':
+            case 'f':
+            case 'n':
+            case 'r':
+            case 't':
+              break;
+            case 'u':
+              if (pos + 4 > length) {
+                return false;
+              }
+              for (int i = 0; i < 4; ++i) {
+                if (Character.digit(json.charAt(pos++), 16) == -1) {
+                  return false;
+                }
+              }
+              break;
+            default:
+              return false;
+          }
+        }
+      }
+      return false;
+    }
+
+    private boolean number() {
+      if (pos < length && json.charAt(pos) == '-') {
+        pos++;
+      }
+      if (pos == length) {
+        return false;
+      }
+      if (json.charAt(pos) == '0') {
+        pos++;
+      } else if (!digits()) {
+        return false;
+      }
+      if (pos < length && json.charAt(pos) == '.') {
+        pos++;
+        if (!digits()) {
+          return false;
+        }
+      }
+      if (pos < length && (json.charAt(pos) == 'e' || json.charAt(pos) == 'E')) {
+        pos++;
+        if (pos < length && (json.charAt(pos) == '+' || json.charAt(pos) == '-')) {
+          pos++;
+        }
+        if (!digits()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean digits() {
+      int start = pos;
+      while (pos < length && json.charAt(pos) >= '0' && json.charAt(pos) <= '9') {
+        pos++;
+      }
+      return pos > start;
+    }
+
+    private boolean literal(String literal) {
+      if (!json.startsWith(literal, pos)) {
+        return false;
+      }
+      pos += literal.length();
+      return true;
+    }
+
+    private void skipWhitespace() {
+      while (pos < length) {
+        char c = json.charAt(pos);
+        if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+          return;
+        }
+        pos++;
+      }
+    }
+  }
+}
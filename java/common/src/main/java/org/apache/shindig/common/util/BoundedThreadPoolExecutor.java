@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A named thread pool with a bounded number of threads and a bounded queue, so that one kind of
+ * work can not starve the others of threads or memory.
+ *
+ * Threads are daemon threads named shindig-{name}-{n}. When both the threads and the queue are
+ * full, work is handled according to the pool's {@link RejectionPolicy}, and counted.
+ */
+public class BoundedThreadPoolExecutor extends ThreadPoolExecutor
+    implements BoundedThreadPoolExecutorMBean {
+  private static final Logger logger = Logger.getLogger(BoundedThreadPoolExecutor.class.getName());
+
+  /**
+   * What to do with work that the pool has no room for.
+   */
+  public enum RejectionPolicy {
+    /** Run the work in the submitting thread, which slows down submission. */
+    CALLER_RUNS("caller-runs"),
+    /** Drop the work. Only suitable for work that nobody waits on. */
+    DISCARD("discard"),
+    /** Throw a RejectedExecutionException to the submitter. */
+    ABORT("abort");
+
+    private final String value;
+
+    private RejectionPolicy(String value) {
+      this.value = value;
+    }
+
+    public String getValue() {
+      return value;
+    }
+
+    /**
+     * @return The policy with the given configuration value.
+     * @throws IllegalArgumentException If there is no such policy.
+     */
+    public static RejectionPolicy parse(String value) {
+      for (RejectionPolicy policy : values()) {
+        if (policy.value.equalsIgnoreCase(value.trim())) {
+          return policy;
+        }
+      }
+      throw new IllegalArgumentException("Unknown rejection policy: " + value);
+    }
+
+    RejectedExecutionHandler createHandler() {
+      switch (this) {
+        case CALLER_RUNS:
+          return new ThreadPoolExecutor.CallerRunsPolicy();
+        case DISCARD:
+          return new ThreadPoolExecutor.DiscardPolicy();
+        default:
+          return new ThreadPoolExecutor.AbortPolicy();
+      }
+    }
+  }
+
+  private static final long KEEP_ALIVE_SECONDS = 60L;
+
+  private final String name;
+  private final int queueCapacity;
+  private final RejectionPolicy rejectionPolicy;
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private ObjectName objectName;
+
+  /**
+   * @param name Name of the pool, used for thread names and metrics.
+   * @param coreSize Number of threads to keep even when idle.
+   * @param maxSize Maximum number of threads.
+   * @param queueSize Number of tasks that may wait for a thread once all core threads are busy.
+   *     If 0, tasks are handed directly to a thread, and new threads are started up to maxSize.
+   * @param rejectionPolicy What to do when there are maxSize threads and the queue is full.
+   */
+  public BoundedThreadPoolExecutor(String name, int coreSize, int maxSize, int queueSize,
+      RejectionPolicy rejectionPolicy) {
+    super(coreSize, maxSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, createQueue(queueSize),
+        new NamedThreadFactory(name));
+    this.name = name;
+    this.queueCapacity = queueSize;
+    this.rejectionPolicy = rejectionPolicy;
+    setRejectedExecutionHandler(new CountingHandler(rejectionPolicy.createHandler()));
+  }
+
+  private static BlockingQueue<Runnable> createQueue(int queueSize) {
+    if (queueSize <= 0) {
+      return new SynchronousQueue<Runnable>();
+    }
+    return new ArrayBlockingQueue<Runnable>(queueSize);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public RejectionPolicy getRejectionPolicy() {
+    return rejectionPolicy;
+  }
+
+  public int getQueueDepth() {
+    return getQueue().size();
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Registers the pool's metrics with the platform MBean server, as
+   * org.apache.shindig:type=ThreadPool,name={name}. A pool of the same name registered earlier
+   * is replaced. Failures are logged and otherwise ignored.
+   */
+  public synchronized void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName("org.apache.shindig:type=ThreadPool,name=" + name);
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      server.registerMBean(this, objectName);
+      this.objectName = objectName;
+    } catch (JMException e) {
+      logger.log(Level.INFO, "Unable to register metrics for thread pool " + name, e);
+    } catch (SecurityException e) {
+      logger.log(Level.INFO, "Unable to register metrics for thread pool " + name, e);
+    }
+  }
+
+  @Override
+  protected synchronized void terminated() {
+    super.terminated();
+    if (objectName != null) {
+      try {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+          server.unregisterMBean(objectName);
+        }
+      } catch (JMException e) {
+        // Already gone.
+      }
+      objectName = null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ThreadPool[" + name + ", threads=" + getPoolSize() + '/' + getMaximumPoolSize() +
+        ", active=" + getActiveCount() + ", queued=" + getQueueDepth() + '/' + queueCapacity +
+        ", rejected=" + getRejectedCount() + ']';
+  }
+
+  private class CountingHandler implements RejectedExecutionHandler {
+    private final RejectedExecutionHandler delegate;
+
+    CountingHandler(RejectedExecutionHandler delegate) {
+      this.delegate = delegate;
+    }
+
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      long rejected = rejectedCount.incrementAndGet();
+      // Log the first rejection and then occasionally, as a saturated pool rejects a lot.
+      if ((rejected & (rejected - 1)) == 0 && logger.isLoggable(Level.WARNING)) {
+        logger.warning("Thread pool saturated, " + rejectionPolicy.getValue() + ": " +
+            BoundedThreadPoolExecutor.this);
+      }
+      delegate.rejectedExecution(r, executor);
+    }
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    NamedThreadFactory(String name) {
+      this.prefix = "shindig-" + name + '-';
+    }
+
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      if (thread.getPriority() != Thread.NORM_PRIORITY) {
+        thread.setPriority(Thread.NORM_PRIORITY);
+      }
+      return thread;
+    }
+  }
+}
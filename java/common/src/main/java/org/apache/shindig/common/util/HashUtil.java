@@ -26,6 +26,11 @@ import java.security.NoSuchAlgorithmException;
  * Routines for producing hashes.
  */
 public class HashUtil {
+  // MurmurHash3 x64 128 constants.
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
   /**
    * Produces a checksum for the given input data.
    *
@@ -72,4 +77,85 @@ public class HashUtil {
     }
     return new String(md.digest(data));
   }
+
+  /**
+   * Produces a 128 bit hash of the characters of a string, without first encoding them to bytes.
+   * This is MurmurHash3, which is much faster than checksum but not cryptographic: use it where
+   * collisions are harmless or can be detected, such as cache keys checked against the cached
+   * input.
+   *
+   * @param data
+   * @return The hash, as 32 hex digits.
+   */
+  public static String fastChecksum(CharSequence data) {
+    int length = data.length();
+    long h1 = 0;
+    long h2 = 0;
+
+    // 8 chars, two longs, per block.
+    int end = length - (length % 8);
+    for (int i = 0; i < end; i += 8) {
+      h1 ^= mixK1(chars(data, i, 4));
+      h1 = Long.rotateLeft(h1, 27) + h2;
+      h1 = h1 * 5 + 0x52dce729;
+      h2 ^= mixK2(chars(data, i + 4, 4));
+      h2 = Long.rotateLeft(h2, 31) + h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    int remaining = length - end;
+    if (remaining > 4) {
+      h2 ^= mixK2(chars(data, end + 4, remaining - 4));
+    }
+    if (remaining > 0) {
+      h1 ^= mixK1(chars(data, end, Math.min(remaining, 4)));
+    }
+
+    h1 ^= length * 2L;
+    h2 ^= length * 2L;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+    h1 += h2;
+    h2 += h1;
+
+    char[] hex = new char[32];
+    toHex(h1, hex, 0);
+    toHex(h2, hex, 16);
+    return new String(hex);
+  }
+
+  /** Packs count chars, little-endian, into a long. */
+  private static long chars(CharSequence data, int offset, int count) {
+    long result = 0;
+    for (int i = count - 1; i >= 0; --i) {
+      result = (result << 16) | data.charAt(offset + i);
+    }
+    return result;
+  }
+
+  private static long mixK1(long k1) {
+    return Long.rotateLeft(k1 * C1, 31) * C2;
+  }
+
+  private static long mixK2(long k2) {
+    return Long.rotateLeft(k2 * C2, 33) * C1;
+  }
+
+  private static long fmix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  private static void toHex(long value, char[] out, int offset) {
+    for (int i = 15; i >= 0; --i) {
+      out[offset + i] = HEX[(int) (value & 0xf)];
+      value >>>= 4;
+    }
+  }
 }
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.shindig.common.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Shares equal strings between objects that are kept around for a long time, such as names read
+ * from gadget specs.
+ *
+ * Unlike {@link String#intern()}, canonical strings are only weakly held, so names that no
+ * cached object uses any more are collected. This matters for names chosen by whoever wrote the
+ * spec, which are unbounded.
+ */
+public final class StringInterner {
+  private static final Map<String, WeakReference<String>> STRINGS =
+      new WeakHashMap<String, WeakReference<String>>();
+
+  private StringInterner() {}
+
+  /**
+   * @return a string equal to {@code s}, shared with earlier callers that passed an equal string
+   *     while it is still in use. Null is returned as is.
+   */
+  public static String intern(String s) {
+    if (s == null) {
+      return null;
+    }
+    synchronized (STRINGS) {
+      WeakReference<String> ref = STRINGS.get(s);
+      String canonical = ref == null ? null : ref.get();
+      if (canonical == null) {
+        canonical = s;
+        STRINGS.put(canonical, new WeakReference<String>(canonical));
+      }
+      return canonical;
+    }
+  }
+}
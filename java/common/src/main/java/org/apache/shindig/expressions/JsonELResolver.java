@@ -18,6 +18,7 @@
  */
 package org.apache.shindig.expressions;
 
+import org.apache.shindig.common.LazyJson;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -28,14 +29,17 @@ import java.util.Iterator;
 import javax.el.ELContext;
 import javax.el.ELException;
 import javax.el.ELResolver;
+import javax.el.PropertyNotWritableException;
 
 /**
- * ELResolver implementation for JSONArray and JSONObject.
+ * ELResolver implementation for JSONArray and JSONObject.  LazyJson values
+ * are parsed when a property is read from them, and are read-only.
  */
 class JsonELResolver extends ELResolver {
 
   @Override
   public Class<?> getCommonPropertyType(ELContext context, Object base) {
+    base = unwrap(base);
     if (base instanceof JSONArray) {
       return Integer.class;
     }
@@ -66,6 +70,7 @@ class JsonELResolver extends ELResolver {
 
   @Override
   public Object getValue(ELContext context, Object base, Object property) {
+    base = unwrap(base);
     if (base instanceof JSONObject) {
       context.setPropertyResolved(true);
       return ((JSONObject) base).opt(String.valueOf(property));
@@ -86,11 +91,17 @@ class JsonELResolver extends ELResolver {
       context.setPropertyResolved(true);
     }
     
-    return false;
+    return base instanceof LazyJson;
   }
 
   @Override
   public void setValue(ELContext context, Object base, Object property, Object value) {
+    if (base instanceof LazyJson) {
+      // Writes would only change a parsed copy, never the text that is written out.
+      context.setPropertyResolved(true);
+      throw new PropertyNotWritableException("JSON content is read-only");
+    }
+
     if (base instanceof JSONObject) {
       context.setPropertyResolved(true);
       try {
@@ -126,6 +137,14 @@ class JsonELResolver extends ELResolver {
   }
 
   private boolean isJson(Object base) {
-    return (base instanceof JSONObject || base instanceof JSONArray);
+    return (base instanceof JSONObject || base instanceof JSONArray || base instanceof LazyJson);
+  }
+
+  private Object unwrap(Object base) {
+    if (base instanceof LazyJson) {
+      return ((LazyJson) base).getValue();
+    }
+
+    return base;
   }
 }
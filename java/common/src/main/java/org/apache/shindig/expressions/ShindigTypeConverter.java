@@ -18,6 +18,7 @@
  */
 package org.apache.shindig.expressions;
 
+import org.apache.shindig.common.LazyJson;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -45,6 +46,11 @@ public class ShindigTypeConverter implements TypeConverter {
   
   @SuppressWarnings("unchecked")
   public <T> T convert(Object obj, Class<T> type) throws ELException {
+    // Lazily parsed JSON needs no parse when it is only wanted as text
+    if (obj instanceof LazyJson && type != String.class && type != Object.class) {
+      obj = ((LazyJson) obj).getValue();
+    }
+
     // Handle boolean specially
     if (type == Boolean.class || type == Boolean.TYPE) {
       return (T) coerceToBoolean(obj);
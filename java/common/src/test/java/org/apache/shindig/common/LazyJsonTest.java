@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common;
+
+import static org.apache.shindig.common.JsonAssert.assertJsonEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class LazyJsonTest {
+
+  @Test
+  public void wrapObject() throws Exception {
+    LazyJson json = LazyJson.wrap("{\"foo\": \"bar\", \"baz\": [1, 2.5e3, -0.1, true, null]}");
+    assertFalse(json.isArray());
+    assertTrue(json.getValue() instanceof JSONObject);
+    assertEquals("bar", ((JSONObject) json.getValue()).getString("foo"));
+  }
+
+  @Test
+  public void wrapArray() throws Exception {
+    LazyJson json = LazyJson.wrap(" [1, {\"a\": {}}, []] \n");
+    assertTrue(json.isArray());
+    assertEquals(3, ((JSONArray) json.getValue()).length());
+  }
+
+  @Test
+  public void valueIsParsedOnce() throws Exception {
+    LazyJson json = LazyJson.wrap("{\"foo\": 1}");
+    assertSame(json.getValue(), json.getValue());
+  }
+
+  @Test
+  public void invalidJsonIsNotWrapped() throws Exception {
+    assertNull(LazyJson.wrap(null));
+    assertNull(LazyJson.wrap(""));
+    assertNull(LazyJson.wrap("notjson"));
+    assertNull(LazyJson.wrap("\"string\""));
+    assertNull(LazyJson.wrap("1"));
+    assertNull(LazyJson.wrap("{foo: 'bar'}"));
+    assertNull(LazyJson.wrap("{\"foo\": 'bar'}"));
+    assertNull(LazyJson.wrap("{\"foo\": 01}"));
+    assertNull(LazyJson.wrap("{\"foo\": \"bar\",}"));
+    assertNull(LazyJson.wrap("[1, 2"));
+    assertNull(LazyJson.wrap("[1] alert(1)"));
+    assertNull(LazyJson.wrap("[\"\\x41\"]"));
+    assertNull(LazyJson.wrap("[\"a\nb\"]"));
+    assertNull(LazyJson.wrap("[<script>]"));
+  }
+
+  @Test
+  public void appendIsVerbatim() throws Exception {
+    String text = "{\"foo\" : [1, 2, {\"bar\": \"b\\\"a\\\\z\"}]}";
+    assertEquals(text, LazyJson.wrap(text).toJSONString());
+  }
+
+  @Test
+  public void appendEscapesScriptUnsafeCharacters() throws Exception {
+    LazyJson json = LazyJson.wrap("[\"</script>\", \"\u2028\"]");
+    assertEquals("[\"\\u003c/script\\u003e\", \"\\u2028\"]", json.toJSONString());
+    assertJsonEquals("['</script>', '\u2028']", json.toJSONString());
+  }
+
+  @Test
+  public void serializedByJsonSerializer() throws Exception {
+    LazyJson json = LazyJson.wrap("{\"foo\": [1, 2]}");
+    String serialized = JsonSerializer.serialize(
+        ImmutableMap.of("data", ImmutableList.of(json)));
+    assertEquals("{\"data\":[{\"foo\": [1, 2]}]}", serialized);
+  }
+
+  @Test
+  public void serializedByJsonObject() throws Exception {
+    JSONObject wrapper = new JSONObject();
+    wrapper.put("content", LazyJson.wrap("{\"foo\": \"bar\"}"));
+    assertJsonEquals("{content: {foo: 'bar'}}", wrapper.toString());
+  }
+
+  @Test
+  public void getPropertyParsesValue() throws Exception {
+    LazyJson json = LazyJson.wrap("{\"foo\": \"bar\"}");
+    assertEquals("bar", JsonUtil.getProperty(json, "foo"));
+    assertNull(JsonUtil.getProperty(json, "baz"));
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.util;
+
+import org.apache.shindig.common.util.BoundedThreadPoolExecutor.RejectionPolicy;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class BoundedThreadPoolExecutorTest extends Assert {
+  private final CountDownLatch release = new CountDownLatch(1);
+  private BoundedThreadPoolExecutor executor;
+
+  @After
+  public void tearDown() throws Exception {
+    release.countDown();
+    if (executor != null) {
+      executor.shutdownNow();
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+
+  private Runnable blocker() {
+    return new Runnable() {
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+
+  private static Callable<String> threadName() {
+    return new Callable<String>() {
+      public String call() {
+        return Thread.currentThread().getName();
+      }
+    };
+  }
+
+  @Test
+  public void threadsAreNamedDaemons() throws Exception {
+    executor = new BoundedThreadPoolExecutor("test", 1, 1, 0, RejectionPolicy.ABORT);
+    Future<Boolean> daemon = executor.submit(new Callable<Boolean>() {
+      public Boolean call() {
+        return Thread.currentThread().isDaemon();
+      }
+    });
+    assertTrue(daemon.get());
+    assertEquals("shindig-test-1", executor.submit(threadName()).get());
+    assertEquals("test", executor.getName());
+  }
+
+  @Test
+  public void callerRunsWhenSaturated() throws Exception {
+    executor = new BoundedThreadPoolExecutor("test", 1, 1, 1, RejectionPolicy.CALLER_RUNS);
+    executor.execute(blocker());
+    executor.execute(blocker());
+    assertEquals(1, executor.getQueueDepth());
+    assertEquals(1, executor.getQueueCapacity());
+
+    assertEquals(Thread.currentThread().getName(), executor.submit(threadName()).get());
+    assertEquals(1, executor.getRejectedCount());
+  }
+
+  @Test
+  public void discardWhenSaturated() throws Exception {
+    executor = new BoundedThreadPoolExecutor("test", 1, 1, 0, RejectionPolicy.DISCARD);
+    executor.execute(blocker());
+    Future<String> dropped = executor.submit(threadName());
+    executor.execute(blocker());
+
+    assertFalse(dropped.isDone());
+    assertEquals(2, executor.getRejectedCount());
+    assertEquals(1, executor.getPoolSize());
+  }
+
+  @Test
+  public void abortWhenSaturated() throws Exception {
+    executor = new BoundedThreadPoolExecutor("test", 1, 2, 0, RejectionPolicy.ABORT);
+    executor.execute(blocker());
+    executor.execute(blocker());
+    assertEquals(2, executor.getPoolSize());
+    try {
+      executor.execute(blocker());
+      fail("Should have been rejected");
+    } catch (RejectedExecutionException e) {
+      // Expected.
+    }
+    assertEquals(1, executor.getRejectedCount());
+  }
+
+  @Test
+  public void parseRejectionPolicy() {
+    assertEquals(RejectionPolicy.CALLER_RUNS, RejectionPolicy.parse("caller-runs"));
+    assertEquals(RejectionPolicy.DISCARD, RejectionPolicy.parse(" Discard "));
+    assertEquals(RejectionPolicy.ABORT, RejectionPolicy.parse("abort"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseUnknownRejectionPolicy() {
+    RejectionPolicy.parse("block");
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+/**
+ * Tests for HashUtil.
+ */
+public class HashUtilTest {
+
+  @Test
+  public void fastChecksumKnownValues() {
+    // MurmurHash3 x64 128 of the UTF-16LE bytes, seed 0.
+    assertEquals("00000000000000000000000000000000", HashUtil.fastChecksum(""));
+    assertEquals("ee2ee18fe1bfd3877b927262d8c336c4", HashUtil.fastChecksum("hello"));
+  }
+
+  @Test
+  public void fastChecksumCoversEveryChar() {
+    // Every length from empty to a few blocks, so each tail size is covered.
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 40; ++i) {
+      String checksum = HashUtil.fastChecksum(content);
+      assertEquals(32, checksum.length());
+      assertEquals(checksum, HashUtil.fastChecksum(content.toString()));
+      for (int j = 0; j < i; ++j) {
+        char original = content.charAt(j);
+        content.setCharAt(j, (char) (original + 1));
+        assertFalse(checksum.equals(HashUtil.fastChecksum(content)));
+        content.setCharAt(j, original);
+      }
+      content.append((char) ('a' + i));
+    }
+  }
+}
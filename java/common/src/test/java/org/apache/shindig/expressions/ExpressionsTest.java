@@ -25,6 +25,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.Map;
 
+import org.apache.shindig.common.LazyJson;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Before;
@@ -32,6 +33,7 @@ import org.junit.Test;
 
 import javax.el.ELContext;
 import javax.el.PropertyNotFoundException;
+import javax.el.PropertyNotWritableException;
 import javax.el.ValueExpression;
 
 import com.google.common.collect.ImmutableList;
@@ -85,6 +87,25 @@ public class ExpressionsTest {
     assertEquals(3, result);
   }
 
+  @Test
+  public void lazyJsonSupport() throws Exception {
+    addVariable("object", LazyJson.wrap("{\"foo\": {\"bar\": [1, 2]}}"));
+    int result = evaluate("${object.foo.bar[0] + object.foo.bar[1]}", Integer.class);
+    assertEquals(3, result);
+  }
+
+  @Test(expected = PropertyNotWritableException.class)
+  public void lazyJsonReadOnly() throws Exception {
+    addVariable("object", LazyJson.wrap("{\"foo\": 125}"));
+    expressions.parse("${object.foo}", Integer.class).setValue(context, 126);
+  }
+
+  @Test
+  public void lazyJsonCoercionToString() throws Exception {
+    addVariable("object", LazyJson.wrap("{\"foo\": 125}"));
+    assertEquals("{\"foo\": 125}", evaluate("${object}", String.class));
+  }
+
   @Test
   public void jsonArrayCoercionOfStatic() throws Exception {
     JSONArray result = evaluate("first,second", JSONArray.class);
@@ -21,6 +21,7 @@ package org.apache.shindig.gadgets;
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.SoftExpiringCache;
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.common.xml.XmlException;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.gadgets.http.HttpRequest;
@@ -28,14 +29,30 @@ import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.RequestPipeline;
 import org.apache.shindig.gadgets.spec.SpecParserException;
 
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 /**
  * Basis for implementing GadgetSpec and MessageBundle factories.
  *
- * Automatically updates objects as needed asynchronously to provide optimal throughput.
+ * Automatically updates objects as needed asynchronously to provide optimal throughput. While an
+ * expired object is being refreshed, it keeps being served to everyone else, and only one refresh
+ * per object runs at a time.
  */
 public abstract class AbstractSpecFactory<T> {
   private static final Logger logger = Logger.getLogger(AbstractSpecFactory.class.getName());
@@ -44,6 +61,13 @@ public abstract class AbstractSpecFactory<T> {
   private final RequestPipeline pipeline;
   final SoftExpiringCache<Uri, Object> cache;
   private final long refresh;
+  private final Random random = new Random();
+  // Objects being refreshed, and when the refresh was scheduled.
+  private final ConcurrentMap<Uri, Long> refreshing = new ConcurrentHashMap<Uri, Long>();
+  private double refreshJitter;
+  private int maxConcurrentRefreshes = Integer.MAX_VALUE;
+  private final AtomicLong parseCount = new AtomicLong();
+  private final AtomicLong unchangedCount = new AtomicLong();
 
   /**
    * @param clazz the class for spec objects.
@@ -61,6 +85,73 @@ public abstract class AbstractSpecFactory<T> {
     this.refresh = refresh;
   }
 
+  /**
+   * Spreads out expiry times, so that objects fetched at the same time are not all refreshed at
+   * the same time. Each object expires after a random time between (1 - jitter) * refresh and
+   * refresh.
+   */
+  @Inject(optional = true)
+  public void setRefreshJitter(@Named("shindig.cache.xml.refreshJitter") double refreshJitter) {
+    this.refreshJitter = Math.max(0.0, Math.min(refreshJitter, 1.0));
+  }
+
+  /**
+   * Limits the number of objects refreshed in the background at once. Expired objects beyond the
+   * limit are served as they are, and refreshed by a later request.
+   */
+  @Inject(optional = true)
+  public void setMaxConcurrentRefreshes(
+      @Named("shindig.cache.xml.maxConcurrentRefreshes") int maxConcurrentRefreshes) {
+    this.maxConcurrentRefreshes = maxConcurrentRefreshes;
+  }
+
+  /**
+   * @return The number of fetched specs that were parsed.
+   */
+  public long getParseCount() {
+    return parseCount.get();
+  }
+
+  /**
+   * @return The number of refreshes that found the content unchanged, and so were not parsed.
+   */
+  public long getUnchangedCount() {
+    return unchangedCount.get();
+  }
+
+  /**
+   * Publishes {@link #getParseCount()} and {@link #getUnchangedCount()} through the platform
+   * MBean server, as org.apache.shindig:type=SpecFactory,name={name}. A factory of the same name
+   * registered earlier is replaced. Failures are logged and otherwise ignored.
+   */
+  protected void registerMBean(final String name) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName("org.apache.shindig:type=SpecFactory,name=" + name);
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      SpecFactoryMBean metrics = new SpecFactoryMBean() {
+        public String getName() {
+          return name;
+        }
+
+        public long getParseCount() {
+          return AbstractSpecFactory.this.getParseCount();
+        }
+
+        public long getUnchangedCount() {
+          return AbstractSpecFactory.this.getUnchangedCount();
+        }
+      };
+      server.registerMBean(new StandardMBean(metrics, SpecFactoryMBean.class), objectName);
+    } catch (JMException e) {
+      logger.log(Level.INFO, "Unable to register metrics for spec factory " + name, e);
+    } catch (SecurityException e) {
+      logger.log(Level.INFO, "Unable to register metrics for spec factory " + name, e);
+    }
+  }
+
   /**
    * Attempt to fetch a spec, either from cache or from the network.
    *
@@ -75,11 +166,7 @@ public abstract class AbstractSpecFactory<T> {
       if (cached != null) {
         obj = cached.obj;
         if (cached.isExpired) {
-          // We write to the cache to avoid any race conditions with multiple writers.
-          // This causes a double write, but that's better than a write per thread or synchronizing
-          // this block.
-          cache.addElement(query.specUri, obj, refresh);
-          executor.execute(new SpecUpdater(query, obj));
+          scheduleRefresh(query, obj);
         }
       }
     }
@@ -101,7 +188,7 @@ public abstract class AbstractSpecFactory<T> {
         obj = e;
       }
       if (!bypassCache) {
-        cache.addElement(query.specUri, obj, refresh);
+        cache.addElement(query.specUri, obj, nextExpiry());
       }
     }
 
@@ -113,10 +200,63 @@ public abstract class AbstractSpecFactory<T> {
     return clazz.cast(obj);
   }
 
+  /**
+   * Starts a background refresh of an expired object, unless one is already running or too many
+   * refreshes are running.
+   */
+  private void scheduleRefresh(Query query, Object old) {
+    Uri uri = query.specUri;
+    Long now = System.currentTimeMillis();
+    Long scheduled = refreshing.putIfAbsent(uri, now);
+    if (scheduled != null) {
+      // A refresh that has been running for longer than the refresh interval is assumed lost, eg.
+      // discarded by the executor, and is replaced.
+      if (now - scheduled < refresh || !refreshing.replace(uri, scheduled, now)) {
+        return;
+      }
+    }
+
+    if (refreshing.size() > maxConcurrentRefreshes) {
+      refreshing.remove(uri, now);
+      logger.log(Level.FINE, "Too many refreshes running, serving stale {0}", uri);
+      return;
+    }
+
+    try {
+      executor.execute(new SpecUpdater(query, old, now));
+    } catch (RejectedExecutionException e) {
+      refreshing.remove(uri, now);
+      logger.log(Level.FINE, "Refresh of {0} rejected, serving stale version", uri);
+    }
+  }
+
+  /**
+   * @return The time to keep a newly fetched object before refreshing it.
+   */
+  long nextExpiry() {
+    if (refreshJitter == 0.0) {
+      return refresh;
+    }
+    double jitter;
+    synchronized (random) {
+      jitter = random.nextDouble() * refreshJitter;
+    }
+    return (long) (refresh * (1.0 - jitter));
+  }
+
   /**
    * Retrieves a spec from the network, parses, and adds it to the cache.
    */
   protected T fetchFromNetwork(Query query) throws SpecRetrievalFailedException, GadgetException {
+    return fetchFromNetwork(query, null);
+  }
+
+  /**
+   * Retrieves a spec from the network. If the content is the same as that of the previous version,
+   * the previous version is returned rather than parsing it again.
+   */
+  protected T fetchFromNetwork(Query query, T previous)
+      throws SpecRetrievalFailedException, GadgetException {
     HttpRequest request = new HttpRequest(query.specUri)
         .setIgnoreCache(query.ignoreCache)
         .setGadget(query.gadgetUri)
@@ -135,6 +275,13 @@ public abstract class AbstractSpecFactory<T> {
 
     try {
       String content = response.getResponseAsString();
+      String previousChecksum = previous == null ? null : getChecksum(previous);
+      if (previousChecksum != null &&
+          previousChecksum.equals(HashUtil.checksum(content.getBytes()))) {
+        unchangedCount.incrementAndGet();
+        return previous;
+      }
+      parseCount.incrementAndGet();
       return parse(content, query);
     } catch (XmlException e) {
       throw new SpecParserException(e);
@@ -149,6 +296,15 @@ public abstract class AbstractSpecFactory<T> {
    */
   protected abstract T parse(String content, Query query) throws XmlException, GadgetException;
 
+  /**
+   * @return The checksum of the content that the spec was parsed from, as computed by
+   *     {@link HashUtil#checksum}, or null if unknown. Specs with a checksum aren't parsed again
+   *     when a refresh finds the same content.
+   */
+  protected String getChecksum(T spec) {
+    return null;
+  }
+
   /**
    * Holds information used to fetch a spec.
    */
@@ -198,24 +354,29 @@ public abstract class AbstractSpecFactory<T> {
   private class SpecUpdater implements Runnable {
     private final Query query;
     private final Object old;
+    private final Long scheduled;
 
-    public SpecUpdater(Query query, Object old) {
+    public SpecUpdater(Query query, Object old, Long scheduled) {
       this.query = query;
       this.old = old;
+      this.scheduled = scheduled;
     }
 
     public void run() {
       try {
-        T newSpec = fetchFromNetwork(query);
-        cache.addElement(query.specUri, newSpec, refresh);
+        T previous = clazz.isInstance(old) ? clazz.cast(old) : null;
+        T newSpec = fetchFromNetwork(query, previous);
+        cache.addElement(query.specUri, newSpec, nextExpiry());
       } catch (GadgetException e) {
         if (old != null) {
           logger.log(Level.INFO, "Failed to update {0}. Using cached version.", query.specUri);
-          cache.addElement(query.specUri, old, refresh);
+          cache.addElement(query.specUri, old, nextExpiry());
         } else {
           logger.log(Level.INFO, "Failed to update {0}. Applying negative cache.", query.specUri);
-          cache.addElement(query.specUri, e, refresh);
+          cache.addElement(query.specUri, e, nextExpiry());
         }
+      } finally {
+        refreshing.remove(query.specUri, scheduled);
       }
     }
   }
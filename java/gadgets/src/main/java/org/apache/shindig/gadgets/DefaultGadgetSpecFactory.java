@@ -24,9 +24,11 @@ import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.xml.XmlException;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.apache.shindig.gadgets.http.RequestPipeline;
+import org.apache.shindig.gadgets.servlet.CajaContentRewriter;
 import org.apache.shindig.gadgets.servlet.HtmlAccelServlet;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.SpecParserException;
+import org.apache.shindig.gadgets.spec.StaxGadgetSpecParser;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -46,18 +48,40 @@ public class DefaultGadgetSpecFactory extends AbstractSpecFactory<GadgetSpec>
   public static final String RAW_GADGETSPEC_XML_PARAM_NAME = "rawxml";
   static final Uri RAW_GADGET_URI = Uri.parse("http://localhost/raw.xml");
 
+  private boolean streamingParser;
+  private CajaContentRewriter cajaRewriter;
+
   @Inject
-  public DefaultGadgetSpecFactory(ExecutorService executor,
-                                  RequestPipeline pipeline,
-                                  CacheProvider cacheProvider,
-                                  @Named("shindig.cache.xml.refreshInterval") long refresh) {
+  public DefaultGadgetSpecFactory(
+      @Named(DefaultGuiceModule.REFRESH_EXECUTOR) ExecutorService executor,
+      RequestPipeline pipeline, CacheProvider cacheProvider,
+      @Named("shindig.cache.xml.refreshInterval") long refresh) {
     super(GadgetSpec.class, executor, pipeline, makeCache(cacheProvider), refresh);
+    registerMBean(CACHE_NAME);
   }
 
   private static Cache<Uri, Object> makeCache(CacheProvider cacheProvider) {
     return cacheProvider.createCache(CACHE_NAME);
   }
 
+  /**
+   * Parse specs with {@link StaxGadgetSpecParser} rather than building a DOM for the whole
+   * document.
+   */
+  @Inject(optional = true)
+  public void setStreamingParser(@Named("shindig.spec.streaming-parser") boolean streamingParser) {
+    this.streamingParser = streamingParser;
+  }
+
+  /**
+   * Specs that require caja are handed to the rewriter when they are fetched or change, so that
+   * they can be cajoled before they are first rendered.
+   */
+  @Inject(optional = true)
+  public void setCajaContentRewriter(CajaContentRewriter cajaRewriter) {
+    this.cajaRewriter = cajaRewriter;
+  }
+
   public GadgetSpec getGadgetSpec(GadgetContext context) throws GadgetException {
     String rawxml = context.getParameter(RAW_GADGETSPEC_XML_PARAM_NAME);
     if (rawxml != null) {
@@ -71,7 +95,7 @@ public class DefaultGadgetSpecFactory extends AbstractSpecFactory<GadgetSpec>
         if (HtmlAccelServlet.isAccel(context)) {
           uri = context.getUrl();
         }
-        return new GadgetSpec(uri, XmlUtil.parse(rawxml), rawxml);
+        return parseSpec(uri, rawxml);
       } catch (XmlException e) {
         throw new SpecParserException(e);
       }
@@ -89,7 +113,23 @@ public class DefaultGadgetSpecFactory extends AbstractSpecFactory<GadgetSpec>
 
   @Override
   protected GadgetSpec parse(String content, Query query) throws XmlException, GadgetException {
-    Element element = XmlUtil.parse(content);
-    return new GadgetSpec(query.getSpecUri(), element, content);
+    GadgetSpec spec = parseSpec(query.getSpecUri(), content);
+    if (cajaRewriter != null) {
+      cajaRewriter.precajole(spec);
+    }
+    return spec;
+  }
+
+  @Override
+  protected String getChecksum(GadgetSpec spec) {
+    return spec.getChecksum();
+  }
+
+  private GadgetSpec parseSpec(Uri uri, String xml) throws XmlException, GadgetException {
+    if (streamingParser) {
+      return StaxGadgetSpecParser.parse(uri, xml);
+    }
+    Element element = XmlUtil.parse(xml);
+    return new GadgetSpec(uri, element, xml);
   }
 }
\ No newline at end of file
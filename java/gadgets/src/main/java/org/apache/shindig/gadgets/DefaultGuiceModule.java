@@ -18,6 +18,8 @@
  */
 package org.apache.shindig.gadgets;
 
+import org.apache.shindig.common.util.BoundedThreadPoolExecutor;
+import org.apache.shindig.common.util.BoundedThreadPoolExecutor.RejectionPolicy;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.InvalidationHandler;
 import org.apache.shindig.gadgets.parse.ParseModule;
@@ -29,6 +31,12 @@ import org.apache.shindig.gadgets.templates.TemplateModule;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.AbstractModule;
+import com.google.inject.Binding;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.Scopes;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Names;
 
@@ -43,18 +51,36 @@ import java.util.concurrent.ThreadFactory;
  */
 public class DefaultGuiceModule extends AbstractModule {
 
+  /** Executor for preloads and data pipelining that the current request waits on. */
+  public static final String PRELOAD_EXECUTOR = "shindig.executor.preload";
+
+  /** Executor for background refreshes of cached specs and message bundles. */
+  public static final String REFRESH_EXECUTOR = "shindig.executor.refresh";
+
+  /** Executor for fanning out the gadgets of a single metadata request. */
+  public static final String RPC_EXECUTOR = "shindig.executor.rpc";
+
+  /** Executor for decoding, resizing and re-encoding images. */
+  public static final String IMAGE_EXECUTOR = "shindig.executor.image";
+
+  /** Executor for cajoling gadget content in the background. */
+  public static final String CAJA_EXECUTOR = "shindig.executor.caja";
+
   /** {@inheritDoc} */
   @Override
   protected void configure() {
 
-    final ExecutorService service = Executors.newCachedThreadPool(DAEMON_THREAD_FACTORY);
-    bind(Executor.class).toInstance(service);
-    bind(ExecutorService.class).toInstance(service);
-    Runtime.getRuntime().addShutdownHook(new Thread() {
-        public void run() {
-            service.shutdownNow();
-        }
-    });
+    // Each kind of work gets its own bounded pool, so that a slow backend or a flood of image
+    // requests can only use up its own threads. Anything else shares the default pool.
+    bind(ExecutorService.class)
+        .toProvider(new ExecutorProvider("default", 8, 200, 0, RejectionPolicy.CALLER_RUNS))
+        .in(Scopes.SINGLETON);
+    bind(Executor.class).to(ExecutorService.class);
+    bindExecutor(PRELOAD_EXECUTOR, 8, 64, 0, RejectionPolicy.CALLER_RUNS);
+    bindExecutor(REFRESH_EXECUTOR, 2, 4, 100, RejectionPolicy.ABORT);
+    bindExecutor(RPC_EXECUTOR, 8, 64, 0, RejectionPolicy.CALLER_RUNS);
+    bindExecutor(IMAGE_EXECUTOR, 2, 4, 16, RejectionPolicy.ABORT);
+    bindExecutor(CAJA_EXECUTOR, 1, 2, 32, RejectionPolicy.ABORT);
 
     install(new ParseModule());
     install(new PreloadModule());
@@ -73,6 +99,68 @@ public class DefaultGuiceModule extends AbstractModule {
     requestStaticInjection(HttpResponse.class);
   }
 
+  private void bindExecutor(String name, int coreSize, int maxSize, int queueSize,
+      RejectionPolicy rejectionPolicy) {
+    bind(ExecutorService.class).annotatedWith(Names.named(name))
+        .toProvider(new ExecutorProvider(name.substring(name.lastIndexOf('.') + 1),
+            coreSize, maxSize, queueSize, rejectionPolicy))
+        .in(Scopes.SINGLETON);
+  }
+
+  /**
+   * Creates a pool whose sizes and rejection policy may be overridden by the properties
+   * shindig.executor.{name}.core-size, .max-size, .queue-size and .rejection-policy.
+   */
+  static class ExecutorProvider implements Provider<ExecutorService> {
+    private final String name;
+    private final int coreSize;
+    private final int maxSize;
+    private final int queueSize;
+    private final RejectionPolicy rejectionPolicy;
+    private Injector injector;
+
+    ExecutorProvider(String name, int coreSize, int maxSize, int queueSize,
+        RejectionPolicy rejectionPolicy) {
+      this.name = name;
+      this.coreSize = coreSize;
+      this.maxSize = maxSize;
+      this.queueSize = queueSize;
+      this.rejectionPolicy = rejectionPolicy;
+    }
+
+    @Inject
+    public void setInjector(Injector injector) {
+      this.injector = injector;
+    }
+
+    public ExecutorService get() {
+      int core = Integer.parseInt(getProperty("core-size", String.valueOf(coreSize)));
+      int max = Math.max(core, Integer.parseInt(getProperty("max-size", String.valueOf(maxSize))));
+      final BoundedThreadPoolExecutor executor = new BoundedThreadPoolExecutor(name, core, max,
+          Integer.parseInt(getProperty("queue-size", String.valueOf(queueSize))),
+          RejectionPolicy.parse(getProperty("rejection-policy", rejectionPolicy.getValue())));
+      executor.registerMBean();
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+          public void run() {
+              executor.shutdownNow();
+          }
+      });
+      return executor;
+    }
+
+    private String getProperty(String property, String defaultValue) {
+      if (injector == null) {
+        return defaultValue;
+      }
+      Binding<?> binding = injector.getBindings().get(
+          Key.get(String.class, Names.named("shindig.executor." + name + '.' + property)));
+      if (binding == null) {
+        return defaultValue;
+      }
+      return ((String) binding.getProvider().get()).trim();
+    }
+  }
+
 
   public static final ThreadFactory DAEMON_THREAD_FACTORY =
     new ThreadFactory() {
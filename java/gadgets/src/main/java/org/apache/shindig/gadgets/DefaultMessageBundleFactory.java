@@ -42,13 +42,18 @@ public class DefaultMessageBundleFactory extends AbstractSpecFactory<MessageBund
     implements MessageBundleFactory {
   private static final Locale ALL_ALL = new Locale("all", "ALL");
   public static final String CACHE_NAME = "messageBundles";
+  public static final String MERGED_CACHE_NAME = "mergedMessageBundles";
+
+  private final Cache<String, MergedBundle> mergedCache;
 
   @Inject
-  public DefaultMessageBundleFactory(ExecutorService executor,
-                                     RequestPipeline pipeline,
-                                     CacheProvider cacheProvider,
-                                     @Named("shindig.cache.xml.refreshInterval") long refresh) {
+  public DefaultMessageBundleFactory(
+      @Named(DefaultGuiceModule.REFRESH_EXECUTOR) ExecutorService executor,
+      RequestPipeline pipeline, CacheProvider cacheProvider,
+      @Named("shindig.cache.xml.refreshInterval") long refresh) {
     super(MessageBundle.class, executor, pipeline, makeCache(cacheProvider), refresh);
+    this.mergedCache = cacheProvider.createCache(MERGED_CACHE_NAME);
+    registerMBean(CACHE_NAME);
   }
 
   private static Cache<Uri, Object> makeCache(CacheProvider cacheProvider) {
@@ -60,6 +65,11 @@ public class DefaultMessageBundleFactory extends AbstractSpecFactory<MessageBund
     return new MessageBundle(((LocaleQuery) query).locale, content);
   }
 
+  @Override
+  protected String getChecksum(MessageBundle bundle) {
+    return bundle.getChecksum();
+  }
+
   public MessageBundle getBundle(GadgetSpec spec, Locale locale, boolean ignoreCache)
       throws GadgetException {
     MessageBundle exact = getBundleFor(spec, locale, ignoreCache);
@@ -90,7 +100,20 @@ public class DefaultMessageBundleFactory extends AbstractSpecFactory<MessageBund
       all = getBundleFor(spec, ALL_ALL, ignoreCache);
     }
 
-    return new MessageBundle(all, country, lang, exact);
+    if (ignoreCache) {
+      return new MessageBundle(all, country, lang, exact);
+    }
+
+    // The merged bundle is only reused while it was built from the very same bundle objects, so it
+    // is rebuilt whenever one of them is refreshed or evicted. The checksum takes care of changes
+    // to the spec itself.
+    String key = spec.getUrl().toString() + ':' + spec.getChecksum() + ':' + locale;
+    MergedBundle merged = mergedCache.getElement(key);
+    if (merged == null || !merged.isMergeOf(all, country, lang, exact)) {
+      merged = new MergedBundle(all, country, lang, exact);
+      mergedCache.addElement(key, merged);
+    }
+    return merged.bundle;
   }
 
   private MessageBundle getBundleFor(GadgetSpec spec, Locale locale, boolean ignoreCache)
@@ -115,6 +138,34 @@ public class DefaultMessageBundleFactory extends AbstractSpecFactory<MessageBund
     return super.getSpec(query);
   }
 
+  /**
+   * A merged bundle along with the bundles that it was created from.
+   */
+  private static class MergedBundle {
+    private final MessageBundle all;
+    private final MessageBundle country;
+    private final MessageBundle lang;
+    private final MessageBundle exact;
+    private final MessageBundle bundle;
+
+    MergedBundle(MessageBundle all, MessageBundle country, MessageBundle lang,
+        MessageBundle exact) {
+      this.all = all;
+      this.country = country;
+      this.lang = lang;
+      this.exact = exact;
+      bundle = new MessageBundle(all, country, lang, exact);
+      // Computed up front so that renders sharing this bundle never serialize it.
+      bundle.toJSONString();
+    }
+
+    boolean isMergeOf(MessageBundle all, MessageBundle country, MessageBundle lang,
+        MessageBundle exact) {
+      return this.all == all && this.country == country && this.lang == lang &&
+          this.exact == exact;
+    }
+  }
+
   private static class LocaleQuery extends Query {
     // We just use this to hold the locale used in the original query so that parsing can see it.
     LocaleSpec locale;
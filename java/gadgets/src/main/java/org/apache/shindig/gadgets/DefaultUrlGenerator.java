@@ -18,12 +18,13 @@
  */
 package org.apache.shindig.gadgets;
 
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.uri.UriBuilder;
-import org.apache.shindig.common.util.HashUtil;
+import org.apache.shindig.common.util.Utf8UrlCoder;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.gadgets.features.FeatureRegistry;
-import org.apache.shindig.gadgets.features.FeatureResource;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.UserPref;
 import org.apache.shindig.gadgets.spec.View;
@@ -51,6 +52,7 @@ public class DefaultUrlGenerator implements UrlGenerator {
   protected static final String JS_URI_PARAM = "gadgets.jsUriTemplate";
   protected static final String OAUTH_GADGET_CALLBACK_URI_PARAM =
       "gadgets.oauthGadgetCallbackTemplate";
+  static final String IFRAME_PREFIX_CACHE = "iframeUrlPrefixes";
 
   // Allow for subclasses to override this (adding custom versioning, etc.)
   protected String jsChecksum;
@@ -59,6 +61,7 @@ public class DefaultUrlGenerator implements UrlGenerator {
   private final Map<String, String> oauthCallbackUriTemplates;
 
   private final LockedDomainService lockedDomainService;
+  private Cache<String, String> iframePrefixCache;
 
   @Inject
   public DefaultUrlGenerator(ContainerConfig config,
@@ -76,11 +79,12 @@ public class DefaultUrlGenerator implements UrlGenerator {
 
     this.lockedDomainService = lockedDomainService;
 
-    StringBuilder jsBuf = new StringBuilder();
-    for (FeatureResource resource : registry.getAllFeatures()) {
-      jsBuf.append(resource.getContent());
-    }
-    jsChecksum = HashUtil.checksum(jsBuf.toString().getBytes());
+    jsChecksum = registry.getAllFeaturesChecksum();
+  }
+
+  @Inject(optional = true)
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    iframePrefixCache = cacheProvider.createCache(IFRAME_PREFIX_CACHE);
   }
 
   public String getBundledJsUrl(Collection<String> features, GadgetContext context) {
@@ -130,57 +134,92 @@ public class DefaultUrlGenerator implements UrlGenerator {
   public String getIframeUrl(Gadget gadget) {
     GadgetContext context = gadget.getContext();
     GadgetSpec spec = gadget.getSpec();
-    String url = context.getUrl().toString();
+    String container = context.getContainer();
     View view = gadget.getCurrentView();
     View.ContentType type;
     type = (view == null) ? View.ContentType.HTML : view.getType();
 
-    UriBuilder uri;
-    switch (type) {
-      case URL:
-        uri = new UriBuilder(view.getHref());
-        break;
-      case HTML:
-      case HTML_SANITIZED:
-      default:
-        Uri iframeBaseUri = iframeBaseUris.get(context.getContainer());
-        uri = iframeBaseUri != null ? new UriBuilder(iframeBaseUri) : new UriBuilder();
-        String host = lockedDomainService.getLockedDomainForGadget(gadget, context.getContainer());
-        if (host != null) {
-          uri.setAuthority(host);
-        }
-        break;
+    String prefix;
+    String fragment = null;
+    if (type == View.ContentType.URL) {
+      // The href may contain substituted user prefs, so it can't be shared between requests.
+      UriBuilder uri = new UriBuilder(view.getHref());
+      fragment = uri.getFragment();
+      uri.setFragment(null);
+      uri.addQueryParameter("container", container);
+      prefix = uri.toString();
+    } else {
+      prefix = getIframePrefix(gadget, container);
     }
 
-    uri.addQueryParameter("container", context.getContainer());
+    StringBuilder buf = new StringBuilder(prefix);
     if (context.getModuleId() != 0) {
-      uri.addQueryParameter("mid", Integer.toString(context.getModuleId()));
+      appendParameter(buf, "mid", Integer.toString(context.getModuleId()));
     }
     if (context.getIgnoreCache()) {
-      uri.addQueryParameter("nocache", "1");
+      appendParameter(buf, "nocache", "1");
     } else {
-      uri.addQueryParameter("v", spec.getChecksum());
+      appendParameter(buf, "v", spec.getChecksum());
     }
 
-    uri.addQueryParameter("lang", context.getLocale().getLanguage());
-    uri.addQueryParameter("country", context.getLocale().getCountry());
-    uri.addQueryParameter("view", context.getView());
+    appendParameter(buf, "lang", context.getLocale().getLanguage());
+    appendParameter(buf, "country", context.getLocale().getCountry());
+    appendParameter(buf, "view", context.getView());
 
     UserPrefs prefs = context.getUserPrefs();
-    for (UserPref pref : gadget.getSpec().getUserPrefs()) {
+    for (UserPref pref : spec.getUserPrefs()) {
       String name = pref.getName();
       String value = prefs.getPref(name);
       if (value == null) {
         value = pref.getDefaultValue();
       }
-      uri.addQueryParameter("up_" + pref.getName(), value);
+      appendParameter(buf, "up_" + pref.getName(), value);
     }
     // add url last to work around browser bugs
     if(type != View.ContentType.URL) {
-      uri.addQueryParameter("url", url);
+      appendParameter(buf, "url", context.getUrl().toString());
     }
+    if (fragment != null) {
+      buf.append('#').append(fragment);
+    }
+
+    return buf.toString();
+  }
+
+  /**
+   * @return The part of a type=html iframe url that only depends on the gadget and container:
+   *     the base uri, the (possibly locked) domain and the container parameter.
+   */
+  private String getIframePrefix(Gadget gadget, String container) {
+    String key = null;
+    if (iframePrefixCache != null) {
+      // The checksum keeps a changed spec, whose features may differ, from reusing a stale domain.
+      GadgetSpec spec = gadget.getSpec();
+      key = container + ' ' + spec.getChecksum() + ' ' + spec.getUrl();
+      String prefix = iframePrefixCache.getElement(key);
+      if (prefix != null) {
+        return prefix;
+      }
+    }
+
+    Uri iframeBaseUri = iframeBaseUris.get(container);
+    UriBuilder uri = iframeBaseUri != null ? new UriBuilder(iframeBaseUri) : new UriBuilder();
+    String host = lockedDomainService.getLockedDomainForGadget(gadget, container);
+    if (host != null) {
+      uri.setAuthority(host);
+    }
+    uri.addQueryParameter("container", container);
+    String prefix = uri.toString();
+
+    if (key != null) {
+      iframePrefixCache.addElement(key, prefix);
+    }
+    return prefix;
+  }
 
-    return uri.toString();
+  private static void appendParameter(StringBuilder buf, String name, String value) {
+    buf.append('&').append(Utf8UrlCoder.encode(name))
+       .append('=').append(Utf8UrlCoder.encode(value));
   }
   
   public UrlValidationStatus validateIframeUrl(String url) {
@@ -43,6 +43,8 @@ public class Gadget {
   private Collection<PreloadedData> preloads;
   private View currentView;
   private Set<String> directFeatureDeps;
+  private String rewriterTimings;
+  private boolean cacheable = true;
 
   /**
    * @param context The request that the gadget is being processed for.
@@ -119,6 +121,37 @@ public class Gadget {
     return currentView;
   }
 
+  /**
+   * @param rewriterTimings How long each rewriter took to render this gadget, for debugging.
+   */
+  public Gadget setRewriterTimings(String rewriterTimings) {
+    this.rewriterTimings = rewriterTimings;
+    return this;
+  }
+
+  /**
+   * @return How long each rewriter took to render this gadget, or null if it wasn't recorded.
+   */
+  public String getRewriterTimings() {
+    return rewriterTimings;
+  }
+
+  /**
+   * @param cacheable false if the rendered content is only good for this request, for example
+   *     because a rewriter put a placeholder in it, and must not be cached.
+   */
+  public Gadget setCacheable(boolean cacheable) {
+    this.cacheable = cacheable;
+    return this;
+  }
+
+  /**
+   * @return Whether the rendered content may be cached.
+   */
+  public boolean isCacheable() {
+    return cacheable;
+  }
+
   /**
    * Convenience function for getting the locale spec for the current context.
    *
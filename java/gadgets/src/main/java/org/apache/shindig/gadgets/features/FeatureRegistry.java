@@ -28,6 +28,7 @@ import com.google.inject.name.Named;
 import org.apache.shindig.common.Pair;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.uri.UriBuilder;
+import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.common.util.ResourceLoader;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.GadgetException;
@@ -37,6 +38,7 @@ import org.apache.commons.lang.StringUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -65,9 +67,23 @@ public class FeatureRegistry {
   // Map keyed by FeatureNode object created as a lookup for transitive feature deps.
   private final Map<FeatureCacheKey, List<FeatureResource>> cache = new MapMaker().makeMap();
 
+  // Checksums of individual resources. Weak keys compare by identity, and let the entries go
+  // when re-registration replaces a feature.
+  private final Map<FeatureResource, String> resourceChecksums
+      = new MapMaker().weakKeys().makeMap();
+
+  // Deepest dependency trees first. Used with a stable sort, so ties keep their requested order.
+  private static final Comparator<FeatureNode> NODE_DEPTH_ORDER = new Comparator<FeatureNode>() {
+    public int compare(FeatureNode one, FeatureNode two) {
+      return two.nodeDepth - one.nodeDepth;
+    }
+  };
+
   private final FeatureParser parser;
   private final FeatureResourceLoader resourceLoader;
   private final Map<String, FeatureNode> featureMap;
+  private volatile int registrationCount;
+  private volatile String allFeaturesChecksum;
   
   @Inject
   public FeatureRegistry(FeatureResourceLoader resourceLoader) {
@@ -151,9 +167,12 @@ public class FeatureRegistry {
       // Connect the dependency graph made up of all features and validate there
       // are no circular deps.
       connectDependencyGraph();
+      indexDependencyGraph();
       
       // Clear caches.
       cache.clear();
+      allFeaturesChecksum = getChecksum(getAllFeatures());
+      registrationCount++;
     } catch (IOException e) {
       throw new GadgetException(GadgetException.Code.INVALID_PATH, e);
     }
@@ -252,6 +271,54 @@ public class FeatureRegistry {
         new GadgetContext(), Lists.newArrayList(featureMap.keySet()), null);
   }
   
+  /**
+   * @return A checksum of the content of all known features, as returned by getAllFeatures.
+   *     Computed once per registration.
+   */
+  public String getAllFeaturesChecksum() {
+    String checksum = allFeaturesChecksum;
+    if (checksum == null) {
+      checksum = getChecksum(getAllFeatures());
+      allFeaturesChecksum = checksum;
+    }
+    return checksum;
+  }
+  
+  /**
+   * Produces a checksum for a list of resources, such as that returned by getFeatureResources.
+   * Each resource's content is only hashed once; the result for several resources is a checksum
+   * of their individual checksums, so it changes whenever any of them, or their order, does.
+   *
+   * @param resources The resources to checksum.
+   * @return The checksum.
+   */
+  public String getChecksum(Collection<FeatureResource> resources) {
+    if (resources.size() == 1) {
+      return getResourceChecksum(resources.iterator().next());
+    }
+    StringBuilder buf = new StringBuilder(resources.size() * 33);
+    for (FeatureResource resource : resources) {
+      buf.append(getResourceChecksum(resource)).append(' ');
+    }
+    return HashUtil.checksum(buf.toString().getBytes());
+  }
+  
+  /**
+   * @return A checksum of the resource's content and debug content.
+   */
+  public String getResourceChecksum(FeatureResource resource) {
+    String checksum = resourceChecksums.get(resource);
+    if (checksum == null) {
+      String content = resource.getContent();
+      checksum = HashUtil.checksum((content + resource.getDebugContent()).getBytes());
+      if (content != null) {
+        // External resources may not have been fetched yet.
+        resourceChecksums.put(resource, checksum);
+      }
+    }
+    return checksum;
+  }
+  
   /**
    * Calculates and returns a dependency-ordered (as in getFeatureResources) list of features
    * included directly or transitively from the specified list of needed features.
@@ -268,6 +335,14 @@ public class FeatureRegistry {
     return allFeatures;
   }
   
+  /**
+   * @return The number of times features have been registered. Changes whenever the set of
+   *     known features changes, so callers may use it to invalidate anything derived from it.
+   */
+  public int getRegistrationCount() {
+    return registrationCount;
+  }
+  
   /**
    * Helper method, returns all known feature names.
    * @return All known feature names.
@@ -295,18 +370,8 @@ public class FeatureRegistry {
   }
   
   private List<FeatureNode> getTransitiveDeps(Collection<String> needed, List<String> unsupported) {
-    final List<FeatureNode> requested = getRequestedNodes(needed, unsupported);
-    
-    Comparator<FeatureNode> nodeDepthComparator = new Comparator<FeatureNode>() {
-      public int compare(FeatureNode one, FeatureNode two) {
-        if (one.nodeDepth > two.nodeDepth ||
-            (one.nodeDepth == two.nodeDepth &&
-             requested.indexOf(one) < requested.indexOf(two))) {
-          return -1;
-        }
-        return 1;
-      }
-    };
+    List<FeatureNode> requested = getRequestedNodes(needed, unsupported);
+    
     // Before getTransitiveDeps() is called, all nodes and their graphs have been validated
     // to have no circular dependencies, with their tree depth calculated. The requested
     // features here may overlap in the tree, so we need to be sure not to double-include
@@ -314,15 +379,25 @@ public class FeatureRegistry {
     // If the requested features list is [A, C], we want to include A's tree in the appropriate
     // order, and avoid double-including C (and its dependency D). Thus we sort by node depth
     // first - A's tree is deeper than that of C, so *if* A's tree contains C, traversing
-    // it first guarantees that C is eventually included.
-    Collections.sort(requested, nodeDepthComparator);
+    // it first guarantees that C is eventually included. The sort is stable, so features of
+    // equal depth stay in requested order.
+    Collections.sort(requested, NODE_DEPTH_ORDER);
+    
+    // The union of the closures tells us how many features there are to add, so the walk can stop
+    // as soon as the deepest requested features have covered everything.
+    BitSet remaining = new BitSet();
+    for (FeatureNode requestedFeature : requested) {
+      remaining.or(requestedFeature.closure);
+    }
     
-    Set<String> alreadySeen = Sets.newHashSet();
-    List<FeatureNode> fullDeps = Lists.newLinkedList();
+    List<FeatureNode> fullDeps = Lists.newArrayListWithCapacity(remaining.cardinality());
     for (FeatureNode requestedFeature : requested) {
-      for (FeatureNode toAdd : requestedFeature.getTransitiveDeps()) {
-        if (!alreadySeen.contains(toAdd.name)) {
-          alreadySeen.add(toAdd.name);
+      if (remaining.isEmpty()) {
+        break;
+      }
+      for (FeatureNode toAdd : requestedFeature.orderedDeps) {
+        if (remaining.get(toAdd.index)) {
+          remaining.clear(toAdd.index);
           fullDeps.add(toAdd);
         }
       }
@@ -394,6 +469,30 @@ public class FeatureRegistry {
     }
   }
   
+  /**
+   * Numbers every feature and precomputes the de-duplicated, dependency ordered list and the
+   * closure bitset of its transitive dependencies, so that resolving a set of features needs no
+   * graph traversal.
+   */
+  private void indexDependencyGraph() {
+    int index = 0;
+    for (FeatureNode feature : featureMap.values()) {
+      feature.index = index++;
+    }
+    for (FeatureNode feature : featureMap.values()) {
+      BitSet closure = new BitSet(index);
+      List<FeatureNode> orderedDeps = Lists.newArrayList();
+      for (FeatureNode dep : feature.getTransitiveDeps()) {
+        if (!closure.get(dep.index)) {
+          closure.set(dep.index);
+          orderedDeps.add(dep);
+        }
+      }
+      feature.closure = closure;
+      feature.orderedDeps = Collections.unmodifiableList(orderedDeps);
+    }
+  }
+  
   private void loadResources(List<String> resources) throws GadgetException {
     try {
       for (String resource : resources) {
@@ -519,6 +618,11 @@ public class FeatureRegistry {
     private boolean calculatedDepsStale;
     private int nodeDepth = 0;
     
+    // Set by indexDependencyGraph().
+    private int index;
+    private BitSet closure = new BitSet();
+    private List<FeatureNode> orderedDeps = Collections.emptyList();
+    
     private FeatureNode(String name, List<FeatureBundle> bundles, List<String> rawDeps) {
       this.name = name;
       this.bundles = Collections.unmodifiableList(bundles);
@@ -65,6 +65,9 @@ public class HttpRequest {
   // Sanitization
   private boolean sanitizationRequested;
 
+  // Whether the caller wants debugging information about how the response was produced.
+  private boolean debug;
+
   // Whether to follow redirects
   private boolean followRedirects = true;
 
@@ -109,6 +112,7 @@ public class HttpRequest {
     authType = request.authType;
     rewriteMimeType = request.rewriteMimeType;
     followRedirects = request.followRedirects;
+    debug = request.debug;
   }
 
   public HttpRequest setMethod(String method) {
@@ -216,6 +220,19 @@ public class HttpRequest {
     this.sanitizationRequested = sanitizationRequested;
   }
 
+  /**
+   * @param debug Whether the caller wants debugging information, such as rewriter timings, with
+   *     the response.
+   */
+  public HttpRequest setDebug(boolean debug) {
+    this.debug = debug;
+    return this;
+  }
+
+  public boolean getDebug() {
+    return debug;
+  }
+
   /**
    * @param cacheTtl The amount of time to cache the result object for, in seconds. If set to -1,
    * HTTP cache control headers will be honored. Otherwise objects will be cached for the time
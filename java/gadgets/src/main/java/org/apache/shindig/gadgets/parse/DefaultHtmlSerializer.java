@@ -34,22 +34,27 @@ import java.io.StringWriter;
  * This parser does not try to escape entities in text content as it expects the parser
  * to have retained the original entity references rather than its resolved form in text nodes.
  */
-public class DefaultHtmlSerializer implements HtmlSerializer {
+public class DefaultHtmlSerializer implements StreamingHtmlSerializer {
 
   /** {@inheritDoc} */
   public String serialize(Document doc) {
     try {
       StringWriter sw = HtmlSerialization.createWriter(doc);
-      if (doc.getDoctype() != null) {
-        outputDocType(doc.getDoctype(), sw);
-      }
-      this.serialize(doc, sw);
+      serialize(doc, sw);
       return sw.toString();
     } catch (IOException ioe) {
       return null;
     }
   }
 
+  /** {@inheritDoc} */
+  public void serialize(Document doc, Appendable output) throws IOException {
+    if (doc.getDoctype() != null) {
+      outputDocType(doc.getDoctype(), output);
+    }
+    serialize(doc, output, false);
+  }
+
   public void serialize(Node n, Appendable output) throws IOException {
     serialize(n, output, false);
   }
@@ -176,17 +181,25 @@ public class DefaultHtmlSerializer implements HtmlSerializer {
     output.append(withXmlClose ? "/>" : ">");
   }
 
-  private static void printAttributeValue(String text, Appendable output, boolean isUrl) throws IOException {
+  /**
+   * Print an attribute value for a double quoted attribute. Ampersands are left alone in URL
+   * attributes.
+   */
+  public static void printAttributeValue(String text, Appendable output, boolean isUrl)
+      throws IOException {
     int length = text.length();
+    // Most values have nothing to escape, so copy the text between escapes in runs.
+    int start = 0;
     for (int j = 0; j < length; j++) {
       char c = text.charAt(j);
       if (c == '"') {
-        output.append("&quot;");
+        output.append(text, start, j).append("&quot;");
+        start = j + 1;
       } else if (c == '&' && !isUrl) {
-        output.append("&amp;");
-      } else {
-        output.append(c);
+        output.append(text, start, j).append("&amp;");
+        start = j + 1;
       }
     }
+    output.append(text, start, length);
   }
 }
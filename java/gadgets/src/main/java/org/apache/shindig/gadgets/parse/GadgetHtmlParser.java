@@ -47,8 +47,8 @@ public abstract class GadgetHtmlParser {
   public static final String PARSED_DOCUMENTS = "parsedDocuments";
   public static final String PARSED_FRAGMENTS = "parsedFragments";
 
-  private Cache<String, Document> documentCache;
-  private Cache<String, DocumentFragment> fragmentCache;
+  private Cache<String, Parsed<Document>> documentCache;
+  private Cache<String, Parsed<DocumentFragment>> fragmentCache;
   private Provider<HtmlSerializer> serializerProvider = new DefaultSerializerProvider();
 
   /**
@@ -83,15 +83,49 @@ public abstract class GadgetHtmlParser {
     return normalized.contains("<!DOCTYPE") || normalized.contains("<HTML");
   }
 
+  /**
+   * Parses the source into a document the caller is free to modify.
+   *
+   * @param source a piece of HTML
+   * @return a Document parsed from the HTML, not shared with anyone else.
+   * @throws GadgetException
+   */
   public final Document parseDom(String source) throws GadgetException {
+    return parseDom(source, null);
+  }
+
+  /**
+   * Like {@link #parseDom(String)}, with a caller supplied cache key.
+   *
+   * @param source a piece of HTML
+   * @param key A stable identity for the source that changes whenever the source does, such as a
+   *     spec checksum and view name. Saves hashing the source. If null, a hash of the source is
+   *     used, and the cached document's source is compared on a hit in case of a collision.
+   * @return a Document parsed from the HTML, not shared with anyone else.
+   * @throws GadgetException
+   */
+  public final Document parseDom(String source, String key) throws GadgetException {
     Document document = null;
-    String key = null;
     // Avoid checksum overhead if we arent caching
     boolean shouldCache = shouldCache();
+    boolean hashed = false;
     if (shouldCache) {
-      // TODO - Consider using the source if its under a certain size
-      key = HashUtil.rawChecksum(source.getBytes());
-      document = documentCache.getElement(key);
+      if (key == null) {
+        key = HashUtil.fastChecksum(source);
+        hashed = true;
+      } else {
+        // Keep caller keys apart from hashes.
+        key = "key:" + key;
+      }
+      Parsed<Document> cached = documentCache.getElement(key);
+      if (cached != null) {
+        if (!hashed || source.equals(cached.source)) {
+          document = cached.node;
+        } else {
+          // Hash collision. Leave the cached document alone.
+          shouldCache = false;
+        }
+      }
     }
     
     if (document == null) {
@@ -193,7 +227,7 @@ public abstract class GadgetHtmlParser {
       reprocessScriptForOpenSocial(html);
       
       if (shouldCache) {
-        documentCache.addElement(key, document);
+        documentCache.addElement(key, new Parsed<Document>(document, hashed ? source : null));
       }
     }
     
@@ -229,11 +263,15 @@ public abstract class GadgetHtmlParser {
     boolean shouldCache = shouldCache();
     String key = null;    
     if (shouldCache) {
-      key = HashUtil.rawChecksum(source.getBytes());
-      DocumentFragment cachedFragment = fragmentCache.getElement(key);
+      key = HashUtil.fastChecksum(source);
+      Parsed<DocumentFragment> cachedFragment = fragmentCache.getElement(key);
       if (cachedFragment != null) {
-        copyFragment(cachedFragment, result);
-        return;
+        if (source.equals(cachedFragment.source)) {
+          copyFragment(cachedFragment.node, result);
+          return;
+        }
+        // Hash collision. Leave the cached fragment alone.
+        shouldCache = false;
       }
     }
     
@@ -247,7 +285,7 @@ public abstract class GadgetHtmlParser {
     
     reprocessScriptForOpenSocial(fragment);
     if (shouldCache) {
-      fragmentCache.addElement(key, fragment);
+      fragmentCache.addElement(key, new Parsed<DocumentFragment>(fragment, source));
     }
     copyFragment(fragment, result);
   }
@@ -330,6 +368,20 @@ public abstract class GadgetHtmlParser {
   protected abstract DocumentFragment parseFragmentImpl(String source) 
       throws GadgetException;
 
+  /**
+   * A cached parse. The source is kept when the entry is keyed by a hash of it, so that a hit can
+   * be checked for a collision without reading the cached tree.
+   */
+  private static class Parsed<T extends Node> {
+    private final T node;
+    private final String source;
+
+    private Parsed(T node, String source) {
+      this.node = node;
+      this.source = source;
+    }
+  }
+
   private static class DefaultSerializerProvider implements Provider<HtmlSerializer> {
     public HtmlSerializer get() {
       return new DefaultHtmlSerializer();
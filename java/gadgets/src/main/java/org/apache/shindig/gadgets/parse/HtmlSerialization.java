@@ -23,8 +23,13 @@ import org.apache.xerces.xni.QName;
 import org.cyberneko.html.HTMLEntities;
 import org.w3c.dom.Document;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.Set;
 
 /**
@@ -48,6 +53,17 @@ public class HtmlSerialization {
 
   public static final Set<String> URL_ATTRIBUTES = ImmutableSet.of("href", "src");
 
+  /**
+   * Entity names for ASCII characters, looked up once rather than per character of text.
+   */
+  private static final String[] ASCII_ENTITIES = new String[128];
+
+  static {
+    for (int c = 0; c < ASCII_ENTITIES.length; c++) {
+      ASCII_ENTITIES[c] = HTMLEntities.get(c);
+    }
+  }
+
   /**
    * Attach a serializer instance to the document
    * @param doc
@@ -106,16 +122,43 @@ public class HtmlSerialization {
     return ((HtmlSerializer) doc.getUserData(KEY)).serialize(doc);
   }
 
+  /**
+   * Call the attached serializer and write the document to output, without building the whole
+   * page as a String first if the serializer is a {@link StreamingHtmlSerializer}.
+   */
+  public static void serialize(Document doc, Appendable output) throws IOException {
+    HtmlSerializer serializer = (HtmlSerializer) doc.getUserData(KEY);
+    if (serializer instanceof StreamingHtmlSerializer) {
+      ((StreamingHtmlSerializer) serializer).serialize(doc, output);
+    } else {
+      output.append(serializer.serialize(doc));
+    }
+  }
+
+  /**
+   * Call the attached serializer and encode the document straight to a stream, without holding
+   * the serialized page in memory. The stream is flushed but not closed.
+   */
+  public static void writeTo(Document doc, OutputStream out, Charset charset)
+      throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset), 8192);
+    serialize(doc, writer);
+    writer.flush();
+  }
+
   public static void printEscapedText(CharSequence text, Appendable output) throws IOException {
-    for (int i = 0; i < text.length(); i++) {
+    int length = text.length();
+    // Copy the text between entities in runs rather than a character at a time.
+    int start = 0;
+    for (int i = 0; i < length; i++) {
       char c = text.charAt(i);
-      String entity = HTMLEntities.get(c);
+      String entity = c < ASCII_ENTITIES.length ? ASCII_ENTITIES[c] : HTMLEntities.get(c);
       if (entity != null) {
-        output.append('&').append(entity).append(";");
-      } else {
-        output.append(c);
+        output.append(text, start, i).append('&').append(entity).append(';');
+        start = i + 1;
       }
     }
+    output.append(text, start, length);
   }
 
   /**
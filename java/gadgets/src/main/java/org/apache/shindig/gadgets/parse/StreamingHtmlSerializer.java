@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.parse;
+package org.apache.shindig.gadgets.parse;
+
+import org.w3c.dom.Document;
+
+import java.io.IOException;
+
+/**
+ * An {@link HtmlSerializer} that can also write a Document straight to its destination.
+ * {@link HtmlSerialization#serialize(Document, Appendable)} uses this when the attached
+ * serializer supports it, and otherwise writes the String from {@link #serialize(Document)}.
+ */
+public interface StreamingHtmlSerializer extends HtmlSerializer {
+  /**
+   * Writes the document to output, producing the same text as {@link #serialize(Document)}
+   * without building the whole page as a String first.
+   */
+  public void serialize(Document doc, Appendable output) throws IOException;
+}
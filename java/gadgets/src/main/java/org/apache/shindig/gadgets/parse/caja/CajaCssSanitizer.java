@@ -18,7 +18,11 @@
 package org.apache.shindig.gadgets.parse.caja;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.rewrite.LinkRewriter;
 
@@ -52,16 +56,25 @@ public class CajaCssSanitizer {
 
   private static final Set<String> ALLOWED_URI_SCHEMES = ImmutableSet.of("http", "https");
 
+  public static final String SANITIZED_CSS = "sanitizedCss";
+
   private final CajaCssParser parser;
 
   private final CssSchema schema;
 
+  private Cache<String, String> sanitizedCssCache;
+
   @Inject
   public CajaCssSanitizer(CajaCssParser parser) {
     this.parser = parser;
     schema = CssSchema.getDefaultCss21Schema(new SimpleMessageQueue());
   }
 
+  @Inject
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    sanitizedCssCache = cacheProvider.createCache(SANITIZED_CSS);
+  }
+
   /**
    * Sanitize the CSS content of a style tag.
    * @param content to sanitize
@@ -71,16 +84,45 @@ public class CajaCssSanitizer {
    */
   public String sanitize(String content, Uri linkContext, LinkRewriter importRewriter,
       LinkRewriter imageRewriter) {
+    return sanitize(content, linkContext, importRewriter, imageRewriter, null);
+  }
+
+  /**
+   * Sanitize the CSS content of a style tag, caching the result.
+   * @param content to sanitize
+   * @param linkContext url of containing content
+   * @param importRewriter to rewrite @imports to sanitizing proxy
+   * @param importRewriter to rewrite images to sanitizing proxy
+   * @param rewriterKey identifies the links the rewriters produce, so that content sanitized
+   *     with different rewriters is cached separately. If null the result is not cached.
+   */
+  public String sanitize(String content, Uri linkContext, LinkRewriter importRewriter,
+      LinkRewriter imageRewriter, String rewriterKey) {
+    String key = null;
+    if (rewriterKey != null && shouldCache()) {
+      // A digest rather than a fast hash, since a hit is returned without comparing sources.
+      key = HashUtil.checksum(CharsetUtil.getUtf8Bytes(content)) + ':' + linkContext + ':' +
+          rewriterKey;
+      String sanitized = sanitizedCssCache.getElement(key);
+      if (sanitized != null) {
+        return sanitized;
+      }
+    }
+    String sanitized;
     try {
       CssTree.StyleSheet stylesheet = parser.parseDom(content);
       sanitize(stylesheet, linkContext, importRewriter, imageRewriter);
       // Write the rewritten CSS back into the element
-      return parser.serialize(stylesheet);
+      sanitized = parser.serialize(stylesheet);
     } catch (GadgetException ge) {
       // Failed to parse stylesheet so log and continue
       logger.log(Level.INFO, "Failed to parse stylesheet", ge);
-      return "";
+      sanitized = "";
     }
+    if (key != null) {
+      sanitizedCssCache.addElement(key, sanitized);
+    }
+    return sanitized;
   }
 
   /**
@@ -92,16 +134,21 @@ public class CajaCssSanitizer {
    */
   public void sanitize(Element styleElem, Uri linkContext, LinkRewriter importRewriter,
       LinkRewriter imageRewriter) {
-    String content = null;
-    try {
-      CssTree.StyleSheet stylesheet = parser.parseDom(styleElem.getTextContent());
-      sanitize(stylesheet, linkContext, importRewriter, imageRewriter);
-      // Write the rewritten CSS back into the element
-      content = parser.serialize(stylesheet);
-    } catch (GadgetException ge) {
-      // Failed to parse stylesheet so log and continue
-      logger.log(Level.INFO, "Failed to parse stylesheet", ge);
-    }
+    sanitize(styleElem, linkContext, importRewriter, imageRewriter, null);
+  }
+
+  /**
+   * Sanitize the CSS content of a style tag, caching the result.
+   * @param styleElem to sanitize
+   * @param linkContext url of containing content
+   * @param importRewriter to rewrite @imports to sanitizing proxy
+   * @param importRewriter to rewrite images to sanitizing proxy
+   * @param rewriterKey as for {@link #sanitize(String, Uri, LinkRewriter, LinkRewriter, String)}
+   */
+  public void sanitize(Element styleElem, Uri linkContext, LinkRewriter importRewriter,
+      LinkRewriter imageRewriter, String rewriterKey) {
+    String content = sanitize(styleElem.getTextContent(), linkContext, importRewriter,
+        imageRewriter, rewriterKey);
     if (StringUtils.isEmpty(content)) {
       // Remove the owning node
       styleElem.getParentNode().removeChild(styleElem);
@@ -171,6 +218,10 @@ public class CajaCssSanitizer {
     }, null);
   }
 
+  private boolean shouldCache() {
+    return sanitizedCssCache != null && sanitizedCssCache.getCapacity() != 0;
+  }
+
   private boolean isValidUri(String uri) {
     try {
       String scheme = Uri.parse(uri).getScheme();
@@ -31,6 +31,8 @@ import org.apache.xerces.xni.XMLLocator;
 import org.apache.xerces.xni.XMLResourceIdentifier;
 import org.apache.xerces.xni.XMLString;
 import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.parser.XMLComponentManager;
+import org.apache.xerces.xni.parser.XMLConfigurationException;
 import org.apache.xerces.xni.parser.XMLDocumentSource;
 import org.apache.xerces.xni.parser.XMLInputSource;
 
@@ -95,13 +97,28 @@ public class NekoSimplifiedHtmlParser extends GadgetHtmlParser {
     this.documentFactory = documentFactory;
   }
 
+  /**
+   * Parser pipelines, one of each kind per thread. Building the configuration, scanner and filters
+   * costs more than parsing a small fragment, and Neko's components are made to be reset and
+   * reused between documents.
+   */
+  private final ThreadLocal<Pipeline> documentPipelines = new ThreadLocal<Pipeline>();
+  private final ThreadLocal<Pipeline> fragmentPipelines = new ThreadLocal<Pipeline>();
+
   @Override
   protected Document parseDomImpl(String source) throws GadgetException {
     DocumentHandler handler;
 
-    HTMLConfiguration config = newConfiguration();
+    Pipeline pipeline = documentPipelines.get();
+    if (pipeline == null) {
+      pipeline = newDocumentPipeline();
+      documentPipelines.set(pipeline);
+    } else if (pipeline.inUse) {
+      // A nested parse on this thread, give it a pipeline of its own.
+      pipeline = newDocumentPipeline();
+    }
     try {
-      handler = parseHtmlImpl(source, config, new NormalizingTagBalancer());
+      handler = pipeline.parse(source);
     } catch (IOException ioe) {
       return null;
     }
@@ -116,15 +133,15 @@ public class NekoSimplifiedHtmlParser extends GadgetHtmlParser {
   protected DocumentFragment parseFragmentImpl(String source) throws GadgetException {
     DocumentHandler handler;
 
-    HTMLConfiguration config = newConfiguration();
-    // http://cyberneko.org/html/features/balance-tags/document-fragment
-    // deprecated http://cyberneko.org/html/features/document-fragment
-    config.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment", true);
-    config.setProperty("http://cyberneko.org/html/properties/balance-tags/fragment-context-stack",
-        new QName[]{new QName(null, "HTML", "HTML", null), new QName(null, "BODY", "BODY", null)});
-
+    Pipeline pipeline = fragmentPipelines.get();
+    if (pipeline == null) {
+      pipeline = newFragmentPipeline();
+      fragmentPipelines.set(pipeline);
+    } else if (pipeline.inUse) {
+      pipeline = newFragmentPipeline();
+    }
     try {
-      handler = parseHtmlImpl(source, config, new NekoPatchTagBalancer());
+      handler = pipeline.parse(source);
     } catch (IOException ioe) {
       return null;
     }
@@ -132,41 +149,77 @@ public class NekoSimplifiedHtmlParser extends GadgetHtmlParser {
     return handler.getFragment();
   }
 
+  private Pipeline newDocumentPipeline() {
+    return new Pipeline(newConfiguration(), new NormalizingTagBalancer());
+  }
+
+  private Pipeline newFragmentPipeline() {
+    HTMLConfiguration config = newConfiguration();
+    // http://cyberneko.org/html/features/balance-tags/document-fragment
+    // deprecated http://cyberneko.org/html/features/document-fragment
+    config.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment", true);
+    config.setProperty("http://cyberneko.org/html/properties/balance-tags/fragment-context-stack",
+        new QName[]{new QName(null, "HTML", "HTML", null), new QName(null, "BODY", "BODY", null)});
+    return new Pipeline(config, new NekoPatchTagBalancer());
+  }
+
   /**
-   * Parse HTML source.
-   *
-   * @return a document handler containing the parsed source
+   * A configuration and the chain of components that parse HTML with it. Every component is reset
+   * from the configuration before each parse, and the pipeline lets go of the document and the
+   * source when the parse is done, so nothing carries over from one source to the next.
    */
-  private DocumentHandler parseHtmlImpl(String source, HTMLConfiguration config,
-      NormalizingTagBalancer tagBalancer)
-      throws IOException {
-
-    HTMLScanner htmlScanner = new HTMLScanner();
-    tagBalancer.setScanner(htmlScanner);
-
-    DocumentHandler handler = newDocumentHandler(source);
-
-    NamespaceBinder namespaceBinder = new NamespaceBinder();
-    namespaceBinder.setDocumentHandler(handler);
-    namespaceBinder.setDocumentSource(tagBalancer);
-    namespaceBinder.reset(config);
-    tagBalancer.setDocumentHandler(namespaceBinder);
-
-    // Order of filter is Scanner -> OSMLFilter -> Tag Balancer
-    tagBalancer.setDocumentSource(htmlScanner);
-    htmlScanner.setDocumentHandler(tagBalancer);
-
-    tagBalancer.reset(config);
-    htmlScanner.reset(config);
-
-    XMLInputSource inputSource = new XMLInputSource(null, null, null);
-    inputSource.setEncoding("UTF-8");
-    inputSource.setCharacterStream(new StringReader(source));
-    htmlScanner.setInputSource(inputSource);
-    htmlScanner.scanDocument(true);
-    return handler;
+  private class Pipeline {
+    private final HTMLConfiguration config;
+    private final HTMLScanner htmlScanner = new HTMLScanner();
+    private final NormalizingTagBalancer tagBalancer;
+    private final NamespaceBinder namespaceBinder = new NamespaceBinder();
+    private boolean inUse;
+
+    public Pipeline(HTMLConfiguration config, NormalizingTagBalancer tagBalancer) {
+      this.config = config;
+      this.tagBalancer = tagBalancer;
+
+      // Order of filter is Scanner -> OSMLFilter -> Tag Balancer
+      tagBalancer.setScanner(htmlScanner);
+      namespaceBinder.setDocumentSource(tagBalancer);
+      tagBalancer.setDocumentHandler(namespaceBinder);
+      tagBalancer.setDocumentSource(htmlScanner);
+      htmlScanner.setDocumentHandler(tagBalancer);
+    }
+
+    /**
+     * Parse HTML source.
+     *
+     * @return a document handler containing the parsed source
+     */
+    public DocumentHandler parse(String source) throws IOException {
+      DocumentHandler handler = newDocumentHandler(source);
+      StringReader reader = new StringReader(source);
+      inUse = true;
+      try {
+        namespaceBinder.setDocumentHandler(handler);
+        namespaceBinder.reset(config);
+        tagBalancer.reset(config);
+        htmlScanner.reset(config);
+
+        XMLInputSource inputSource = new XMLInputSource(null, null, null);
+        inputSource.setEncoding("UTF-8");
+        inputSource.setCharacterStream(reader);
+        htmlScanner.setInputSource(inputSource);
+        htmlScanner.scanDocument(true);
+        return handler;
+      } finally {
+        // The pipeline outlives the parse, so it must not keep the document or source reachable.
+        // The scanner holds on to its input source until the next parse; closing the reader
+        // drops the source text.
+        namespaceBinder.setDocumentHandler(null);
+        reader.close();
+        tagBalancer.clearOsmlState();
+        inUse = false;
+      }
+    }
   }
-  
+
   private void fixNekoWeirdness(Document document) {
     // Neko as of versions > 1.9.13 stuffs all leading <script> nodes into <head>.
     // This breaks all sorts of assumptions in gadgets, notably the existence of document.body.
@@ -507,6 +560,21 @@ public class NekoSimplifiedHtmlParser extends GadgetHtmlParser {
       this.scanner = scanner;
     }
 
+    @Override
+    public void reset(XMLComponentManager manager) throws XMLConfigurationException {
+      super.reset(manager);
+      // Drop anything left behind by a parse that failed part way through.
+      clearOsmlState();
+    }
+
+    /**
+     * Drops the OpenSocial script state, including the buffered text of the last script.
+     */
+    public void clearOsmlState() {
+      currentOsmlTag = null;
+      scriptContent = null;
+    }
+
     @Override
     public void characters(XMLString text, Augmentations augs) throws XNIException {
       if (currentOsmlTag != null) {
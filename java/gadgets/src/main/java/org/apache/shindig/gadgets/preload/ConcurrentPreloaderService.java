@@ -17,6 +17,7 @@
  */
 package org.apache.shindig.gadgets.preload;
 
+import org.apache.shindig.gadgets.DefaultGuiceModule;
 import org.apache.shindig.gadgets.Gadget;
 
 import java.util.Collection;
@@ -25,6 +26,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.FutureTask;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 /**
  * Preloads will be fetched concurrently using the injected ExecutorService, and they can be read
@@ -38,7 +40,8 @@ public class ConcurrentPreloaderService implements PreloaderService {
   private Preloader preloader;
 
   @Inject
-  public ConcurrentPreloaderService(ExecutorService executor, Preloader preloader) {
+  public ConcurrentPreloaderService(
+      @Named(DefaultGuiceModule.PRELOAD_EXECUTOR) ExecutorService executor, Preloader preloader) {
     this.executor = executor;
     this.preloader = preloader;
   }
@@ -21,6 +21,7 @@ package org.apache.shindig.gadgets.preload;
 import org.apache.commons.lang.StringUtils;
 import org.apache.shindig.common.JsonSerializer;
 import org.apache.shindig.common.JsonUtil;
+import org.apache.shindig.common.LazyJson;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.uri.UriBuilder;
 import org.apache.shindig.common.util.CharsetUtil;
@@ -296,10 +297,14 @@ public class PipelinedDataPreloader {
               data.put("headers", headers);
             }
 
-            // And add the parsed content
+            // And add the content.  Strictly valid JSON is kept as text, and only
+            // parsed if an expression reads into it.
             if (format == null || "json".equals(format)) {
+              LazyJson content = LazyJson.wrap(responseText);
               try {
-                if (responseText.startsWith("[")) {
+                if (content != null) {
+                  data.put("content", content);
+                } else if (responseText.startsWith("[")) {
                   data.put("content", new JSONArray(responseText));
                 } else {
                   data.put("content", new JSONObject(responseText));
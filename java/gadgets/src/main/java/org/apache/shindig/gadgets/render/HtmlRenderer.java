@@ -25,6 +25,7 @@ import org.apache.shindig.gadgets.preload.PreloadedData;
 import org.apache.shindig.gadgets.preload.PreloaderService;
 import org.apache.shindig.gadgets.rewrite.GadgetRewriter;
 import org.apache.shindig.gadgets.rewrite.MutableContent;
+import org.apache.shindig.gadgets.rewrite.RewriterInstrumentation;
 import org.apache.shindig.gadgets.rewrite.RewritingException;
 import org.apache.shindig.gadgets.spec.View;
 
@@ -45,6 +46,7 @@ public class HtmlRenderer {
   private final ProxyRenderer proxyRenderer;
   private final GadgetRewritersProvider gadgetRewritersProvider;
   private final GadgetHtmlParser htmlParser;
+  private RewriterInstrumentation instrumentation;
 
   @Inject
   public HtmlRenderer(PreloaderService preloader,
@@ -57,6 +59,11 @@ public class HtmlRenderer {
     this.htmlParser = htmlParser;
   }
 
+  @Inject(optional = true)
+  public void setInstrumentation(RewriterInstrumentation instrumentation) {
+    this.instrumentation = instrumentation;
+  }
+
   /**
    * Render the gadget into a string by performing the following steps:
    *
@@ -71,6 +78,15 @@ public class HtmlRenderer {
    * @throws RenderingException if any issues arise that prevent rendering.
    */
   public String render(Gadget gadget) throws RenderingException {
+    return renderContent(gadget).getContent();
+  }
+
+  /**
+   * Render the gadget as {@link #render} does, but return the rewritten content as it was left
+   * by the rewriters, so that it can be written out with {@link MutableContent#writeTo} without
+   * first serializing it to a String.
+   */
+  public MutableContent renderContent(Gadget gadget) throws RenderingException {
     try {
       View view = gadget.getCurrentView();
 
@@ -86,17 +102,36 @@ public class HtmlRenderer {
         content = proxyRenderer.render(gadget);
       }
 
-      MutableContent mc = new MutableContent(htmlParser, content);
-      for (GadgetRewriter rewriter : 
-          gadgetRewritersProvider.getRewriters(gadget.getContext())) {
-        rewriter.rewrite(gadget, mc);
+      MutableContent mc;
+      if (view.getHref() == null && view.hasOriginalContent() && content == view.getContent()) {
+        // Unsubstituted spec content is identified by the spec and view, so the parser can skip
+        // hashing it.
+        mc = new MutableContent(htmlParser, content,
+            gadget.getSpec().getChecksum() + ':' + view.getName());
+      } else {
+        mc = new MutableContent(htmlParser, content);
+      }
+      List<GadgetRewriter> rewriters = gadgetRewritersProvider.getRewriters(gadget.getContext());
+      if (instrumentation == null) {
+        for (GadgetRewriter rewriter : rewriters) {
+          rewriter.rewrite(gadget, mc);
+        }
+      } else {
+        RewriterInstrumentation.Timer timer = instrumentation.newTimer(
+            RewriterInstrumentation.GADGET_REWRITER, gadget.getContext().getDebug());
+        for (GadgetRewriter rewriter : rewriters) {
+          timer.start(mc);
+          rewriter.rewrite(gadget, mc);
+          timer.stop(rewriter, mc);
+        }
+        gadget.setRewriterTimings(timer.getSummary());
       }
-      
-      return mc.getContent();
+
+      return mc;
     } catch (GadgetException e) {
       throw new RenderingException(e.getMessage(), e, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
     } catch (RewritingException e) {
-      throw new RenderingException(e.getMessage(), e, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      throw new RenderingException(e.getMessage(), e, e.getHttpStatusCode());
     }
   }
   
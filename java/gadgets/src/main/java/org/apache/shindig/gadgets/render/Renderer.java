@@ -26,6 +26,7 @@ import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.LockedDomainService;
 import org.apache.shindig.gadgets.process.ProcessingException;
 import org.apache.shindig.gadgets.process.Processor;
+import org.apache.shindig.gadgets.rewrite.MutableContent;
 import org.apache.shindig.gadgets.spec.View;
 
 import com.google.inject.Inject;
@@ -86,7 +87,8 @@ public class Renderer {
         return RenderingResults.error("Invalid domain", HttpServletResponse.SC_BAD_REQUEST);
       }
 
-      return RenderingResults.ok(renderer.render(gadget));
+      MutableContent content = renderer.renderContent(gadget);
+      return RenderingResults.ok(content, gadget.getRewriterTimings(), gadget.isCacheable());
     } catch (RenderingException e) {
       return logError(context.getUrl(), e.getHttpStatusCode(), e);
     } catch (ProcessingException e) {
@@ -20,6 +20,8 @@ package org.apache.shindig.gadgets.render;
 
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.common.JsonSerializer;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.xml.DomUtil;
 import org.apache.shindig.config.ContainerConfig;
@@ -48,6 +50,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Text;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -56,6 +59,7 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
@@ -93,6 +97,11 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
   static final String IS_GADGET_BEACON = "window['__isgadget']=true;";
   static final String INSERT_BASE_ELEMENT_KEY = "gadgets.insertBaseElement";
   static final String FEATURES_KEY = "gadgets.features";
+  static final String INJECTION_CACHE_NAME = "featureInjections";
+
+  // Configuration that is computed per request and replaces anything the container provides.
+  private static final Set<String> REQUEST_SCOPED_CONFIG
+      = ImmutableSet.of("core.util", "osapi.services", "shindig.auth");
 
   protected final MessageBundleFactory messageBundleFactory;
   protected final ContainerConfig containerConfig;
@@ -103,6 +112,10 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
 
   protected Boolean externalizeFeatures = false;
 
+  private Cache<List<Object>, FeatureInjection> injectionCache;
+  // Whether a subclass overrides getLibraryConfig, which must then build the configuration.
+  private final boolean libraryConfigOverridden = overridesLibraryConfig(getClass());
+
   /**
    * @param messageBundleFactory Used for injecting message bundles into gadget output.
    */
@@ -131,6 +144,11 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
     this.externalizeFeatures = externalizeFeatures;
   }
 
+  @Inject
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    this.injectionCache = cacheProvider.createCache(INJECTION_CACHE_NAME);
+  }
+
   public void rewrite(Gadget gadget, MutableContent mutableContent) throws RewritingException {
     // Don't touch sanitized gadgets.
     if (gadget.sanitizeOutput()) {
@@ -241,11 +259,79 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
       externForcedLibs = Sets.newTreeSet(Arrays.asList(StringUtils.split(externParam, ':')));
     }
 
+    FeatureInjection injection = getFeatureInjection(gadget, externForcedLibs);
+
+    Document document = headTag.getOwnerDocument();
+    for (ScriptBlock block : injection.scripts) {
+      Element scriptTag = document.createElement("script");
+      if (block.external) {
+        scriptTag.setAttribute("src", block.content);
+      } else {
+        scriptTag.appendChild(document.createTextNode(block.content));
+      }
+      headTag.appendChild(scriptTag);
+    }
+
+    String libraryConfig = libraryConfigOverridden ?
+        getLibraryConfig(gadget, injection.reqs) :
+        getLibraryConfig(gadget, injection.featureConfig);
+
+    StringBuilder inlineJs
+        = new StringBuilder(injection.inlineJs.length() + libraryConfig.length());
+    inlineJs.append(injection.inlineJs).append(libraryConfig);
+
+    if (inlineJs.length() > 0) {
+      Element inlineTag = document.createElement("script");
+      headTag.appendChild(inlineTag);
+      inlineTag.appendChild(document.createTextNode(inlineJs.toString()));
+    }
+  }
+
+  /**
+   * Looks up the feature injection for the gadget, building it if it isn't cached yet.
+   *
+   * Everything in a FeatureInjection depends only on the container, host, rendering context,
+   * debug flag and the forced and requested features, so it is shared by every render of any
+   * gadget with the same inputs. Entries are discarded when the feature registry changes or the
+   * container's feature configuration is replaced.
+   */
+  private FeatureInjection getFeatureInjection(Gadget gadget, Set<String> externForcedLibs)
+      throws GadgetException {
+    GadgetContext context = gadget.getContext();
+    Map<String, Object> containerFeatures
+        = containerConfig.getMap(context.getContainer(), FEATURES_KEY);
+
+    List<Object> key = null;
+    int registrationCount = 0;
+    if (injectionCache != null && !context.getIgnoreCache()) {
+      registrationCount = featureRegistry.getRegistrationCount();
+      key = Arrays.<Object>asList(context.getContainer(), context.getHost(),
+          context.getRenderingContext(), context.getDebug(),
+          Lists.newArrayList(externForcedLibs),
+          Lists.newArrayList(gadget.getDirectFeatureDeps()));
+      FeatureInjection cached = injectionCache.getElement(key);
+      if (cached != null && cached.registrationCount == registrationCount &&
+          cached.containerFeatures == containerFeatures) {
+        checkRequiredFeatures(gadget, cached.unsupported);
+        return cached;
+      }
+    }
+
+    FeatureInjection injection = buildFeatureInjection(gadget, externForcedLibs,
+        containerFeatures, registrationCount);
+    if (key != null && injection.cacheable) {
+      injectionCache.addElement(key, injection);
+    }
+    return injection;
+  }
+
+  private FeatureInjection buildFeatureInjection(Gadget gadget, Set<String> externForcedLibs,
+      Map<String, Object> containerFeatures, int registrationCount) throws GadgetException {
+    GadgetContext context = gadget.getContext();
+    List<ScriptBlock> scripts = Lists.newArrayList();
+
     if (!externForcedLibs.isEmpty()) {
-      String jsUrl = urlGenerator.getBundledJsUrl(externForcedLibs, context);
-      Element libsTag = headTag.getOwnerDocument().createElement("script");
-      libsTag.setAttribute("src", jsUrl);
-      headTag.appendChild(libsTag);
+      scripts.add(new ScriptBlock(true, urlGenerator.getBundledJsUrl(externForcedLibs, context)));
     }
 
     List<String> unsupported = Lists.newLinkedList();
@@ -258,22 +344,10 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
     }
 
     // Get all resources requested by the gadget's requires/optional features.
-    Map<String, Feature> featureMap = gadget.getSpec().getModulePrefs().getFeatures();
     List<String> gadgetFeatureKeys = Lists.newArrayList(gadget.getDirectFeatureDeps());
     List<FeatureResource> gadgetResources =
         featureRegistry.getFeatureResources(context, gadgetFeatureKeys, unsupported);
-    if (!unsupported.isEmpty()) {
-      List<String> requiredUnsupported = Lists.newLinkedList();
-      for (String notThere : unsupported) {
-        if (!featureMap.containsKey(notThere) || featureMap.get(notThere).getRequired()) {
-          // if !containsKey, the lib was forced with Gadget.addFeature(...) so implicitly req'd.
-          requiredUnsupported.add(notThere);
-        }
-      }
-      if (!requiredUnsupported.isEmpty()) {
-        throw new UnsupportedFeatureException(requiredUnsupported.toString());
-      }
-    }    
+    checkRequiredFeatures(gadget, unsupported);
 
     // Inline or externalize the gadgetFeatureKeys
     List<FeatureResource> inlineResources = Lists.newArrayList();        
@@ -284,10 +358,7 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
       externGadgetLibs.removeAll(externForcedLibs);
 
       if (!externGadgetLibs.isEmpty()) {
-        String jsUrl = urlGenerator.getBundledJsUrl(externGadgetLibs, context);
-        Element libsTag = headTag.getOwnerDocument().createElement("script");
-        libsTag.setAttribute("src", jsUrl);
-        headTag.appendChild(libsTag);
+        scripts.add(new ScriptBlock(true, urlGenerator.getBundledJsUrl(externGadgetLibs, context)));
       }
     } else {
       inlineResources.addAll(gadgetResources);
@@ -313,38 +384,52 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
       }
     }
 
-    String libraryConfig =
-        getLibraryConfig(gadget, featureRegistry.getFeatures(allRequested));
-    
     // Size has a small fudge factor added to it for delimiters and such.
-    StringBuilder inlineJs = new StringBuilder(size + libraryConfig.length() + INLINE_JS_BUFFER);
+    StringBuilder inlineJs = new StringBuilder(size + INLINE_JS_BUFFER);
 
     // Inline any libs that weren't extern. The ugly context switch between inline and external
     // Js is needed to allow both inline and external scripts declared in feature.xml.
+    // Content that varies by user agent can't be shared between renders.
+    boolean cacheable = true;
     for (FeatureResource resource : inlineResources) {
+      cacheable &= resource.isProxyCacheable();
       String theContent = context.getDebug() ? resource.getDebugContent() : resource.getContent();
       if (resource.isExternal()) {
         if (inlineJs.length() > 0) {
-          Element inlineTag = headTag.getOwnerDocument().createElement("script");
-          headTag.appendChild(inlineTag);
-          inlineTag.appendChild(headTag.getOwnerDocument().createTextNode(inlineJs.toString()));
+          scripts.add(new ScriptBlock(false, inlineJs.toString()));
           inlineJs.setLength(0);
         }
-        Element referenceTag = headTag.getOwnerDocument().createElement("script");
-        referenceTag.setAttribute("src", theContent);
-        headTag.appendChild(referenceTag);
+        scripts.add(new ScriptBlock(true, theContent));
       } else {
         inlineJs.append(theContent).append(";\n");
       }
     }
 
-    inlineJs.append(libraryConfig);
+    List<String> reqs = featureRegistry.getFeatures(allRequested);
 
-    if (inlineJs.length() > 0) {
-      Element inlineTag = headTag.getOwnerDocument().createElement("script");
-      headTag.appendChild(inlineTag);
-      inlineTag.appendChild(headTag.getOwnerDocument().createTextNode(inlineJs.toString()));
-    }
+    return new FeatureInjection(scripts, inlineJs.toString(), unsupported, reqs,
+        getContainerFeatureConfig(containerFeatures, reqs), containerFeatures, registrationCount,
+        cacheable);
+  }
+
+  /**
+   * Throws if any of the unsupported features was required by the gadget.
+   */
+  private void checkRequiredFeatures(Gadget gadget, List<String> unsupported)
+      throws UnsupportedFeatureException {
+    if (!unsupported.isEmpty()) {
+      Map<String, Feature> featureMap = gadget.getSpec().getModulePrefs().getFeatures();
+      List<String> requiredUnsupported = Lists.newLinkedList();
+      for (String notThere : unsupported) {
+        if (!featureMap.containsKey(notThere) || featureMap.get(notThere).getRequired()) {
+          // if !containsKey, the lib was forced with Gadget.addFeature(...) so implicitly req'd.
+          requiredUnsupported.add(notThere);
+        }
+      }
+      if (!requiredUnsupported.isEmpty()) {
+        throw new UnsupportedFeatureException(requiredUnsupported.toString());
+      }
+    }    
   }
 
   /**
@@ -356,32 +441,90 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
    * This can't be handled via the normal configuration mechanism because it is something that
    * varies per request.
    *
+   * Unless a subclass overrides this, {@link #rewrite} builds the same output from container
+   * configuration that it serialized for earlier renders of the same feature set.
+   *
    * @param reqs The features needed to satisfy the request.
    * @throws GadgetException If there is a problem with the gadget auth token
    */
   protected String getLibraryConfig(Gadget gadget, List<String> reqs)
       throws GadgetException {
     GadgetContext context = gadget.getContext();
-
     Map<String, Object> features = containerConfig.getMap(context.getContainer(), FEATURES_KEY);
+    return getLibraryConfig(gadget, getContainerFeatureConfig(features, reqs));
+  }
+
+  private static boolean overridesLibraryConfig(Class<?> type) {
+    for (Class<?> c = type; c != RenderingGadgetRewriter.class; c = c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod("getLibraryConfig", Gadget.class, List.class);
+        return true;
+      } catch (NoSuchMethodException e) {
+        // Not declared here, try the superclass.
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Combines the pre-serialized container configuration with the configuration that varies per
+   * request.
+   */
+  private String getLibraryConfig(Gadget gadget, ContainerFeatureConfig featureConfig) {
+    GadgetContext context = gadget.getContext();
+
+    Map<String, Object> config = Maps.newHashMap(featureConfig.requestScoped);
+    addHasFeatureConfig(gadget, config);
+    addOsapiSystemListMethodsConfig(context.getContainer(), config, context.getHost());
+    addSecurityTokenConfig(context, config);
+
+    StringBuilder buf = new StringBuilder(featureConfig.json.length() + INLINE_JS_BUFFER * 4);
+    buf.append("gadgets.config.init({").append(featureConfig.json);
+    boolean first = featureConfig.json.length() == 0;
+    try {
+      for (Map.Entry<String, Object> entry : config.entrySet()) {
+        if (!first) {
+          buf.append(',');
+        }
+        first = false;
+        JsonSerializer.appendString(buf, entry.getKey());
+        buf.append(':');
+        JsonSerializer.append(buf, entry.getValue());
+      }
+    } catch (IOException e) {
+      // Shouldn't ever happen with a StringBuilder.
+      throw new RuntimeException(e);
+    }
+    return buf.append("});\n").toString();
+  }
 
-    Map<String, Object> config
-        = Maps.newHashMapWithExpectedSize(features == null ? 2 : features.size() + 2);
+  /**
+   * Serializes the container configuration of the requested features, which is the same for every
+   * render with the same feature set.
+   */
+  private static ContainerFeatureConfig getContainerFeatureConfig(Map<String, Object> features,
+      List<String> reqs) {
+    Map<String, Object> config = Maps.newHashMap();
+    Map<String, Object> requestScoped = Maps.newHashMap();
 
     if (features != null) {
       // Discard what we don't care about.
       for (String name : reqs) {
         Object conf = features.get(name);
         if (conf != null) {
-          config.put(name, conf);
+          // These may be replaced per request, so they can't be serialized ahead of time.
+          if (REQUEST_SCOPED_CONFIG.contains(name)) {
+            requestScoped.put(name, conf);
+          } else {
+            config.put(name, conf);
+          }
         }
       }
     }
 
-    addHasFeatureConfig(gadget, config);
-    addOsapiSystemListMethodsConfig(context.getContainer(), config, context.getHost());
-    addSecurityTokenConfig(context, config);
-    return "gadgets.config.init(" + JsonSerializer.serialize(config) + ");\n";
+    String json = JsonSerializer.serialize(config);
+    // Strip the enclosing braces so that request scoped members can be appended.
+    return new ContainerFeatureConfig(json.substring(1, json.length() - 1), requestScoped);
   }
 
   private void addSecurityTokenConfig(GadgetContext context, Map<String, Object> config) {
@@ -480,4 +623,59 @@ public class RenderingGadgetRewriter implements GadgetRewriter {
     text.appendData(";");
     scriptTag.appendChild(text);
   }
+
+  /**
+   * The feature javascript and configuration injected for a given set of features.
+   */
+  private static class FeatureInjection {
+    private final List<ScriptBlock> scripts;
+    // Inline javascript to prepend to the library configuration.
+    private final String inlineJs;
+    private final List<String> unsupported;
+    // Every feature in use, for subclasses that build the library configuration themselves.
+    private final List<String> reqs;
+    private final ContainerFeatureConfig featureConfig;
+    private final Map<String, Object> containerFeatures;
+    private final int registrationCount;
+    private final boolean cacheable;
+
+    private FeatureInjection(List<ScriptBlock> scripts, String inlineJs, List<String> unsupported,
+        List<String> reqs, ContainerFeatureConfig featureConfig,
+        Map<String, Object> containerFeatures, int registrationCount, boolean cacheable) {
+      this.scripts = ImmutableList.copyOf(scripts);
+      this.inlineJs = inlineJs;
+      this.unsupported = ImmutableList.copyOf(unsupported);
+      this.reqs = ImmutableList.copyOf(reqs);
+      this.featureConfig = featureConfig;
+      this.containerFeatures = containerFeatures;
+      this.registrationCount = registrationCount;
+      this.cacheable = cacheable;
+    }
+  }
+
+  /**
+   * A script tag, either referencing an external url or holding inline javascript.
+   */
+  private static class ScriptBlock {
+    private final boolean external;
+    private final String content;
+
+    private ScriptBlock(boolean external, String content) {
+      this.external = external;
+      this.content = content;
+    }
+  }
+
+  /**
+   * Container configuration for a set of features, serialized as the members of a JSON object.
+   */
+  private static class ContainerFeatureConfig {
+    private final String json;
+    private final Map<String, Object> requestScoped;
+
+    private ContainerFeatureConfig(String json, Map<String, Object> requestScoped) {
+      this.json = json;
+      this.requestScoped = requestScoped;
+    }
+  }
 }
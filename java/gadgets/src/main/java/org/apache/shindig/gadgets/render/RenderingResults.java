@@ -19,9 +19,14 @@
 package org.apache.shindig.gadgets.render;
 
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.rewrite.MutableContent;
 
 import com.google.common.base.Preconditions;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
 import javax.servlet.http.HttpServletResponse;
 
 /**
@@ -29,34 +34,59 @@ import javax.servlet.http.HttpServletResponse;
  */
 public class RenderingResults {
   private final Status status;
-  private final String content;
+  private final MutableContent content;
   private final String errorMessage;
   private final int httpStatusCode;
+  private final String rewriterTimings;
+  private final boolean cacheable;
 
   private final Uri redirect;
 
-  private RenderingResults(Status status, String content, String errorMessage,
-      int httpStatusCode, Uri redirect) {
+  private RenderingResults(Status status, MutableContent content, String errorMessage,
+      int httpStatusCode, Uri redirect, String rewriterTimings, boolean cacheable) {
     this.status = status;
     this.content = content;
     this.errorMessage = errorMessage;
     this.httpStatusCode = httpStatusCode;
-    
+    this.rewriterTimings = rewriterTimings;
+    this.cacheable = cacheable;
+
     this.redirect = redirect;
   }
 
   public static RenderingResults ok(String content) {
-    return new RenderingResults(Status.OK, content, null, HttpServletResponse.SC_OK, null);
+    return ok(new MutableContent(null, content));
+  }
+
+  public static RenderingResults ok(MutableContent content) {
+    return ok(content, null);
+  }
+
+  /**
+   * @param rewriterTimings How long each rewriter took, to be sent back when debugging, or null.
+   */
+  public static RenderingResults ok(MutableContent content, String rewriterTimings) {
+    return ok(content, rewriterTimings, true);
+  }
+
+  /**
+   * @param cacheable false if the content must not be cached.
+   */
+  public static RenderingResults ok(MutableContent content, String rewriterTimings,
+      boolean cacheable) {
+    return new RenderingResults(Status.OK, content, null, HttpServletResponse.SC_OK, null,
+        rewriterTimings, cacheable);
   }
 
   public static RenderingResults error(String errorMessage, int httpStatusCode) {
-    return new RenderingResults(Status.ERROR, null, errorMessage, httpStatusCode, null);
+    return new RenderingResults(Status.ERROR, null, errorMessage, httpStatusCode, null, null,
+        false);
   }
 
   public static RenderingResults mustRedirect(Uri redirect) {
     Preconditions.checkNotNull(redirect);
     return new RenderingResults(Status.MUST_REDIRECT, null, null, HttpServletResponse.SC_FOUND,
-        redirect);
+        redirect, null, true);
   }
 
   /**
@@ -71,7 +101,30 @@ public class RenderingResults {
    */
   public String getContent() {
     Preconditions.checkState(status == Status.OK, "Only available when status is OK.");
-    return content;
+    return content.getContent();
+  }
+
+  /**
+   * Writes the content to render to a stream, serializing a rewritten document directly rather
+   * than through {@link #getContent}. Only available when status is OK.
+   */
+  public void writeContent(OutputStream out, Charset charset) throws IOException {
+    Preconditions.checkState(status == Status.OK, "Only available when status is OK.");
+    content.writeTo(out, charset);
+  }
+
+  /**
+   * @return How long each rewriter took, if this render was debugged, or null.
+   */
+  public String getRewriterTimings() {
+    return rewriterTimings;
+  }
+
+  /**
+   * @return Whether the content may be cached. Only meaningful when status is OK.
+   */
+  public boolean isCacheable() {
+    return cacheable;
   }
 
   /**
@@ -18,7 +18,11 @@
  */
 package org.apache.shindig.gadgets.render;
 
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.parse.caja.CajaCssSanitizer;
 import org.apache.shindig.gadgets.rewrite.ContentRewriterFeature;
@@ -40,6 +44,7 @@ import java.lang.annotation.Target;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableList;
@@ -58,6 +63,8 @@ import com.google.inject.Inject;
  */
 public class SanitizingGadgetRewriter implements GadgetRewriter {
 
+  public static final String SANITIZED_HTML = "sanitizedHtml";
+
   /** Key stored as element user-data to bypass sanitization */
   private static final String BYPASS_SANITIZATION_KEY = "shindig.bypassSanitization";
 
@@ -101,6 +108,10 @@ public class SanitizingGadgetRewriter implements GadgetRewriter {
   private final CajaCssSanitizer cssSanitizer;
   private final ContentRewriterFeatureFactory rewriterFeatureFactory;
   private final SanitizingProxyingLinkRewriterFactory sanitizingProxyingLinkRewriterFactory;
+  // Identifies the whitelists, which are part of the key for cached output.
+  private final String policyKey;
+
+  private Cache<String, String> sanitizedHtmlCache;
 
   @Inject
   public SanitizingGadgetRewriter(@AllowedTags Set<String> allowedTags,
@@ -113,14 +124,35 @@ public class SanitizingGadgetRewriter implements GadgetRewriter {
     this.cssSanitizer = cssSanitizer;
     this.rewriterFeatureFactory = rewriterFeatureFactory;
     this.sanitizingProxyingLinkRewriterFactory = sanitizingProxyingLinkRewriterFactory;
+    policyKey = HashUtil.fastChecksum(new TreeSet<String>(allowedTags).toString() +
+        new TreeSet<String>(allowedAttributes));
   }
 
+  @Inject
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    sanitizedHtmlCache = cacheProvider.createCache(SANITIZED_HTML);
+  }
 
   public void rewrite(Gadget gadget, MutableContent content) {
     if (gadget.sanitizeOutput()) {
+      NodeSanitizer nodeSanitizer = new NodeSanitizer(gadget);
+      // Content that has been parsed may have elements marked to bypass sanitization, so only
+      // content that is still text is fully identified by its text, which is digested so that
+      // a cached copy can be trusted without keeping the source to compare.
+      String key = null;
+      if (!content.hasDocument() && nodeSanitizer.rewriterKey != null && shouldCache()) {
+        key = HashUtil.checksum(CharsetUtil.getUtf8Bytes(content.getContent())) + ':' +
+            nodeSanitizer.context + ':' + policyKey + ':' + nodeSanitizer.rewriterKey;
+        String cached = sanitizedHtmlCache.getElement(key);
+        if (cached != null) {
+          content.setContent(cached);
+          return;
+        }
+      }
+
       boolean sanitized = false;
       try {
-        new NodeSanitizer(gadget).sanitize(content.getDocument().getDocumentElement());
+        nodeSanitizer.sanitize(content.getDocument().getDocumentElement());
         content.documentChanged();
         sanitized = true;
       } finally {
@@ -129,14 +161,22 @@ public class SanitizingGadgetRewriter implements GadgetRewriter {
           content.setContent("");
         }
       }
+      if (key != null) {
+        sanitizedHtmlCache.addElement(key, content.getContent());
+      }
     }
   }
 
+  private boolean shouldCache() {
+    return sanitizedHtmlCache != null && sanitizedHtmlCache.getCapacity() != 0;
+  }
+
   /**
    * Utiliity class to sanitize HTML nodes recursively.
    */
   class NodeSanitizer {
     private final Uri context;
+    private final String rewriterKey;
     private final List<DomFilter> filters;
 
     NodeSanitizer(Gadget gadget) {
@@ -153,12 +193,13 @@ public class SanitizingGadgetRewriter implements GadgetRewriter {
           .create(gadget.getSpec().getUrl(), rewriterFeature, gadget
               .getContext().getContainer(), "image/*", gadget.getContext()
               .getDebug(), gadget.getContext().getIgnoreCache());
+      rewriterKey = SanitizingProxyingLinkRewriter.getCacheKey(cssImportRewriter, imageRewriter);
 
       // Create the set of filters to process in order.
       filters = ImmutableList.of(
         new BasicElementFilter(allowedTags, allowedAttributes),
         new LinkSchemeCheckFilter(),
-        new StyleFilter(cssSanitizer, cssImportRewriter, imageRewriter),
+        new StyleFilter(cssSanitizer, cssImportRewriter, imageRewriter, rewriterKey),
         new LinkFilter(cssImportRewriter),
         new ImageFilter(imageRewriter),
         new TargetFilter()
@@ -357,17 +398,19 @@ public class SanitizingGadgetRewriter implements GadgetRewriter {
     final CajaCssSanitizer sanitizer;
     final LinkRewriter importRewriter;
     final LinkRewriter imageRewriter;
+    final String rewriterKey;
 
     StyleFilter(CajaCssSanitizer sanitizer, LinkRewriter importRewriter,
-        LinkRewriter imageRewriter) {
+        LinkRewriter imageRewriter, String rewriterKey) {
       this.sanitizer = sanitizer;
       this.importRewriter = importRewriter;
       this.imageRewriter = imageRewriter;
+      this.rewriterKey = rewriterKey;
     }
 
     public Result filterTag(Element elem, Uri context) {
       if ("style".equalsIgnoreCase(elem.getNodeName())) {
-        sanitizer.sanitize(elem, context, importRewriter, imageRewriter);
+        sanitizer.sanitize(elem, context, importRewriter, imageRewriter, rewriterKey);
       }
       return Result.PASS;
     }
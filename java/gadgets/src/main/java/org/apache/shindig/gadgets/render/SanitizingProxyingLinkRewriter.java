@@ -53,4 +53,30 @@ public class SanitizingProxyingLinkRewriter extends ProxyingLinkRewriter {
     rewritten += '&' + ProxyBase.REWRITE_MIME_TYPE_PARAM + '=' + expectedMime;
     return rewritten;
   }
+
+  /**
+   * @return A key identifying the links this rewriter produces, for caching content sanitized
+   * with it, or null if content rewritten for a nocache request should not be cached.
+   */
+  public String getCacheKey() {
+    if (ignoreCache) {
+      return null;
+    }
+    return rewriterUris.getProxyBase(container) + ':' + gadgetUri + ':' +
+        rewriterFeature.getFingerprint() + ':' + rewriterFeature.getExpires() + ':' + debug +
+        ':' + expectedMime;
+  }
+
+  /**
+   * @return A key for content sanitized with both rewriters, or null if it should not be cached.
+   */
+  static String getCacheKey(SanitizingProxyingLinkRewriter importRewriter,
+      SanitizingProxyingLinkRewriter imageRewriter) {
+    String importKey = importRewriter.getCacheKey();
+    String imageKey = imageRewriter.getCacheKey();
+    if (importKey == null || imageKey == null) {
+      return null;
+    }
+    return importKey + '|' + imageKey;
+  }
 }
\ No newline at end of file
@@ -142,7 +142,8 @@ public class SanitizingRequestRewriter implements RequestRewriter {
             .create(request.getGadget(), rewriterFeature, request
                 .getContainer(), "image/*", false, request.getIgnoreCache());
         sanitized = cssSanitizer.sanitize(content.getContent(), request.getUri(), cssImportRewriter,
-            cssImageRewriter);
+            cssImageRewriter,
+            SanitizingProxyingLinkRewriter.getCacheKey(cssImportRewriter, cssImageRewriter));
       }
       
       return true;
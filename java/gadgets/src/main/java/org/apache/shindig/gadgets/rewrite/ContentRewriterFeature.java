@@ -39,6 +39,8 @@ import java.util.regex.Pattern;
  * wildcard. Additionally expires is the seconds for caching of the rewritten
  * result. For legacy applications include-urls and exclude-urls, which are
  * regular expressions as well as a common seperated list in include-tags.
+ * minify is true or false, and overrides the container's choice of whether
+ * proxied JavaScript and CSS have their whitespace and comments stripped.
  * Default values are container specific.
  * 
  * TODO: This really needs to be fixed, because it makes GadgetSpec mutable. It
@@ -52,6 +54,7 @@ public class ContentRewriterFeature {
   protected static final String EXCLUDE_URL = "exclude-url";
   protected static final String INCLUDE_TAGS = "include-tags";
   protected static final String EXPIRES = "expires";
+  protected static final String MINIFY = "minify";
 
   public static final String EXPIRES_DEFAULT = "HTTP";
 
@@ -75,6 +78,9 @@ public class ContentRewriterFeature {
   // headers
   protected Integer expires;
 
+  // If null then the container decides whether to minify proxied content
+  protected Boolean minify;
+
   protected Integer fingerprint;
 
   /**
@@ -101,6 +107,20 @@ public class ContentRewriterFeature {
     setUpExcludes(f, defaultExclude, onlyAllowExcludes);
     setUpIncludeTags(f, defaultTags, onlyAllowExcludes);
     setUpExpires(f, defaultExpires, onlyAllowExcludes);
+    setUpMinify(f, onlyAllowExcludes);
+  }
+
+  protected void setUpMinify(Feature f, boolean onlyAllowExcludes) {
+    if (f != null) {
+      String p = normalizeParam(f.getParam(MINIFY), null);
+      if (p != null) {
+        boolean minifyParamVal = Boolean.parseBoolean(p);
+        // Gadgets restricted to excludes may only turn minification off.
+        if (!onlyAllowExcludes || !minifyParamVal) {
+          minify = minifyParamVal;
+        }
+      }
+    }
   }
 
   protected void setUpExpires(Feature f, String defaultExpires,
@@ -351,6 +371,14 @@ public class ContentRewriterFeature {
     return expires;
   }
 
+  /**
+   * @return whether proxied JavaScript and CSS should be minified, or null if
+   *     the gadget leaves it to the container
+   */
+  public Boolean getMinify() {
+    return minify;
+  }
+
   /**
    * @return fingerprint of rewriting rule for cache-busting
    */
@@ -370,6 +398,9 @@ public class ContentRewriterFeature {
       for (String s : includeTags) {
         result = 31 * result + s.hashCode();
       }
+      if (minify != null) {
+        result = 31 * result + minify.hashCode();
+      }
       fingerprint = result;
     }
     return fingerprint;
@@ -17,13 +17,20 @@
  */
 package org.apache.shindig.gadgets.rewrite;
 
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.gadgets.http.HttpCache;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
 import org.apache.shindig.gadgets.parse.GadgetHtmlParser;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.TreeMap;
 
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
@@ -32,9 +39,16 @@ import com.google.inject.Inject;
  * Basic registry -- just iterates over rewriters and invokes them sequentially.
  */
 public class DefaultRequestRewriterRegistry implements RequestRewriterRegistry {
+  public static final String CACHE_NAME = "rewrittenResponses";
+
   protected final List<RequestRewriter> rewriters;
   protected final GadgetHtmlParser htmlParser;
 
+  private Cache<String, RewrittenResponse> rewrittenResponses;
+  private HttpCache httpCache;
+  private ContentRewriterFeatureFactory rewriterFeatureFactory;
+  private RewriterInstrumentation instrumentation;
+
   @Inject
   public DefaultRequestRewriterRegistry(List<RequestRewriter> rewriters,
       GadgetHtmlParser htmlParser) {
@@ -45,19 +59,156 @@ public class DefaultRequestRewriterRegistry implements RequestRewriterRegistry {
     this.htmlParser = htmlParser;
   }
 
+  /**
+   * Cache the results of rewriting, so that responses served from the http cache are not parsed
+   * and rewritten again on every request. Entries are keyed by the http cache key of the request
+   * together with everything else the rewriters read from it, and are only used while the
+   * response being rewritten is the one they were made from and has not expired. Entries only
+   * keep a fingerprint of that response, and nothing but the fingerprint for responses the
+   * rewriters leave alone. Only the content types that the standard rewriters change are cached,
+   * see {@link #isCacheable}.
+   */
+  @Inject(optional = true)
+  public void setRewrittenResponseCache(CacheProvider cacheProvider, HttpCache httpCache,
+      ContentRewriterFeatureFactory rewriterFeatureFactory) {
+    this.rewrittenResponses = cacheProvider.createCache(CACHE_NAME);
+    this.httpCache = httpCache;
+    this.rewriterFeatureFactory = rewriterFeatureFactory;
+  }
+
+  @Inject(optional = true)
+  public void setInstrumentation(RewriterInstrumentation instrumentation) {
+    this.instrumentation = instrumentation;
+  }
+
   /** {@inheritDoc} */
   public HttpResponse rewriteHttpResponse(HttpRequest req, HttpResponse resp)
       throws RewritingException {
+    String key = createKey(req, resp);
+    if (key == null) {
+      return rewrite(req, resp);
+    }
+
+    String fingerprint = getFingerprint(resp);
+    RewrittenResponse cached = rewrittenResponses.getElement(key);
+    if (cached != null && cached.sourceFingerprint.equals(fingerprint)) {
+      return cached.rewritten == null ? resp : cached.rewritten;
+    }
+
+    HttpResponse rewritten = rewrite(req, resp);
+    rewrittenResponses.addElement(key,
+        new RewrittenResponse(fingerprint, rewritten == resp ? null : rewritten));
+    return rewritten;
+  }
+
+  /**
+   * @return A value that changes whenever the response is fetched again, without reading its
+   *     body. Entries are already keyed by the http cache key, so this only has to tell one fetch
+   *     of the same resource from another. Every response has a Date header, which is set to the
+   *     time it was fetched if the server didn't send one, and validators and the length catch
+   *     refetches within the same second.
+   */
+  private static String getFingerprint(HttpResponse resp) {
+    return resp.getHttpStatusCode() + ":" + resp.getHeader("Date") + ":" +
+        resp.getHeader("ETag") + ":" + resp.getHeader("Last-Modified") + ":" +
+        resp.getContentLength();
+  }
+
+  /**
+   * @return Whether rewriting the response is worth caching. Only HTML, CSS and JavaScript are
+   *     changed by the standard rewriters, so other responses would only fill the cache with
+   *     entries saying that they were left alone. Override if other rewriters are registered.
+   */
+  protected boolean isCacheable(HttpRequest req, HttpResponse resp) {
+    return RewriterUtils.isHtml(req, resp) || RewriterUtils.isCss(req, resp) ||
+        RewriterUtils.isJavascript(req, resp);
+  }
+
+  /**
+   * @return The key for the rewritten response, or null if it should not be cached.
+   */
+  private String createKey(HttpRequest req, HttpResponse resp) {
+    // Debugged requests are always rewritten, so that they report how long rewriting takes.
+    if (rewrittenResponses == null || req.getIgnoreCache() || req.getDebug() ||
+        !"GET".equals(req.getMethod()) || resp.getCacheTtl() <= 0 || !isCacheable(req, resp)) {
+      return null;
+    }
+
+    String responseKey;
+    try {
+      responseKey = httpCache.createKey(req);
+    } catch (IllegalArgumentException e) {
+      // Signed requests without a token are never cached.
+      return null;
+    }
+
+    StringBuilder key = new StringBuilder(responseKey)
+        .append(":c=").append(req.getContainer())
+        .append(":m=").append(req.getRewriteMimeType())
+        .append(":g=").append(req.getGadget())
+        .append(":f=").append(rewriterFeatureFactory.get(req).getFingerprint())
+        .append(":s=").append(req.isSanitizationRequested())
+        .append(":t=").append(req.getCacheTtl());
+    if (!req.getParams().isEmpty()) {
+      key.append(":p=").append(new TreeMap<String, String>(req.getParams()));
+    }
+    return key.toString();
+  }
+
+  private HttpResponse rewrite(HttpRequest req, HttpResponse resp)
+      throws RewritingException {
     MutableContent mc = new MutableContent(htmlParser, resp);
 
     boolean wasRewritten = false;
-    for (RequestRewriter rewriter : rewriters) {
-      wasRewritten |= rewriter.rewrite(req, resp, mc);
+    String rewriterTimings = null;
+    if (instrumentation == null) {
+      for (RequestRewriter rewriter : rewriters) {
+        wasRewritten |= rewriter.rewrite(req, resp, mc);
+      }
+    } else {
+      RewriterInstrumentation.Timer timer = instrumentation.newTimer(
+          RewriterInstrumentation.REQUEST_REWRITER, req.getDebug());
+      for (RequestRewriter rewriter : rewriters) {
+        timer.start(mc);
+        wasRewritten |= rewriter.rewrite(req, resp, mc);
+        timer.stop(rewriter, mc);
+      }
+      rewriterTimings = timer.getSummary();
     }
 
     if (wasRewritten) {
-      return new HttpResponseBuilder(resp).setResponseString(mc.getContent()).create();
+      // Encode straight from the parse tree, if that is where the rewritten content is.
+      ByteArrayOutputStream out = new ByteArrayOutputStream((resp.getContentLength() * 11) / 10);
+      try {
+        mc.writeTo(out, CharsetUtil.UTF8);
+      } catch (IOException e) {
+        throw new RewritingException(e);
+      }
+      HttpResponseBuilder builder = new HttpResponseBuilder(resp)
+          .setResponseNoCopy(out.toByteArray());
+      if (rewriterTimings != null) {
+        builder.addHeader(RewriterInstrumentation.DEBUG_HEADER, rewriterTimings);
+      }
+      return builder.create();
+    }
+    if (rewriterTimings != null) {
+      return new HttpResponseBuilder(resp)
+          .addHeader(RewriterInstrumentation.DEBUG_HEADER, rewriterTimings).create();
     }
     return resp;
   }
+
+  /**
+   * A rewritten response and the fingerprint of the response it was made from. Rewritten is null
+   * if the rewriters left the response alone.
+   */
+  private static class RewrittenResponse {
+    private final String sourceFingerprint;
+    private final HttpResponse rewritten;
+
+    private RewrittenResponse(String sourceFingerprint, HttpResponse rewritten) {
+      this.sourceFingerprint = sourceFingerprint;
+      this.rewritten = rewritten;
+    }
+  }
 }
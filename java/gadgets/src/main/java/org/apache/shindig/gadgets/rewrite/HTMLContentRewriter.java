@@ -38,6 +38,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 /**
  * Perform rewriting of HTML content including
@@ -61,6 +62,8 @@ public class HTMLContentRewriter implements GadgetRewriter, RequestRewriter {
   private final CssRequestRewriter cssRewriter;
   private final ConcatLinkRewriterFactory concatLinkRewriterFactory;
   private final ProxyingLinkRewriterFactory proxyingLinkRewriterFactory;
+  private final StreamingLinkRewriter streamingRewriter;
+  private boolean streamingEnabled;
 
   @Inject
   public HTMLContentRewriter(ContentRewriterFeatureFactory rewriterFeatureFactory,
@@ -71,12 +74,35 @@ public class HTMLContentRewriter implements GadgetRewriter, RequestRewriter {
     this.cssRewriter = cssRewriter;
     this.concatLinkRewriterFactory = concatLinkRewriterFactory;
     this.proxyingLinkRewriterFactory = proxyingLinkRewriterFactory;
+    this.streamingRewriter = new StreamingLinkRewriter(concatLinkRewriterFactory,
+        proxyingLinkRewriterFactory);
+  }
+
+  /**
+   * Rewrite proxied HTML with {@link StreamingLinkRewriter} rather than parsing it, where it can.
+   */
+  @Inject(optional = true)
+  public void setStreamingEnabled(@Named("shindig.rewriter.streaming-html") boolean enabled) {
+    this.streamingEnabled = enabled;
   }
 
   public boolean rewrite(HttpRequest request, HttpResponse original,
       MutableContent content) {
     if (RewriterUtils.isHtml(request, original)) {
       ContentRewriterFeature feature = rewriterFeatureFactory.get(request);
+      if (streamingEnabled && !content.hasDocument()) {
+        // Proxied HTML usually needs only its links changed, which doesn't need a parse.
+        String html = content.getContent();
+        String rewritten = streamingRewriter.rewrite(html, feature, request.getGadget(),
+            request.getUri(), request.getContainer(), false, request.getIgnoreCache());
+        if (rewritten != null) {
+          if (rewritten == html) {
+            return false;
+          }
+          content.setContent(rewritten);
+          return true;
+        }
+      }
       return rewriteImpl(feature, request.getGadget(), request.getUri(), content,
           request.getContainer(), false, request.getIgnoreCache());
     }
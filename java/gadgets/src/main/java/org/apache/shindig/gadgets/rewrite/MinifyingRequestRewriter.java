@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.HashUtil;
+import org.apache.shindig.config.ContainerConfig;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.http.HttpResponse;
+
+import com.google.inject.Inject;
+
+/**
+ * Strips comments and whitespace from proxied and concatenated JavaScript and CSS, using
+ * {@link WhitespaceMinifier}. This is off unless the container sets
+ * gadgets.minifyProxiedContent, or the gadget's content-rewrite feature sets the minify param,
+ * and then only applies to urls the feature allows to be rewritten.
+ *
+ * Content is left alone if the minifier rejects it, or if minifying would not make it smaller.
+ * Either way the outcome is cached by a digest of the content, so that shared libraries are only
+ * minified once. A hit is used without comparing the content, so the key must not collide.
+ */
+public class MinifyingRequestRewriter implements RequestRewriter {
+  public static final String CACHE_NAME = "minifiedContent";
+  public static final String MINIFY_KEY = "gadgets.minifyProxiedContent";
+
+  // Cached for content that is left as it is.
+  private static final String UNCHANGED = "\u0000";
+
+  private final ContentRewriterFeatureFactory rewriterFeatureFactory;
+  private final ContainerConfig config;
+  private Cache<String, String> minifiedContent;
+
+  @Inject
+  public MinifyingRequestRewriter(ContentRewriterFeatureFactory rewriterFeatureFactory,
+      ContainerConfig config) {
+    this.rewriterFeatureFactory = rewriterFeatureFactory;
+    this.config = config;
+  }
+
+  @Inject
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    minifiedContent = cacheProvider.createCache(CACHE_NAME);
+  }
+
+  public boolean rewrite(HttpRequest request, HttpResponse original, MutableContent content) {
+    boolean css = RewriterUtils.isCss(request, original);
+    if (!css && !RewriterUtils.isJavascript(request, original)) {
+      return false;
+    }
+    if (!isEnabled(request)) {
+      return false;
+    }
+
+    String source = content.getContent();
+    String key = (css ? "css:" : "js:") + HashUtil.checksum(CharsetUtil.getUtf8Bytes(source));
+    String minified = minifiedContent == null ? null : minifiedContent.getElement(key);
+    if (minified == null) {
+      minified = css ? WhitespaceMinifier.minifyCss(source) :
+          WhitespaceMinifier.minifyJavaScript(source);
+      if (minified == null || minified.length() >= source.length()) {
+        minified = UNCHANGED;
+      }
+      if (minifiedContent != null) {
+        minifiedContent.addElement(key, minified);
+      }
+    }
+
+    if (UNCHANGED.equals(minified)) {
+      return false;
+    }
+    content.setContent(minified);
+    return true;
+  }
+
+  private boolean isEnabled(HttpRequest request) {
+    ContentRewriterFeature feature = rewriterFeatureFactory.get(request);
+    Boolean minify = feature.getMinify();
+    if (minify == null) {
+      minify = config.getBool(request.getContainer(), MINIFY_KEY);
+    }
+    return minify && feature.shouldRewriteURL(request.getUri().toString());
+  }
+}
@@ -23,6 +23,11 @@ import org.apache.shindig.gadgets.parse.GadgetHtmlParser;
 import org.apache.shindig.gadgets.parse.HtmlSerialization;
 import org.w3c.dom.Document;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.Map;
 
 import com.google.common.collect.Maps;
@@ -33,10 +38,13 @@ import com.google.common.collect.Maps;
  */
 public class MutableContent {
   private String content;
+  private String contentKey;
   private HttpResponse contentSource;
   private Document document;
   private final GadgetHtmlParser contentParser;
   private final Map<String, Object> pipelinedData;
+  private int parseCount;
+  private int serializeCount;
 
   private static final String MUTABLE_CONTENT_LISTENER = "MutableContentListener";
 
@@ -56,6 +64,16 @@ public class MutableContent {
     pipelinedData = Maps.newHashMap();
   }
 
+  /**
+   * Construct with decoded string content that has a stable identity, such as a spec checksum and
+   * view name, which the parser can use as its cache key instead of hashing the content. The key
+   * must change whenever the content does.
+   */
+  public MutableContent(GadgetHtmlParser contentParser, String content, String contentKey) {
+    this(contentParser, content);
+    this.contentKey = contentKey;
+  }
+
   /**
    * Construct with HttpResponse so we can defer string decoding until we actually need
    * the content. Given that we dont rewrite many mime types this is a performance advantage
@@ -85,10 +103,29 @@ public class MutableContent {
         contentSource = null;
       } else if (document != null) {
         content = HtmlSerialization.serialize(document);
+        serializeCount++;
       }
     }
     return content;
   }
+
+  /**
+   * Writes the current content to a stream in the given encoding. If the content is only held
+   * as an edited parse tree, the tree is serialized straight to the stream rather than through
+   * a String, so a rendered page need not be held in memory as both characters and bytes. The
+   * serialized form is not kept, so prefer {@link #getContent} if the String is needed as well.
+   * The stream is flushed but not closed.
+   */
+  public void writeTo(OutputStream out, Charset charset) throws IOException {
+    if (content == null && contentSource == null && document != null) {
+      HtmlSerialization.writeTo(document, out, charset);
+      serializeCount++;
+    } else if (getContent() != null) {
+      Writer writer = new OutputStreamWriter(out, charset);
+      writer.write(content);
+      writer.flush();
+    }
+  }
   
   /**
    * Sets the object's content as a raw String. Note, this operation
@@ -99,6 +136,7 @@ public class MutableContent {
     // TODO - Equality check may be unnecessary overhead
     if (content == null || !content.equals(newContent)) {
       content = newContent;
+      contentKey = null;
       document = null;
       contentSource = null;
     }
@@ -112,6 +150,7 @@ public class MutableContent {
   public void documentChanged() {
     if (document != null) {
       content = null;
+      contentKey = null;
       contentSource = null;
     }
   }
@@ -131,7 +170,8 @@ public class MutableContent {
       return document;
     }
     try {
-      document = contentParser.parseDom(getContent());
+      document = contentParser.parseDom(getContent(), contentKey);
+      parseCount++;
       document.setUserData(MUTABLE_CONTENT_LISTENER, this, null);
     } catch (GadgetException e) {
       // TODO: emit info message
@@ -148,6 +188,21 @@ public class MutableContent {
     return (document != null);
   }
   
+  /**
+   * @return The number of times the content has been parsed into a document. A parse may have
+   *     been served from the parser's cache.
+   */
+  public int getParseCount() {
+    return parseCount;
+  }
+
+  /**
+   * @return The number of times an edited document has been serialized back to content.
+   */
+  public int getSerializeCount() {
+    return serializeCount;
+  }
+
   public void addPipelinedData(String key, Object value) {
     pipelinedData.put(key, value);
   }
@@ -99,11 +99,13 @@ public class RewriteModule extends AbstractModule {
     @Inject
     public RequestRewritersProvider(HTMLContentRewriter optimizingRewriter,
         CssRequestRewriter cssRewriter,
-        SanitizingRequestRewriter sanitizedRewriter) {
+        SanitizingRequestRewriter sanitizedRewriter,
+        MinifyingRequestRewriter minifyingRewriter) {
       rewriters = Lists.newArrayList();
       rewriters.add(optimizingRewriter);
       rewriters.add(cssRewriter);
       rewriters.add(sanitizedRewriter);
+      rewriters.add(minifyingRewriter);
     }
 
     public List<RequestRewriter> get() {
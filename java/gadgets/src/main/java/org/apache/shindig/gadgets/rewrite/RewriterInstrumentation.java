@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Times each gadget and request rewriter, and counts how often it makes {@link MutableContent}
+ * parse or serialize the content, so that a slow render can be attributed to a rewriter. Totals
+ * for each rewriter are exposed through JMX as org.apache.shindig:type=GadgetRewriter and
+ * type=RequestRewriter. A render or proxy request with debug=1 also gets the figures for that
+ * request in the {@link #DEBUG_HEADER} response header.
+ *
+ * Allocation by the rewriting thread is measured too if shindig.rewriter.measure-allocation is
+ * true and the JVM supports it. This relies on com.sun.management.ThreadMXBean, and is found by
+ * reflection so that other JVMs simply skip it.
+ */
+@Singleton
+public class RewriterInstrumentation {
+  public static final String DEBUG_HEADER = "X-Shindig-Rewriter-Timing";
+  public static final String GADGET_REWRITER = "GadgetRewriter";
+  public static final String REQUEST_REWRITER = "RequestRewriter";
+
+  private static final Logger logger = Logger.getLogger(RewriterInstrumentation.class.getName());
+  private static final Object THREAD_BEAN = ManagementFactory.getThreadMXBean();
+  private static final Method ALLOCATED_BYTES = findAllocatedBytesMethod();
+
+  private final ConcurrentMap<String, RewriterMetrics> metrics =
+      new ConcurrentHashMap<String, RewriterMetrics>();
+  private boolean measureAllocation;
+
+  @Inject(optional = true)
+  public void setMeasureAllocation(
+      @Named("shindig.rewriter.measure-allocation") boolean measureAllocation) {
+    this.measureAllocation = measureAllocation && ALLOCATED_BYTES != null;
+  }
+
+  /**
+   * @param type GADGET_REWRITER or REQUEST_REWRITER.
+   * @param debug Whether to keep the figures for this request, for {@link Timer#getSummary}.
+   */
+  public Timer newTimer(String type, boolean debug) {
+    return new Timer(type, debug);
+  }
+
+  /**
+   * @return The totals for a rewriter, creating and registering them if necessary.
+   */
+  public RewriterMetrics getMetrics(String type, Object rewriter) {
+    String name = rewriter.getClass().getName();
+    String key = type + ':' + name;
+    RewriterMetrics rewriterMetrics = metrics.get(key);
+    if (rewriterMetrics == null) {
+      rewriterMetrics = new RewriterMetrics(name);
+      RewriterMetrics existing = metrics.putIfAbsent(key, rewriterMetrics);
+      if (existing != null) {
+        return existing;
+      }
+      rewriterMetrics.registerMBean(type);
+    }
+    return rewriterMetrics;
+  }
+
+  private static Method findAllocatedBytesMethod() {
+    try {
+      Class<?> sunThreadBean = Class.forName("com.sun.management.ThreadMXBean");
+      if (!sunThreadBean.isInstance(THREAD_BEAN)) {
+        return null;
+      }
+      Method supported = sunThreadBean.getMethod("isThreadAllocatedMemorySupported");
+      if (!Boolean.TRUE.equals(supported.invoke(THREAD_BEAN))) {
+        return null;
+      }
+      return sunThreadBean.getMethod("getThreadAllocatedBytes", Long.TYPE);
+    } catch (ClassNotFoundException e) {
+      return null;
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (IllegalAccessException e) {
+      return null;
+    } catch (InvocationTargetException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return The bytes allocated so far by the current thread, or -1 if unknown.
+   */
+  static long getAllocatedBytes() {
+    if (ALLOCATED_BYTES == null) {
+      return -1;
+    }
+    try {
+      return (Long) ALLOCATED_BYTES.invoke(THREAD_BEAN, Thread.currentThread().getId());
+    } catch (IllegalAccessException e) {
+      return -1;
+    } catch (InvocationTargetException e) {
+      logger.log(Level.FINE, "Unable to measure allocation", e);
+      return -1;
+    }
+  }
+
+  /**
+   * Measures the rewriters run for one request, one at a time, on the calling thread.
+   */
+  public class Timer {
+    private final String type;
+    private final StringBuilder summary;
+    private long startNanos;
+    private long startAllocated;
+    private int startParses;
+    private int startSerializations;
+
+    private Timer(String type, boolean debug) {
+      this.type = type;
+      this.summary = debug ? new StringBuilder() : null;
+    }
+
+    public void start(MutableContent content) {
+      startParses = content.getParseCount();
+      startSerializations = content.getSerializeCount();
+      startAllocated = measureAllocation ? getAllocatedBytes() : -1;
+      startNanos = System.nanoTime();
+    }
+
+    public void stop(Object rewriter, MutableContent content) {
+      long nanos = System.nanoTime() - startNanos;
+      long allocated = startAllocated < 0 ? -1 : getAllocatedBytes() - startAllocated;
+      int parses = content.getParseCount() - startParses;
+      int serializations = content.getSerializeCount() - startSerializations;
+      getMetrics(type, rewriter).record(nanos, parses, serializations, allocated);
+
+      if (summary != null) {
+        if (summary.length() > 0) {
+          summary.append(", ");
+        }
+        summary.append(rewriter.getClass().getSimpleName())
+            .append(";ms=").append(nanos / 1000 / 1000.0)
+            .append(";parse=").append(parses)
+            .append(";serialize=").append(serializations);
+        if (allocated >= 0) {
+          summary.append(";alloc=").append(allocated);
+        }
+      }
+    }
+
+    /**
+     * @return The figures for each rewriter run by this timer, for the debug header, or null if
+     *     it wasn't created for debugging or nothing was run.
+     */
+    public String getSummary() {
+      return summary == null || summary.length() == 0 ? null : summary.toString();
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Running totals for one rewriter: how often it ran, how long it took, and how many times it
+ * caused the content to be parsed or serialized. Allocation is only counted if
+ * {@link RewriterInstrumentation} is measuring it.
+ */
+public class RewriterMetrics implements RewriterMetricsMBean {
+  private static final Logger logger = Logger.getLogger(RewriterMetrics.class.getName());
+
+  private final String name;
+  private final AtomicLong invocationCount = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong parseCount = new AtomicLong();
+  private final AtomicLong serializeCount = new AtomicLong();
+  private final AtomicLong allocatedBytes = new AtomicLong();
+
+  public RewriterMetrics(String name) {
+    this.name = name;
+  }
+
+  public void record(long nanos, int parses, int serializations, long allocated) {
+    invocationCount.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    parseCount.addAndGet(parses);
+    serializeCount.addAndGet(serializations);
+    if (allocated > 0) {
+      allocatedBytes.addAndGet(allocated);
+    }
+  }
+
+  /**
+   * Registers with the platform MBean server as org.apache.shindig:type={type},name={name}.
+   */
+  public void registerMBean(String type) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName("org.apache.shindig:type=" + type + ",name=" +
+          ObjectName.quote(name));
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      server.registerMBean(this, objectName);
+    } catch (JMException e) {
+      logger.log(Level.INFO, "Unable to register metrics for rewriter " + name, e);
+    } catch (SecurityException e) {
+      logger.log(Level.INFO, "Unable to register metrics for rewriter " + name, e);
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getInvocationCount() {
+    return invocationCount.get();
+  }
+
+  public long getTotalTimeMillis() {
+    return totalNanos.get() / 1000000;
+  }
+
+  public double getMeanTimeMillis() {
+    long count = invocationCount.get();
+    return count == 0 ? 0.0 : totalNanos.get() / 1000000.0 / count;
+  }
+
+  public long getParseCount() {
+    return parseCount.get();
+  }
+
+  public long getSerializeCount() {
+    return serializeCount.get();
+  }
+
+  public long getAllocatedBytes() {
+    return allocatedBytes.get();
+  }
+
+  @Override
+  public String toString() {
+    return "Rewriter[" + name + ", invocations=" + getInvocationCount() + ", mean=" +
+        getMeanTimeMillis() + "ms, parses=" + getParseCount() + ", serializations=" +
+        getSerializeCount() + ", allocated=" + getAllocatedBytes() + ']';
+  }
+}
@@ -17,6 +17,8 @@
  */
 package org.apache.shindig.gadgets.rewrite;
 
+import javax.servlet.http.HttpServletResponse;
+
 /**
  * Exceptions thrown during content rewriting.
  *
@@ -24,16 +26,31 @@ package org.apache.shindig.gadgets.rewrite;
  * be easily localizable.
  */
 public class RewritingException extends Exception {
+  private final int httpStatusCode;
+
   public RewritingException(Throwable t) {
     super(t);
+    this.httpStatusCode = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
   }
 
   public RewritingException(String message) {
-    super(message);
+    this(message, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
   }
 
   public RewritingException(String message, Throwable t) {
     super(message, t);
+    this.httpStatusCode = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
   }
 
+  /**
+   * @param httpStatusCode The status a render that fails with this exception responds with.
+   */
+  public RewritingException(String message, int httpStatusCode) {
+    super(message);
+    this.httpStatusCode = httpStatusCode;
+  }
+
+  public int getHttpStatusCode() {
+    return httpStatusCode;
+  }
 }
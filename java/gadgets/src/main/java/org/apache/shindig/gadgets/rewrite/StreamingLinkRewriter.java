@@ -0,0 +1,722 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.parse.DefaultHtmlSerializer;
+import org.apache.shindig.gadgets.parse.GadgetHtmlParser;
+import org.apache.shindig.gadgets.parse.HtmlSerialization;
+
+import org.cyberneko.html.HTMLElements;
+import org.cyberneko.html.HTMLEntities;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Makes the link changes of {@link HTMLContentRewriter} in a single forward pass over the HTML's
+ * tokens, without parsing it to a DOM:
+ * - Proxying img and embed sources
+ * - Concatenating adjacent script tags
+ * - Concatenating stylesheet links
+ *
+ * Markup is copied through as written, and only the attributes that change are written out
+ * again, the way the DOM serializer writes them. That only matches the DOM path's output for
+ * markup the parser and serializer would write back unchanged, so anything else is left to the
+ * DOM path, including:
+ * - anything but a document of an html element holding a head and a body, with nothing before
+ *   or after it
+ * - tag and attribute names that aren't lower case, attributes that aren't double quoted or in
+ *   name order, self-closing tags and end tags the parser would insert or drop
+ * - elements the parser would move or close early, such as style in the body or a block inside
+ *   a paragraph
+ * - CDATA sections, doctypes, processing instructions, and ampersands outside of references
+ * - unterminated tags and comments
+ */
+public class StreamingLinkRewriter {
+  private static final String JS_MIME_TYPE = "text/javascript";
+
+  // Elements whose content is text rather than markup.
+  private static final ImmutableSet<String> RAW_TEXT_TAGS =
+      ImmutableSet.of("script", "style", "textarea", "title", "xmp");
+
+  private static final ImmutableSet<String> LINKING_TAGS = ImmutableSet.of("img", "embed");
+
+  private final ConcatLinkRewriterFactory concatLinkRewriterFactory;
+  private final ProxyingLinkRewriterFactory proxyingLinkRewriterFactory;
+
+  public StreamingLinkRewriter(ConcatLinkRewriterFactory concatLinkRewriterFactory,
+      ProxyingLinkRewriterFactory proxyingLinkRewriterFactory) {
+    this.concatLinkRewriterFactory = concatLinkRewriterFactory;
+    this.proxyingLinkRewriterFactory = proxyingLinkRewriterFactory;
+  }
+
+  /**
+   * @return The rewritten content, the same instance as content if there is nothing to rewrite,
+   *     or null if the content needs the DOM path.
+   */
+  public String rewrite(String content, ContentRewriterFeature feature, Uri gadgetUri,
+      Uri contentBase, String container, boolean debug, boolean ignoreCache) {
+    if (!feature.isRewriteEnabled()) {
+      return content;
+    }
+    return new Pass(content, feature, gadgetUri, contentBase, container, debug, ignoreCache)
+        .run();
+  }
+
+  /**
+   * The state of rewriting one piece of content.
+   */
+  private class Pass {
+    private final String html;
+    private final ContentRewriterFeature feature;
+    private final Uri gadgetUri;
+    private final Uri contentBase;
+    private final String container;
+    private final boolean debug;
+    private final boolean ignoreCache;
+
+    private final boolean rewriteStyle;
+    private final boolean rewriteScripts;
+    private final LinkRewriter linkRewriter;
+
+    private final StringBuilder out;
+    // Input before this has been written to out, or deliberately dropped.
+    private int mark;
+    private int pos;
+    private boolean mutated;
+
+    // Script tags that are adjacent siblings, waiting to be concatenated.
+    private final List<Tag> scriptGroup = Lists.newArrayList();
+    // Stylesheet links, and where they go in out. They're concatenated once all are known.
+    private final List<Tag> styleLinks = Lists.newArrayList();
+    private final List<Integer> styleLinkOffsets = Lists.newArrayList();
+
+    // The elements open at pos, outermost first, and their names as written.
+    private final List<HTMLElements.Element> openElements = Lists.newArrayList();
+    private final List<String> openNames = Lists.newArrayList();
+    private boolean seenHead;
+    private boolean seenBody;
+
+    public Pass(String html, ContentRewriterFeature feature, Uri gadgetUri, Uri contentBase,
+        String container, boolean debug, boolean ignoreCache) {
+      this.html = html;
+      this.feature = feature;
+      this.gadgetUri = gadgetUri;
+      this.contentBase = contentBase;
+      this.container = container;
+      this.debug = debug;
+      this.ignoreCache = ignoreCache;
+
+      Set<String> included = feature.getIncludedTags();
+      rewriteStyle = included.contains("style");
+      rewriteScripts = included.contains("script");
+      linkRewriter = Sets.intersection(LINKING_TAGS, included).isEmpty() ? null :
+          proxyingLinkRewriterFactory.create(gadgetUri, feature, container, debug, ignoreCache);
+      out = new StringBuilder((html.length() * 11) / 10);
+    }
+
+    public String run() {
+      int length = html.length();
+      while (pos < length) {
+        int lt = html.indexOf('<', pos);
+        if (lt == -1 || lt + 1 == length) {
+          break;
+        }
+        if (!isTextAsWritten(pos, lt)) {
+          return null;
+        }
+        char c = html.charAt(lt + 1);
+        if (c == '!' || c == '?') {
+          // Only comments in the body are written back where they were. Neither they nor
+          // anything else here separates sibling scripts.
+          if (!html.startsWith("<!--", lt) || !isOpen(HTMLElements.BODY)) {
+            return null;
+          }
+          int end = html.indexOf("-->", lt + 4);
+          if (end == -1) {
+            return null;
+          }
+          pos = end + 3;
+        } else if (c == '/') {
+          if (!endElement(lt)) {
+            return null;
+          }
+          // The parent of any pending scripts ends.
+          flushScriptGroup();
+        } else if (isLetter(c)) {
+          Tag tag = Tag.parse(html, lt);
+          if (tag == null) {
+            return null;
+          }
+          if (!startElement(tag)) {
+            return null;
+          }
+        } else if (isTextAsWritten(lt, lt + 1)) {
+          pos = lt + 1;
+        } else {
+          return null;
+        }
+      }
+      if (!isTextAsWritten(pos, length) || !seenBody || !openElements.isEmpty()) {
+        return null;
+      }
+
+      flushScriptGroup();
+      if (!mutated) {
+        // Like the DOM path, stylesheet links alone don't count as a change.
+        return html;
+      }
+      out.append(html, mark, html.length());
+      concatenateStyleLinks();
+      return out.toString();
+    }
+
+    /**
+     * @return Whether the text between from and to would be written back as it is.
+     */
+    private boolean isTextAsWritten(int from, int to) {
+      if (from == to) {
+        return true;
+      }
+      // The parser moves or drops text outside of the body, even whitespace.
+      if (!isOpen(HTMLElements.BODY)) {
+        return false;
+      }
+      return !hasBareAmpersand(from, to);
+    }
+
+    /**
+     * @return Whether an ampersand between from and to doesn't start a character reference.
+     */
+    private boolean hasBareAmpersand(int from, int to) {
+      int amp = from;
+      while ((amp = html.indexOf('&', amp)) != -1 && amp < to) {
+        int semicolon = html.indexOf(';', amp);
+        if (semicolon == -1 || semicolon >= to ||
+            Attribute.decode(html.substring(amp + 1, semicolon)) == -1) {
+          return true;
+        }
+        amp = semicolon + 1;
+      }
+      return false;
+    }
+
+    private boolean isOpen(short code) {
+      for (HTMLElements.Element element : openElements) {
+        if (element.code == code) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Handles an end tag, which must close the innermost open element as written.
+     *
+     * @return false if the content needs the DOM path.
+     */
+    private boolean endElement(int lt) {
+      int nameEnd = lt + 2;
+      while (nameEnd < html.length() && isNameChar(html.charAt(nameEnd))) {
+        nameEnd++;
+      }
+      int last = openNames.size() - 1;
+      if (nameEnd >= html.length() || html.charAt(nameEnd) != '>' || last == -1 ||
+          !html.regionMatches(lt + 2, openNames.get(last), 0, nameEnd - lt - 2) ||
+          openNames.get(last).length() != nameEnd - lt - 2) {
+        return false;
+      }
+      openElements.remove(last);
+      openNames.remove(last);
+      pos = nameEnd + 1;
+      return true;
+    }
+
+    /**
+     * @return Whether the parser would put the element where it is written, rather than closing
+     *     open elements first or inserting a parent.
+     */
+    private boolean nestsAsWritten(String name, HTMLElements.Element element) {
+      if (openElements.isEmpty()) {
+        return "html".equals(name) && pos == 0;
+      }
+      HTMLElements.Element parent = openElements.get(openElements.size() - 1);
+      if (parent.code == HTMLElements.HTML) {
+        // Just a head followed by a body.
+        if ("head".equals(name) && !seenHead) {
+          seenHead = true;
+          return true;
+        } else if ("body".equals(name) && seenHead && !seenBody) {
+          seenBody = true;
+          return true;
+        }
+        return false;
+      }
+      if ("html".equals(name) || "head".equals(name) || "body".equals(name)) {
+        return false;
+      }
+      for (HTMLElements.Element open : openElements) {
+        if (element.closes(open.code)) {
+          return false;
+        }
+      }
+      if (element.parent != null) {
+        for (HTMLElements.Element allowed : element.parent) {
+          if (isOpen(allowed.code)) {
+            return true;
+          }
+        }
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * Handles a start tag and, for raw text elements, its content and end tag.
+     *
+     * @return false if the content needs the DOM path.
+     */
+    private boolean startElement(Tag tag) {
+      String name = tag.name;
+      HTMLElements.Element element = HTMLElements.getElement(name);
+      if (!tag.isWrittenAsSerialized() || !nestsAsWritten(name, element)) {
+        return false;
+      }
+      int elementEnd = tag.end;
+      if (RAW_TEXT_TAGS.contains(name)) {
+        elementEnd = findEndTag(name, tag.end);
+        if (elementEnd == -1) {
+          return false;
+        }
+        if (!"script".equals(name) && !"style".equals(name) &&
+            hasBareAmpersand(tag.end, elementEnd)) {
+          return false;
+        }
+      } else if (element.isSpecial()) {
+        // Other elements whose content the parser doesn't treat as markup.
+        return false;
+      } else if (!element.isEmpty()) {
+        openElements.add(element);
+        openNames.add(name);
+      }
+      pos = elementEnd;
+
+      if ("script".equals(name)) {
+        String type = tag.getAttribute("type");
+        if (type == null || type.length() == 0 || type.equalsIgnoreCase(JS_MIME_TYPE)) {
+          scriptElement(tag, elementEnd);
+          return true;
+        } else if (GadgetHtmlParser.SCRIPT_TYPE_TO_OSML_TAG.containsKey(type)) {
+          // Parsed as markup, and written back with the type first.
+          return false;
+        }
+      } else if ("style".equals(name) && (rewriteStyle || seenBody)) {
+        // CSS is rewritten, and style moved to head, on the DOM.
+        return false;
+      }
+
+      // Anything else separates the pending scripts from whatever follows.
+      flushScriptGroup();
+
+      if ("link".equals(name) && rewriteStyle) {
+        String rel = tag.getAttribute("rel");
+        String type = tag.getAttribute("type");
+        if ("stylesheet".equalsIgnoreCase(rel) ||
+            (type != null && type.toLowerCase().contains("css"))) {
+          String href = tag.getAttribute("href");
+          if (href != null && feature.shouldRewriteURL(href)) {
+            out.append(html, mark, tag.start);
+            styleLinks.add(tag);
+            styleLinkOffsets.add(out.length());
+            mark = tag.end;
+          }
+        }
+      } else if (linkRewriter != null && LINKING_TAGS.contains(name) &&
+          feature.getIncludedTags().contains(name)) {
+        rewriteSources(tag);
+      }
+      return true;
+    }
+
+    private void scriptElement(Tag tag, int elementEnd) {
+      if (!rewriteScripts) {
+        flushScriptGroup();
+        return;
+      }
+      String src = tag.getAttribute("src");
+      if (src != null && feature.shouldRewriteURL(src)) {
+        mutated = true;
+        tag.elementEnd = elementEnd;
+        scriptGroup.add(tag);
+      } else {
+        flushScriptGroup();
+      }
+    }
+
+    private void flushScriptGroup() {
+      if (scriptGroup.isEmpty()) {
+        return;
+      }
+      List<Uri> concatenated = concatenate(scriptGroup, JS_MIME_TYPE, "src");
+      for (int i = 0; i < scriptGroup.size(); i++) {
+        Tag tag = scriptGroup.get(i);
+        out.append(html, mark, tag.start);
+        if (i < concatenated.size()) {
+          tag.appendWithAttribute(out, "src", concatenated.get(i).toString());
+          out.append(html, tag.end, tag.elementEnd);
+        }
+        mark = tag.elementEnd;
+      }
+      scriptGroup.clear();
+    }
+
+    private void concatenateStyleLinks() {
+      if (styleLinks.isEmpty()) {
+        return;
+      }
+      List<Uri> concatenated = concatenate(styleLinks, "text/css", "href");
+      // Fill in from the end, so the offsets of earlier links still hold.
+      for (int i = styleLinks.size() - 1; i >= 0; i--) {
+        Tag tag = styleLinks.get(i);
+        StringBuilder link = new StringBuilder();
+        if (i < concatenated.size()) {
+          tag.appendWithAttribute(link, "href", concatenated.get(i).toString());
+        }
+        out.insert(styleLinkOffsets.get(i).intValue(), link);
+      }
+    }
+
+    private List<Uri> concatenate(List<Tag> tags, String mimeType, String attr) {
+      // Eliminate duplicates while maintaining order
+      LinkedHashSet<Uri> uris = Sets.newLinkedHashSet();
+      for (Tag tag : tags) {
+        try {
+          uris.add(contentBase.resolve(Uri.parse(tag.getAttribute(attr))));
+        } catch (IllegalArgumentException e) {
+          // Same behavior as the DOM path.
+          throw new RuntimeException(e);
+        }
+      }
+      return concatLinkRewriterFactory.create(gadgetUri, feature, container, debug, ignoreCache)
+          .rewrite(mimeType, uris);
+    }
+
+    private void rewriteSources(Tag tag) {
+      boolean found = false;
+      for (Attribute attribute : tag.attributes) {
+        if ("src".equalsIgnoreCase(attribute.name)) {
+          found = true;
+        }
+      }
+      if (!found) {
+        return;
+      }
+      mutated = true;
+      out.append(html, mark, tag.start);
+      tag.appendRewritten(out, linkRewriter, contentBase);
+      mark = tag.end;
+    }
+
+    /**
+     * @return The index after the end tag of a raw text element, or -1 if there is none or it
+     *     isn't written the way the serializer writes it.
+     */
+    private int findEndTag(String name, int from) {
+      int length = html.length();
+      int i = from;
+      while ((i = html.indexOf("</", i)) != -1) {
+        int nameEnd = i + 2 + name.length();
+        if (nameEnd <= length && html.regionMatches(true, i + 2, name, 0, name.length()) &&
+            (nameEnd == length || !isNameChar(html.charAt(nameEnd)))) {
+          if (nameEnd == length || html.charAt(nameEnd) != '>' ||
+              !html.regionMatches(i + 2, name, 0, name.length())) {
+            return -1;
+          }
+          return nameEnd + 1;
+        }
+        i += 2;
+      }
+      return -1;
+    }
+  }
+
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isNameChar(char c) {
+    return isLetter(c) || (c >= '0' && c <= '9') || c == '-' || c == ':' || c == '_' || c == '.';
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+  }
+
+  /**
+   * A start tag, with the spans of its attributes in the source.
+   */
+  private static class Tag {
+    private final String html;
+    private final int start;
+    private int end;
+    private int elementEnd;
+    private String name;
+    private boolean selfClosing;
+    private final List<Attribute> attributes = Lists.newArrayListWithCapacity(4);
+
+    private Tag(String html, int start) {
+      this.html = html;
+      this.start = start;
+    }
+
+    /**
+     * @return The tag starting at start, or null if it isn't terminated.
+     */
+    public static Tag parse(String html, int start) {
+      Tag tag = new Tag(html, start);
+      int length = html.length();
+      int i = start + 1;
+      while (i < length && isNameChar(html.charAt(i))) {
+        i++;
+      }
+      tag.name = html.substring(start + 1, i);
+      while (i < length) {
+        char c = html.charAt(i);
+        if (c == '>') {
+          tag.end = i + 1;
+          return tag;
+        } else if (c == '/' && i + 1 < length && html.charAt(i + 1) == '>') {
+          tag.selfClosing = true;
+          tag.end = i + 2;
+          return tag;
+        } else if (isWhitespace(c) || c == '/') {
+          i++;
+          continue;
+        }
+
+        Attribute attribute = new Attribute();
+        attribute.start = i;
+        while (i < length && !isWhitespace(html.charAt(i)) && html.charAt(i) != '=' &&
+            html.charAt(i) != '>' && html.charAt(i) != '/') {
+          i++;
+        }
+        attribute.name = html.substring(attribute.start, i);
+        attribute.end = i;
+        int j = i;
+        while (j < length && isWhitespace(html.charAt(j))) {
+          j++;
+        }
+        if (j < length && html.charAt(j) == '=') {
+          j++;
+          while (j < length && isWhitespace(html.charAt(j))) {
+            j++;
+          }
+          if (j == length) {
+            return null;
+          }
+          char quote = html.charAt(j);
+          if (quote == '"' || quote == '\'') {
+            int close = html.indexOf(quote, j + 1);
+            if (close == -1) {
+              return null;
+            }
+            attribute.valueStart = j + 1;
+            attribute.valueEnd = close;
+            i = close + 1;
+          } else {
+            attribute.valueStart = j;
+            while (j < length && !isWhitespace(html.charAt(j)) && html.charAt(j) != '>') {
+              j++;
+            }
+            attribute.valueEnd = j;
+            i = j;
+          }
+          attribute.end = i;
+        }
+        tag.attributes.add(attribute);
+      }
+      return null;
+    }
+
+    /**
+     * @return Whether the serializer would write the tag back exactly as it is: a lower case
+     *     name, and lower case attribute names in order, each with a double quoted value escaped
+     *     the way the serializer escapes it.
+     */
+    public boolean isWrittenAsSerialized() {
+      if (selfClosing || !isLowerCase(name)) {
+        return false;
+      }
+      StringBuilder serialized = new StringBuilder(end - start);
+      serialized.append('<').append(name);
+      String previous = null;
+      for (Attribute attribute : attributes) {
+        if (!isLowerCase(attribute.name) ||
+            (previous != null && previous.compareTo(attribute.name) >= 0)) {
+          return false;
+        }
+        previous = attribute.name;
+        serialized.append(' ');
+        appendAttribute(serialized, attribute.name, attribute.getValue(html));
+      }
+      serialized.append('>');
+      return html.regionMatches(start, serialized.toString(), 0, serialized.length()) &&
+          serialized.length() == end - start;
+    }
+
+    private static boolean isLowerCase(String name) {
+      for (int i = 0; i < name.length(); i++) {
+        char c = name.charAt(i);
+        if (c >= 'A' && c <= 'Z') {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return The decoded value of the first attribute with this name, "" if it has no value,
+     *     or null if there is no such attribute. Names match exactly, as on the DOM.
+     */
+    public String getAttribute(String attributeName) {
+      for (Attribute attribute : attributes) {
+        if (attribute.name.equals(attributeName)) {
+          return attribute.getValue(html);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Appends the tag with the first attribute of this name set to value.
+     */
+    public void appendWithAttribute(StringBuilder output, String attributeName, String value) {
+      int from = start;
+      for (Attribute attribute : attributes) {
+        if (attribute.name.equals(attributeName)) {
+          output.append(html, from, attribute.start);
+          appendAttribute(output, attribute.name, value);
+          from = attribute.end;
+          break;
+        }
+      }
+      output.append(html, from, end);
+    }
+
+    /**
+     * Appends the tag with each src attribute passed through the link rewriter.
+     */
+    public void appendRewritten(StringBuilder output, LinkRewriter rewriter, Uri contentBase) {
+      int from = start;
+      for (Attribute attribute : attributes) {
+        if ("src".equalsIgnoreCase(attribute.name)) {
+          output.append(html, from, attribute.start);
+          appendAttribute(output, attribute.name,
+              rewriter.rewrite(attribute.getValue(html), contentBase));
+          from = attribute.end;
+        }
+      }
+      output.append(html, from, end);
+    }
+
+    private static void appendAttribute(StringBuilder output, String name, String value) {
+      output.append(name).append("=\"");
+      try {
+        DefaultHtmlSerializer.printAttributeValue(value, output,
+            HtmlSerialization.URL_ATTRIBUTES.contains(name));
+      } catch (IOException e) {
+        // Can't happen with a StringBuilder.
+        throw new RuntimeException(e);
+      }
+      output.append('"');
+    }
+  }
+
+  /**
+   * The span of an attribute, and of its value, in the source.
+   */
+  private static class Attribute {
+    private String name;
+    private int start;
+    private int end;
+    private int valueStart = -1;
+    private int valueEnd = -1;
+
+    /**
+     * @return The value with character references decoded, as the parser decodes them.
+     */
+    public String getValue(String html) {
+      if (valueStart == -1) {
+        return "";
+      }
+      int amp = html.indexOf('&', valueStart);
+      if (amp == -1 || amp >= valueEnd) {
+        return html.substring(valueStart, valueEnd);
+      }
+      StringBuilder value = new StringBuilder(valueEnd - valueStart);
+      int i = valueStart;
+      while (i < valueEnd) {
+        char c = html.charAt(i);
+        int semicolon = c == '&' ? html.indexOf(';', i) : -1;
+        int decoded = -1;
+        if (semicolon != -1 && semicolon < valueEnd) {
+          decoded = decode(html.substring(i + 1, semicolon));
+        }
+        if (decoded == -1) {
+          value.append(c);
+          i++;
+        } else {
+          value.append((char) decoded);
+          i = semicolon + 1;
+        }
+      }
+      return value.toString();
+    }
+
+    /**
+     * @return The character an entity or character reference stands for, or -1.
+     */
+    private static int decode(String reference) {
+      if (reference.length() == 0) {
+        return -1;
+      }
+      try {
+        if (reference.startsWith("#x") || reference.startsWith("#X")) {
+          return Integer.parseInt(reference.substring(2), 16);
+        } else if (reference.charAt(0) == '#') {
+          return Integer.parseInt(reference.substring(1));
+        }
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+      for (int i = 0; i < reference.length(); i++) {
+        if (!isNameChar(reference.charAt(i))) {
+          return -1;
+        }
+      }
+      return HTMLEntities.get(reference);
+    }
+  }
+}
@@ -0,0 +1,463 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Strips comments and redundant whitespace from JavaScript and CSS, and changes nothing else.
+ * Strings, regular expressions and urls are copied as they are, whitespace is only removed where
+ * it can't separate two tokens, and line breaks are only removed from JavaScript where they can't
+ * end a statement. Comments starting with /*! are kept, as they usually hold licenses.
+ *
+ * Input that can't be minified with certainty, such as unterminated strings or comments, IE
+ * conditional compilation or HTML comment markers in script, is rejected rather than guessed at.
+ */
+public final class WhitespaceMinifier {
+  // After these, a JavaScript expression or statement must continue, so a line break can't end it.
+  private static final String JS_CONTINUES_AFTER = "{;,(=[:?!&|*%<>^~";
+  // Before these, a line break can't end a JavaScript statement that could otherwise continue.
+  private static final String JS_CONTINUES_BEFORE = ".,;)]}?:=";
+  // Punctuation that CSS whitespace is never significant next to.
+  private static final String CSS_SEPARATORS = "{};,";
+
+  // Written as numbers, as the escapes for line and paragraph separators end a line of source.
+  private static final char LINE_SEPARATOR = (char) 0x2028;
+  private static final char PARAGRAPH_SEPARATOR = (char) 0x2029;
+  private static final char BYTE_ORDER_MARK = (char) 0xFEFF;
+
+  // Keywords after which a slash starts a regular expression rather than a division.
+  private static final Set<String> REGEX_KEYWORDS = ImmutableSet.of("return", "typeof",
+      "instanceof", "in", "new", "delete", "void", "throw", "case", "do", "else");
+
+  // Keywords whose parenthesized condition may be followed by a regular expression.
+  private static final Set<String> CONDITION_KEYWORDS = ImmutableSet.of("if", "while", "for",
+      "with");
+
+  private WhitespaceMinifier() {
+  }
+
+  /**
+   * @return The minified stylesheet, or null if it can't be minified safely.
+   */
+  public static String minifyCss(String css) {
+    int length = css.length();
+    StringBuilder out = new StringBuilder(length);
+    boolean space = false;
+    boolean comment = false;
+    int i = 0;
+    while (i < length) {
+      char c = css.charAt(i);
+      if (isCssWhitespace(c)) {
+        space = true;
+        ++i;
+        continue;
+      }
+      if (c == '/' && i + 1 < length && css.charAt(i + 1) == '*') {
+        int end = css.indexOf("*/", i + 2);
+        if (end < 0) {
+          return null;
+        }
+        // Keep licenses, and comments used to hide rules from old browsers.
+        int backslash = css.indexOf('\\', i + 2);
+        if (end == i + 2 || css.charAt(i + 2) == '!' || (backslash >= 0 && backslash < end)) {
+          appendCssSeparator(out, space, false, c);
+          space = false;
+          comment = false;
+          out.append(css, i, end + 2);
+        } else {
+          comment = true;
+        }
+        i = end + 2;
+        continue;
+      }
+
+      appendCssSeparator(out, space, comment, c);
+      space = false;
+      comment = false;
+
+      if (c == '"' || c == '\'') {
+        i = copyCssString(css, i, out);
+        if (i < 0) {
+          return null;
+        }
+      } else if ((c == 'u' || c == 'U') && css.regionMatches(true, i, "url(", 0, 4) &&
+          (out.length() == 0 || !isCssNameChar(out.charAt(out.length() - 1)))) {
+        i = copyCssUrl(css, i, out);
+        if (i < 0) {
+          return null;
+        }
+      } else if (c == '\\') {
+        i = copyCssEscape(css, i, out);
+      } else {
+        out.append(c);
+        ++i;
+      }
+    }
+    return out.toString();
+  }
+
+  /**
+   * @return The minified script, or null if it can't be minified safely.
+   */
+  public static String minifyJavaScript(String js) {
+    if (js.indexOf('`') >= 0 || js.contains("@cc_on") || js.contains("<!--") ||
+        js.contains("-->")) {
+      return null;
+    }
+    int length = js.length();
+    StringBuilder out = new StringBuilder(length);
+    boolean space = false;
+    boolean newline = false;
+    boolean afterRegex = false;
+    // For each open parenthesis, whether it holds the condition of an if, while, for or with.
+    List<Boolean> parens = Lists.newArrayList();
+    boolean afterCondition = false;
+    int i = 0;
+    while (i < length) {
+      char c = js.charAt(i);
+      if (isJsLineTerminator(c)) {
+        newline = true;
+        ++i;
+        continue;
+      }
+      if (isJsWhitespace(c)) {
+        space = true;
+        ++i;
+        continue;
+      }
+      if (c == '/' && i + 1 < length && js.charAt(i + 1) == '/') {
+        // The line break that ends the comment is kept.
+        while (i < length && !isJsLineTerminator(js.charAt(i))) {
+          ++i;
+        }
+        continue;
+      }
+      if (c == '/' && i + 1 < length && js.charAt(i + 1) == '*') {
+        int end = js.indexOf("*/", i + 2);
+        if (end < 0) {
+          return null;
+        }
+        if (js.charAt(i + 2) == '!') {
+          appendJsSeparator(out, space, newline, afterRegex, c);
+          space = false;
+          newline = false;
+          afterRegex = false;
+          out.append(js, i, end + 2);
+        } else {
+          // A comment spanning lines ends a statement just as a line break does.
+          for (int j = i + 2; j < end; ++j) {
+            if (isJsLineTerminator(js.charAt(j))) {
+              newline = true;
+            }
+          }
+          space = true;
+        }
+        i = end + 2;
+        continue;
+      }
+
+      appendJsSeparator(out, space, newline, afterRegex, c);
+      space = false;
+      newline = false;
+      afterRegex = false;
+      boolean closesCondition = false;
+
+      if (c == '"' || c == '\'') {
+        i = copyJsString(js, i, out);
+        if (i < 0) {
+          return null;
+        }
+      } else if (c == '/') {
+        if (afterCondition || startsRegex(out)) {
+          i = copyJsRegex(js, i, out);
+          if (i < 0) {
+            return null;
+          }
+          afterRegex = true;
+        } else {
+          out.append(c);
+          ++i;
+        }
+      } else if (c == '(') {
+        parens.add(CONDITION_KEYWORDS.contains(getLastWord(out, out.length())));
+        out.append(c);
+        ++i;
+      } else if (c == ')') {
+        closesCondition = !parens.isEmpty() && parens.remove(parens.size() - 1);
+        out.append(c);
+        ++i;
+      } else if (c == '\\' && i + 1 < length) {
+        // Unicode escape in an identifier.
+        out.append(c).append(js.charAt(i + 1));
+        i += 2;
+      } else {
+        out.append(c);
+        ++i;
+      }
+      afterCondition = closesCondition;
+    }
+
+    String minified = out.toString();
+    if (minified.contains("<!--") || minified.contains("-->") ||
+        (minified.toLowerCase().contains("</script") && !js.toLowerCase().contains("</script"))) {
+      return null;
+    }
+    return minified;
+  }
+
+  private static void appendCssSeparator(StringBuilder out, boolean space, boolean comment,
+      char next) {
+    if (out.length() == 0 || (!space && !comment)) {
+      return;
+    }
+    char previous = out.charAt(out.length() - 1);
+    if (CSS_SEPARATORS.indexOf(previous) >= 0 || CSS_SEPARATORS.indexOf(next) >= 0) {
+      return;
+    }
+    // Comments separate tokens without being whitespace, eg. in selectors.
+    out.append(space ? " " : "/**/");
+  }
+
+  private static void appendJsSeparator(StringBuilder out, boolean space, boolean newline,
+      boolean afterRegex, char next) {
+    if (out.length() == 0 || (!space && !newline)) {
+      return;
+    }
+    char previous = out.charAt(out.length() - 1);
+    if (newline && JS_CONTINUES_AFTER.indexOf(previous) < 0 &&
+        JS_CONTINUES_BEFORE.indexOf(next) < 0) {
+      // The line break may end the statement.
+      out.append('\n');
+    } else if (wouldJoin(previous, next) || (afterRegex && isJsWordChar(next))) {
+      out.append(' ');
+    }
+  }
+
+  /**
+   * @return Whether two characters would be read as part of the same token, or as a comment or
+   *     HTML comment marker, if nothing separated them.
+   */
+  private static boolean wouldJoin(char previous, char next) {
+    return (isJsWordChar(previous) && isJsWordChar(next)) ||
+        (previous == '+' && next == '+') ||
+        (previous == '-' && (next == '-' || next == '>')) ||
+        (previous == '/' && (next == '/' || next == '*')) ||
+        (previous == '<' && (next == '!' || next == '/'));
+  }
+
+  /**
+   * @return Whether a slash after the output so far starts a regular expression rather than a
+   *     division. A closing parenthesis is handled by the caller, as only the end of an if, while,
+   *     for or with condition may be followed by a regular expression.
+   */
+  private static boolean startsRegex(StringBuilder out) {
+    int end = out.length();
+    // Line breaks don't end a statement before a slash, so a division may follow one.
+    while (end > 0 && (out.charAt(end - 1) == '\n' || out.charAt(end - 1) == ' ')) {
+      --end;
+    }
+    if (end == 0) {
+      return true;
+    }
+    char previous = out.charAt(end - 1);
+    if (previous == ')' || previous == ']' || previous == '"' || previous == '\'') {
+      return false;
+    }
+    if ((previous == '+' || previous == '-') && end > 1 && out.charAt(end - 2) == previous) {
+      // Postfix increment or decrement, as in i++ / 2
+      return false;
+    }
+    if (isJsWordChar(previous)) {
+      return REGEX_KEYWORDS.contains(getLastWord(out, end));
+    }
+    return true;
+  }
+
+  private static String getLastWord(StringBuilder out, int end) {
+    int start = end;
+    while (start > 0 && isJsWordChar(out.charAt(start - 1))) {
+      --start;
+    }
+    return out.substring(start, end);
+  }
+
+  /**
+   * Copies a regular expression literal.
+   *
+   * @return The index after the closing slash, or -1 if there isn't one on the same line.
+   */
+  private static int copyJsRegex(String js, int start, StringBuilder out) {
+    boolean inClass = false;
+    int length = js.length();
+    for (int i = start + 1; i < length; ++i) {
+      char c = js.charAt(i);
+      if (isJsLineTerminator(c)) {
+        return -1;
+      } else if (c == '\\') {
+        ++i;
+      } else if (c == '[') {
+        inClass = true;
+      } else if (c == ']') {
+        inClass = false;
+      } else if (c == '/' && !inClass) {
+        if (i == start + 1) {
+          // An empty regular expression would be a comment.
+          return -1;
+        }
+        out.append(js, start, i + 1);
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Copies a string literal.
+   *
+   * @return The index after the closing quote, or -1 if it isn't closed on the same line.
+   */
+  private static int copyJsString(String js, int start, StringBuilder out) {
+    char quote = js.charAt(start);
+    int length = js.length();
+    for (int i = start + 1; i < length; ++i) {
+      char c = js.charAt(i);
+      if (c == quote) {
+        out.append(js, start, i + 1);
+        return i + 1;
+      } else if (c == '\\') {
+        // Escaped line breaks continue the string.
+        if (i + 2 < length && js.charAt(i + 1) == '\r' && js.charAt(i + 2) == '\n') {
+          ++i;
+        }
+        ++i;
+      } else if (isJsLineTerminator(c)) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Copies a string.
+   *
+   * @return The index after the closing quote, or -1 if it isn't closed on the same line.
+   */
+  private static int copyCssString(String css, int start, StringBuilder out) {
+    char quote = css.charAt(start);
+    int length = css.length();
+    for (int i = start + 1; i < length; ++i) {
+      char c = css.charAt(i);
+      if (c == quote) {
+        out.append(css, start, i + 1);
+        return i + 1;
+      } else if (c == '\\') {
+        if (i + 2 < length && css.charAt(i + 1) == '\r' && css.charAt(i + 2) == '\n') {
+          ++i;
+        }
+        ++i;
+      } else if (c == '\n' || c == '\r' || c == '\f') {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Copies a url(...) token, whose contents needn't be quoted.
+   *
+   * @return The index after the closing parenthesis, or -1 if there isn't one.
+   */
+  private static int copyCssUrl(String css, int start, StringBuilder out) {
+    int length = css.length();
+    int i = start + 4;
+    while (i < length) {
+      char c = css.charAt(i);
+      if (c == ')') {
+        out.append(css, start, i + 1);
+        return i + 1;
+      } else if (c == '"' || c == '\'') {
+        StringBuilder ignored = new StringBuilder();
+        i = copyCssString(css, i, ignored);
+        if (i < 0) {
+          return -1;
+        }
+      } else if (c == '\\') {
+        i += 2;
+      } else {
+        ++i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Copies an escape. A hex escape may be ended by one whitespace character, which is part of the
+   * escape.
+   *
+   * @return The index after the escape.
+   */
+  private static int copyCssEscape(String css, int start, StringBuilder out) {
+    int length = css.length();
+    int i = start + 1;
+    int hexEnd = i;
+    while (hexEnd < length && hexEnd < i + 6 && Character.digit(css.charAt(hexEnd), 16) >= 0) {
+      ++hexEnd;
+    }
+    if (hexEnd > i) {
+      i = hexEnd;
+      if (i + 1 < length && css.charAt(i) == '\r' && css.charAt(i + 1) == '\n') {
+        i += 2;
+      } else if (i < length && isCssWhitespace(css.charAt(i))) {
+        ++i;
+      }
+    } else if (i < length) {
+      ++i;
+    }
+    out.append(css, start, i);
+    return i;
+  }
+
+  private static boolean isCssWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+  }
+
+  private static boolean isCssNameChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '\\' || c > 127;
+  }
+
+  private static boolean isJsLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR;
+  }
+
+  private static boolean isJsWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\u000B' || c == '\f' || c == BYTE_ORDER_MARK ||
+        (c > 127 && Character.isSpaceChar(c));
+  }
+
+  private static boolean isJsWordChar(char c) {
+    // Dots join numbers, as in 1 .toString()
+    return Character.isLetterOrDigit(c) || c == '$' || c == '_' || c == '\\' || c == '.' ||
+        c > 127;
+  }
+}
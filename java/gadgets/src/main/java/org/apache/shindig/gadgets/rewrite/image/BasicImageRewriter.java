@@ -25,6 +25,7 @@ import static java.lang.Math.min;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import org.apache.sanselan.ImageFormat;
 import org.apache.sanselan.ImageInfo;
@@ -32,6 +33,7 @@ import org.apache.sanselan.ImageReadException;
 import org.apache.sanselan.Sanselan;
 import org.apache.sanselan.common.byteSources.ByteSourceInputStream;
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.DefaultGuiceModule;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
@@ -44,6 +46,13 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -84,6 +93,7 @@ public class BasicImageRewriter implements ImageRewriter {
           "Content is not an image but mime type asserts it is";
 
   private static final int DEFAULT_QUALITY = 100;
+  private static final long DEFAULT_TIMEOUT_MS = 5000;
   private static final int BITS_PER_BYTE = 8;
   private static final Color COLOR_TRANSPARENT = new Color(255, 255, 255, 0);
   private static final String CONTENT_TYPE = "Content-Type";
@@ -96,6 +106,8 @@ public class BasicImageRewriter implements ImageRewriter {
       ".gif", ".png", ".jpeg", ".jpg", ".bmp");
 
   private final OptimizerConfig config;
+  private ExecutorService executor;
+  private long timeoutMs = DEFAULT_TIMEOUT_MS;
 
   private final AtomicLong totalSourceImageSize = new AtomicLong();
   private final AtomicLong totalRewrittenImageBytes = new AtomicLong();
@@ -105,10 +117,67 @@ public class BasicImageRewriter implements ImageRewriter {
     this.config = config;
   }
 
-  public HttpResponse rewrite(HttpRequest request, HttpResponse response) {
+  /**
+   * Runs image rewriting in a bounded pool rather than in the request thread. When the pool is
+   * saturated, images are returned without being rewritten.
+   */
+  @Inject(optional = true)
+  public void setExecutor(@Named(DefaultGuiceModule.IMAGE_EXECUTOR) ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * How long a request waits for its image to be rewritten in the pool. Images that take longer,
+   * including those still queued, are returned without being rewritten.
+   */
+  @Inject(optional = true)
+  public void setTimeout(@Named("shindig.image-rewrite.timeout-ms") long timeoutMs) {
+    this.timeoutMs = timeoutMs;
+  }
+
+  public HttpResponse rewrite(final HttpRequest request, final HttpResponse response) {
     if (request == null || response == null)
       return response;
-    
+
+    if (executor == null) {
+      return rewriteImage(request, response);
+    }
+
+    Future<HttpResponse> future;
+    try {
+      future = executor.submit(new Callable<HttpResponse>() {
+        public HttpResponse call() {
+          return rewriteImage(request, response);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      log.fine("Image rewriting pool saturated, skipping " + request.getUri());
+      return response;
+    }
+
+    try {
+      return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      // Drops the work if it hasn't started. A decode already running can't be interrupted, but
+      // its result is no longer waited for.
+      future.cancel(true);
+      log.info("Timed out rewriting image " + request.getUri());
+      return response;
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      return response;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      log.log(Level.INFO, "Unknown error rewriting image " + request.toString(), cause);
+      return response;
+    }
+  }
+
+  private HttpResponse rewriteImage(HttpRequest request, HttpResponse response) {
     Uri uri = request.getUri();
     if (null == uri)
       return response;
@@ -38,15 +38,26 @@ import com.google.caja.reporting.SnippetProducer;
 import com.google.caja.util.Pair;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.util.CharsetUtil;
 import org.apache.shindig.common.util.HashUtil;
+import org.apache.shindig.common.xml.XmlException;
+import org.apache.shindig.common.xml.XmlUtil;
+import org.apache.shindig.gadgets.DefaultGuiceModule;
 import org.apache.shindig.gadgets.Gadget;
+import org.apache.shindig.gadgets.GadgetException;
+import org.apache.shindig.gadgets.parse.GadgetHtmlParser;
 import org.apache.shindig.gadgets.parse.HtmlSerialization;
 import org.apache.shindig.gadgets.parse.HtmlSerializer;
 import org.apache.shindig.gadgets.rewrite.MutableContent;
+import org.apache.shindig.gadgets.rewrite.RewritingException;
+import org.apache.shindig.gadgets.spec.GadgetSpec;
+import org.apache.shindig.gadgets.spec.View;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -57,106 +68,140 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URI;
+import java.net.URLConnection;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Cajoles the content of gadgets that require the caja feature, or are rendered with caja=1.
+ *
+ * Cajoled output is kept in memory and, if shindig.caja.cache-dir is set, on local disk. Specs that
+ * require caja may be cajoled in the background as soon as they are fetched, see
+ * {@link #precajole}. What happens when a render finds no cajoled output is configured with
+ * shindig.caja.on-cache-miss.
+ */
+@Singleton
 public class CajaContentRewriter implements org.apache.shindig.gadgets.rewrite.GadgetRewriter {
   public static final String CAJOLED_DOCUMENTS = "cajoledDocuments";
+  public static final String FAILED_CAJOLING = "failedCajoling";
+
+  // Resources the gadget references are fetched directly rather than through the fetcher, so that
+  // a slow server can't hold a render or a caja thread indefinitely.
+  private static final int RETRIEVE_TIMEOUT_MS = 10000;
+
+  /** What a render that finds no cajoled output does. */
+  public enum CacheMissPolicy {
+    /** Cajole while the user waits. */
+    CAJOLE,
+    /** Cajole in the background, and fail the render with a 503 so that it can be retried. */
+    IN_PROGRESS,
+    /**
+     * Cajole in the background, and render a page saying the gadget can't be shown yet. The page
+     * is marked as not cacheable, so that the cajoled gadget is shown once it is ready.
+     */
+    REFUSE;
+
+    public static CacheMissPolicy parse(String value) {
+      return valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+  }
 
   private final Logger logger = Logger.getLogger(CajaContentRewriter.class.getName());
+  private final ConcurrentMap<String, Boolean> cajoling = new ConcurrentHashMap<String, Boolean>();
   private Cache<String, Element> cajoledCache;
+  // Content that failed to cajole in the background, which renders then cajole while the user
+  // waits, so that the errors are shown rather than the cache miss policy applied again.
+  private Cache<String, Boolean> failedCache;
+  private CajoledContentStore contentStore;
+  private GadgetHtmlParser htmlParser;
+  private ExecutorService executor;
+  private CacheMissPolicy cacheMissPolicy = CacheMissPolicy.CAJOLE;
+  private boolean precajole;
 
   @Inject
   public void setCacheProvider(CacheProvider cacheProvider) {
     cajoledCache = cacheProvider.createCache(CAJOLED_DOCUMENTS);
-    System.err.println("Cajoled cache created" + cajoledCache);
+    failedCache = cacheProvider.createCache(FAILED_CAJOLING);
   }
 
-  public void rewrite(Gadget gadget, MutableContent content) {
+  @Inject(optional = true)
+  public void setContentStore(CajoledContentStore contentStore) {
+    this.contentStore = contentStore;
+  }
+
+  /**
+   * Background cajoling needs both a parser and an executor. Without them, all cajoling is done
+   * while the user waits.
+   */
+  @Inject(optional = true)
+  public void setBackgroundCajoling(GadgetHtmlParser htmlParser,
+      @Named(DefaultGuiceModule.CAJA_EXECUTOR) ExecutorService executor) {
+    this.htmlParser = htmlParser;
+    this.executor = executor;
+  }
+
+  @Inject(optional = true)
+  public void setCacheMissPolicy(@Named("shindig.caja.on-cache-miss") String cacheMissPolicy) {
+    this.cacheMissPolicy = CacheMissPolicy.parse(cacheMissPolicy);
+  }
+
+  @Inject(optional = true)
+  public void setPrecajole(@Named("shindig.caja.precajole") boolean precajole) {
+    this.precajole = precajole;
+  }
+
+  public void rewrite(Gadget gadget, MutableContent content) throws RewritingException {
     if (gadget.getSpec().getModulePrefs().getFeatures().containsKey("caja") ||
         "1".equals(gadget.getContext().getParameter("caja"))) {
 
-      final URI retrievedUri = gadget.getContext().getUrl().toJavaUri();
-      UriCallback cb = new UriCallback() {
-        public Reader retrieve(ExternalReference externalReference, String string)
-            throws UriCallbackException {
-          logger.info("Retrieving " + externalReference.toString());
-          Reader in = null;
-          try {
-            URI resourceUri = retrievedUri.resolve(externalReference.getUri());
-            in = new InputStreamReader(
-                resourceUri.toURL().openConnection().getInputStream(), "UTF-8");
-            char[] buf = new char[4096];
-            StringBuilder sb = new StringBuilder();
-            for (int n; (n = in.read(buf)) > 0;) {
-              sb.append(buf, 0, n);
-            }
-            return new StringReader(sb.toString());
-          } catch (java.net.MalformedURLException ex) {
-            throw new UriCallbackException(externalReference, ex);
-          } catch (IOException ex) {
-            throw new UriCallbackException(externalReference, ex);
-          } finally {
-            try {
-              in.close();
-            } catch (IOException e) {
-              // Not sure what else we can do here
-              throw new RuntimeException(e);
-            }
-          }
+      URI retrievedUri = gadget.getContext().getUrl().toJavaUri();
+      String key = getKey(retrievedUri, content.getContent());
+      Element cajoledOutput = getCajoledOutput(key);
+      boolean background = cajoledOutput == null && cacheMissPolicy != CacheMissPolicy.CAJOLE &&
+          executor != null && !hasFailed(key);
+      if (background) {
+        scheduleCajoling(retrievedUri, content.getContent(), key);
+        if (cacheMissPolicy == CacheMissPolicy.IN_PROGRESS) {
+          throw new RewritingException("Gadget is being cajoled, try again shortly",
+              HttpServletResponse.SC_SERVICE_UNAVAILABLE);
         }
+      }
 
-        public URI rewrite(ExternalReference externalReference, String mimeType) {
-          URI uri = externalReference.getUri();
-          if (uri.getScheme().equalsIgnoreCase("https") ||
-              uri.getScheme().equalsIgnoreCase("http")) {
-            return retrievedUri.resolve(uri);
-          } else if ("javascript".equalsIgnoreCase(uri.getScheme())) {
-              // Commonly used javascript url for links with onclick handlers
-              return uri.toString().equals("javascript:void(0)") ? uri : null;
-          } else {
-            return null;
-          }
-        }
-      };
-      String key = HashUtil.rawChecksum(content.getContent().getBytes());
       Document doc = content.getDocument();
       Node root = doc.createDocumentFragment();
       root.appendChild(doc.getDocumentElement());
-      Element cajoledOutput = null;
-      if (null != cajoledCache) {
-        cajoledOutput = cajoledCache.getElement(key);
-        if (null != cajoledOutput) {
-          createContainerFor(doc, doc.adoptNode(cajoledOutput));
-          content.documentChanged();
-          HtmlSerialization.attach(doc, new CajaHtmlSerializer(), null);
-          return;
-        }
+      if (null != cajoledOutput) {
+        createContainerFor(doc, importCajoledOutput(doc, cajoledOutput));
+        content.documentChanged();
+        HtmlSerialization.attach(doc, new CajaHtmlSerializer(), null);
+        return;
       }
+      if (background) {
+        // The cache miss policy is refuse, since in-progress has already failed the render.
+        Element refusal = doc.createElement("pre");
+        refusal.appendChild(doc.createTextNode(
+            "This gadget can't be shown until it has been cajoled, try again shortly"));
+        createContainerFor(doc, refusal);
+        content.documentChanged();
+        gadget.setCacheable(false);
+        return;
+      }
+
       MessageQueue mq = new SimpleMessageQueue();
-      BuildInfo bi = BuildInfo.getInstance();
-      DefaultGadgetRewriter rw = new DefaultGadgetRewriter(bi, mq);
       InputSource is = new InputSource(retrievedUri);
       boolean safe = false;
-      
+
       try {
-        Pair<Node, Element> htmlAndJs = rw.rewriteContent(retrievedUri, root, cb);
-        Node html = htmlAndJs.a;
-        Element script = htmlAndJs.b;
-
-        cajoledOutput = doc.createElement("div");
-        cajoledOutput.setAttribute("id", "cajoled-output");
-        cajoledOutput.setAttribute("classes", "g___");
-        cajoledOutput.setAttribute("style", "position: relative;");
-        
-        cajoledOutput.appendChild(doc.adoptNode(html));
-        cajoledOutput.appendChild(tameCajaClientApi(doc));
-        cajoledOutput.appendChild(doc.adoptNode(script));
-        
-        if (cajoledCache != null) {
-          cajoledCache.addElement(key, cajoledOutput);
-        }
-        createContainerFor(doc, cajoledOutput);
+        cajoledOutput = cajole(retrievedUri, doc, root, mq);
+        storeCajoledOutput(key, cajoledOutput);
+        createContainerFor(doc, importCajoledOutput(doc, cajoledOutput));
         content.documentChanged();
         safe = true;
         HtmlSerialization.attach(doc, new CajaHtmlSerializer(), null);
@@ -175,6 +220,198 @@ public class CajaContentRewriter implements org.apache.shindig.gadgets.rewrite.G
     }
   }
 
+  /**
+   * Starts cajoling the views of a newly fetched spec in the background, if it requires caja.
+   * Only views whose content is the same for every render are cajoled, and their output is only
+   * found by a render if no earlier rewriter changes the content.
+   */
+  public void precajole(GadgetSpec spec) {
+    if (!precajole || executor == null ||
+        !spec.getModulePrefs().getFeatures().containsKey("caja")) {
+      return;
+    }
+    URI retrievedUri = spec.getUrl().toJavaUri();
+    for (View view : spec.getViews().values()) {
+      if (view.getType() == View.ContentType.HTML && view.getHref() == null &&
+          view.hasOriginalContent()) {
+        String viewContent = view.getContent();
+        String key = getKey(retrievedUri, viewContent);
+        if (getCajoledOutput(key) == null && !hasFailed(key)) {
+          scheduleCajoling(retrievedUri, viewContent, key);
+        }
+      }
+    }
+  }
+
+  private String getKey(URI retrievedUri, String content) {
+    // Relative references in the content are resolved against the gadget's url.
+    return HashUtil.checksum(CharsetUtil.getUtf8Bytes(retrievedUri + "\n" + content));
+  }
+
+  /**
+   * @return The cajoled output for the key, from memory or disk, or null if there is none. The
+   *     element may be shared, so callers import a copy of it with {@link #importCajoledOutput}.
+   */
+  private Element getCajoledOutput(String key) {
+    Element cajoledOutput = cajoledCache == null ? null : cajoledCache.getElement(key);
+    if (cajoledOutput == null && contentStore != null) {
+      String version = BuildInfo.getInstance().getBuildVersion();
+      String stored = contentStore.get(version, key);
+      if (stored != null) {
+        try {
+          cajoledOutput = XmlUtil.parse(stored);
+          if (cajoledCache != null) {
+            cajoledCache.addElement(key, cajoledOutput);
+          }
+        } catch (XmlException e) {
+          logger.log(Level.INFO, "Discarding unreadable cajoled output " + key, e);
+          contentStore.remove(version, key);
+        }
+      }
+    }
+    return cajoledOutput;
+  }
+
+  /**
+   * Copies shared cajoled output into doc. Even reading a DOM node may update state cached in it,
+   * so copies of the same element are made one at a time.
+   */
+  private static Node importCajoledOutput(Document doc, Element cajoledOutput) {
+    synchronized (cajoledOutput) {
+      return doc.importNode(cajoledOutput, true);
+    }
+  }
+
+  private void storeCajoledOutput(String key, Element cajoledOutput) {
+    if (cajoledCache != null) {
+      cajoledCache.addElement(key, cajoledOutput);
+    }
+    if (failedCache != null) {
+      failedCache.removeElement(key);
+    }
+    if (contentStore != null && contentStore.isEnabled()) {
+      StringWriter sw = new StringWriter();
+      String xml;
+      synchronized (cajoledOutput) {
+        xml = Nodes.render(cajoledOutput, new RenderContext(new Concatenator(sw, null)).asXml());
+      }
+      contentStore.put(BuildInfo.getInstance().getBuildVersion(), key, xml);
+    }
+  }
+
+  private boolean hasFailed(String key) {
+    return failedCache != null && failedCache.getElement(key) != null;
+  }
+
+  /**
+   * Cajoles content on the caja executor, unless it is already being cajoled.
+   */
+  private void scheduleCajoling(final URI retrievedUri, final String content, final String key) {
+    if (cajoling.putIfAbsent(key, Boolean.TRUE) != null) {
+      return;
+    }
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          MessageQueue mq = new SimpleMessageQueue();
+          boolean stored = false;
+          try {
+            Document doc = htmlParser.parseDom(content);
+            Node root = doc.createDocumentFragment();
+            root.appendChild(doc.getDocumentElement());
+            storeCajoledOutput(key, cajole(retrievedUri, doc, root, mq));
+            stored = true;
+          } catch (GadgetRewriteException e) {
+            // Renders cajole it again while the user waits, to show the errors.
+            logException(e, mq);
+          } catch (GadgetException e) {
+            logger.log(Level.INFO, "Unable to parse content of " + retrievedUri, e);
+          } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Unable to cajole content of " + retrievedUri, e);
+          } finally {
+            if (!stored && failedCache != null) {
+              failedCache.addElement(key, Boolean.TRUE);
+            }
+            cajoling.remove(key);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      cajoling.remove(key);
+      logger.log(Level.FINE, "Cajoling of {0} rejected", retrievedUri);
+    }
+  }
+
+  /**
+   * Cajoles the nodes under root.
+   *
+   * @return The cajoled output, owned by doc but not attached to it.
+   */
+  private Element cajole(final URI retrievedUri, Document doc, Node root, MessageQueue mq)
+      throws GadgetRewriteException {
+    UriCallback cb = new UriCallback() {
+      public Reader retrieve(ExternalReference externalReference, String string)
+          throws UriCallbackException {
+        logger.info("Retrieving " + externalReference.toString());
+        Reader in = null;
+        try {
+          URI resourceUri = retrievedUri.resolve(externalReference.getUri());
+          URLConnection connection = resourceUri.toURL().openConnection();
+          connection.setConnectTimeout(RETRIEVE_TIMEOUT_MS);
+          connection.setReadTimeout(RETRIEVE_TIMEOUT_MS);
+          in = new InputStreamReader(connection.getInputStream(), "UTF-8");
+          char[] buf = new char[4096];
+          StringBuilder sb = new StringBuilder();
+          for (int n; (n = in.read(buf)) > 0;) {
+            sb.append(buf, 0, n);
+          }
+          return new StringReader(sb.toString());
+        } catch (java.net.MalformedURLException ex) {
+          throw new UriCallbackException(externalReference, ex);
+        } catch (IOException ex) {
+          throw new UriCallbackException(externalReference, ex);
+        } finally {
+          try {
+            if (in != null) {
+              in.close();
+            }
+          } catch (IOException e) {
+            // Not sure what else we can do here
+            throw new RuntimeException(e);
+          }
+        }
+      }
+
+      public URI rewrite(ExternalReference externalReference, String mimeType) {
+        URI uri = externalReference.getUri();
+        if (uri.getScheme().equalsIgnoreCase("https") ||
+            uri.getScheme().equalsIgnoreCase("http")) {
+          return retrievedUri.resolve(uri);
+        } else if ("javascript".equalsIgnoreCase(uri.getScheme())) {
+            // Commonly used javascript url for links with onclick handlers
+            return uri.toString().equals("javascript:void(0)") ? uri : null;
+        } else {
+          return null;
+        }
+      }
+    };
+
+    DefaultGadgetRewriter rw = new DefaultGadgetRewriter(BuildInfo.getInstance(), mq);
+    Pair<Node, Element> htmlAndJs = rw.rewriteContent(retrievedUri, root, cb);
+    Node html = htmlAndJs.a;
+    Element script = htmlAndJs.b;
+
+    Element cajoledOutput = doc.createElement("div");
+    cajoledOutput.setAttribute("id", "cajoled-output");
+    cajoledOutput.setAttribute("classes", "g___");
+    cajoledOutput.setAttribute("style", "position: relative;");
+
+    cajoledOutput.appendChild(doc.adoptNode(html));
+    cajoledOutput.appendChild(tameCajaClientApi(doc));
+    cajoledOutput.appendChild(doc.adoptNode(script));
+    return cajoledOutput;
+  }
+
   private void createContainerFor(Document doc, Node el) {
     Element docEl = doc.createElement("html");
     Element head = doc.createElement("head");
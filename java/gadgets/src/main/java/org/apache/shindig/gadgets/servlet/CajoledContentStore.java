@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.servlet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps cajoled gadget content on local disk, so that it survives restarts and eviction from the
+ * in-memory cache. Entries are written to a temporary file and renamed into place, so a reader
+ * never sees a partly written entry.
+ */
+@Singleton
+public class CajoledContentStore {
+  private static final Logger logger = Logger.getLogger(CajoledContentStore.class.getName());
+  private static final String ENCODING = "UTF-8";
+
+  private final File directory;
+
+  /**
+   * @param directory Where to keep entries. Nothing is stored if this is empty.
+   */
+  @Inject
+  public CajoledContentStore(@Named("shindig.caja.cache-dir") String directory) {
+    if (StringUtils.isEmpty(directory)) {
+      this.directory = null;
+    } else {
+      this.directory = new File(directory);
+      if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+        logger.warning("Unable to create " + directory + ", cajoled content is not kept on disk");
+      }
+    }
+  }
+
+  public boolean isEnabled() {
+    return directory != null && directory.isDirectory();
+  }
+
+  /**
+   * @param version The version of the cajoler that produced the content.
+   * @param checksum The checksum of the input that was cajoled.
+   * @return The stored content, or null if there is none.
+   */
+  public String get(String version, String checksum) {
+    if (!isEnabled()) {
+      return null;
+    }
+    File file = getFile(version, checksum);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      return FileUtils.readFileToString(file, ENCODING);
+    } catch (IOException e) {
+      logger.log(Level.INFO, "Unable to read cajoled content from " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Stores content, replacing any content already stored for the same version and checksum.
+   */
+  public void put(String version, String checksum, String content) {
+    if (!isEnabled()) {
+      return;
+    }
+    File file = getFile(version, checksum);
+    File parent = file.getParentFile();
+    File temp = null;
+    try {
+      if (!parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Unable to create " + parent);
+      }
+      temp = File.createTempFile(checksum, ".tmp", parent);
+      FileUtils.writeStringToFile(temp, content, ENCODING);
+      if (!temp.renameTo(file)) {
+        // Some platforms won't rename over an existing file.
+        file.delete();
+        if (!temp.renameTo(file)) {
+          throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+      }
+      temp = null;
+    } catch (IOException e) {
+      logger.log(Level.INFO, "Unable to write cajoled content to " + file, e);
+    } finally {
+      if (temp != null) {
+        temp.delete();
+      }
+    }
+  }
+
+  /**
+   * Removes stored content, eg. when it can no longer be read.
+   */
+  public void remove(String version, String checksum) {
+    if (isEnabled()) {
+      getFile(version, checksum).delete();
+    }
+  }
+
+  private File getFile(String version, String checksum) {
+    // Each version of the cajoler gets its own directory, so old output is easily cleaned up.
+    File versionDirectory = new File(directory, version.replaceAll("[^A-Za-z0-9._-]", "_"));
+    return new File(versionDirectory, checksum.replaceAll("[^A-Za-z0-9._-]", "_") + ".xml");
+  }
+}
@@ -19,12 +19,14 @@ package org.apache.shindig.gadgets.servlet;
 
 import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.servlet.InjectedServlet;
+import org.apache.shindig.common.util.CharsetUtil;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.UrlGenerator;
 import org.apache.shindig.gadgets.UrlValidationStatus;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.render.Renderer;
 import org.apache.shindig.gadgets.render.RenderingResults;
+import org.apache.shindig.gadgets.rewrite.RewriterInstrumentation;
 
 import com.google.inject.Inject;
 
@@ -40,6 +42,8 @@ import javax.servlet.http.HttpServletResponse;
  */
 public class GadgetRenderingServlet extends InjectedServlet {
   static final int DEFAULT_CACHE_TTL = 60 * 5;
+  // Seconds a client is asked to wait before retrying a render that the server can't do yet.
+  static final String RETRY_AFTER = "5";
   private Renderer renderer;
   private UrlGenerator urlGenerator;
 
@@ -70,7 +74,7 @@ public class GadgetRenderingServlet extends InjectedServlet {
     RenderingResults results = renderer.render(context);
     switch (results.getStatus()) {
       case OK:
-        if (context.getIgnoreCache() ||
+        if (context.getIgnoreCache() || !results.isCacheable() ||
             urlstatus == UrlValidationStatus.INVALID) {
           HttpUtil.setCachingHeaders(resp, 0);
         } else if (urlstatus == UrlValidationStatus.VALID_VERSIONED) {
@@ -86,10 +90,16 @@ public class GadgetRenderingServlet extends InjectedServlet {
           }
           HttpUtil.setCachingHeaders(resp, ttl, true);
         }
-        resp.getWriter().print(results.getContent());
+        if (results.getRewriterTimings() != null) {
+          resp.setHeader(RewriterInstrumentation.DEBUG_HEADER, results.getRewriterTimings());
+        }
+        results.writeContent(resp.getOutputStream(), CharsetUtil.UTF8);
         break;
       case ERROR:
         resp.setStatus(results.getHttpStatusCode());
+        if (results.getHttpStatusCode() == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+          resp.setHeader("Retry-After", RETRY_AFTER);
+        }
         resp.getWriter().print(StringEscapeUtils.escapeHtml(results.getErrorMessage()));
         break;
       case MUST_REDIRECT:
@@ -17,11 +17,12 @@
  */
 package org.apache.shindig.gadgets.servlet;
 
-import com.google.common.collect.ImmutableSet;
-
 import org.apache.commons.lang.StringUtils;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.servlet.InjectedServlet;
+import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.RenderingContext;
@@ -30,11 +31,17 @@ import org.apache.shindig.gadgets.UrlValidationStatus;
 import org.apache.shindig.gadgets.features.FeatureRegistry;
 import org.apache.shindig.gadgets.features.FeatureResource;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -42,8 +49,12 @@ import javax.servlet.http.HttpServletResponse;
 /**
  * Simple servlet serving up JavaScript files by their registered aliases.
  * Used by type=URL gadgets in loading JavaScript resources.
+ *
+ * Bundles are cached per container, rendering context, debug flag and feature set, together with
+ * their gzipped form and an ETag, until the feature registry changes.
  */
 public class JsServlet extends InjectedServlet {
+  static final String CACHE_NAME = "jsBundles";
 
   private FeatureRegistry registry;
   @Inject
@@ -57,16 +68,23 @@ public class JsServlet extends InjectedServlet {
     this.urlGenerator = urlGenerator;
   }
 
+  private Cache<List<Object>, JsBundle> bundleCache;
+  @Inject
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    this.bundleCache = cacheProvider.createCache(CACHE_NAME);
+  }
+
   @Override
   protected void doGet(HttpServletRequest req, HttpServletResponse resp)
       throws IOException {
-    // If an If-Modified-Since header is ever provided, we always say
-    // not modified. This is because when there actually is a change,
-    // cache busting should occur.
     UrlValidationStatus vstatus = urlGenerator.validateJsUrl(
         req.getRequestURL().append('?').append(req.getQueryString()).toString());
-    if (req.getHeader("If-Modified-Since") != null &&
+    String ifNoneMatch = req.getHeader("If-None-Match");
+    if (ifNoneMatch == null && req.getHeader("If-Modified-Since") != null &&
         vstatus == UrlValidationStatus.VALID_VERSIONED) {
+      // A versioned url only ever serves the current content, so any conditional request for it
+      // can be answered without looking anything up. When there actually is a change, cache
+      // busting should occur.
       resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
       return;
     }
@@ -82,7 +100,8 @@ public class JsServlet extends InjectedServlet {
           0, resourceName.length() - ".js".length());
     }
 
-    Set<String> needed = ImmutableSet.of(StringUtils.split(resourceName, ':'));
+    // Sorted, so that every ordering of the same features yields the same bundle.
+    Set<String> needed = Sets.newTreeSet(Arrays.asList(StringUtils.split(resourceName, ':')));
 
     String debugStr = req.getParameter("debug");
     String containerParam = req.getParameter("container");
@@ -105,24 +124,9 @@ public class JsServlet extends InjectedServlet {
         return container;
       }
     };
-    Collection<? extends FeatureResource> resources =
-        registry.getFeatureResources(ctx, needed, null);
-    StringBuilder jsData = new StringBuilder();
-    boolean isProxyCacheable = true;
-    for (FeatureResource featureResource : resources) {
-      String content = debug ? featureResource.getDebugContent() : featureResource.getContent();
-      if (!featureResource.isExternal()) {
-        jsData.append(content);
-      } else {
-        // Support external/type=url feature serving through document.write()
-        jsData.append("document.write('<script src=\"").append(content).append("\"></script>')");
-      }
-      isProxyCacheable = isProxyCacheable && featureResource.isProxyCacheable();
-      jsData.append(";\n");
-    }
-
 
-    if (jsData.length() == 0) {
+    JsBundle bundle = getBundle(ctx, needed, debug);
+    if (bundle == null) {
       resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
       return;
     }
@@ -130,11 +134,11 @@ public class JsServlet extends InjectedServlet {
     switch (vstatus) {
       case VALID_VERSIONED:
         // Versioned files get cached indefinitely
-        HttpUtil.setCachingHeaders(resp, !isProxyCacheable);
+        HttpUtil.setCachingHeaders(resp, !bundle.proxyCacheable);
         break;
       case VALID_UNVERSIONED:
         // Unversioned files get cached for 1 hour.
-        HttpUtil.setCachingHeaders(resp, 60 * 60, !isProxyCacheable);
+        HttpUtil.setCachingHeaders(resp, 60 * 60, !bundle.proxyCacheable);
         break;
       case INVALID:
         // URL is invalid in some way, likely version mismatch.
@@ -142,9 +146,154 @@ public class JsServlet extends InjectedServlet {
         HttpUtil.setNoCache(resp);
         break;
     }
+
+    boolean gzip = bundle.gzipped != null && acceptsGzip(req.getHeader("Accept-Encoding"));
+    String etag = gzip ? bundle.gzipEtag : bundle.etag;
+    if (bundle.gzipped != null) {
+      resp.setHeader("Vary", "Accept-Encoding");
+    }
+    if (etag != null) {
+      resp.setHeader("ETag", etag);
+      if (ifNoneMatch != null && etagMatches(ifNoneMatch, etag)) {
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+    }
+
+    byte[] response = gzip ? bundle.gzipped : bundle.content;
+    if (gzip) {
+      resp.setHeader("Content-Encoding", "gzip");
+    }
     resp.setContentType("text/javascript; charset=utf-8");
-    byte[] response = jsData.toString().getBytes("UTF-8");
     resp.setContentLength(response.length);
     resp.getOutputStream().write(response);
   }
+
+  /**
+   * @return The bundle for the needed features, or null if there is nothing to serve.
+   */
+  private JsBundle getBundle(GadgetContext ctx, Set<String> needed, boolean debug)
+      throws IOException {
+    int registrationCount = registry.getRegistrationCount();
+    List<Object> key = null;
+    if (bundleCache != null) {
+      key = Arrays.<Object>asList(ctx.getContainer(), ctx.getRenderingContext(), debug,
+          Lists.newArrayList(needed));
+      JsBundle bundle = bundleCache.getElement(key);
+      if (bundle != null && bundle.registrationCount == registrationCount) {
+        return bundle;
+      }
+    }
+
+    Collection<? extends FeatureResource> resources =
+        registry.getFeatureResources(ctx, needed, null);
+    StringBuilder jsData = new StringBuilder();
+    boolean isProxyCacheable = true;
+    for (FeatureResource featureResource : resources) {
+      String content = debug ? featureResource.getDebugContent() : featureResource.getContent();
+      if (!featureResource.isExternal()) {
+        jsData.append(content);
+      } else {
+        // Support external/type=url feature serving through document.write()
+        jsData.append("document.write('<script src=\"").append(content).append("\"></script>')");
+      }
+      isProxyCacheable = isProxyCacheable && featureResource.isProxyCacheable();
+      jsData.append(";\n");
+    }
+
+    if (jsData.length() == 0) {
+      return null;
+    }
+
+    byte[] content = jsData.toString().getBytes("UTF-8");
+    if (!isProxyCacheable) {
+      // Content varies by user agent, so it is neither shared nor tagged.
+      return new JsBundle(content, null, null, null, false, registrationCount);
+    }
+
+    String hash = HashUtil.checksum(content);
+    byte[] gzipped = gzip(content);
+    JsBundle bundle = new JsBundle(content, gzipped, '"' + hash + '"',
+        gzipped == null ? null : '"' + hash + "-gz\"", true, registrationCount);
+    if (key != null) {
+      bundleCache.addElement(key, bundle);
+    }
+    return bundle;
+  }
+
+  /**
+   * @return The gzipped content, or null if compressing doesn't make it any smaller.
+   */
+  private static byte[] gzip(byte[] content) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2);
+    GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+    gzipOut.write(content);
+    gzipOut.close();
+    return out.size() < content.length ? out.toByteArray() : null;
+  }
+
+  /**
+   * @return True if the Accept-Encoding header allows a gzipped response.
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : StringUtils.split(acceptEncoding, ',')) {
+      String[] parts = StringUtils.split(coding, ';');
+      if (parts.length == 0) {
+        continue;
+      }
+      String name = parts[0].trim();
+      if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip") || name.equals("*")) {
+        for (int i = 1; i < parts.length; ++i) {
+          String param = StringUtils.deleteWhitespace(parts[i]);
+          if (param.startsWith("q=") && param.substring(2).matches("0(\\.0*)?")) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return True if any entity tag in the If-None-Match header matches the given tag. Weak
+   *     comparison is used, as required for If-None-Match.
+   */
+  static boolean etagMatches(String ifNoneMatch, String etag) {
+    for (String candidate : StringUtils.split(ifNoneMatch, ',')) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*") || candidate.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A fully built response for a set of features.
+   */
+  private static class JsBundle {
+    private final byte[] content;
+    private final byte[] gzipped;
+    private final String etag;
+    private final String gzipEtag;
+    private final boolean proxyCacheable;
+    private final int registrationCount;
+
+    private JsBundle(byte[] content, byte[] gzipped, String etag, String gzipEtag,
+        boolean proxyCacheable, int registrationCount) {
+      this.content = content;
+      this.gzipped = gzipped;
+      this.etag = etag;
+      this.gzipEtag = gzipEtag;
+      this.proxyCacheable = proxyCacheable;
+      this.registrationCount = registrationCount;
+    }
+  }
 }
@@ -18,6 +18,7 @@
  */
 package org.apache.shindig.gadgets.servlet;
 
+import org.apache.shindig.gadgets.DefaultGuiceModule;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.UrlGenerator;
@@ -30,6 +31,7 @@ import org.apache.shindig.gadgets.spec.View;
 
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -54,7 +56,8 @@ public class JsonRpcHandler {
   protected final UrlGenerator urlGenerator;
 
   @Inject
-  public JsonRpcHandler(ExecutorService executor, Processor processor, UrlGenerator urlGenerator) {
+  public JsonRpcHandler(@Named(DefaultGuiceModule.RPC_EXECUTOR) ExecutorService executor,
+      Processor processor, UrlGenerator urlGenerator) {
     this.executor = executor;
     this.processor = processor;
     this.urlGenerator = urlGenerator;
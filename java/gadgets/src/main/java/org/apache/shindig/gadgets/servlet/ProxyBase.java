@@ -53,6 +53,7 @@ public abstract class ProxyBase {
   // Public because of rewriter. Rewriter should be cleaned up.
   public static final String REWRITE_MIME_TYPE_PARAM = "rewriteMime";
   public static final String SANITIZE_CONTENT_PARAM = "sanitize";
+  public static final String DEBUG_PARAM = "debug";
 
   protected static final Set<String> DISALLOWED_RESPONSE_HEADERS = ImmutableSet.of(
       "set-cookie", "content-length", "content-encoding", "etag", "last-modified" ,"accept-ranges",
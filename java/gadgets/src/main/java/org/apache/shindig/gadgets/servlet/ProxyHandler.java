@@ -101,6 +101,8 @@ public class ProxyHandler extends ProxyBase {
     req.setSanitizationRequested(
         "1".equals(request.getParameter(SANITIZE_CONTENT_PARAM)));
 
+    req.setDebug("1".equals(request.getParameter(DEBUG_PARAM)));
+
     // If the proxy request specifies a refresh param then we want to force the min TTL for
     // the retrieved entry in the cache regardless of the headers on the content when it
     // is fetched from the original source.
@@ -17,6 +17,7 @@
  */
 package org.apache.shindig.gadgets.spec;
 
+import org.apache.shindig.common.util.StringInterner;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -125,7 +126,8 @@ public class Feature {
       throw new SpecParserException(
           (required ? "Require" : "Optional") +"@feature is required.");
     }
-    this.name = name;
+    // Feature and param names are shared by many specs.
+    this.name = StringInterner.intern(name);
     NodeList children = feature.getElementsByTagName("Param");
     if (children.getLength() > 0) {
       ImmutableMultimap.Builder<String, String> params = ImmutableMultimap.builder();
@@ -136,7 +138,7 @@ public class Feature {
         if (paramName == null) {
           throw new SpecParserException("Param@name is required");
         }
-        params.put(paramName, param.getTextContent());
+        params.put(StringInterner.intern(paramName), param.getTextContent());
       }
       this.params = params.build();
     } else {
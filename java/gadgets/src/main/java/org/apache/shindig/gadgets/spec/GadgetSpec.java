@@ -20,6 +20,7 @@ package org.apache.shindig.gadgets.spec;
 import org.apache.commons.lang.StringUtils;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.util.HashUtil;
+import org.apache.shindig.common.util.StringInterner;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.apache.shindig.gadgets.variables.Substitutions;
 
@@ -34,9 +35,11 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Represents a gadget specification root element (Module).
@@ -87,7 +90,7 @@ public class GadgetSpec {
       if ("Content".equals(name)) {
         String viewNames = XmlUtil.getAttribute(element, "view", "default");
         for (String view : StringUtils.split(viewNames, ',')) {
-          view = view.trim();
+          view = StringInterner.intern(view.trim());
           List<Element> viewElements = views.get(view);
           if (viewElements == null) {
             viewElements = Lists.newLinkedList();
@@ -119,6 +122,16 @@ public class GadgetSpec {
     } else {
       this.userPrefs = ImmutableList.copyOf(userPrefs);
     }
+
+    Set<Substitutions.Type> placeholders = EnumSet.noneOf(Substitutions.Type.class);
+    placeholders.addAll(this.modulePrefs.getPlaceholderTypes());
+    for (UserPref pref : this.userPrefs) {
+      placeholders.addAll(pref.getPlaceholderTypes());
+    }
+    for (View view : this.views.values()) {
+      placeholders.addAll(view.getPlaceholderTypes());
+    }
+    this.placeholders = Collections.unmodifiableSet(placeholders);
   }
 
   /**
@@ -135,7 +148,12 @@ public class GadgetSpec {
   private GadgetSpec(GadgetSpec spec) {
     url = spec.url;
     checksum = spec.checksum;
-    attributes.putAll(spec.attributes);
+    placeholders = spec.placeholders;
+    Map<String, Object> specAttributes = spec.attributes;
+    if (specAttributes != null) {
+      attributes = makeAttributeMap();
+      attributes.putAll(specAttributes);
+    }
   }
 
   /**
@@ -154,6 +172,15 @@ public class GadgetSpec {
     return checksum;
   }
 
+  /**
+   * The types of hangman variable that occur anywhere in the spec. Substitutions of other types
+   * have no effect on the spec.
+   */
+  private final Set<Substitutions.Type> placeholders;
+  public Set<Substitutions.Type> getPlaceholderTypes() {
+    return placeholders;
+  }
+
   /**
    * ModulePrefs
    */
@@ -193,10 +220,17 @@ public class GadgetSpec {
    * A map of attributes associated with the instance of the spec
    * Used by handler classes to use specs to carry context.
    * Not defined by the specification
+   *
+   * Most specs never have attributes set, so the map is only created when needed.
    */
-  private final Map<String, Object> attributes = new MapMaker().makeMap();
+  private volatile Map<String, Object> attributes;
   public Object getAttribute(String key) {
-    return attributes.get(key);
+    Map<String, Object> attributes = this.attributes;
+    return attributes == null ? null : attributes.get(key);
+  }
+
+  private static Map<String, Object> makeAttributeMap() {
+    return new MapMaker().initialCapacity(4).concurrencyLevel(1).makeMap();
   }
 
   /**
@@ -207,6 +241,13 @@ public class GadgetSpec {
    * @param o The value of the attribute.
    */
   public void setAttribute(String key, Object o) {
+    if (attributes == null) {
+      synchronized (this) {
+        if (attributes == null) {
+          attributes = makeAttributeMap();
+        }
+      }
+    }
     attributes.put(key, o);
   }
 
@@ -214,29 +255,45 @@ public class GadgetSpec {
    * Performs substitutions on the spec. See individual elements for
    * details on what gets substituted.
    *
+   * Elements that substitution would not change are shared with this spec rather than copied.
+   * View content is substituted when it is first read, so the substituter must not be modified
+   * afterwards.
+   *
    * @param substituter
-   * @return The substituted spec.
+   * @return The substituted spec, or this spec if nothing would change.
    */
   public GadgetSpec substitute(Substitutions substituter) {
-    GadgetSpec spec = new GadgetSpec(this);
-    spec.modulePrefs = modulePrefs.substitute(substituter);
+    ModulePrefs substitutedPrefs = modulePrefs.substitute(substituter);
+    boolean changed = substitutedPrefs != modulePrefs;
 
-    if (userPrefs.isEmpty()) {
-      spec.userPrefs = Collections.emptyList();
-    } else {
-      List<UserPref> prefs = Lists.newArrayListWithCapacity(userPrefs.size());
-      for (UserPref pref : userPrefs) {
-        prefs.add(pref.substitute(substituter));
+    List<UserPref> prefs = null;
+    for (int i = 0, j = userPrefs.size(); i < j; ++i) {
+      UserPref pref = userPrefs.get(i);
+      UserPref substituted = pref.substitute(substituter);
+      if (substituted != pref && prefs == null) {
+        prefs = Lists.newArrayList(userPrefs.subList(0, i));
+      }
+      if (prefs != null) {
+        prefs.add(substituted);
       }
-      spec.userPrefs = ImmutableList.copyOf(prefs);
     }
+    changed |= prefs != null;
 
-    ImmutableMap.Builder<String, View> viewMap = ImmutableMap.builder();
+    Map<String, View> substitutedViews = Maps.newHashMapWithExpectedSize(views.size());
     for (View view : views.values()) {
-      viewMap.put(view.getName(), view.substitute(substituter));
+      View substituted = view.substitute(substituter);
+      changed |= substituted != view;
+      substitutedViews.put(view.getName(), substituted);
     }
-    spec.views = viewMap.build();
 
+    if (!changed) {
+      return this;
+    }
+
+    GadgetSpec spec = new GadgetSpec(this);
+    spec.modulePrefs = substitutedPrefs;
+    spec.userPrefs = prefs == null ? userPrefs : ImmutableList.copyOf(prefs);
+    spec.views = ImmutableMap.copyOf(substitutedViews);
     return spec;
   }
 
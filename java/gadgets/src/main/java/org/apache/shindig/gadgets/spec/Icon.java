@@ -16,11 +16,15 @@
  * specific language governing permissions and limitations under the License.
  */
 package org.apache.shindig.gadgets.spec;
+import org.apache.shindig.common.util.StringInterner;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.apache.shindig.gadgets.variables.Substitutions;
 
 import org.w3c.dom.Element;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 /**
  * Represents a ModuleSpec.Icon tag.
  *
@@ -57,6 +61,14 @@ public class Icon {
     return content;
   }
 
+  /**
+   * Types of placeholder in content.
+   */
+  private final Set<Substitutions.Type> placeholders;
+  Set<Substitutions.Type> getPlaceholderTypes() {
+    return placeholders;
+  }
+
   /**
    * Substitutes the icon fields according to the spec.
    *
@@ -64,6 +76,9 @@ public class Icon {
    * @return The substituted icon
    */
   public Icon substitute(Substitutions substituter) {
+    if (!substituter.hasSubstitutions(placeholders)) {
+      return this;
+    }
     Icon icon = new Icon(this);
     icon.content = substituter.substituteString(content);
     return icon;
@@ -92,8 +107,10 @@ public class Icon {
       throw new SpecParserException(
           "The only valid value for Icon@mode is \"base64\"");
     }
-    type = XmlUtil.getAttribute(element, "type", "");
+    type = StringInterner.intern(XmlUtil.getAttribute(element, "type", ""));
     content = element.getTextContent();
+    placeholders = EnumSet.noneOf(Substitutions.Type.class);
+    Substitutions.findPlaceholders(content, placeholders);
   }
 
   /**
@@ -104,5 +121,6 @@ public class Icon {
   private Icon(Icon icon) {
     mode = icon.mode;
     type = icon.type;
+    placeholders = icon.placeholders;
   }
 }
\ No newline at end of file
@@ -19,11 +19,15 @@
 package org.apache.shindig.gadgets.spec;
 
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.StringInterner;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.apache.shindig.gadgets.variables.Substitutions;
 
 import org.w3c.dom.Element;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 /**
  * Represents /ModulePrefs/Link elements.
  */
@@ -32,17 +36,22 @@ public class LinkSpec {
 
   public LinkSpec(Element element, Uri base) throws SpecParserException {
     this.base = base;
-    rel = XmlUtil.getAttribute(element, "rel");
+    String rel = XmlUtil.getAttribute(element, "rel");
     if (rel == null) {
       throw new SpecParserException("Link/@rel is required!");
     }
+    this.rel = StringInterner.intern(rel);
     href = XmlUtil.getUriAttribute(element, "href");
     if (href == null) {
       throw new SpecParserException("Link/@href is required!");
     }
+    placeholders = EnumSet.noneOf(Substitutions.Type.class);
+    Substitutions.findPlaceholders(rel, placeholders);
+    Substitutions.findPlaceholders(href.toString(), placeholders);
   }
 
   private LinkSpec(LinkSpec rhs, Substitutions substitutions) {
+    placeholders = rhs.placeholders;
     rel = substitutions.substituteString(rhs.rel);
     base = rhs.base;
     href = base.resolve(substitutions.substituteUri(rhs.href));
@@ -64,10 +73,23 @@ public class LinkSpec {
     return href;
   }
 
+  /**
+   * Types of placeholder in rel and href.
+   */
+  private final Set<Substitutions.Type> placeholders;
+  Set<Substitutions.Type> getPlaceholderTypes() {
+    return placeholders;
+  }
+
   /**
    * Performs variable substitution on all visible elements.
+   *
+   * @return This link if nothing would change.
    */
   public LinkSpec substitute(Substitutions substitutions) {
+    if (!substitutions.hasSubstitutions(placeholders) && href.isAbsolute()) {
+      return this;
+    }
     return new LinkSpec(this, substitutions);
   }
 
@@ -49,8 +49,12 @@ public class LocaleSpec {
     String country = XmlUtil.getAttribute(element, "country", "ALL").toUpperCase();
     this.locale = new Locale(language, country);
 
-    languageDirection = XmlUtil.getAttribute(element, "language_direction", "ltr");
-    if (!("ltr".equals(languageDirection) || "rtl".equals(languageDirection))) {
+    String languageDirection = XmlUtil.getAttribute(element, "language_direction", "ltr");
+    if ("ltr".equals(languageDirection)) {
+      this.languageDirection = "ltr";
+    } else if ("rtl".equals(languageDirection)) {
+      this.languageDirection = "rtl";
+    } else {
       throw new SpecParserException("Locale/@language_direction must be ltr or rtl");
     }
     String messagesString = XmlUtil.getAttribute(element, "messages");
@@ -18,6 +18,7 @@
 package org.apache.shindig.gadgets.spec;
 
 import org.apache.shindig.common.JsonSerializer;
+import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.common.xml.XmlException;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.apache.shindig.gadgets.parse.DefaultHtmlSerializer;
@@ -42,6 +43,7 @@ public class MessageBundle {
   private static final DefaultHtmlSerializer htmlSerializer = new DefaultHtmlSerializer();
   private final ImmutableMap<String, String> messages;
   private final String languageDirection;
+  private final String checksum;
 
   /* lazily created cache of the json-encoded form of the bundle */
   private String jsonString;
@@ -63,6 +65,7 @@ public class MessageBundle {
     }
     messages = parseMessages(doc);
     languageDirection = locale.getLanguageDirection();
+    checksum = HashUtil.checksum(xml.getBytes());
   }
 
    /**
@@ -74,6 +77,7 @@ public class MessageBundle {
   public MessageBundle(LocaleSpec locale, Map<String, String> map) {
      messages = ImmutableMap.copyOf(map);
      languageDirection = locale.getLanguageDirection();
+     checksum = null;
    }
 
   /**
@@ -84,6 +88,7 @@ public class MessageBundle {
   public MessageBundle(Element element) throws SpecParserException {
     messages = parseMessages(element);
     languageDirection = XmlUtil.getAttribute(element, "language_direction", "ltr");
+    checksum = null;
   }
 
   /**
@@ -100,12 +105,14 @@ public class MessageBundle {
     }
     messages = ImmutableMap.copyOf(merged);
     languageDirection = dir != null ? dir : "ltr";
+    checksum = null;
   }
 
   private MessageBundle() {
     this.messages = ImmutableMap.of();
     jsonString = "{}";
     languageDirection = "ltr";
+    checksum = null;
   }
 
   /**
@@ -116,6 +123,14 @@ public class MessageBundle {
     return languageDirection;
   }
 
+  /**
+   * @return A checksum of the remote file that this bundle was parsed from, or null if it wasn't
+   * parsed from a remote file.
+   */
+  public String getChecksum() {
+    return checksum;
+  }
+
   /**
    * @return A read-only view of the message bundle.
    */
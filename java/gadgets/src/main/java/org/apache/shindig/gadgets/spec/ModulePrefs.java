@@ -19,6 +19,8 @@ package org.apache.shindig.gadgets.spec;
 
 import org.apache.commons.lang.mutable.MutableBoolean;
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.StringInterner;
+import org.apache.shindig.gadgets.variables.SubstitutionTemplate;
 import org.apache.shindig.gadgets.variables.Substitutions;
 
 import com.google.common.base.Joiner;
@@ -69,21 +71,30 @@ public class ModulePrefs {
   private final Map<String, String> attributes;
   private final Uri base;
   private final boolean needsUserPrefSubstitution;
+  // Types of placeholder in attributes and substituted children.
+  private final Set<Substitutions.Type> placeholders;
+  // False if substitution would resolve a relative Preload or Link href.
+  private final boolean hrefsResolved;
+  // Compiled attribute values that contain placeholders. Null for substituted prefs.
+  private final Map<String, SubstitutionTemplate> attributeTemplates;
 
   public ModulePrefs(Element element, Uri base) throws SpecParserException {
     this.base = base;
-    attributes = Maps.newHashMap();
+    // Attribute names are a small vocabulary shared by all specs.
+    ImmutableMap.Builder<String, String> attributes = ImmutableMap.builder();
     NamedNodeMap attributeNodes = element.getAttributes();
     for (int i = 0; i < attributeNodes.getLength(); i++) {
       Node node = attributeNodes.item(i);
-      attributes.put(node.getNodeName(), node.getNodeValue());
+      attributes.put(StringInterner.intern(node.getNodeName()), node.getNodeValue());
     }
+    this.attributes = attributes.build();
 
     if (getTitle() == null) {
       throw new SpecParserException("ModulePrefs@title is required.");
     }
 
-    categories = ImmutableList.of(getAttribute(ATTR_CATEGORY, ""), getAttribute(ATTR_CATEGORY2, ""));
+    categories = ImmutableList.of(StringInterner.intern(getAttribute(ATTR_CATEGORY, "")),
+        StringInterner.intern(getAttribute(ATTR_CATEGORY2, "")));
 
     // Eventually use a list of classes
     MutableBoolean oauthMarker = new MutableBoolean(false);
@@ -105,6 +116,30 @@ public class ModulePrefs {
     }
 
     needsUserPrefSubstitution = prefsNeedsUserPrefSubstitution(this);
+
+    placeholders = EnumSet.noneOf(Substitutions.Type.class);
+    Map<String, SubstitutionTemplate> templates = Maps.newHashMap();
+    for (Map.Entry<String, String> attr : this.attributes.entrySet()) {
+      SubstitutionTemplate template = SubstitutionTemplate.compile(attr.getValue());
+      if (!template.getPlaceholderTypes().isEmpty()) {
+        templates.put(attr.getKey(), template);
+        placeholders.addAll(template.getPlaceholderTypes());
+      }
+    }
+    attributeTemplates = ImmutableMap.copyOf(templates);
+    boolean hrefsResolved = true;
+    for (Preload preload : preloads) {
+      placeholders.addAll(preload.getPlaceholderTypes());
+      hrefsResolved &= preload.getHref().isAbsolute();
+    }
+    for (Icon icon : icons) {
+      placeholders.addAll(icon.getPlaceholderTypes());
+    }
+    for (LinkSpec link : links.values()) {
+      placeholders.addAll(link.getPlaceholderTypes());
+      hrefsResolved &= link.getHref().isAbsolute();
+    }
+    this.hrefsResolved = hrefsResolved;
   }
 
   /**
@@ -114,6 +149,8 @@ public class ModulePrefs {
    */
   private ModulePrefs(ModulePrefs prefs, Substitutions substituter) {
     base = prefs.base;
+    placeholders = prefs.placeholders;
+    hrefsResolved = prefs.hrefsResolved;
     categories = prefs.getCategories();
     features = prefs.getFeatures();
     locales = prefs.getLocales();
@@ -140,9 +177,16 @@ public class ModulePrefs {
 
     ImmutableMap.Builder<String, String> attributes = ImmutableMap.builder();
     for (Map.Entry<String, String> attr : prefs.attributes.entrySet()) {
-      String substituted = substituter.substituteString(attr.getValue());
+      String substituted;
+      if (prefs.attributeTemplates == null) {
+        substituted = substituter.substituteString(attr.getValue());
+      } else {
+        SubstitutionTemplate template = prefs.attributeTemplates.get(attr.getKey());
+        substituted = template == null ? attr.getValue() : substituter.substituteString(template);
+      }
       attributes.put(attr.getKey(), substituted);
     }
+    attributeTemplates = null;
 
     this.extraElements = ImmutableMultimap.copyOf(prefs.extraElements);
     this.attributes = attributes.build();
@@ -490,12 +534,22 @@ public class ModulePrefs {
    * has substitutions performed.
    *
    * @param substituter the substituter to execute
-   * @return a substituted ModulePrefs
+   * @return a substituted ModulePrefs, or this ModulePrefs if nothing would change
    */
   public ModulePrefs substitute(Substitutions substituter) {
+    if (hrefsResolved && !substituter.hasSubstitutions(placeholders)) {
+      return this;
+    }
     return new ModulePrefs(this, substituter);
   }
 
+  /**
+   * @return The types of placeholder in fields that are substituted.
+   */
+  Set<Substitutions.Type> getPlaceholderTypes() {
+    return placeholders;
+  }
+
 
   /**
    * Walks child nodes of the given node.
@@ -736,9 +790,15 @@ public class ModulePrefs {
 
   private static class ExtraElementsVisitor implements ElementVisitor {
     private Multimap<String,Node> elements = ArrayListMultimap.create();
+    private Document document;
 
     public boolean visit(String tag, Element element) throws SpecParserException {
-      elements.put(tag, element.cloneNode(true));
+      // A clone would keep the whole parsed spec reachable through its owner document, so the
+      // element is copied into a document of its own instead.
+      if (document == null) {
+        document = element.getOwnerDocument().getImplementation().createDocument(null, null, null);
+      }
+      elements.put(StringInterner.intern(tag), document.importNode(element, true));
       return true;
     }
     public void apply(ModulePrefs moduleprefs) {
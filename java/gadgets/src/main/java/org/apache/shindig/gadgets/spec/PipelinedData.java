@@ -25,6 +25,7 @@ import org.apache.shindig.gadgets.GadgetELResolver;
 import org.apache.shindig.gadgets.variables.Substitutions;
 
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -55,12 +56,14 @@ public class PipelinedData {
   private boolean needsViewer;
   private boolean needsOwner;
   private Map<String, BatchItemData> allPreloads;
+  private final Set<Substitutions.Type> placeholders;
 
   public static final String OPENSOCIAL_NAMESPACE = "http://ns.opensocial.org/2008/markup";
   public static final String EXTENSION_NAMESPACE = "http://ns.opensocial.org/2009/extensions";
 
   public PipelinedData(Element element, Uri base) throws SpecParserException {
     Map<String, BatchItemData> allPreloads = Maps.newHashMap();
+    Set<Substitutions.Type> placeholders = EnumSet.noneOf(Substitutions.Type.class);
 
     // TODO: extract this loop into XmlUtils.getChildrenWithNamespace
     for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
@@ -99,6 +102,7 @@ public class PipelinedData {
             allPreloads.put(key, createDataRequest(child));
           } else if ("HttpRequest".equals(elementName)) {
             allPreloads.put(key, createHttpRequest(child, base));
+            Substitutions.findPlaceholders(child.getAttribute("href"), placeholders);
           } else {
             // TODO: This is wrong - the spec should parse, but should preload
             // notImplemented
@@ -111,6 +115,7 @@ public class PipelinedData {
     }
 
     this.allPreloads = Collections.unmodifiableMap(allPreloads);
+    this.placeholders = placeholders;
   }
 
   private BatchItemData createVariableRequest(Element child) {
@@ -118,6 +123,7 @@ public class PipelinedData {
   }
 
   private PipelinedData(PipelinedData socialData, Substitutions substituter) {
+    this.placeholders = socialData.placeholders;
     Map<String, BatchItemData> allPreloads = Maps.newHashMap();
     for (Map.Entry<String, BatchItemData> preload : socialData.allPreloads.entrySet()) {
       allPreloads.put(preload.getKey(), preload.getValue().substitute(substituter));
@@ -131,9 +137,19 @@ public class PipelinedData {
    * can be performed.
    */
   public PipelinedData substitute(Substitutions substituter) {
+    if (!substituter.hasSubstitutions(placeholders)) {
+      return this;
+    }
     return new PipelinedData(this, substituter);
   }
 
+  /**
+   * Types of placeholder in os:HttpRequest hrefs, the only values that are substituted.
+   */
+  Set<Substitutions.Type> getPlaceholderTypes() {
+    return placeholders;
+  }
+
   public interface Batch {
     Map<String, BatchItem> getPreloads();
     Batch getNextBatch(ELResolver rootObjects);
@@ -18,10 +18,12 @@
 package org.apache.shindig.gadgets.spec;
 
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.StringInterner;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.apache.shindig.gadgets.AuthType;
 import org.apache.shindig.gadgets.variables.Substitutions;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 
@@ -30,7 +32,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
-import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -73,14 +75,21 @@ public class Preload implements RequestAuthenticationInfo {
     for (int i = 0; i < attrs.getLength(); ++i) {
       Node attr = attrs.item(i);
       if (!KNOWN_ATTRIBUTES.contains(attr.getNodeName())) {
-        attributes.put(attr.getNodeName(), attr.getNodeValue());
+        attributes.put(StringInterner.intern(attr.getNodeName()), attr.getNodeValue());
       }
     }
-    this.attributes = Collections.unmodifiableMap(attributes);
+    this.attributes = ImmutableMap.copyOf(attributes);
+
+    placeholders = EnumSet.noneOf(Substitutions.Type.class);
+    Substitutions.findPlaceholders(href.toString(), placeholders);
+    for (String value : attributes.values()) {
+      Substitutions.findPlaceholders(value, placeholders);
+    }
   }
 
   private Preload(Preload preload, Substitutions substituter) {
     base = preload.base;
+    placeholders = preload.placeholders;
     views = preload.views;
     auth = preload.auth;
     signOwner = preload.signOwner;
@@ -90,7 +99,7 @@ public class Preload implements RequestAuthenticationInfo {
     for (Map.Entry<String, String> entry : preload.attributes.entrySet()) {
       attributes.put(entry.getKey(), substituter.substituteString(entry.getValue()));
     }
-    this.attributes = Collections.unmodifiableMap(attributes);
+    this.attributes = ImmutableMap.copyOf(attributes);
   }
 
   /**
@@ -141,7 +150,21 @@ public class Preload implements RequestAuthenticationInfo {
     return views;
   }
 
+  /**
+   * Types of placeholder in href and the other attributes.
+   */
+  private final Set<Substitutions.Type> placeholders;
+  Set<Substitutions.Type> getPlaceholderTypes() {
+    return placeholders;
+  }
+
+  /**
+   * @return The substituted preload, or this preload if nothing would change.
+   */
   public Preload substitute(Substitutions substituter) {
+    if (!substituter.hasSubstitutions(placeholders) && href.isAbsolute()) {
+      return this;
+    }
     return new Preload(this, substituter);
   }
 
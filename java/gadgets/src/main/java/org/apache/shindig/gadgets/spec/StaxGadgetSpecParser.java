@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.spec;
+
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.xml.XmlException;
+import org.apache.shindig.common.xml.XmlUtil;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+import java.io.StringReader;
+import java.util.logging.Logger;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Parses gadget specs in a single streaming pass.
+ *
+ * The DOM path builds a tree for the whole document, which the spec constructors walk once and
+ * then throw away. This parser reads the document with an XMLStreamReader and only builds the
+ * parts that {@link GadgetSpec} actually reads:
+ *
+ * - ModulePrefs and UserPref are built as they are, since their constructors need the full tree.
+ * - Content is reduced to its attributes and a single text node holding its text, unless it has
+ *   child elements. Those may be os: elements that a proxied view needs, and whether a view is
+ *   proxied can be decided by an href on any of its Content elements, so the full tree is built.
+ * - Everything else directly under Module is skipped without building anything.
+ *
+ * The result is handed to the usual constructors, so validation and SpecParserExceptions are
+ * exactly those of the DOM path. As with XmlUtil, documents are not validated and external
+ * entities and DTDs are never loaded.
+ *
+ * StAX has no portable counterpart to the entity expansion limits of secure processing, so this
+ * parser never processes DTDs. Specs that declare a document type are parsed by {@link XmlUtil}
+ * instead, which enforces those limits.
+ */
+public final class StaxGadgetSpecParser {
+  private static final Logger LOG = Logger.getLogger(StaxGadgetSpecParser.class.getName());
+
+  // The JDK's reader reports CDATA sections as plain characters unless asked not to.
+  private static final String REPORT_CDATA
+      = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+  private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+  private static final DocumentBuilderFactory builderFactory
+      = DocumentBuilderFactory.newInstance();
+
+  private static final ThreadLocal<DocumentBuilder> reusableBuilder
+      = new ThreadLocal<DocumentBuilder>() {
+          @Override
+          protected DocumentBuilder initialValue() {
+            try {
+              return builderFactory.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        };
+
+  static {
+    builderFactory.setNamespaceAware(true);
+
+    // Namespace support is required for <os:> elements
+    inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    inputFactory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+    // CDATA must stay distinguishable from text, see MessageBundle.
+    inputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    try {
+      inputFactory.setProperty(REPORT_CDATA, true);
+    } catch (IllegalArgumentException e) {
+      // Other parsers report CDATA by default.
+      LOG.info("StAX parser does not support " + REPORT_CDATA);
+    }
+    // Documents with a DTD go to XmlUtil, see hasDoctype. Any that get here aren't processed, so
+    // no entity they declare can be expanded.
+    inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    inputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+    inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+  }
+
+  private StaxGadgetSpecParser() {}
+
+  /**
+   * Parses a gadget spec.
+   *
+   * @param url The original url of the gadget.
+   * @param xml The spec xml.
+   * @throws XmlException If the xml is malformed.
+   * @throws SpecParserException If the xml is not a valid gadget spec.
+   */
+  public static GadgetSpec parse(Uri url, String xml) throws XmlException, SpecParserException {
+    if (hasDoctype(xml)) {
+      return new GadgetSpec(url, XmlUtil.parse(xml), xml);
+    }
+    return new GadgetSpec(url, parseModule(xml), xml);
+  }
+
+  /**
+   * @return Whether a document type declaration precedes the root element. Only the xml
+   *     declaration, processing instructions, comments and whitespace may come before it.
+   */
+  static boolean hasDoctype(String xml) {
+    int pos = 0;
+    int length = xml.length();
+    while (pos < length) {
+      char c = xml.charAt(pos);
+      if (Character.isWhitespace(c)) {
+        pos++;
+      } else if (xml.startsWith("<?", pos)) {
+        pos = xml.indexOf("?>", pos + 2);
+        if (pos == -1) {
+          return false;
+        }
+        pos += 2;
+      } else if (xml.startsWith("<!--", pos)) {
+        pos = xml.indexOf("-->", pos + 4);
+        if (pos == -1) {
+          return false;
+        }
+        pos += 3;
+      } else {
+        return xml.startsWith("<!DOCTYPE", pos);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parses the Module element, keeping only what GadgetSpec reads.
+   */
+  static Element parseModule(String xml) throws XmlException {
+    XMLStreamReader reader = null;
+    try {
+      reader = inputFactory.createXMLStreamReader(new StringReader(xml.trim()));
+      Document document = reusableBuilder.get().newDocument();
+
+      int event = reader.next();
+      while (event != XMLStreamConstants.START_ELEMENT) {
+        if (event == XMLStreamConstants.END_DOCUMENT) {
+          throw new XmlException("No root element found.");
+        }
+        event = reader.next();
+      }
+
+      Element module = createElement(document, reader);
+      document.appendChild(module);
+
+      for (event = reader.next(); event != XMLStreamConstants.END_ELEMENT; event = reader.next()) {
+        if (event != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String name = getQualifiedName(reader);
+        if ("ModulePrefs".equals(name) || "UserPref".equals(name)) {
+          module.appendChild(readElement(document, reader));
+        } else if ("Content".equals(name)) {
+          module.appendChild(readContent(document, reader));
+        } else {
+          skipElement(reader);
+        }
+      }
+
+      // The rest of the document still has to be well formed.
+      while (reader.hasNext()) {
+        reader.next();
+      }
+      return module;
+    } catch (XMLStreamException e) {
+      throw new XmlException(e.getMessage(), e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          // Nothing to release for a StringReader.
+        }
+      }
+    }
+  }
+
+  /**
+   * Builds the element the reader is positioned on, including all of its children.
+   */
+  private static Element readElement(Document document, XMLStreamReader reader)
+      throws XMLStreamException {
+    Element element = createElement(document, reader);
+    readChildren(document, reader, element);
+    return element;
+  }
+
+  /**
+   * Builds the rest of the children of parent, up to and including its end tag.
+   */
+  private static void readChildren(Document document, XMLStreamReader reader, Node parent)
+      throws XMLStreamException {
+    Node current = parent;
+    int depth = 1;
+    while (depth > 0) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          Element child = createElement(document, reader);
+          current.appendChild(child);
+          current = child;
+          ++depth;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          current = current.getParentNode();
+          --depth;
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+          appendText(document, current, reader.getText(), false);
+          break;
+        case XMLStreamConstants.CDATA:
+          appendText(document, current, reader.getText(), true);
+          break;
+        case XMLStreamConstants.COMMENT:
+          current.appendChild(document.createComment(reader.getText()));
+          break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+          current.appendChild(
+              document.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Builds a Content element as its attributes plus one text node, which is all View reads from
+   * Content that has no child elements. Once a child element is found, the rest of the element is
+   * built in full.
+   */
+  private static Element readContent(Document document, XMLStreamReader reader)
+      throws XMLStreamException {
+    Element element = createElement(document, reader);
+    String text = null;
+    StringBuilder buf = null;
+    int event = 0;
+    while (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+      event = reader.next();
+      switch (event) {
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+        case XMLStreamConstants.CDATA:
+          // Usually there is just one CDATA section, which needs no copying.
+          if (text == null) {
+            text = reader.getText();
+          } else {
+            if (buf == null) {
+              buf = new StringBuilder(text);
+            }
+            buf.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    if (buf != null) {
+      text = buf.toString();
+    }
+    if (text != null) {
+      // View only reads the text and the elements, so the text before a child can stay merged.
+      element.appendChild(document.createTextNode(text));
+    }
+    if (event == XMLStreamConstants.START_ELEMENT) {
+      Element child = createElement(document, reader);
+      element.appendChild(child);
+      readChildren(document, reader, child);
+      readChildren(document, reader, element);
+    }
+    return element;
+  }
+
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        ++depth;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        --depth;
+      }
+    }
+  }
+
+  /**
+   * Appends text to the node, merging it into the last child if that is of the same kind, as a
+   * DOM parser would.
+   */
+  private static void appendText(Document document, Node parent, String text, boolean cdata) {
+    Node last = parent.getLastChild();
+    short type = cdata ? Node.CDATA_SECTION_NODE : Node.TEXT_NODE;
+    if (last != null && last.getNodeType() == type) {
+      ((Text) last).appendData(text);
+    } else if (cdata) {
+      parent.appendChild(document.createCDATASection(text));
+    } else {
+      parent.appendChild(document.createTextNode(text));
+    }
+  }
+
+  /**
+   * Creates an element with the attributes and namespace declarations of the current start tag.
+   */
+  private static Element createElement(Document document, XMLStreamReader reader) {
+    Element element
+        = document.createElementNS(emptyToNull(reader.getNamespaceURI()), getQualifiedName(reader));
+    for (int i = 0, j = reader.getNamespaceCount(); i < j; ++i) {
+      String prefix = reader.getNamespacePrefix(i);
+      String name = prefix == null || prefix.length() == 0 ? "xmlns" : "xmlns:" + prefix;
+      element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name,
+          reader.getNamespaceURI(i));
+    }
+    for (int i = 0, j = reader.getAttributeCount(); i < j; ++i) {
+      String prefix = reader.getAttributePrefix(i);
+      String localName = reader.getAttributeLocalName(i);
+      String name = prefix == null || prefix.length() == 0 ? localName : prefix + ':' + localName;
+      element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)), name,
+          reader.getAttributeValue(i));
+    }
+    return element;
+  }
+
+  private static String getQualifiedName(XMLStreamReader reader) {
+    String prefix = reader.getPrefix();
+    String localName = reader.getLocalName();
+    return prefix == null || prefix.length() == 0 ? localName : prefix + ':' + localName;
+  }
+
+  private static String emptyToNull(String value) {
+    return value == null || value.length() == 0 ? null : value;
+  }
+}
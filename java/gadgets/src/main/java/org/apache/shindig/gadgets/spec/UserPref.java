@@ -17,6 +17,7 @@
  */
 package org.apache.shindig.gadgets.spec;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -28,8 +29,10 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Represents a UserPref tag.
@@ -98,14 +101,25 @@ public class UserPref {
     return orderedEnumValues;
   }
 
+  /**
+   * Types of placeholder in display_name, default_value and display_value.
+   */
+  private final Set<Substitutions.Type> placeholders;
+  Set<Substitutions.Type> getPlaceholderTypes() {
+    return placeholders;
+  }
+
   /**
    * Performs substitutions on the pref. See field comments for details on what
    * is substituted.
    *
    * @param substituter
-   * @return The substituted pref.
+   * @return The substituted pref, or this pref if nothing would change.
    */
   public UserPref substitute(Substitutions substituter) {
+    if (!substituter.hasSubstitutions(placeholders)) {
+      return this;
+    }
     UserPref pref = new UserPref(this);
     pref.displayName = substituter.substituteString(displayName);
     pref.defaultValue = substituter.substituteString(defaultValue);
@@ -182,7 +196,7 @@ public class UserPref {
     NodeList children = element.getElementsByTagName("EnumValue");
     if (children.getLength() > 0) {
       Map<String, String> enumValues = Maps.newHashMap();
-      List<EnumValuePair> orderedEnumValues = Lists.newLinkedList();
+      List<EnumValuePair> orderedEnumValues = Lists.newArrayListWithCapacity(children.getLength());
       for (int i = 0, j = children.getLength(); i < j; ++i) {
         Element child = (Element)children.item(i);
         String value = XmlUtil.getAttribute(child, "value");
@@ -194,12 +208,19 @@ public class UserPref {
         enumValues.put(value, displayValue);
         orderedEnumValues.add(new EnumValuePair(value, displayValue));
       }
-      this.enumValues = Collections.unmodifiableMap(enumValues);
-      this.orderedEnumValues = Collections.unmodifiableList(orderedEnumValues);
+      this.enumValues = ImmutableMap.copyOf(enumValues);
+      this.orderedEnumValues = ImmutableList.copyOf(orderedEnumValues);
     } else {
       this.enumValues = Collections.emptyMap();
       this.orderedEnumValues = Collections.emptyList();
     }
+
+    placeholders = EnumSet.noneOf(Substitutions.Type.class);
+    Substitutions.findPlaceholders(displayName, placeholders);
+    Substitutions.findPlaceholders(defaultValue, placeholders);
+    for (String displayValue : enumValues.values()) {
+      Substitutions.findPlaceholders(displayValue, placeholders);
+    }
   }
 
   /**
@@ -210,6 +231,7 @@ public class UserPref {
     name = userPref.name;
     dataType = userPref.dataType;
     required = userPref.required;
+    placeholders = userPref.placeholders;
   }
 
   /**
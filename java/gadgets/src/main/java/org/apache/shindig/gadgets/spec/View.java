@@ -18,10 +18,13 @@
 package org.apache.shindig.gadgets.spec;
 
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.StringInterner;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.apache.shindig.gadgets.AuthType;
+import org.apache.shindig.gadgets.variables.SubstitutionTemplate;
 import org.apache.shindig.gadgets.variables.Substitutions;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 
@@ -29,7 +32,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
-import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -97,7 +100,7 @@ public class View implements RequestAuthenticationInfo {
       for (int i = 0; i < attrs.getLength(); ++i) {
         Node attr = attrs.item(i);
         if (!KNOWN_ATTRIBUTES.contains(attr.getNodeName())) {
-          attributes.put(attr.getNodeName(), attr.getNodeValue());
+          attributes.put(StringInterner.intern(attr.getNodeName()), attr.getNodeValue());
         }
       }
 
@@ -112,12 +115,14 @@ public class View implements RequestAuthenticationInfo {
     this.needsUserPrefSubstitution = this.content.contains("__UP_");
     this.quirks = quirks;
     this.href = href;
-    this.rawType = contentType == null ? "html" : contentType;
+    this.rawType = contentType == null ? "html" : StringInterner.intern(contentType);
     this.type = type == null ? ContentType.HTML : type;
     this.preferredHeight = preferredHeight;
     this.preferredWidth = preferredWidth;
-    this.attributes = Collections.unmodifiableMap(attributes);
+    this.attributes = ImmutableMap.copyOf(attributes);
     this.pipelinedData = pipelinedData;
+    this.source = null;
+    this.substituter = null;
 
     this.authType = AuthType.parse(auth);
     this.signOwner = signOwner;
@@ -138,6 +143,19 @@ public class View implements RequestAuthenticationInfo {
     if (needViewer && (!this.signViewer || this.authType == AuthType.NONE)) {
       throw new SpecParserException("Must sign by viewer to request viewer.");
     }
+
+    placeholders = EnumSet.noneOf(Substitutions.Type.class);
+    // The content is only compiled for substitution once a substitution needs it.
+    Substitutions.findPlaceholders(this.content, placeholders);
+    if (this.href != null) {
+      Substitutions.findPlaceholders(this.href.toString(), placeholders);
+    }
+    for (String value : attributes.values()) {
+      Substitutions.findPlaceholders(value, placeholders);
+    }
+    if (pipelinedData != null) {
+      placeholders.addAll(pipelinedData.getPlaceholderTypes());
+    }
   }
 
   /**
@@ -145,6 +163,7 @@ public class View implements RequestAuthenticationInfo {
    * can be performed.
    */
   private View(View view, Substitutions substituter) {
+    placeholders = view.placeholders;
     needsUserPrefSubstitution = view.needsUserPrefSubstitution;
     name = view.name;
     rawType = view.rawType;
@@ -156,15 +175,19 @@ public class View implements RequestAuthenticationInfo {
     signOwner = view.signOwner;
     signViewer = view.signViewer;
 
-    content = substituter.substituteString(view.content);
+    // Content and pipelined data are only substituted when they are first read, so that requests
+    // that only look at a few views don't pay for all of them.
+    source = view;
+    this.substituter = substituter;
+    contentPending = true;
+    pipelinedDataPending = true;
     base = view.base;
     href = base.resolve(substituter.substituteUri(view.href));
     Map<String, String> attributes = Maps.newHashMap();
     for (Map.Entry<String, String> entry : view.attributes.entrySet()) {
       attributes.put(entry.getKey(), substituter.substituteString(entry.getValue()));
     }
-    this.attributes = Collections.unmodifiableMap(attributes);
-    pipelinedData = view.pipelinedData == null ? null : view.pipelinedData.substitute(substituter);
+    this.attributes = ImmutableMap.copyOf(attributes);
   }
 
   /**
@@ -225,16 +248,69 @@ public class View implements RequestAuthenticationInfo {
     return preferredWidth;
   }
 
+  /**
+   * The view and substitutions that this view was created from, if any. Content and pipelined data
+   * are substituted from them when first read.
+   */
+  private final View source;
+  private final Substitutions substituter;
+
   /**
    * Content#CDATA
    *
    * All substitutions
    */
   private String content;
+  private volatile boolean contentPending;
   public String getContent() {
+    if (contentPending) {
+      synchronized (this) {
+        if (contentPending) {
+          SubstitutionTemplate template = source.getContentTemplate();
+          content = template == null ?
+              substituter.substituteString(source.getContent()) :
+              substituter.substituteString(template);
+          contentPending = false;
+        }
+      }
+    }
     return content;
   }
 
+  /**
+   * @return Whether the content is exactly what the spec declared, with no substitutions and not
+   *     replaced by fetched href content. Such content is the same for every render of the spec.
+   */
+  public synchronized boolean hasOriginalContent() {
+    return source == null && !hrefContent;
+  }
+
+  /**
+   * Content compiled for substitution, created on first use.
+   */
+  private volatile SubstitutionTemplate contentTemplate;
+  private boolean hrefContent;
+
+  /**
+   * @return The content compiled for substitution, or null if the content no longer comes from the
+   *     spec.
+   */
+  private SubstitutionTemplate getContentTemplate() {
+    SubstitutionTemplate template = contentTemplate;
+    if (template == null) {
+      synchronized (this) {
+        if (hrefContent) {
+          return null;
+        }
+        if (contentTemplate == null) {
+          contentTemplate = SubstitutionTemplate.compile(getContent());
+        }
+        template = contentTemplate;
+      }
+    }
+    return template;
+  }
+
   /**
    * Set content for a type=html, href=URL style gadget.
    * This is the last bastion of GadgetSpec mutability,
@@ -243,8 +319,11 @@ public class View implements RequestAuthenticationInfo {
    * successfully retrieved.
    * @param content New gadget content retrieved from href.
    */
-  public void setHrefContent(String content) {
+  public synchronized void setHrefContent(String content) {
     this.content = content;
+    this.contentPending = false;
+    this.contentTemplate = null;
+    this.hrefContent = true;
     this.href = null;
   }
 
@@ -288,23 +367,48 @@ public class View implements RequestAuthenticationInfo {
     return attributes;
   }
 
-  private final PipelinedData pipelinedData;
+  private PipelinedData pipelinedData;
+  private volatile boolean pipelinedDataPending;
 
   /**
    * All os: preloads.
    */
   public PipelinedData getPipelinedData() {
+    if (pipelinedDataPending) {
+      synchronized (this) {
+        if (pipelinedDataPending) {
+          PipelinedData sourceData = source.getPipelinedData();
+          pipelinedData = sourceData == null ? null : sourceData.substitute(substituter);
+          pipelinedDataPending = false;
+        }
+      }
+    }
     return pipelinedData;
   }
 
+  /**
+   * Types of placeholder in content, href, attributes and os:HttpRequest hrefs.
+   */
+  private final Set<Substitutions.Type> placeholders;
+  Set<Substitutions.Type> getPlaceholderTypes() {
+    return placeholders;
+  }
+
   /**
    * Creates a new view by performing hangman substitution. See field comments
    * for details on what gets substituted.
    *
+   * Content and pipelined data are substituted when they are first read, so the substituter must
+   * not be modified afterwards.
+   *
    * @param substituter
-   * @return The substituted view.
+   * @return The substituted view, or this view if nothing would change. Views with an href are
+   *     always copied, as the href is resolved and setHrefContent may be called on the result.
    */
   public View substitute(Substitutions substituter) {
+    if (href == null && !substituter.hasSubstitutions(placeholders)) {
+      return this;
+    }
     return new View(this, substituter);
   }
 
@@ -323,7 +427,7 @@ public class View implements RequestAuthenticationInfo {
       buf.append(entry.getKey()).append("='").append(entry.getValue()).append('\'');
     }
     buf.append("'>")
-       .append(content)
+       .append(getContent())
        .append("</Content>");
     return buf.toString();
   }
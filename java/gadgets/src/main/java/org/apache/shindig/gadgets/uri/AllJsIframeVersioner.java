@@ -19,9 +19,7 @@
 package org.apache.shindig.gadgets.uri;
 
 import org.apache.shindig.common.uri.Uri;
-import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.gadgets.features.FeatureRegistry;
-import org.apache.shindig.gadgets.features.FeatureResource;
 import org.apache.shindig.gadgets.uri.IframeUriManager.Versioner;
 
 import com.google.inject.Inject;
@@ -47,11 +45,7 @@ public class AllJsIframeVersioner implements Versioner {
   
   @Inject
   public AllJsIframeVersioner(FeatureRegistry registry) {
-    StringBuilder jsBuf = new StringBuilder();
-    for (FeatureResource resource : registry.getAllFeatures()) {
-      jsBuf.append(resource.getContent()).append(resource.getDebugContent());
-    }
-    allJsChecksum = HashUtil.checksum(jsBuf.toString().getBytes());
+    allJsChecksum = registry.getAllFeaturesChecksum();
   }
 
   public String version(Uri gadgetUri, String container) {
@@ -18,6 +18,8 @@
  */
 package org.apache.shindig.gadgets.uri;
 
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.uri.UriBuilder;
 import org.apache.shindig.config.ContainerConfig;
@@ -47,9 +49,11 @@ public class DefaultIframeUriManager implements IframeUriManager {
   public static final String SECURITY_TOKEN_ALWAYS_KEY = "gadgets.uri.iframe.alwaysAppendSecurityToken";
   public static final String LOCKED_DOMAIN_FEATURE_NAME = "locked-domain";
   public static final String SECURITY_TOKEN_FEATURE_NAME = "security-token";
+  static final String IFRAME_BASE_CACHE = "iframeUriBases";
   private boolean ldEnabled = true;
   private TemplatingSignal tplSignal = null;
   private Versioner versioner = null;
+  private Cache<String, Uri> iframeBaseCache = null;
   
   private final ContainerConfig config;
   private final LockedDomainPrefixGenerator ldGen;
@@ -79,6 +83,11 @@ public class DefaultIframeUriManager implements IframeUriManager {
     this.versioner = versioner;
   }
   
+  @Inject(optional = true)
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    this.iframeBaseCache = cacheProvider.createCache(IFRAME_BASE_CACHE);
+  }
+  
   @Inject(optional = true)
   public void setTemplatingSignal(TemplatingSignal tplSignal) {
     this.tplSignal = tplSignal;
@@ -96,20 +105,8 @@ public class DefaultIframeUriManager implements IframeUriManager {
       uri = new UriBuilder(view.getHref());
     } else {
       // B. Others, aka. type=html and html_sanitized.
-      uri = new UriBuilder();
-
-      // 1. Set base path.
-      uri.setPath(getReqVal(container, IFRAME_BASE_PATH_KEY));
-    
-      // 2. Set host/authority.
-      String host;
-      if (usingLockedDomain(gadget, container)) {
-        host = ldGen.getLockedDomainPrefix(gadget.getSpec().getUrl()) +
-            getReqVal(container, LOCKED_DOMAIN_SUFFIX_KEY);
-      } else {
-        host = getReqVal(container, UNLOCKED_DOMAIN_KEY);
-      }
-      uri.setAuthority(host);
+      // 1. and 2. Set base path and host/authority.
+      uri = new UriBuilder(getIframeBase(gadget, container));
     
       // 3. Set protocol/schema.
       uri.setScheme(getScheme(gadget, container));
@@ -258,6 +255,39 @@ public class DefaultIframeUriManager implements IframeUriManager {
     }
   }
   
+  /**
+   * @return The path and host for a type=html gadget, which only depend on the gadget and
+   *     container, and so are computed once per spec when a cache is available.
+   */
+  private Uri getIframeBase(Gadget gadget, String container) {
+    boolean lockedDomain = usingLockedDomain(gadget, container);
+    String key = null;
+    if (iframeBaseCache != null) {
+      key = container + ' ' + lockedDomain + ' ' + gadget.getSpec().getUrl();
+      Uri base = iframeBaseCache.getElement(key);
+      if (base != null) {
+        return base;
+      }
+    }
+    
+    UriBuilder uri = new UriBuilder();
+    uri.setPath(getReqVal(container, IFRAME_BASE_PATH_KEY));
+    String host;
+    if (lockedDomain) {
+      host = ldGen.getLockedDomainPrefix(gadget.getSpec().getUrl()) +
+          getReqVal(container, LOCKED_DOMAIN_SUFFIX_KEY);
+    } else {
+      host = getReqVal(container, UNLOCKED_DOMAIN_KEY);
+    }
+    uri.setAuthority(host);
+    Uri base = uri.toUri();
+    
+    if (key != null) {
+      iframeBaseCache.addElement(key, base);
+    }
+    return base;
+  }
+  
   private boolean usingLockedDomain(Gadget gadget, String container) {
     if (!ldEnabled) {
       return false;
@@ -21,14 +21,13 @@ package org.apache.shindig.gadgets.uri;
 import java.util.Collection;
 
 import org.apache.shindig.common.uri.Uri;
-import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.RenderingContext;
 import org.apache.shindig.gadgets.features.FeatureRegistry;
 import org.apache.shindig.gadgets.features.FeatureResource;
 import org.apache.shindig.gadgets.uri.JsUriManager.Versioner;
 
-import com.google.common.collect.Maps;
+import com.google.common.collect.MapMaker;
 import com.google.inject.Inject;
 
 import java.util.List;
@@ -46,7 +45,7 @@ public class DefaultJsVersioner implements Versioner {
   @Inject
   public DefaultJsVersioner(FeatureRegistry registry) {
     this.registry = registry;
-    this.versionCache = Maps.newHashMap();
+    this.versionCache = new MapMaker().makeMap();
   }
 
   public String version(Uri gadgetUri, final String container, Collection<String> extern) {
@@ -64,17 +63,12 @@ public class DefaultJsVersioner implements Versioner {
     
     // Registry itself will cache these requests.
     List<FeatureResource> resources = registry.getFeatureResources(ctx, extern, null);
-    if (versionCache.containsKey(resources)) {
-      return versionCache.get(resources);
+    String checksum = versionCache.get(resources);
+    if (checksum == null) {
+      // Combines the per-resource checksums the registry keeps, rather than rehashing content.
+      checksum = registry.getChecksum(resources);
+      versionCache.put(resources, checksum);
     }
-    
-    StringBuilder jsBuf = new StringBuilder();
-    for (FeatureResource resource : resources) {
-      jsBuf.append(resource.getContent()).append(resource.getDebugContent());
-    }
-    
-    String checksum = HashUtil.checksum(jsBuf.toString().getBytes());
-    versionCache.put(resources, checksum);
     return checksum;
   }
   
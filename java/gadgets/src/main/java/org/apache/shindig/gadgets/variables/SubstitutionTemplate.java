@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.variables;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A string that has been scanned for hangman variables ahead of time, so that it can be
+ * substituted repeatedly without scanning it again.
+ *
+ * Each variable reference is stored with its position, its type and the exact key that
+ * {@link Substitutions} looks up, so substitution is a lookup per reference followed by a single
+ * append pass into a buffer of the right size. Substituting a template gives exactly the same
+ * result as {@link Substitutions#substituteString(String)} on its source, including for unknown
+ * variables and runs of underscores.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public final class SubstitutionTemplate {
+  private static final int[] NO_POSITIONS = new int[0];
+  private static final String[] NO_KEYS = new String[0];
+  private static final Substitutions.Type[] NO_TYPES = new Substitutions.Type[0];
+
+  private final String source;
+
+  // Candidate references, in order of position. They may overlap, in which case the first one
+  // that has a value wins, as it does when scanning.
+  final int[] starts;
+  final int[] ends;
+  final String[] keys;
+  final Substitutions.Type[] types;
+
+  private final Set<Substitutions.Type> placeholderTypes;
+
+  private SubstitutionTemplate(String source, int[] starts, int[] ends, String[] keys,
+      Substitutions.Type[] types, Set<Substitutions.Type> placeholderTypes) {
+    this.source = source;
+    this.starts = starts;
+    this.ends = ends;
+    this.keys = keys;
+    this.types = types;
+    this.placeholderTypes = placeholderTypes;
+  }
+
+  /**
+   * Compiles a string.
+   *
+   * @param source The string, with substitution markers. May not be null.
+   */
+  public static SubstitutionTemplate compile(String source) {
+    List<Integer> starts = null;
+    List<Integer> ends = null;
+    List<String> keys = null;
+    List<Substitutions.Type> types = null;
+    Set<Substitutions.Type> found = EnumSet.noneOf(Substitutions.Type.class);
+
+    for (int i = source.indexOf("__"); i != -1; i = source.indexOf("__", i + 1)) {
+      int next = source.indexOf("__", i + 2);
+      if (next == -1) {
+        // No later marker can be closed either.
+        break;
+      }
+      Substitutions.Type type = Substitutions.getType(source, i);
+      if (type == null) {
+        // Can never match, so it is just literal text.
+        continue;
+      }
+      if (starts == null) {
+        starts = Lists.newArrayList();
+        ends = Lists.newArrayList();
+        keys = Lists.newArrayList();
+        types = Lists.newArrayList();
+      }
+      starts.add(i);
+      ends.add(next + 2);
+      keys.add(source.substring(i, next));
+      types.add(type);
+      found.add(type);
+    }
+
+    if (starts == null) {
+      return new SubstitutionTemplate(source, NO_POSITIONS, NO_POSITIONS, NO_KEYS, NO_TYPES,
+          Collections.<Substitutions.Type>emptySet());
+    }
+
+    int count = starts.size();
+    int[] startArray = new int[count];
+    int[] endArray = new int[count];
+    for (int i = 0; i < count; ++i) {
+      startArray[i] = starts.get(i);
+      endArray[i] = ends.get(i);
+    }
+    return new SubstitutionTemplate(source, startArray, endArray,
+        keys.toArray(new String[count]), types.toArray(new Substitutions.Type[count]),
+        Collections.unmodifiableSet(found));
+  }
+
+  /**
+   * @return The original string.
+   */
+  public String getSource() {
+    return source;
+  }
+
+  /**
+   * @return The types of variable referenced by the string.
+   */
+  public Set<Substitutions.Type> getPlaceholderTypes() {
+    return placeholderTypes;
+  }
+
+  /**
+   * @return The number of candidate variable references.
+   */
+  int getReferenceCount() {
+    return starts.length;
+  }
+
+  @Override
+  public String toString() {
+    return source;
+  }
+}
@@ -21,7 +21,9 @@ import org.apache.shindig.common.uri.Uri;
 
 import com.google.common.collect.Maps;
 
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Performs string substitutions for message bundles, user prefs, and bidi
@@ -69,6 +71,7 @@ public class Substitutions {
   }
 
   private final Map<String, String> substitutions;
+  private final Set<Type> types = EnumSet.noneOf(Type.class);
 
   public Substitutions() {
     substitutions = Maps.newHashMap();
@@ -84,6 +87,7 @@ public class Substitutions {
    */
   public void addSubstitution(Type type, String key, String value) {
     substitutions.put(type.prefix + key, value);
+    types.add(type);
   }
 
   /**
@@ -105,6 +109,50 @@ public class Substitutions {
     }
   }
 
+  /**
+   * @return True if a substitution was added for any of the given types. If not, substituting
+   *     a string with only placeholders of those types always returns the string unchanged.
+   */
+  public boolean hasSubstitutions(Set<Type> types) {
+    for (Type type : types) {
+      if (this.types.contains(type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Finds the types of placeholder that occur in the input. Used at parse time to find the
+   * fields that need substitution at all.
+   *
+   * @param input The string to scan. May be null.
+   * @param found The types found are added to this set.
+   */
+  public static void findPlaceholders(String input, Set<Type> found) {
+    if (input == null) {
+      return;
+    }
+    for (int i = input.indexOf("__"); i != -1; i = input.indexOf("__", i + 1)) {
+      Type type = getType(input, i);
+      if (type != null) {
+        found.add(type);
+      }
+    }
+  }
+
+  /**
+   * @return The type of the placeholder prefix at the given index, or null if there is none.
+   */
+  static Type getType(String input, int index) {
+    for (Type type : Type.values()) {
+      if (input.startsWith(type.prefix, index)) {
+        return type;
+      }
+    }
+    return null;
+  }
+
   private void performSubstitutions(String input, StringBuilder output, boolean isNested) {
     int lastPosition = 0, i;
     while ((i = input.indexOf("__", lastPosition)) != -1) {
@@ -164,6 +212,73 @@ public class Substitutions {
     return input;
   }
 
+  /**
+   * Performs string substitution on a compiled string. The result is the same as that of
+   * {@link #substituteString(String)} on the template's source, but the source is not scanned
+   * again.
+   *
+   * @param template The compiled string.
+   * @return The substituted string.
+   */
+  public String substituteString(SubstitutionTemplate template) {
+    String source = template.getSource();
+    int count = template.getReferenceCount();
+    if (count == 0 || !hasSubstitutions(template.getPlaceholderTypes())) {
+      return source;
+    }
+
+    // Resolve first, so that the output can be sized exactly.
+    String[] values = null;
+    int length = source.length();
+    int consumed = 0;
+    for (int i = 0; i < count; ++i) {
+      int start = template.starts[i];
+      if (start < consumed) {
+        // Overlaps the previous replacement.
+        continue;
+      }
+      String value = substitutions.get(template.keys[i]);
+      if (value == null) {
+        continue;
+      }
+      if (template.types[i] == Type.MESSAGE) {
+        // Messages can be recursive
+        value = substituteNested(value);
+      }
+      if (values == null) {
+        values = new String[count];
+      }
+      values[i] = value;
+      int end = template.ends[i];
+      length += value.length() - (end - start);
+      consumed = end;
+    }
+
+    if (values == null) {
+      return source;
+    }
+
+    StringBuilder output = new StringBuilder(length);
+    int last = 0;
+    for (int i = 0; i < count; ++i) {
+      if (values[i] != null) {
+        output.append(source, last, template.starts[i]).append(values[i]);
+        last = template.ends[i];
+      }
+    }
+    output.append(source, last, source.length());
+    return output.toString();
+  }
+
+  private String substituteNested(String message) {
+    if (message.indexOf("__") == -1) {
+      return message;
+    }
+    StringBuilder output = new StringBuilder(message.length() * 120 / 100);
+    performSubstitutions(message, output, true);
+    return output.toString();
+  }
+
   /**
    * Substitutes a uri
    * @param uri
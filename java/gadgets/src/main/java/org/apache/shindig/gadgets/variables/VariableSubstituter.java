@@ -26,6 +26,8 @@ import org.apache.shindig.gadgets.spec.MessageBundle;
 
 import com.google.inject.Inject;
 
+import java.util.Set;
+
 /**
  * Performs variable substitution on a gadget spec.
  */
@@ -38,21 +40,35 @@ public class VariableSubstituter {
   }
 
   /**
-   * Substitutes all hangman variables into the gadget spec.
+   * Substitutes all hangman variables into the gadget spec. Only the types of variable that
+   * occur in the spec are looked up.
    *
-   * @return A new GadgetSpec, with all fields substituted as needed.
+   * @return A new GadgetSpec, with all fields substituted as needed, or the spec itself if
+   *     nothing needed substituting.
    */
   public GadgetSpec substitute(GadgetContext context, GadgetSpec spec) throws GadgetException {
-    MessageBundle bundle =
-        messageBundleFactory.getBundle(spec, context.getLocale(), context.getIgnoreCache());
-    String dir = bundle.getLanguageDirection();
+    Set<Substitutions.Type> types = spec.getPlaceholderTypes();
+    // Messages may contain any other type of variable.
+    boolean messages = types.contains(Substitutions.Type.MESSAGE);
 
     Substitutions substituter = new Substitutions();
-    substituter.addSubstitutions(Substitutions.Type.MESSAGE, bundle.getMessages());
-    BidiSubstituter.addSubstitutions(substituter, dir);
-    substituter.addSubstitution(Substitutions.Type.MODULE, "ID",
-        Integer.toString(context.getModuleId()));
-    UserPrefSubstituter.addSubstitutions(substituter, spec, context.getUserPrefs());
+    if (messages || types.contains(Substitutions.Type.BIDI)) {
+      MessageBundle bundle =
+          messageBundleFactory.getBundle(spec, context.getLocale(), context.getIgnoreCache());
+      String dir = bundle.getLanguageDirection();
+
+      if (messages) {
+        substituter.addSubstitutions(Substitutions.Type.MESSAGE, bundle.getMessages());
+      }
+      BidiSubstituter.addSubstitutions(substituter, dir);
+    }
+    if (messages || types.contains(Substitutions.Type.MODULE)) {
+      substituter.addSubstitution(Substitutions.Type.MODULE, "ID",
+          Integer.toString(context.getModuleId()));
+    }
+    if (messages || types.contains(Substitutions.Type.USER_PREF)) {
+      UserPrefSubstituter.addSubstitutions(substituter, spec, context.getUserPrefs());
+    }
 
     return spec.substitute(substituter);
   }
@@ -21,6 +21,8 @@ package org.apache.shindig.gadgets;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.classextension.EasyMock.replay;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.cache.LruCacheProvider;
@@ -35,9 +37,17 @@ import org.apache.shindig.gadgets.http.RequestPipeline;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.SpecParserException;
 
+import com.google.common.collect.Lists;
+
 import org.easymock.EasyMock;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * Tests for DefaultGadgetSpecFactory
@@ -156,6 +166,135 @@ public class DefaultGadgetSpecFactoryTest {
     assertEquals(1, executor.runnableCount);
   }
 
+  @Test
+  public void unchangedSpecNotParsedAgain() throws Exception {
+    HttpRequest request = createCacheableRequest();
+    expect(pipeline.execute(request)).andReturn(new HttpResponse(LOCAL_SPEC_XML)).times(2);
+    replay(pipeline);
+
+    GadgetSpec spec = specFactory.getGadgetSpec(createContext(SPEC_URL, false));
+    specFactory.cache.addElement(SPEC_URL, spec, -1);
+    specFactory.getGadgetSpec(createContext(SPEC_URL, false));
+
+    assertSame(spec, specFactory.getGadgetSpec(createContext(SPEC_URL, false)));
+    assertEquals(1, executor.runnableCount);
+    assertEquals(1, specFactory.getParseCount());
+    assertEquals(1, specFactory.getUnchangedCount());
+  }
+
+  @Test
+  public void countersPublishedAsMBean() throws Exception {
+    HttpRequest request = createCacheableRequest();
+    expect(pipeline.execute(request)).andReturn(new HttpResponse(LOCAL_SPEC_XML)).times(2);
+    replay(pipeline);
+
+    GadgetSpec spec = specFactory.getGadgetSpec(createContext(SPEC_URL, false));
+    specFactory.cache.addElement(SPEC_URL, spec, -1);
+    specFactory.getGadgetSpec(createContext(SPEC_URL, false));
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.apache.shindig:type=SpecFactory,name=" +
+        DefaultGadgetSpecFactory.CACHE_NAME);
+    assertEquals(DefaultGadgetSpecFactory.CACHE_NAME, server.getAttribute(name, "Name"));
+    assertEquals(1L, server.getAttribute(name, "ParseCount"));
+    assertEquals(1L, server.getAttribute(name, "UnchangedCount"));
+  }
+
+  @Test
+  public void changedSpecParsedAgain() throws Exception {
+    HttpRequest request = createCacheableRequest();
+    expect(pipeline.execute(request)).andReturn(new HttpResponse(LOCAL_SPEC_XML)).once();
+    expect(pipeline.execute(request)).andReturn(new HttpResponse(RAWXML_SPEC_XML)).once();
+    replay(pipeline);
+
+    GadgetSpec spec = specFactory.getGadgetSpec(createContext(SPEC_URL, false));
+    specFactory.cache.addElement(SPEC_URL, spec, -1);
+    specFactory.getGadgetSpec(createContext(SPEC_URL, false));
+
+    spec = specFactory.getGadgetSpec(createContext(SPEC_URL, false));
+    assertEquals(RAWXML_CONTENT, spec.getView(GadgetSpec.DEFAULT_VIEW).getContent());
+    assertEquals(2, specFactory.getParseCount());
+    assertEquals(0, specFactory.getUnchangedCount());
+  }
+
+  @Test
+  public void expiredSpecRefreshedOnce() throws Exception {
+    HttpRequest request = createCacheableRequest();
+    expect(pipeline.execute(request)).andReturn(new HttpResponse(ALT_LOCAL_SPEC_XML)).once();
+    replay(pipeline);
+
+    QueuingExecutor queue = new QueuingExecutor();
+    DefaultGadgetSpecFactory factory
+        = new DefaultGadgetSpecFactory(queue, pipeline, cacheProvider, MAX_AGE);
+    GadgetSpec stale = new GadgetSpec(SPEC_URL, LOCAL_SPEC_XML);
+    factory.cache.addElement(SPEC_URL, stale, -1);
+
+    for (int i = 0; i < 3; ++i) {
+      assertSame(stale, factory.getGadgetSpec(createContext(SPEC_URL, false)));
+    }
+    assertEquals(1, queue.tasks.size());
+
+    queue.runAll();
+    GadgetSpec refreshed = factory.getGadgetSpec(createContext(SPEC_URL, false));
+    assertTrue(refreshed != stale);
+
+    // Once the refresh has finished, the next expiry triggers a new one.
+    factory.cache.addElement(SPEC_URL, refreshed, -1);
+    factory.getGadgetSpec(createContext(SPEC_URL, false));
+    assertEquals(1, queue.tasks.size());
+  }
+
+  @Test
+  public void concurrentRefreshesLimited() throws Exception {
+    Uri otherUrl = Uri.parse("http://example.org/other.xml");
+    QueuingExecutor queue = new QueuingExecutor();
+    DefaultGadgetSpecFactory factory
+        = new DefaultGadgetSpecFactory(queue, pipeline, cacheProvider, MAX_AGE);
+    factory.setMaxConcurrentRefreshes(1);
+    GadgetSpec stale = new GadgetSpec(SPEC_URL, LOCAL_SPEC_XML);
+    GadgetSpec otherStale = new GadgetSpec(otherUrl, LOCAL_SPEC_XML);
+    factory.cache.addElement(SPEC_URL, stale, -1);
+    factory.cache.addElement(otherUrl, otherStale, -1);
+
+    assertSame(stale, factory.getGadgetSpec(createContext(SPEC_URL, false)));
+    assertSame(otherStale, factory.getGadgetSpec(createContext(otherUrl, false)));
+
+    assertEquals(1, queue.tasks.size());
+  }
+
+  @Test
+  public void rejectedRefreshRetried() throws Exception {
+    final int[] attempts = new int[1];
+    DefaultGadgetSpecFactory factory = new DefaultGadgetSpecFactory(new TestExecutorService() {
+      @Override
+      public void execute(Runnable r) {
+        attempts[0]++;
+        throw new RejectedExecutionException();
+      }
+    }, pipeline, cacheProvider, MAX_AGE);
+    GadgetSpec stale = new GadgetSpec(SPEC_URL, LOCAL_SPEC_XML);
+    factory.cache.addElement(SPEC_URL, stale, -1);
+
+    assertSame(stale, factory.getGadgetSpec(createContext(SPEC_URL, false)));
+    assertSame(stale, factory.getGadgetSpec(createContext(SPEC_URL, false)));
+
+    assertEquals(2, attempts[0]);
+  }
+
+  @Test
+  public void refreshJitterShortensExpiry() {
+    assertEquals(MAX_AGE, specFactory.nextExpiry());
+
+    specFactory.setRefreshJitter(0.5);
+    boolean jittered = false;
+    for (int i = 0; i < 100; ++i) {
+      long expiry = specFactory.nextExpiry();
+      assertTrue("Expiry " + expiry, expiry >= MAX_AGE / 2 && expiry <= MAX_AGE);
+      jittered |= expiry != MAX_AGE;
+    }
+    assertTrue(jittered);
+  }
+
   @Test
   public void specFetchedFromParam() throws Exception {
     // Set up request as if it's a regular spec request, and ensure that
@@ -302,6 +441,23 @@ public class DefaultGadgetSpecFactoryTest {
     }
   }
 
+  private static class QueuingExecutor extends TestExecutorService {
+    final List<Runnable> tasks = Lists.newArrayList();
+
+    @Override
+    public void execute(Runnable r) {
+      tasks.add(r);
+    }
+
+    void runAll() {
+      List<Runnable> toRun = Lists.newArrayList(tasks);
+      tasks.clear();
+      for (Runnable r : toRun) {
+        r.run();
+      }
+    }
+  }
+
   private static class CapturingPipeline implements RequestPipeline {
     HttpRequest request;
 
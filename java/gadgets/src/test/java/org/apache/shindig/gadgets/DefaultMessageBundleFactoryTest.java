@@ -23,7 +23,9 @@ import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.verify;
 import static org.easymock.classextension.EasyMock.replay;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
@@ -271,6 +273,91 @@ public class DefaultMessageBundleFactoryTest {
     assertEquals(bundle0.getMessages().get(MSG_0_NAME), bundle1.getMessages().get(MSG_0_NAME));
   }
 
+  @Test
+  public void mergedBundleFromCache() throws Exception {
+    HttpResponse response = new HttpResponse(BASIC_BUNDLE);
+    expect(pipeline.execute(isA(HttpRequest.class))).andReturn(response).once();
+    replay(pipeline);
+
+    MessageBundle bundle0 = bundleFactory.getBundle(gadgetSpec, LOCALE, false);
+    MessageBundle bundle1 = bundleFactory.getBundle(gadgetSpec, LOCALE, false);
+
+    verify(pipeline);
+
+    assertSame(bundle0, bundle1);
+    assertSame(bundle0.toJSONString(), bundle1.toJSONString());
+  }
+
+  @Test
+  public void mergedBundleNotSharedAcrossSpecVersions() throws Exception {
+    GadgetSpec changedSpec = new GadgetSpec(SPEC_URI, BASIC_SPEC.replace(MSG_3_VALUE, "changed"));
+
+    MessageBundle bundle0 = bundleFactory.getBundle(gadgetSpec, COUNTRY_LOCALE, false);
+    MessageBundle bundle1 = bundleFactory.getBundle(changedSpec, COUNTRY_LOCALE, false);
+
+    assertNotSame(bundle0, bundle1);
+    assertEquals(MSG_3_VALUE, bundle0.getMessages().get(MSG_3_NAME));
+    assertEquals("changed", bundle1.getMessages().get(MSG_3_NAME));
+  }
+
+  @Test
+  public void mergedBundleRebuiltWhenBundleRefreshed() throws Exception {
+    HttpResponse response = new HttpResponse(BASIC_BUNDLE);
+    HttpResponse updatedResponse = new HttpResponse(BASIC_BUNDLE.replace(MSG_0_VALUE, "updated"));
+    expect(pipeline.execute(isA(HttpRequest.class))).andReturn(response).once();
+    expect(pipeline.execute(isA(HttpRequest.class))).andReturn(updatedResponse).once();
+    replay(pipeline);
+
+    final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+    bundleFactory.cache.setTimeSource(new TimeSource() {
+      @Override
+      public long currentTimeMillis() {
+        return time.get();
+      }
+    });
+
+    MessageBundle bundle0 = bundleFactory.getBundle(gadgetSpec, LOCALE, false);
+
+    // The stale bundle is served while the refresh happens.
+    time.set(time.get() + MAX_AGE + 1);
+    MessageBundle bundle1 = bundleFactory.getBundle(gadgetSpec, LOCALE, false);
+    MessageBundle bundle2 = bundleFactory.getBundle(gadgetSpec, LOCALE, false);
+
+    verify(pipeline);
+
+    assertSame(bundle0, bundle1);
+    assertNotSame(bundle1, bundle2);
+    assertEquals(MSG_0_VALUE, bundle1.getMessages().get(MSG_0_NAME));
+    assertEquals("updated", bundle2.getMessages().get(MSG_0_NAME));
+  }
+
+  @Test
+  public void unchangedBundleNotParsedAgain() throws Exception {
+    expect(pipeline.execute(isA(HttpRequest.class)))
+        .andReturn(new HttpResponse(BASIC_BUNDLE)).times(2);
+    replay(pipeline);
+
+    final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+    bundleFactory.cache.setTimeSource(new TimeSource() {
+      @Override
+      public long currentTimeMillis() {
+        return time.get();
+      }
+    });
+
+    MessageBundle bundle0 = bundleFactory.getBundle(gadgetSpec, LOCALE, false);
+    time.set(time.get() + MAX_AGE + 1);
+    bundleFactory.getBundle(gadgetSpec, LOCALE, false);
+    MessageBundle bundle1 = bundleFactory.getBundle(gadgetSpec, LOCALE, false);
+
+    verify(pipeline);
+
+    // The merged bundle is reused because the refreshed bundle is the same object.
+    assertSame(bundle0, bundle1);
+    assertEquals(1, bundleFactory.getParseCount());
+    assertEquals(1, bundleFactory.getUnchangedCount());
+  }
+
   @Test
   public void ignoreCacheDoesNotStore() throws Exception {
     bundleFactory.getBundle(gadgetSpec, new Locale("all", "ALL"), true);
@@ -23,10 +23,11 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.isA;
 
 import org.apache.shindig.common.EasyMockTestCase;
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.Utf8UrlCoder;
 import org.apache.shindig.config.AbstractContainerConfig;
 import org.apache.shindig.gadgets.features.FeatureRegistry;
-import org.apache.shindig.gadgets.features.FeatureResource;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 
 import com.google.caja.util.Join;
@@ -85,9 +86,7 @@ public class DefaultUrlGeneratorTest extends EasyMockTestCase {
     expect(context.getModuleId()).andReturn(MODULE_ID).anyTimes();
     expect(context.getView()).andReturn(VIEW).anyTimes();
 
-    List<FeatureResource> features = Lists.newArrayList();
-
-    expect(registry.getAllFeatures()).andReturn(features);
+    expect(registry.getAllFeaturesChecksum()).andReturn("0123abcd");
 
     config.properties.put(DefaultUrlGenerator.IFRAME_URI_PARAM, IFR_BASE);
     config.properties.put(DefaultUrlGenerator.JS_URI_PARAM, JS_BASE);
@@ -211,6 +210,39 @@ public class DefaultUrlGeneratorTest extends EasyMockTestCase {
     assertEquals(VIEW, iframeUrl.getQueryParameter("view"));
   }
 
+  @Test
+  public void testGetIframeUrlPrefixCached() throws Exception {
+    String xml
+        = "<Module>" +
+          " <ModulePrefs title='test'/>" +
+          " <Content type='html'/>" +
+          " <UserPref name='" + UP_NAME + "' datatype='string'/>" +
+          "</Module>";
+    GadgetSpec spec = new GadgetSpec(Uri.parse(SPEC_URL), xml);
+
+    // Only asked once.
+    expect(lockedDomainService.getLockedDomainForGadget(isA(Gadget.class), eq(CONTAINER)))
+        .andReturn("locked.example.org").once();
+    replay();
+
+    urlGenerator.setCacheProvider(new LruCacheProvider(10));
+    Gadget gadget = new Gadget()
+        .setContext(context)
+        .setSpec(spec)
+        .setCurrentView(spec.getView("default"));
+
+    String iframeUrl = urlGenerator.getIframeUrl(gadget);
+    assertEquals(iframeUrl, urlGenerator.getIframeUrl(gadget));
+
+    Uri uri = Uri.parse(iframeUrl);
+    assertEquals("locked.example.org", uri.getAuthority());
+    assertEquals(CONTAINER, uri.getQueryParameter("container"));
+    assertEquals(UP_VALUE, uri.getQueryParameter("up_" + UP_NAME));
+    assertEquals(SPEC_URL, uri.getQueryParameter("url"));
+    assertTrue(iframeUrl.endsWith("&url=" + Utf8UrlCoder.encode(SPEC_URL)));
+    verify();
+  }
+
   @Test
   public void testGetIframeUrlTypeUrl() throws Exception {
     String xml
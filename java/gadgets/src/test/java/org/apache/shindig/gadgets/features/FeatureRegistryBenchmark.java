@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.features;
+
+import org.apache.shindig.gadgets.GadgetContext;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks feature dependency resolution over a real feature tree, using randomized sets of
+ * requested features.
+ *
+ * Run with the location of the features, eg. features/src/main/javascript/features or
+ * res://features/features.txt if the features jar is on the classpath.
+ */
+public class FeatureRegistryBenchmark {
+  // Fixed, so that runs are comparable.
+  private static final long SEED = 42L;
+  private static final int NUM_REQUEST_SETS = 1000;
+  private static final int MAX_REQUESTED = 8;
+
+  private final FeatureRegistry registry;
+  private final List<List<String>> requestSets;
+  private final GadgetContext ignoreCacheContext = new GadgetContext() {
+    @Override
+    public boolean getIgnoreCache() {
+      return true;
+    }
+  };
+
+  private int numRuns;
+  private boolean warmup;
+
+  private FeatureRegistryBenchmark(String features, int numRuns) throws Exception {
+    registry = new FeatureRegistry(new FeatureResourceLoader());
+    registry.register(features);
+    requestSets = makeRequestSets(registry.getAllFeatureNames());
+
+    this.numRuns = 10;
+    warmup = true;
+    runAll();
+    //Sleep to let JIT kick in
+    Thread.sleep(10000L);
+    this.numRuns = numRuns;
+    warmup = false;
+    runAll();
+  }
+
+  private static List<List<String>> makeRequestSets(List<String> names) {
+    Collections.sort(names);
+    Random random = new Random(SEED);
+    List<List<String>> sets = Lists.newArrayListWithCapacity(NUM_REQUEST_SETS);
+    for (int i = 0; i < NUM_REQUEST_SETS; ++i) {
+      List<String> shuffled = Lists.newArrayList(names);
+      Collections.shuffle(shuffled, random);
+      sets.add(shuffled.subList(0, 1 + random.nextInt(Math.min(MAX_REQUESTED, names.size()))));
+    }
+    return sets;
+  }
+
+  private void runAll() {
+    output("Features: " + registry.getAllFeatureNames().size() + ", request sets: " +
+        requestSets.size() + "-----------------");
+    timeGetFeatures();
+    timeGetFeatureResources();
+  }
+
+  private void output(String string) {
+    if (!warmup) {
+      System.out.println(string);
+    }
+  }
+
+  private void timeGetFeatures() {
+    long start = System.currentTimeMillis();
+    int resolved = 0;
+    for (int i = 0; i < numRuns; ++i) {
+      for (List<String> requested : requestSets) {
+        resolved += registry.getFeatures(requested).size();
+      }
+    }
+    long millis = System.currentTimeMillis() - start;
+
+    output("getFeatures [" + millis + " ms total: " +
+        ((double) millis) / (numRuns * requestSets.size()) + "ms/set, " + resolved + " resolved]");
+  }
+
+  private void timeGetFeatureResources() {
+    long start = System.currentTimeMillis();
+    int resolved = 0;
+    for (int i = 0; i < numRuns; ++i) {
+      for (List<String> requested : requestSets) {
+        // Bypasses the registry's result cache, as a distinct request set would.
+        resolved += registry.getFeatureResources(ignoreCacheContext, requested, null).size();
+      }
+    }
+    long millis = System.currentTimeMillis() - start;
+
+    output("getFeatureResources, uncached [" + millis + " ms total: " +
+        ((double) millis) / (numRuns * requestSets.size()) + "ms/set, " + resolved + " resolved]");
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      System.err.println("Args: <features-location> <num-runs>");
+      System.exit(1);
+    }
+
+    String featuresArg = args[0];
+    String runsArg = args[1];
+    int numRuns = -1;
+    try {
+      numRuns = Integer.parseInt(runsArg);
+    } catch (Exception e) {
+      System.err.println("Invalid num-runs argument: " + runsArg + ", reason: " + e);
+    }
+    try {
+      new FeatureRegistryBenchmark(featuresArg, numRuns);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
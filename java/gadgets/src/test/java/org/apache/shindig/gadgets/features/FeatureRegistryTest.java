@@ -18,6 +18,7 @@
 package org.apache.shindig.gadgets.features;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
@@ -27,6 +28,7 @@ import com.google.common.collect.Maps;
 
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.uri.UriBuilder;
+import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.GadgetException;
@@ -221,6 +223,60 @@ public class FeatureRegistryTest {
     assertSame(resources2, resourcesAgain);
   }
   
+  @Test
+  public void allFeaturesChecksumChangesWithRegistration() throws Exception {
+    Uri content1Uri = expectResource("content1()");
+    Uri feature1Uri = expectResource(xml(BOTTOM_TPL, "gadget", content1Uri.getPath(), null));
+    Uri content2Uri = expectResource("content_two()");
+    Uri feature2Uri = expectResource(xml(BOTTOM_TPL, "gadget", content2Uri.getPath(), null));
+    
+    registry.register(feature1Uri.toString());
+    String checksum1 = registry.getAllFeaturesChecksum();
+    assertSame(checksum1, registry.getAllFeaturesChecksum());
+    assertEquals(registry.getChecksum(registry.getAllFeatures()), checksum1);
+    
+    registry.register(feature2Uri.toString());
+    assertFalse(checksum1.equals(registry.getAllFeaturesChecksum()));
+  }
+  
+  @Test
+  public void checksumOfSingleResourceIsItsContentChecksum() throws Exception {
+    FeatureResource resource = new FeatureResource.Simple("content", "debug");
+    assertEquals(HashUtil.checksum("contentdebug".getBytes()),
+        registry.getChecksum(Lists.newArrayList(resource)));
+    assertSame(registry.getResourceChecksum(resource), registry.getResourceChecksum(resource));
+  }
+  
+  @Test
+  public void checksumDependsOnContentAndOrder() throws Exception {
+    FeatureResource one = new FeatureResource.Simple("one", "");
+    FeatureResource two = new FeatureResource.Simple("two", "");
+    FeatureResource otherTwo = new FeatureResource.Simple("two", "");
+    FeatureResource changed = new FeatureResource.Simple("changed", "");
+    
+    String checksum = registry.getChecksum(Lists.newArrayList(one, two));
+    assertEquals(checksum, registry.getChecksum(Lists.newArrayList(one, otherTwo)));
+    assertFalse(checksum.equals(registry.getChecksum(Lists.newArrayList(two, one))));
+    assertFalse(checksum.equals(registry.getChecksum(Lists.newArrayList(one, changed))));
+  }
+  
+  @Test
+  public void checksumOfUnloadedResourceNotCached() throws Exception {
+    final String[] content = new String[1];
+    FeatureResource resource = new FeatureResource.Default() {
+      public String getContent() {
+        return content[0];
+      }
+      
+      public String getDebugContent() {
+        return content[0];
+      }
+    };
+    String unloaded = registry.getResourceChecksum(resource);
+    content[0] = "loaded()";
+    assertFalse(unloaded.equals(registry.getResourceChecksum(resource)));
+  }
+  
   @Test
   public void cacheAccountsForUnsupportedState() throws Exception {
     String content1 = "content1()";
@@ -510,6 +566,15 @@ public class FeatureRegistryTest {
     assertEquals("nodep", featureNames.get(4));
   }
   
+  @Test
+  public void getFeaturesStringsOverlapping() throws Exception {
+    setupFullRegistry("gadget", null);
+    // mid_b and bottom are already part of top's tree, which is resolved first as the deepest.
+    List<String> needed = Lists.newArrayList("bottom", "mid_b", "top");
+    List<String> featureNames = registry.getFeatures(needed);
+    assertEquals(Lists.newArrayList("bottom", "mid_a", "mid_b", "top"), featureNames);
+  }
+  
   @Test
   public void loopIsDetectedAndCrashes() throws Exception {
     // Set up a registry with features loop_a,b,c. C points back to A, which should
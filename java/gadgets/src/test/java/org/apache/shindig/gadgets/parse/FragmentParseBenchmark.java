@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.parse;
+
+import org.apache.shindig.gadgets.parse.nekohtml.NekoSimplifiedHtmlParser;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Benchmarks parsing many small fragments, as the template, sanitizing and caja rewriters do.
+ * Nothing is cached, so every run goes through the parser.
+ */
+public class FragmentParseBenchmark {
+  private static final int NUM_THREADS = 4;
+
+  private static final String[] FRAGMENTS = {
+      "Hello, ${Viewer.displayName}!",
+      "<b>bold</b> and <i>italic</i>",
+      "<a href=\"http://example.org/\">link</a>",
+      "<img src=\"http://example.org/image.png\" alt=\"image\">",
+      "<div class=\"item\"><span>${item.title}</span></div>",
+      "<os:Name person=\"${Viewer}\"/>",
+      "<ul><li>one<li>two<li>three</ul>",
+      "<script>var x = 1;</script>",
+      "<style>.item { color: red; }</style>",
+      "<p onclick=\"doSomething()\">click</p>",
+  };
+
+  private int numRuns;
+  private boolean warmup;
+
+  private final GadgetHtmlParser parser = new NekoSimplifiedHtmlParser(
+      new ParseModule.DOMImplementationProvider().get());
+
+  private FragmentParseBenchmark(int numRuns) throws Exception {
+    this.numRuns = 100;
+    warmup = true;
+    runAll();
+    //Sleep to let JIT kick in
+    Thread.sleep(10000L);
+    this.numRuns = numRuns;
+    warmup = false;
+    runAll();
+  }
+
+  private void runAll() throws Exception {
+    long start = System.currentTimeMillis();
+    parseFragments(numRuns);
+    output("Fragments, 1 thread", System.currentTimeMillis() - start);
+
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      Future<?>[] futures = new Future<?>[NUM_THREADS];
+      start = System.currentTimeMillis();
+      for (int i = 0; i < NUM_THREADS; ++i) {
+        futures[i] = executor.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            parseFragments(numRuns / NUM_THREADS);
+            return null;
+          }
+        });
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      output("Fragments, " + NUM_THREADS + " threads", System.currentTimeMillis() - start);
+    } finally {
+      executor.shutdown();
+    }
+
+    start = System.currentTimeMillis();
+    for (int i = 0; i < numRuns; ++i) {
+      parser.parseDom(FRAGMENTS[i % FRAGMENTS.length]);
+    }
+    output("Small documents, 1 thread", System.currentTimeMillis() - start);
+  }
+
+  private void parseFragments(int runs) throws Exception {
+    // Fragments are imported into the parent's document, so each thread needs its own.
+    Document document = parser.parseDom("<html><body></body></html>");
+    for (int i = 0; i < runs; ++i) {
+      Element parent = document.createElement("div");
+      parser.parseFragment(FRAGMENTS[i % FRAGMENTS.length], parent);
+    }
+  }
+
+  private void output(String what, long millis) {
+    if (!warmup) {
+      System.out.println(what + " [" + millis + " ms total: " +
+          ((double) millis) / numRuns + "ms/run]");
+    }
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 1) {
+      System.err.println("Args: <num-runs>");
+      System.exit(1);
+    }
+
+    String runsArg = args[0];
+    int numRuns = -1;
+    try {
+      numRuns = Integer.parseInt(runsArg);
+    } catch (Exception e) {
+      System.err.println("Invalid num-runs argument: " + runsArg + ", reason: " + e);
+    }
+    try {
+      new FragmentParseBenchmark(numRuns);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -18,6 +18,7 @@
 package org.apache.shindig.gadgets.parse.caja;
 
 import org.apache.shindig.common.EasyMockTestCase;
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.rewrite.LinkRewriter;
 import org.apache.shindig.gadgets.servlet.ProxyBase;
@@ -106,4 +107,27 @@ public class CajaCssSanitizerTest extends EasyMockTestCase {
   public void assertStyleEquals(String expected, CssTree.StyleSheet styleSheet) throws Exception {
     assertEquals(parser.serialize(parser.parseDom(expected)), parser.serialize(styleSheet));
   }
+
+  @Test
+  public void testSanitizedCssCachedByRewriterKey() throws Exception {
+    sanitizer.setCacheProvider(new LruCacheProvider(10));
+    final int[] rewrites = new int[1];
+    LinkRewriter countingRewriter = new LinkRewriter() {
+      public String rewrite(String link, Uri context) {
+        rewrites[0]++;
+        return link + "&counted=" + rewrites[0];
+      }
+    };
+    String css = ".xyz { background: url('http://www.example.org/img.gif');}";
+
+    String first = sanitizer.sanitize(css, DUMMY, importRewriter, countingRewriter, "one");
+    assertEquals(first, sanitizer.sanitize(css, DUMMY, importRewriter, countingRewriter, "one"));
+    assertEquals(1, rewrites[0]);
+
+    sanitizer.sanitize(css, DUMMY, importRewriter, countingRewriter, "two");
+    sanitizer.sanitize(css, Uri.parse("http://www.example.org/other"), importRewriter,
+        countingRewriter, "one");
+    sanitizer.sanitize(css, DUMMY, importRewriter, countingRewriter, null);
+    assertEquals(4, rewrites[0]);
+  }
 }
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.parse.caja;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.Utf8UrlCoder;
+import org.apache.shindig.gadgets.rewrite.LinkRewriter;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+/**
+ * Benchmarks sanitizing stylesheets as the sanitizing proxy does, with no caching, with only
+ * the parsed stylesheet cached, and with the sanitized text cached. Real stylesheets can be
+ * given on the command line; otherwise three hand-written sheets from the test resources are
+ * used. Those are synthetic, so figures from them only approximate production stylesheets.
+ */
+public class CssSanitizerBenchmark {
+  private static final String[] BUNDLED = {"portal.css", "blog.css", "grid.css"};
+  private static final Uri CONTEXT = Uri.parse("http://www.example.org/styles/main.css");
+
+  private final String[] stylesheets;
+  private int numRuns;
+  private boolean warmup;
+
+  private CssSanitizerBenchmark(String[] stylesheets, int numRuns) throws Exception {
+    this.stylesheets = stylesheets;
+    this.numRuns = 100;
+    warmup = true;
+    runAll();
+    //Sleep to let JIT kick in
+    Thread.sleep(10000L);
+    this.numRuns = numRuns;
+    warmup = false;
+    runAll();
+  }
+
+  private void runAll() {
+    CajaCssSanitizer uncached = new CajaCssSanitizer(new CajaCssParser());
+    time("Uncached", uncached, null);
+
+    CajaCssParser cachingParser = new CajaCssParser();
+    cachingParser.setCacheProvider(new LruCacheProvider(100));
+    CajaCssSanitizer parseCached = new CajaCssSanitizer(cachingParser);
+    time("Parsed stylesheet cached", parseCached, null);
+
+    CajaCssSanitizer sanitizedCached = new CajaCssSanitizer(cachingParser);
+    sanitizedCached.setCacheProvider(new LruCacheProvider(100));
+    time("Sanitized text cached", sanitizedCached, "proxy");
+  }
+
+  private void time(String what, CajaCssSanitizer sanitizer, String rewriterKey) {
+    LinkRewriter importRewriter = new ProxyLinkRewriter("text/css");
+    LinkRewriter imageRewriter = new ProxyLinkRewriter("image/*");
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < numRuns; ++i) {
+      for (String css : stylesheets) {
+        sanitizer.sanitize(css, CONTEXT, importRewriter, imageRewriter, rewriterKey);
+      }
+    }
+    long millis = System.currentTimeMillis() - start;
+    if (!warmup) {
+      System.out.println(what + " [" + millis + " ms total: " +
+          ((double) millis) / numRuns + "ms/run]");
+    }
+  }
+
+  /** Rewrites links much as the sanitizing proxy link rewriter does. */
+  private static class ProxyLinkRewriter implements LinkRewriter {
+    private final String mimeType;
+
+    ProxyLinkRewriter(String mimeType) {
+      this.mimeType = mimeType;
+    }
+
+    public String rewrite(String link, Uri context) {
+      return "http://www.test.com/dir/proxy?url=" +
+          Utf8UrlCoder.encode(context.resolve(Uri.parse(link)).toString()) +
+          "&gadget=http%3A%2F%2Fwww.example.org%2Fg.xml&fp=1150739864&sanitize=1&rewriteMime=" +
+          mimeType;
+    }
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      System.err.println("Args: <num-runs> [stylesheet files]");
+      System.exit(1);
+    }
+
+    String runsArg = args[0];
+    int numRuns = -1;
+    try {
+      numRuns = Integer.parseInt(runsArg);
+    } catch (Exception e) {
+      System.err.println("Invalid num-runs argument: " + runsArg + ", reason: " + e);
+    }
+    try {
+      String[] stylesheets;
+      if (args.length > 1) {
+        stylesheets = new String[args.length - 1];
+        for (int i = 1; i < args.length; ++i) {
+          stylesheets[i - 1] = IOUtils.toString(new FileInputStream(args[i]), "UTF-8");
+        }
+      } else {
+        stylesheets = new String[BUNDLED.length];
+        for (int i = 0; i < BUNDLED.length; ++i) {
+          InputStream in = CssSanitizerBenchmark.class.getClassLoader().getResourceAsStream(
+              "org/apache/shindig/gadgets/parse/caja/stylesheets/" + BUNDLED[i]);
+          stylesheets[i] = IOUtils.toString(in, "UTF-8");
+        }
+      }
+      new CssSanitizerBenchmark(stylesheets, numRuns);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -17,12 +17,19 @@
  */
 package org.apache.shindig.gadgets.parse.nekohtml;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
+import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.parse.AbstractParserAndSerializerTest;
 import org.apache.shindig.gadgets.parse.GadgetHtmlParser;
+import org.apache.shindig.gadgets.parse.HtmlSerialization;
 import org.apache.shindig.gadgets.parse.ParseModule;
 import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 /**
  * Test behavior of neko based parser and serializers
@@ -43,6 +50,34 @@ public class NekoParserAndSerializeTest extends AbstractParserAndSerializerTest
     parseAndCompareBalanced(content, expected, parser);
   }  
 
+  @Test
+  public void reusedPipelinesMatchFreshParser() throws Exception {
+    String content = loadFile("org/apache/shindig/gadgets/parse/test-socialmarkup.html");
+    Document first = parser.parseDom(content);
+    Element div = first.createElement("div");
+    parser.parseFragment("<b>fragment</b><script type='text/os-template'>x</script>", div);
+    Document second = parser.parseDom(content);
+
+    assertNotSame(first, second);
+    assertEquals(HtmlSerialization.serialize(makeParser().parseDom(content)),
+        HtmlSerialization.serialize(second));
+    assertEquals(2, div.getChildNodes().getLength());
+  }
+
+  @Test
+  public void failedParseLeavesNothingBehind() throws Exception {
+    String content = loadFile("org/apache/shindig/gadgets/parse/test-socialmarkup.html");
+    try {
+      parser.parseDom("<html><body><script type='text/os-template'><div a:\"b\"><span>" +
+          "</script></body></html>");
+      fail("Invalid attribute should fail the parse");
+    } catch (GadgetException e) {
+      // Expected.
+    }
+    assertEquals(HtmlSerialization.serialize(makeParser().parseDom(content)),
+        HtmlSerialization.serialize(parser.parseDom(content)));
+  }
+
   // Neko overridden tests (due to Neko quirks)
   @Override
   @Test
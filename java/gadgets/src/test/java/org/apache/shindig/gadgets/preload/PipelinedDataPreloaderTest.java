@@ -25,6 +25,7 @@ import static org.junit.Assert.assertTrue;
 import org.apache.shindig.common.JsonAssert;
 import org.apache.shindig.common.JsonSerializer;
 import org.apache.shindig.common.JsonUtil;
+import org.apache.shindig.common.LazyJson;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.expressions.Expressions;
 import org.apache.shindig.gadgets.Gadget;
@@ -282,6 +283,24 @@ public class PipelinedDataPreloaderTest extends PreloaderTestFixture {
     verifyHttpPreload(response, expectedResult);
   }
 
+  @Test
+  public void testHttpPreloadOfStrictJsonIsNotParsed() throws Exception {
+    HttpResponse response = new HttpResponseBuilder()
+        .setResponseString("{\"foo\": \"</script>\"}")
+        .create();
+
+    JSONObject result = (JSONObject) executeHttpPreloadForJson(response, XML_WITH_HTTP_REQUEST);
+    Object content = result.getJSONObject("data").get("content");
+    assertTrue(content instanceof LazyJson);
+    assertEquals("{\"foo\": \"</script>\"}", ((LazyJson) content).getRawJson());
+
+    // Serialized verbatim, but still escaped for inclusion in a script tag
+    String expectedResult = "{data: {status: 200, content: {foo: '</script>'}}, id: 'p'}";
+    String serialized = JsonSerializer.serialize(result);
+    assertFalse(serialized.contains("</script>"));
+    JsonAssert.assertJsonEquals(expectedResult, serialized);
+  }
+
   @Test
   public void testHttpPreloadOfJsonArrayWithHeaders() throws Exception {
     HttpResponse response = new HttpResponseBuilder()
@@ -352,6 +371,13 @@ public class PipelinedDataPreloaderTest extends PreloaderTestFixture {
    * Run an HTTP Preload test, returning the String result.
    */
   private String executeHttpPreload(HttpResponse response, String xml) throws Exception {
+    return executeHttpPreloadForJson(response, xml).toString();
+  }
+
+  /**
+   * Run an HTTP Preload test, returning the JSON result.
+   */
+  private Object executeHttpPreloadForJson(HttpResponse response, String xml) throws Exception {
     GadgetSpec spec = new GadgetSpec(GADGET_URL, xml);
 
     RecordingRequestPipeline pipeline = new RecordingRequestPipeline(response);
@@ -381,7 +407,7 @@ public class PipelinedDataPreloaderTest extends PreloaderTestFixture {
     assertEquals("POST", request.getMethod());
     assertEquals(60, request.getCacheTtl());
 
-    return result.iterator().next().toString();
+    return result.iterator().next();
   }
 
   @Test
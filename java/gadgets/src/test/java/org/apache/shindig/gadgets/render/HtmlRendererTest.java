@@ -20,6 +20,7 @@ package org.apache.shindig.gadgets.render;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.apache.shindig.auth.AnonymousSecurityToken;
 import org.apache.shindig.auth.SecurityToken;
@@ -32,6 +33,8 @@ import org.apache.shindig.gadgets.preload.PreloadedData;
 import org.apache.shindig.gadgets.preload.PreloaderService;
 import org.apache.shindig.gadgets.rewrite.CaptureRewriter;
 import org.apache.shindig.gadgets.rewrite.GadgetRewriter;
+import org.apache.shindig.gadgets.rewrite.MutableContent;
+import org.apache.shindig.gadgets.rewrite.RewritingException;
 import org.apache.shindig.gadgets.servlet.HtmlAccelServlet;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.View;
@@ -42,6 +45,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.Callable;
 
+import javax.servlet.http.HttpServletResponse;
+
 import com.google.common.collect.ImmutableList;
 
 /**
@@ -126,6 +131,22 @@ public class HtmlRendererTest {
     assertTrue("Rewriting not performed.", captureRewriter.viewWasRewritten());
   }
 
+  @Test
+  public void rewritingExceptionStatusPassedThrough() throws Exception {
+    renderer = new HtmlRenderer(preloaderService, proxyRenderer,
+        new GadgetRewritersProvider(ImmutableList.of((GadgetRewriter) new GadgetRewriter() {
+          public void rewrite(Gadget gadget, MutableContent content) throws RewritingException {
+            throw new RewritingException("later", HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+          }
+        }), ImmutableList.<GadgetRewriter>of()), null);
+    try {
+      renderer.render(makeGadget(BASIC_HTML_CONTENT));
+      fail("Expected RenderingException");
+    } catch (RenderingException e) {
+      assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getHttpStatusCode());
+    }
+  }
+
   @Test
   public void doAccelRewriting() throws Exception {
     renderer.render(makeGadget(BASIC_HTML_CONTENT).setContext(ACCEL_CONTEXT));
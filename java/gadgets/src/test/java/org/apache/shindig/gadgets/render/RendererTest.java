@@ -30,6 +30,7 @@ import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.LockedDomainService;
 import org.apache.shindig.gadgets.process.ProcessingException;
 import org.apache.shindig.gadgets.process.Processor;
+import org.apache.shindig.gadgets.rewrite.MutableContent;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.View;
 
@@ -188,14 +189,14 @@ public class RendererTest {
     }
 
     @Override
-    public String render(Gadget gadget) throws RenderingException {
+    public MutableContent renderContent(Gadget gadget) throws RenderingException {
       if (exception != null) {
         throw exception;
       }
       if (runtimeException != null) {
         throw runtimeException;
       }
-      return gadget.getCurrentView().getContent();
+      return new MutableContent(null, gadget.getCurrentView().getContent());
     }
   }
 
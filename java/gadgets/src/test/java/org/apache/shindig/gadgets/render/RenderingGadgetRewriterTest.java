@@ -35,6 +35,7 @@ import static org.junit.Assert.assertTrue;
 
 import org.apache.shindig.common.JsonAssert;
 import org.apache.shindig.common.PropertiesModule;
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.apache.shindig.config.AbstractContainerConfig;
@@ -504,6 +505,124 @@ public class RenderingGadgetRewriterTest {
     assertEquals("blah", json.get("foo"));
   }
 
+  @Test
+  public void featureInjectionCached() throws Exception {
+    String gadgetXml =
+      "<Module><ModulePrefs title=''>" +
+      "  <Require feature='foo'/>" +
+      "</ModulePrefs>" +
+      "<Content type='html'/>" +
+      "</Module>";
+
+    Gadget gadget = makeGadgetWithSpec(gadgetXml);
+    rewriter.setCacheProvider(new LruCacheProvider(10));
+
+    // The registry mock expects each lookup only once.
+    expectFeatureCalls(gadget,
+        ImmutableList.of(inline("foo_content();", "foo_content_debug();")),
+        ImmutableSet.<String>of(),
+        ImmutableList.<FeatureResource>of());
+
+    config.data.put(FEATURES_KEY, ImmutableMap.of("foo", "blah"));
+
+    String first = rewrite(gadget, "");
+    String second = rewrite(gadget, "");
+
+    assertEquals(first, second);
+    assertTrue("Requested scripts not inlined.", second.contains("foo_content();"));
+    JSONObject json = getConfigJson(second);
+    assertEquals("blah", json.get("foo"));
+    assertTrue(json.getJSONObject("core.util").has("foo"));
+  }
+
+  @Test
+  public void overriddenLibraryConfigUsed() throws Exception {
+    String gadgetXml =
+      "<Module><ModulePrefs title=''>" +
+      "  <Require feature='foo'/>" +
+      "</ModulePrefs>" +
+      "<Content type='html'/>" +
+      "</Module>";
+
+    Gadget gadget = makeGadgetWithSpec(gadgetXml);
+    rewriter = new RenderingGadgetRewriter(messageBundleFactory, config, featureRegistry,
+        urlGenerator, null) {
+      @Override
+      protected String getLibraryConfig(Gadget gadget, List<String> reqs) {
+        return "custom_config(" + reqs + ");";
+      }
+    };
+    rewriter.setCacheProvider(new LruCacheProvider(10));
+
+    expectFeatureCalls(gadget,
+        ImmutableList.of(inline("foo_content();", "foo_content_debug();")),
+        ImmutableSet.<String>of(),
+        ImmutableList.<FeatureResource>of());
+
+    rewrite(gadget, "");
+    String rewritten = rewrite(gadget, "");
+
+    assertTrue("Overridden configuration not used.", rewritten.contains("custom_config([foo]);"));
+    assertFalse(rewritten.contains("gadgets.config.init"));
+  }
+
+  @Test
+  public void featureInjectionRebuiltWhenFeaturesRegistered() throws Exception {
+    String gadgetXml =
+      "<Module><ModulePrefs title=''>" +
+      "  <Require feature='foo'/>" +
+      "</ModulePrefs>" +
+      "<Content type='html'/>" +
+      "</Module>";
+
+    Gadget gadget = makeGadgetWithSpec(gadgetXml);
+    rewriter.setCacheProvider(new LruCacheProvider(10));
+
+    expectFeatureCalls(gadget,
+        ImmutableList.of(inline("foo_content();", "foo_content_debug();")),
+        ImmutableSet.<String>of(),
+        ImmutableList.<FeatureResource>of());
+    rewrite(gadget, "");
+
+    expectFeatureCalls(gadget,
+        ImmutableList.of(inline("new_foo_content();", "new_foo_content_debug();")),
+        ImmutableSet.<String>of(),
+        ImmutableList.<FeatureResource>of(), 1);
+    String rewritten = rewrite(gadget, "");
+
+    assertTrue("Stale feature content injected.", rewritten.contains("new_foo_content();"));
+  }
+
+  @Test
+  public void featureInjectionRebuiltWhenContainerConfigChanges() throws Exception {
+    String gadgetXml =
+      "<Module><ModulePrefs title=''>" +
+      "  <Require feature='foo'/>" +
+      "</ModulePrefs>" +
+      "<Content type='html'/>" +
+      "</Module>";
+
+    Gadget gadget = makeGadgetWithSpec(gadgetXml);
+    rewriter.setCacheProvider(new LruCacheProvider(10));
+
+    expectFeatureCalls(gadget,
+        ImmutableList.of(inline("foo", "dbg")),
+        ImmutableSet.<String>of(),
+        ImmutableList.<FeatureResource>of());
+    config.data.put(FEATURES_KEY, ImmutableMap.of("foo", "blah"));
+    rewrite(gadget, "");
+
+    expectFeatureCalls(gadget,
+        ImmutableList.of(inline("foo", "dbg")),
+        ImmutableSet.<String>of(),
+        ImmutableList.<FeatureResource>of());
+    config.data.put(FEATURES_KEY, ImmutableMap.of("foo", "updated"));
+    String rewritten = rewrite(gadget, "");
+
+    JSONObject json = getConfigJson(rewritten);
+    assertEquals("updated", json.get("foo"));
+  }
+
   @Test
   public void featureConfigurationForced() throws Exception {
     String gadgetXml =
@@ -839,6 +958,14 @@ public class RenderingGadgetRewriterTest {
                                   List<FeatureResource> gadgetResources,
                                   Set<String> externLibs,
                                   List<FeatureResource> externResources) {
+    expectFeatureCalls(gadget, gadgetResources, externLibs, externResources, 0);
+  }
+
+  private void expectFeatureCalls(Gadget gadget,
+                                  List<FeatureResource> gadgetResources,
+                                  Set<String> externLibs,
+                                  List<FeatureResource> externResources,
+                                  int registrationCount) {
     reset(featureRegistry);
     GadgetContext gadgetContext = gadget.getContext();
     List<String> gadgetFeatures = Lists.newArrayList(gadget.getDirectFeatureDeps());
@@ -851,6 +978,7 @@ public class RenderingGadgetRewriterTest {
         .andReturn(gadgetResources);
     expect(featureRegistry.getFeatures(eq(allFeatures)))
         .andReturn(allFeatures);
+    expect(featureRegistry.getRegistrationCount()).andReturn(registrationCount).anyTimes();
     replay(featureRegistry);
   }
   
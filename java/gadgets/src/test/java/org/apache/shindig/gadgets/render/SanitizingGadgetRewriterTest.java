@@ -18,6 +18,7 @@
  */
 package org.apache.shindig.gadgets.render;
 
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetContext;
@@ -33,6 +34,7 @@ import org.apache.shindig.gadgets.spec.GadgetSpec;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import org.junit.Before;
 import org.junit.Test;
 import org.w3c.dom.Document;
@@ -412,4 +414,39 @@ public class SanitizingGadgetRewriterTest extends BaseRewriterTestCase {
     gadget.setCurrentView(gadget.getSpec().getViews().values().iterator().next());
     assertEquals(sanitized, rewrite(gadget, markup, set("p", "b", "style"), set()));
   }
+
+  @Test
+  public void sanitizedOutputCached() throws Exception {
+    String markup = "<p foo=\"bar\"><b>Parag</b><!--raph--></p>";
+    SanitizingGadgetRewriter rewriter =
+        (SanitizingGadgetRewriter) createRewriter(set("p"), set());
+    rewriter.setCacheProvider(new LruCacheProvider(10));
+
+    MutableContent first = new MutableContent(parser, markup);
+    rewriter.rewrite(gadget, first);
+
+    MutableContent second = new MutableContent(parser, markup);
+    rewriter.rewrite(gadget, second);
+    // Served from the cache, so never parsed.
+    assertFalse(second.hasDocument());
+    assertEquals(first.getContent(), second.getContent());
+  }
+
+  @Test
+  public void parsedContentNotServedFromCache() throws Exception {
+    String markup = "<p foo=\"bar\"><b>Parag</b><!--raph--></p>";
+    SanitizingGadgetRewriter rewriter =
+        (SanitizingGadgetRewriter) createRewriter(set(), set());
+    rewriter.setCacheProvider(new LruCacheProvider(10));
+    rewriter.rewrite(gadget, new MutableContent(parser, markup));
+
+    // The same text, but with a trusted element that only the document knows about.
+    MutableContent mc = new MutableContent(parser, markup);
+    Document document = mc.getDocument();
+    SanitizingGadgetRewriter.bypassSanitization(
+        (Element) document.getElementsByTagName("p").item(0), true);
+    rewriter.rewrite(gadget, mc);
+    assertEquals("<p foo=\"bar\"><b>Parag</b><!--raph--></p>",
+        BODY_REGEX.matcher(mc.getContent()).replaceAll("$1"));
+  }
 }
@@ -18,12 +18,17 @@
 package org.apache.shindig.gadgets.rewrite;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.DateUtil;
+import org.apache.shindig.gadgets.http.DefaultHttpCache;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseBuilder;
 import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
@@ -83,4 +88,182 @@ public class DefaultContentRewriterRegistryTest extends BaseRewriterTestCase {
     assertSame(rewritten, fakeResponse);
     control.verify();
   }
+
+  private DefaultRequestRewriterRegistry createCachingRegistry(CountingRewriter rewriter) {
+    DefaultRequestRewriterRegistry cachingRegistry = new DefaultRequestRewriterRegistry(
+        Lists.<RequestRewriter>newArrayList(rewriter), parser);
+    LruCacheProvider cacheProvider = new LruCacheProvider(10);
+    cachingRegistry.setRewrittenResponseCache(cacheProvider, new DefaultHttpCache(cacheProvider),
+        rewriterFeatureFactory);
+    return cachingRegistry;
+  }
+
+  private static HttpResponse cacheableResponse(String body) {
+    return new HttpResponseBuilder().setResponseString(body).setCacheTtl(300)
+        .setHeader("Content-Type", "text/html").create();
+  }
+
+  @Test
+  public void rewrittenResponseCached() throws Exception {
+    CountingRewriter rewriter = new CountingRewriter();
+    DefaultRequestRewriterRegistry cachingRegistry = createCachingRegistry(rewriter);
+    HttpResponse response = cacheableResponse("Hello, world");
+
+    HttpResponse first = cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), response);
+    HttpResponse second = cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), response);
+
+    assertEquals("Hello, world!", first.getResponseAsString());
+    assertSame(first, second);
+    assertEquals(1, rewriter.count);
+  }
+
+  @Test
+  public void equalResponseServedFromCache() throws Exception {
+    CountingRewriter rewriter = new CountingRewriter();
+    DefaultRequestRewriterRegistry cachingRegistry = createCachingRegistry(rewriter);
+
+    HttpResponse response = cacheableResponse("Hello, world");
+    HttpResponse first = cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), response);
+    // A copy, as returned by an http cache that serializes its entries.
+    HttpResponse second = cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL),
+        new HttpResponseBuilder(response).create());
+
+    assertSame(first, second);
+    assertEquals(1, rewriter.count);
+  }
+
+  @Test
+  public void untouchedResponseRemembered() throws Exception {
+    CountingRewriter rewriter = new CountingRewriter();
+    rewriter.changeContent = false;
+    DefaultRequestRewriterRegistry cachingRegistry = createCachingRegistry(rewriter);
+    HttpResponse response = cacheableResponse("Hello, world");
+
+    assertSame(response, cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), response));
+    assertSame(response, cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), response));
+    assertEquals(1, rewriter.count);
+  }
+
+  @Test
+  public void changedResponseRewrittenAgain() throws Exception {
+    CountingRewriter rewriter = new CountingRewriter();
+    DefaultRequestRewriterRegistry cachingRegistry = createCachingRegistry(rewriter);
+
+    HttpResponse response = cacheableResponse("one");
+    cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), response);
+    // Fetched again later, with a body of the same length.
+    HttpResponse refetched = new HttpResponseBuilder(cacheableResponse("two"))
+        .setHeader("Date", DateUtil.formatRfc1123Date(
+            DateUtil.parseRfc1123Date(response.getHeader("Date")).getTime() + 1000L))
+        .create();
+    HttpResponse rewritten =
+        cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), refetched);
+
+    assertEquals("two!", rewritten.getResponseAsString());
+    assertEquals(2, rewriter.count);
+  }
+
+  @Test
+  public void revalidatedResponseRewrittenAgain() throws Exception {
+    CountingRewriter rewriter = new CountingRewriter();
+    DefaultRequestRewriterRegistry cachingRegistry = createCachingRegistry(rewriter);
+
+    HttpResponse response = new HttpResponseBuilder(cacheableResponse("one"))
+        .setHeader("ETag", "\"1\"").create();
+    cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), response);
+    HttpResponse changed = new HttpResponseBuilder(response).setResponseString("two")
+        .setHeader("ETag", "\"2\"").create();
+    HttpResponse rewritten =
+        cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), changed);
+
+    assertEquals("two!", rewritten.getResponseAsString());
+    assertEquals(2, rewriter.count);
+  }
+
+  @Test
+  public void otherContentTypesNotCached() throws Exception {
+    CountingRewriter rewriter = new CountingRewriter();
+    rewriter.changeContent = false;
+    DefaultRequestRewriterRegistry cachingRegistry = createCachingRegistry(rewriter);
+    HttpResponse image = new HttpResponseBuilder(cacheableResponse("GIF89a"))
+        .setHeader("Content-Type", "image/gif").create();
+
+    cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), image);
+    cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), image);
+
+    assertEquals(2, rewriter.count);
+  }
+
+  @Test
+  public void rewriteModeIsPartOfKey() throws Exception {
+    CountingRewriter rewriter = new CountingRewriter();
+    DefaultRequestRewriterRegistry cachingRegistry = createCachingRegistry(rewriter);
+    HttpResponse response = cacheableResponse("Hello, world");
+
+    cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), response);
+    cachingRegistry.rewriteHttpResponse(
+        new HttpRequest(SPEC_URL).setRewriteMimeType("text/css"), response);
+    cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL).setContainer("other"), response);
+
+    assertEquals(3, rewriter.count);
+  }
+
+  @Test
+  public void uncacheableResponsesNotCached() throws Exception {
+    CountingRewriter rewriter = new CountingRewriter();
+    DefaultRequestRewriterRegistry cachingRegistry = createCachingRegistry(rewriter);
+    HttpResponse response = cacheableResponse("Hello, world");
+    HttpResponse noCache = new HttpResponseBuilder().setResponseString("Hello, world")
+        .setHeader("Cache-Control", "no-cache").create();
+
+    cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL).setIgnoreCache(true), response);
+    cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL).setIgnoreCache(true), response);
+    cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), noCache);
+    cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL), noCache);
+
+    assertEquals(4, rewriter.count);
+  }
+
+  @Test
+  public void debugRequestReportsTimings() throws Exception {
+    CountingRewriter rewriter = new CountingRewriter();
+    DefaultRequestRewriterRegistry cachingRegistry = createCachingRegistry(rewriter);
+    cachingRegistry.setInstrumentation(new RewriterInstrumentation());
+    HttpResponse response = cacheableResponse("Hello, world");
+
+    HttpResponse rewritten = cachingRegistry.rewriteHttpResponse(
+        new HttpRequest(SPEC_URL).setDebug(true), response);
+    cachingRegistry.rewriteHttpResponse(new HttpRequest(SPEC_URL).setDebug(true), response);
+
+    String timings = rewritten.getHeader(RewriterInstrumentation.DEBUG_HEADER);
+    assertTrue(timings, timings.startsWith("CountingRewriter;ms="));
+    assertTrue(timings, timings.endsWith(";parse=0;serialize=0"));
+    // Debugged requests aren't served from the cache.
+    assertEquals(2, rewriter.count);
+  }
+
+  @Test
+  public void timingsOnlyReportedWhenDebugging() throws Exception {
+    DefaultRequestRewriterRegistry instrumented =
+        new DefaultRequestRewriterRegistry(contentRewriters, parser);
+    instrumented.setInstrumentation(new RewriterInstrumentation());
+    HttpResponse response = new HttpResponse("Hello, world");
+
+    assertSame(response, instrumented.rewriteHttpResponse(new HttpRequest(SPEC_URL), response));
+    assertNotNull(instrumented.rewriteHttpResponse(new HttpRequest(SPEC_URL).setDebug(true),
+        response).getHeader(RewriterInstrumentation.DEBUG_HEADER));
+  }
+
+  private static class CountingRewriter implements RequestRewriter {
+    private int count;
+    private boolean changeContent = true;
+
+    public boolean rewrite(HttpRequest request, HttpResponse original, MutableContent content) {
+      count++;
+      if (changeContent) {
+        content.setContent(content.getContent() + '!');
+      }
+      return changeContent;
+    }
+  }
 }
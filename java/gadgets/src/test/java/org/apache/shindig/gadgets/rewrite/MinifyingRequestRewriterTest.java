@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.HashUtil;
+import org.apache.shindig.config.AbstractContainerConfig;
+import org.apache.shindig.config.ContainerConfig;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+import org.apache.shindig.gadgets.spec.GadgetSpec;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MinifyingRequestRewriterTest extends BaseRewriterTestCase {
+  private static final String JS = "var a = 1;\n// comment\nvar b = 2;\n";
+  private static final String MINIFIED_JS = "var a=1;var b=2;";
+
+  private ContainerConfig minifyingConfig;
+  private LruCacheProvider cacheProvider;
+  private MinifyingRequestRewriter rewriter;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    minifyingConfig = new AbstractContainerConfig() {
+      @Override
+      public Object getProperty(String container, String name) {
+        if (MOCK_CONTAINER.equals(container) && MinifyingRequestRewriter.MINIFY_KEY.equals(name)) {
+          return Boolean.TRUE;
+        }
+        return null;
+      }
+    };
+    cacheProvider = new LruCacheProvider(10);
+    rewriter = new MinifyingRequestRewriter(rewriterFeatureFactory, minifyingConfig);
+    rewriter.setCacheProvider(cacheProvider);
+  }
+
+  private HttpRequest createRequest(String container) {
+    return new HttpRequest(Uri.parse("http://www.example.org/lib.js")).setContainer(container);
+  }
+
+  private HttpResponse createResponse(String mimeType, String content) {
+    return new HttpResponseBuilder().setHeader("Content-Type", mimeType)
+        .setResponseString(content).create();
+  }
+
+  private MutableContent rewrite(MinifyingRequestRewriter rewriter, HttpRequest request,
+      String mimeType, String content, boolean expectRewritten) {
+    MutableContent mc = new MutableContent(parser, content);
+    assertEquals(expectRewritten,
+        rewriter.rewrite(request, createResponse(mimeType, content), mc));
+    return mc;
+  }
+
+  @Test
+  public void javaScriptMinifiedWhenContainerEnables() {
+    MutableContent mc = rewrite(rewriter, createRequest(MOCK_CONTAINER), "text/javascript", JS,
+        true);
+    assertEquals(MINIFIED_JS, mc.getContent());
+  }
+
+  @Test
+  public void cssMinifiedWhenContainerEnables() {
+    MutableContent mc = rewrite(rewriter, createRequest(MOCK_CONTAINER), "text/css",
+        "p {\n  color: red;\n}\n", true);
+    assertEquals("p{color: red;}", mc.getContent());
+  }
+
+  @Test
+  public void notMinifiedByDefault() {
+    MutableContent mc = rewrite(rewriter, createRequest("default"), "text/javascript", JS, false);
+    assertEquals(JS, mc.getContent());
+  }
+
+  @Test
+  public void otherContentUntouched() {
+    rewrite(rewriter, createRequest(MOCK_CONTAINER), "text/html", "<p>  hello  </p>", false);
+  }
+
+  @Test
+  public void featureOverridesContainer() throws Exception {
+    ContentRewriterFeature feature = rewriterFeatureFactory.get(createSpecWithMinify("false"));
+    MinifyingRequestRewriter featureRewriter = new MinifyingRequestRewriter(
+        mockContentRewriterFeatureFactory(feature), minifyingConfig);
+    rewrite(featureRewriter, createRequest(MOCK_CONTAINER), "text/javascript", JS, false);
+
+    feature = rewriterFeatureFactory.get(createSpecWithMinify("true"));
+    featureRewriter = new MinifyingRequestRewriter(
+        mockContentRewriterFeatureFactory(feature), minifyingConfig);
+    rewrite(featureRewriter, createRequest("default"), "text/javascript", JS, true);
+  }
+
+  @Test
+  public void featureOnlyAllowedToDisableWhenRestricted() throws Exception {
+    ContentRewriterFeatureFactory restricted = new ContentRewriterFeatureFactory(null, ".*", "",
+        "86400", "embed,img,script,link,style", "true");
+    assertNull(restricted.get(createSpecWithMinify("true")).getMinify());
+    assertEquals(Boolean.FALSE, restricted.get(createSpecWithMinify("false")).getMinify());
+  }
+
+  @Test
+  public void unsafeContentUntouched() {
+    String js = "var s = `template  literal`;";
+    MutableContent mc = rewrite(rewriter, createRequest(MOCK_CONTAINER), "text/javascript", js,
+        false);
+    assertEquals(js, mc.getContent());
+  }
+
+  @Test
+  public void contentThatWouldNotShrinkUntouched() {
+    rewrite(rewriter, createRequest(MOCK_CONTAINER), "text/javascript", "a=b\nc=d", false);
+  }
+
+  @Test
+  public void minifiedContentCached() {
+    rewrite(rewriter, createRequest(MOCK_CONTAINER), "text/javascript", JS, true);
+    Cache<String, String> cache = cacheProvider.createCache(MinifyingRequestRewriter.CACHE_NAME);
+    assertEquals(1, cache.getSize());
+
+    // Later requests for the same content are served from the cache.
+    cache.addElement("js:" + HashUtil.checksum(CharsetUtil.getUtf8Bytes(JS)), "var cached;");
+    MutableContent mc = rewrite(rewriter, createRequest(MOCK_CONTAINER), "text/javascript", JS,
+        true);
+    assertEquals("var cached;", mc.getContent());
+  }
+
+  private static GadgetSpec createSpecWithMinify(String minify) throws Exception {
+    String xml = "<Module><ModulePrefs title=\"title\">" +
+        "<Optional feature=\"content-rewrite\">" +
+        "<Param name=\"minify\">" + minify + "</Param>" +
+        "</Optional></ModulePrefs>" +
+        "<Content type=\"html\">Hello!</Content></Module>";
+    return new GadgetSpec(SPEC_URL, xml);
+  }
+}
@@ -19,7 +19,11 @@
 package org.apache.shindig.gadgets.rewrite;
 
 import org.apache.shindig.common.PropertiesModule;
+import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.util.CharsetUtil;
 import org.apache.shindig.gadgets.parse.GadgetHtmlParser;
+import org.apache.shindig.gadgets.parse.HtmlSerialization;
+import org.apache.shindig.gadgets.parse.HtmlSerializer;
 import org.apache.shindig.gadgets.parse.ParseModule;
 
 import com.google.inject.Guice;
@@ -31,14 +35,18 @@ import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import java.io.ByteArrayOutputStream;
+
 public class MutableContentTest {
   private MutableContent mhc;
+  private Injector injector;
 
   @Before
   public void setUp() throws Exception {
-    Injector injector = Guice.createInjector(new ParseModule(), new PropertiesModule());
+    injector = Guice.createInjector(new ParseModule(), new PropertiesModule());
     mhc = new MutableContent(injector.getInstance(GadgetHtmlParser.class), "DEFAULT VIEW");
   }
 
@@ -56,6 +64,69 @@ public class MutableContentTest {
     assertSame(document, mhc.getDocument());
   }
 
+  @Test
+  public void contentKeyUsedForCache() throws Exception {
+    GadgetHtmlParser parser = injector.getInstance(GadgetHtmlParser.class);
+    parser.setCacheProvider(new LruCacheProvider(10));
+    new MutableContent(parser, "<div>keyed</div>", "spec:default").getDocument();
+
+    // Callers promise the key changes with the source, so a hit isn't checked against it.
+    MutableContent sameKey = new MutableContent(parser, "<div>other</div>", "spec:default");
+    assertEquals("keyed", sameKey.getDocument().getElementsByTagName("div").item(0)
+        .getTextContent());
+  }
+
+  @Test
+  public void contentKeyDroppedOnEdit() throws Exception {
+    GadgetHtmlParser parser = injector.getInstance(GadgetHtmlParser.class);
+    parser.setCacheProvider(new LruCacheProvider(10));
+    MutableContent one = new MutableContent(parser, "<div>keyed</div>", "spec:default");
+    one.getDocument();
+
+    MutableContent two = new MutableContent(parser, "<div>keyed</div>", "spec:default");
+    two.setContent("<div>edited</div>");
+    assertEquals("edited", two.getDocument().getElementsByTagName("div").item(0)
+        .getTextContent());
+  }
+
+  @Test
+  public void writeToEncodesContent() throws Exception {
+    mhc.setContent("caf\u00E9 & \"bar\"");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mhc.writeTo(out, CharsetUtil.UTF8);
+    assertEquals("caf\u00E9 & \"bar\"", new String(out.toByteArray(), "UTF-8"));
+  }
+
+  @Test
+  public void writeToSerializesEditedDocument() throws Exception {
+    Document document = mhc.getDocument();
+    document.getFirstChild().getFirstChild().setTextContent("caf\u00E9");
+    ((Element) document.getElementsByTagName("body").item(0)).setAttribute(
+        "title", "\"x\" & y");
+    MutableContent.notifyEdit(document);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mhc.writeTo(out, CharsetUtil.UTF8);
+    String written = new String(out.toByteArray(), "UTF-8");
+    assertEquals(mhc.getContent(), written);
+    assertTrue(written, written.contains("title=\"&quot;x&quot; &amp; y\""));
+  }
+
+  @Test
+  public void writeToUsesSerializerThatDoesNotStream() throws Exception {
+    Document document = mhc.getDocument();
+    HtmlSerialization.attach(document, new HtmlSerializer() {
+      public String serialize(Document doc) {
+        return "caf\u00E9";
+      }
+    }, null);
+    MutableContent.notifyEdit(document);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mhc.writeTo(out, CharsetUtil.UTF8);
+    assertEquals("caf\u00E9", new String(out.toByteArray(), "UTF-8"));
+  }
+
   @Test
   public void modifyContentReflectedInTree() throws Exception {
     mhc.setContent("NEW CONTENT");
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.shindig.common.PropertiesModule;
+import org.apache.shindig.gadgets.parse.GadgetHtmlParser;
+import org.apache.shindig.gadgets.parse.ParseModule;
+
+import com.google.inject.Guice;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class RewriterInstrumentationTest {
+  private GadgetHtmlParser parser;
+  private RewriterInstrumentation instrumentation;
+
+  @Before
+  public void setUp() throws Exception {
+    parser = Guice.createInjector(new ParseModule(), new PropertiesModule())
+        .getInstance(GadgetHtmlParser.class);
+    instrumentation = new RewriterInstrumentation();
+  }
+
+  @Test
+  public void parseAndSerializeCounted() throws Exception {
+    MutableContent content = new MutableContent(parser, "<b>hello</b>");
+    Object editor = new EditingRewriter();
+    Object reader = new ReadingRewriter();
+
+    RewriterInstrumentation.Timer timer =
+        instrumentation.newTimer(RewriterInstrumentation.GADGET_REWRITER, true);
+    timer.start(content);
+    Document document = content.getDocument();
+    document.getElementsByTagName("b").item(0).setTextContent("edited");
+    MutableContent.notifyEdit(document);
+    timer.stop(editor, content);
+
+    timer.start(content);
+    assertTrue(content.getContent().contains("edited"));
+    timer.stop(reader, content);
+
+    RewriterMetrics editorMetrics =
+        instrumentation.getMetrics(RewriterInstrumentation.GADGET_REWRITER, editor);
+    assertEquals(1, editorMetrics.getInvocationCount());
+    assertEquals(1, editorMetrics.getParseCount());
+    assertEquals(0, editorMetrics.getSerializeCount());
+
+    RewriterMetrics readerMetrics =
+        instrumentation.getMetrics(RewriterInstrumentation.GADGET_REWRITER, reader);
+    assertEquals(0, readerMetrics.getParseCount());
+    assertEquals(1, readerMetrics.getSerializeCount());
+
+    String summary = timer.getSummary();
+    assertTrue(summary, summary.matches(
+        "EditingRewriter;ms=[0-9.]+;parse=1;serialize=0, " +
+        "ReadingRewriter;ms=[0-9.]+;parse=0;serialize=1"));
+  }
+
+  @Test
+  public void metricsAccumulatePerRewriter() throws Exception {
+    MutableContent content = new MutableContent(parser, "hello");
+    Object rewriter = new ReadingRewriter();
+    for (int i = 0; i < 3; ++i) {
+      RewriterInstrumentation.Timer timer =
+          instrumentation.newTimer(RewriterInstrumentation.REQUEST_REWRITER, false);
+      timer.start(content);
+      timer.stop(rewriter, content);
+      assertNull(timer.getSummary());
+    }
+
+    RewriterMetrics metrics =
+        instrumentation.getMetrics(RewriterInstrumentation.REQUEST_REWRITER, rewriter);
+    assertEquals(3, metrics.getInvocationCount());
+    assertSame(metrics,
+        instrumentation.getMetrics(RewriterInstrumentation.REQUEST_REWRITER, new ReadingRewriter()));
+    assertEquals(0,
+        instrumentation.getMetrics(RewriterInstrumentation.GADGET_REWRITER, rewriter)
+            .getInvocationCount());
+  }
+
+  @Test
+  public void allocationOnlyReportedWhenMeasured() throws Exception {
+    MutableContent content = new MutableContent(parser, "hello");
+    RewriterInstrumentation.Timer timer =
+        instrumentation.newTimer(RewriterInstrumentation.GADGET_REWRITER, true);
+    timer.start(content);
+    timer.stop(new ReadingRewriter(), content);
+    assertTrue(timer.getSummary(), !timer.getSummary().contains("alloc="));
+
+    instrumentation.setMeasureAllocation(true);
+    if (RewriterInstrumentation.getAllocatedBytes() >= 0) {
+      timer = instrumentation.newTimer(RewriterInstrumentation.GADGET_REWRITER, true);
+      timer.start(content);
+      timer.stop(new ReadingRewriter(), content);
+      assertTrue(timer.getSummary(), timer.getSummary().contains(";alloc="));
+    }
+  }
+
+  private static class EditingRewriter {
+  }
+
+  private static class ReadingRewriter {
+  }
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.parse.caja.CajaCssLexerParser;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingLinkRewriterTest extends BaseRewriterTestCase {
+  // Documents that the DOM serializer writes back as they are, so both paths must agree on every
+  // byte of the rewritten output.
+  private static final String[] GOLDEN_CORPUS = {
+      "scripts.html", "links.html", "mixed.html", "unchanged.html", "script-bodies.html"
+  };
+
+  // Markup the DOM path would normalize, which must be left to the DOM path.
+  private static final String[] FALLBACK_CORPUS = {
+      "unbalanced.html", "mixed-case.html", "comments.html", "cdata.html"
+  };
+
+  private static final String CONCAT_JS = "http://www.test.com/dir/concat?" +
+      "rewriteMime=text/javascript&gadget=http%3A%2F%2Fwww.example.org%2Fdir%2Fg.xml" +
+      "&fp=1150739864&refresh=3600";
+
+  private ContentRewriterFeature feature;
+  private HTMLContentRewriter domRewriter;
+  private StreamingLinkRewriter streamingRewriter;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    feature = rewriterFeatureFactory.get(createSpecWithRewrite(".*", ".*exclude.*", "3600",
+        HTMLContentRewriter.TAGS));
+    ContentRewriterFeatureFactory factory = mockContentRewriterFeatureFactory(feature);
+    domRewriter = new HTMLContentRewriter(factory, new CssRequestRewriter(factory,
+        new CajaCssLexerParser(), new DefaultProxyingLinkRewriterFactory(rewriterUris)),
+        new DefaultConcatLinkRewriterFactory(rewriterUris),
+        new DefaultProxyingLinkRewriterFactory(rewriterUris));
+    domRewriter.setStreamingEnabled(true);
+    streamingRewriter = new StreamingLinkRewriter(
+        new DefaultConcatLinkRewriterFactory(rewriterUris),
+        new DefaultProxyingLinkRewriterFactory(rewriterUris));
+  }
+
+  private String load(String name) throws Exception {
+    return IOUtils.toString(getClass().getClassLoader().getResourceAsStream(
+        "org/apache/shindig/gadgets/rewrite/streaming/" + name));
+  }
+
+  private static String document(String body) {
+    return "<html><head></head><body>" + body + "</body></html>";
+  }
+
+  private String streamingRewrite(String content) {
+    return streamingRewriter.rewrite(content, feature, SPEC_URL, SPEC_URL, null, false, false);
+  }
+
+  @Test
+  public void goldenCorpusMatchesDomPath() throws Exception {
+    for (String name : GOLDEN_CORPUS) {
+      String content = load(name);
+
+      MutableContent mc = new MutableContent(parser, content);
+      boolean domMutated =
+          domRewriter.rewriteImpl(feature, SPEC_URL, SPEC_URL, mc, null, false, false);
+
+      String streamed = streamingRewrite(content);
+      assertNotNull(name, streamed);
+      assertEquals(name, mc.getContent(), streamed);
+      assertEquals(name, domMutated, streamed != content);
+    }
+  }
+
+  @Test
+  public void fallbackCorpusUsesDomPath() throws Exception {
+    HttpRequest request = new HttpRequest(SPEC_URL).setGadget(SPEC_URL)
+        .setRewriteMimeType("text/html");
+    for (String name : FALLBACK_CORPUS) {
+      String content = load(name);
+      assertNull(name, streamingRewrite(content));
+
+      MutableContent expected = new MutableContent(parser, content);
+      domRewriter.rewriteImpl(feature, SPEC_URL, SPEC_URL, expected, null, false, false);
+      MutableContent mc = new MutableContent(parser, content);
+      domRewriter.rewrite(request, fakeResponse, mc);
+      assertEquals(name, expected.getContent(), mc.getContent());
+    }
+  }
+
+  @Test
+  public void adjacentScriptsConcatenated() throws Exception {
+    String content = document("<div><script src=\"/1.js\"></script>\n" +
+        "<script src=\"http://www.example.org/2.js\"></script></div>");
+    assertEquals(document("<div><script src=\"" + CONCAT_JS +
+        "&1=http%3A%2F%2Fwww.example.org%2F1.js&2=http%3A%2F%2Fwww.example.org%2F2.js\">" +
+        "</script>\n</div>"), streamingRewrite(content));
+  }
+
+  @Test
+  public void markupTheParserWouldChangeNeedsDom() throws Exception {
+    String img = "<img src=\"/img.gif\">";
+    assertNull(streamingRewrite(img));
+    assertNull(streamingRewrite("<html><body>" + img + "</body></html>"));
+    assertNull(streamingRewrite(document(img) + "\n"));
+    assertNull(streamingRewrite("<!DOCTYPE html>" + document(img)));
+    assertNull(streamingRewrite("<html><head>\n</head><body>" + img + "</body></html>"));
+    assertNull(streamingRewrite(document("<P>" + img + "</P>")));
+    assertNull(streamingRewrite(document("<img SRC=\"/img.gif\">")));
+    assertNull(streamingRewrite(document("<img src=/img.gif>")));
+    assertNull(streamingRewrite(document("<img src='/img.gif'>")));
+    assertNull(streamingRewrite(document("<img src=\"/img.gif\" alt=\"x\">")));
+    assertNull(streamingRewrite(document("<img src=\"/img.gif\"/>")));
+    assertNull(streamingRewrite(document("<img alt src=\"/img.gif\">")));
+    assertNull(streamingRewrite(document("<div>" + img)));
+    assertNull(streamingRewrite(document(img + "</img>")));
+    assertNull(streamingRewrite(document("<p><div>" + img + "</div></p>")));
+    assertNull(streamingRewrite(document("<table><tr><td>" + img + "</td></tr></table>")));
+    assertNull(streamingRewrite(document("<![CDATA[x]]>" + img)));
+    assertNull(streamingRewrite(document("Fish & chips" + img)));
+    assertNull(streamingRewrite(document("<style>div { color: red; }</style>" + img)));
+    assertNull(streamingRewrite(document("<script src=\"/a.js\"></SCRIPT>")));
+  }
+
+  @Test
+  public void nothingToRewrite() throws Exception {
+    String content = document("<p>Just <a href=\"/page.html\">a link</a> &amp; text</p>");
+    assertSame(content, streamingRewrite(content));
+  }
+
+  @Test
+  public void styleNeedsDom() throws Exception {
+    assertNull(streamingRewrite("<html><head><style>@import url(/a.css);</style></head><body>" +
+        "<img src=\"/img.gif\"></body></html>"));
+  }
+
+  @Test
+  public void unterminatedMarkupNeedsDom() throws Exception {
+    assertNull(streamingRewrite(document("<img src=\"/img.gif")));
+    assertNull(streamingRewrite(document("<script src=\"/a.js\">")));
+    assertNull(streamingRewrite(document("<!-- comment")));
+  }
+
+  @Test
+  public void proxiedHtmlRewrittenWithoutParse() throws Exception {
+    HttpRequest request = new HttpRequest(SPEC_URL).setGadget(SPEC_URL)
+        .setRewriteMimeType("text/html");
+    MutableContent mc = new MutableContent(parser, document("<img src=\"/img.gif\">"));
+    assertTrue(domRewriter.rewrite(request, fakeResponse, mc));
+    assertFalse(mc.hasDocument());
+    assertTrue(mc.getContent(), mc.getContent().contains("<img src=\"http://www.test.com/"));
+  }
+
+  @Test
+  public void proxiedHtmlParsedUnlessStreamingEnabled() throws Exception {
+    domRewriter.setStreamingEnabled(false);
+    HttpRequest request = new HttpRequest(SPEC_URL).setGadget(SPEC_URL)
+        .setRewriteMimeType("text/html");
+    MutableContent mc = new MutableContent(parser, document("<img src=\"/img.gif\">"));
+    assertTrue(domRewriter.rewrite(request, fakeResponse, mc));
+    assertTrue(mc.hasDocument());
+  }
+
+  @Test
+  public void proxiedHtmlWithStyleUsesDom() throws Exception {
+    HttpRequest request = new HttpRequest(SPEC_URL).setGadget(SPEC_URL)
+        .setRewriteMimeType("text/html");
+    MutableContent mc = new MutableContent(parser,
+        "<html><head></head><body><style>div { color: red; }</style></body></html>");
+    assertTrue(domRewriter.rewrite(request, fakeResponse, mc));
+    assertTrue(mc.hasDocument());
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class WhitespaceMinifierTest {
+
+  @Test
+  public void cssCommentsAndWhitespaceStripped() {
+    assertEquals("body{color : red;margin: 0 auto;}",
+        WhitespaceMinifier.minifyCss(
+            "/* header */\nbody {\n  color : red ;\n  margin: 0 auto;\n}\n"));
+  }
+
+  @Test
+  public void cssStringsAndUrlsUnchanged() {
+    assertEquals("a:before{content: \"  two  spaces  \";background: url( a  b.png );}",
+        WhitespaceMinifier.minifyCss(
+            "a:before { content: \"  two  spaces  \"; background: url( a  b.png ); }"));
+  }
+
+  @Test
+  public void cssSignificantSpacesKept() {
+    assertEquals("@media screen and (max-width: 10px){p{x: y}}",
+        WhitespaceMinifier.minifyCss("@media screen and (max-width: 10px) { p { x: y } }"));
+    assertEquals("a/**/b{c: d}", WhitespaceMinifier.minifyCss("a/* x */b { c: d }"));
+  }
+
+  @Test
+  public void cssLicensesAndHacksKept() {
+    assertEquals("/*! License */ p{}", WhitespaceMinifier.minifyCss("/*! License */ p { }"));
+    assertEquals("/* hack \\*/ a{}", WhitespaceMinifier.minifyCss("/* hack \\*/ a { } /* */"));
+  }
+
+  @Test
+  public void cssUnterminatedStringRejected() {
+    assertNull(WhitespaceMinifier.minifyCss("a { content: \"unterminated }"));
+  }
+
+  @Test
+  public void jsSeparatingSpacesKept() {
+    assertEquals("var a=b+ +c;var d=e- -f;",
+        WhitespaceMinifier.minifyJavaScript("var a = b + +c;\nvar d = e - -f;"));
+    assertEquals("var s=1 .toString()",
+        WhitespaceMinifier.minifyJavaScript("var s = 1 .toString()"));
+  }
+
+  @Test
+  public void jsStringsAndRegularExpressionsUnchanged() {
+    assertEquals("var re=/a  b\\/ [/]/g;return x",
+        WhitespaceMinifier.minifyJavaScript("// comment\nvar re = /a  b\\/ [/]/g;\nreturn x"));
+    assertEquals("if(x)/a b/.test(y);",
+        WhitespaceMinifier.minifyJavaScript("if (x) /a b/.test(y);"));
+    assertEquals("a=b/c;d='e  f';g=h/i",
+        WhitespaceMinifier.minifyJavaScript("a = b / c; d = 'e  f'; g = h / i"));
+  }
+
+  @Test
+  public void jsDivisionNotMistakenForRegularExpression() {
+    assertEquals("var h=(a)/2/b;", WhitespaceMinifier.minifyJavaScript("var h = (a) / 2 / b;"));
+    assertEquals("i++/2/j", WhitespaceMinifier.minifyJavaScript("i++ / 2 / j"));
+  }
+
+  @Test
+  public void jsLineBreaksThatMayEndStatementsKept() {
+    assertEquals("a=b\nc=d", WhitespaceMinifier.minifyJavaScript("a = b\nc = d"));
+  }
+
+  @Test
+  public void jsLicensesKept() {
+    assertEquals("return/*! keep */a", WhitespaceMinifier.minifyJavaScript("return /*! keep */ a"));
+  }
+
+  @Test
+  public void jsUnsafeInputRejected() {
+    assertNull(WhitespaceMinifier.minifyJavaScript("x = `a  b`"));
+    assertNull(WhitespaceMinifier.minifyJavaScript("var x = '<!--';"));
+    assertNull(WhitespaceMinifier.minifyJavaScript("x = \"unterminated"));
+    assertNull(WhitespaceMinifier.minifyJavaScript("/*@cc_on x = 1 @*/"));
+  }
+}
@@ -42,6 +42,9 @@ import org.junit.Test;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.imageio.ImageIO;
 
@@ -292,4 +295,32 @@ public class ImageRewriterTest extends Assert {
     assertEquals(HttpResponse.SC_OK, rewrittenResponse.getHttpStatusCode());
     assertTrue(Arrays.equals(imageBytes, IOUtils.toByteArray(rewrittenResponse.getResponse())));
   }
+
+  @Test
+  public void testPoolTimeoutReturnsOriginal() throws Exception {
+    byte[] bytes = getImageBytes("org/apache/shindig/gadgets/rewrite/image/inefficient.png");
+    HttpResponse original = getImageResponse(CONTENT_TYPE_PNG, bytes);
+
+    // The pool's only thread is busy, so the image is never rewritten in time.
+    final CountDownLatch busy = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.execute(new Runnable() {
+      public void run() {
+        try {
+          busy.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    BasicImageRewriter pooled = new BasicImageRewriter(new OptimizerConfig());
+    pooled.setExecutor(executor);
+    pooled.setTimeout(10);
+    try {
+      assertSame(original, pooled.rewrite(new HttpRequest(Uri.parse("some.png")), original));
+    } finally {
+      busy.countDown();
+      executor.shutdown();
+    }
+  }
 }
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.shindig.common.xml.XmlUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+public class CajoledContentStoreTest {
+  private static final String CONTENT = "<div id=\"cajoled-output\">café</div>";
+
+  private File directory;
+  private CajoledContentStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = File.createTempFile("cajoled", "");
+    directory.delete();
+    store = new CajoledContentStore(directory.getPath());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test
+  public void storedContentRead() {
+    assertTrue(store.isEnabled());
+    assertNull(store.get("r3000", "abc123"));
+    store.put("r3000", "abc123", CONTENT);
+    assertEquals(CONTENT, store.get("r3000", "abc123"));
+  }
+
+  @Test
+  public void storedContentSurvivesNewStore() {
+    store.put("r3000", "abc123", CONTENT);
+    assertEquals(CONTENT, new CajoledContentStore(directory.getPath()).get("r3000", "abc123"));
+  }
+
+  @Test
+  public void versionIsPartOfKey() {
+    store.put("r3000", "abc123", CONTENT);
+    assertNull(store.get("r3001", "abc123"));
+  }
+
+  @Test
+  public void contentReplaced() {
+    store.put("r3000", "abc123", CONTENT);
+    store.put("r3000", "abc123", "replaced");
+    assertEquals("replaced", store.get("r3000", "abc123"));
+    assertEquals(1, new File(directory, "r3000").list().length);
+  }
+
+  @Test
+  public void contentRemoved() {
+    store.put("r3000", "abc123", CONTENT);
+    store.remove("r3000", "abc123");
+    assertNull(store.get("r3000", "abc123"));
+  }
+
+  @Test
+  public void unsafeVersionKeptInDirectory() {
+    store.put("../1.0 beta", "abc123", CONTENT);
+    assertEquals(CONTENT, store.get("../1.0 beta", "abc123"));
+    assertEquals(1, directory.list().length);
+  }
+
+  @Test
+  public void storedOutputImportsIntoRenderedDocument() throws Exception {
+    // The shape CajaContentRewriter stores: rendered as XML, with markup-significant characters in
+    // script escaped or in CDATA sections.
+    String cajoled = "<div id=\"cajoled-output\" classes=\"g___\" style=\"position: relative;\">" +
+        "<p title=\"a &amp; &quot;b&quot;\">caf\u00e9 &lt;3</p>" +
+        "<script type=\"text/javascript\">caja___.enable()</script>" +
+        "<script type=\"text/javascript\">if (a &lt; b &amp;&amp; c) {}</script>" +
+        "<script type=\"text/javascript\"><![CDATA[x = '</p>';]]></script></div>";
+    store.put("r3000", "abc123", cajoled);
+
+    Element stored = XmlUtil.parse(new CajoledContentStore(directory.getPath()).get("r3000",
+        "abc123"));
+    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    Element imported = (Element) doc.importNode(stored, true);
+    doc.appendChild(imported);
+
+    assertEquals("cajoled-output", imported.getAttribute("id"));
+    assertEquals("g___", imported.getAttribute("classes"));
+    Element p = (Element) imported.getElementsByTagName("p").item(0);
+    assertEquals("a & \"b\"", p.getAttribute("title"));
+    assertEquals("caf\u00e9 <3", p.getTextContent());
+    NodeList scripts = imported.getElementsByTagName("script");
+    assertEquals(3, scripts.getLength());
+    assertEquals("caja___.enable()", scripts.item(0).getTextContent());
+    assertEquals("if (a < b && c) {}", scripts.item(1).getTextContent());
+    assertEquals("x = '</p>';", scripts.item(2).getTextContent());
+  }
+
+  @Test
+  public void emptyDirectoryDisablesStore() {
+    CajoledContentStore disabled = new CajoledContentStore("");
+    assertFalse(disabled.isEnabled());
+    disabled.put("r3000", "abc123", CONTENT);
+    assertNull(disabled.get("r3000", "abc123"));
+  }
+}
@@ -30,6 +30,7 @@ import org.apache.shindig.gadgets.UrlValidationStatus;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.render.Renderer;
 import org.apache.shindig.gadgets.render.RenderingResults;
+import org.apache.shindig.gadgets.rewrite.MutableContent;
 
 import org.easymock.IMocksControl;
 import org.easymock.classextension.EasyMock;
@@ -99,6 +100,34 @@ public class GadgetRenderingServletTest {
 
   }
 
+  @Test
+  public void serviceUnavailableAsksForRetry() throws Exception {
+    servlet.setRenderer(renderer);
+    expect(renderer.render(isA(GadgetContext.class)))
+        .andReturn(RenderingResults.error("later", HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+    control.replay();
+
+    servlet.doGet(request, recorder);
+
+    assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, recorder.getHttpStatusCode());
+    assertEquals(GadgetRenderingServlet.RETRY_AFTER, recorder.getHeader("Retry-After"));
+    assertNull(recorder.getHeader("Cache-Control"));
+  }
+
+  @Test
+  public void uncacheableResponseNotCached() throws Exception {
+    servlet.setRenderer(renderer);
+    expect(renderer.render(isA(GadgetContext.class)))
+        .andReturn(RenderingResults.ok(new MutableContent(null, "not yet"), null, false));
+    control.replay();
+
+    servlet.doGet(request, recorder);
+
+    assertEquals(HttpServletResponse.SC_OK, recorder.getHttpStatusCode());
+    assertEquals("no-cache", recorder.getHeader("Cache-Control"));
+    assertEquals("not yet", recorder.getResponseAsString());
+  }
+
   @Test
   public void errorsAreEscaped() throws Exception {
     servlet.setRenderer(renderer);
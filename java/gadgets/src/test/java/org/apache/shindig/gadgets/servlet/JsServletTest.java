@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.servlet;
+
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.isNull;
+
+import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.servlet.HttpServletResponseRecorder;
+import org.apache.shindig.gadgets.GadgetContext;
+import org.apache.shindig.gadgets.UrlGenerator;
+import org.apache.shindig.gadgets.UrlValidationStatus;
+import org.apache.shindig.gadgets.features.FeatureRegistry;
+import org.apache.shindig.gadgets.features.FeatureResource;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * Tests for JsServlet.
+ */
+public class JsServletTest extends ServletTestFixture {
+  private static final String JS_URL = "http://example.org/gadgets/js/foo:bar.js";
+  private static final String QUERY = "v=abc&container=default";
+
+  // Long enough to be worth compressing.
+  private static final String CONTENT = "var foo = function() { return 'foo'; };" +
+      "var bar = function() { return 'bar'; };" +
+      "var baz = function() { return 'baz'; };";
+
+  private final FeatureRegistry registry = mock(FeatureRegistry.class);
+  private final UrlGenerator urlGenerator = mock(UrlGenerator.class);
+  private final JsServlet servlet = new JsServlet();
+
+  @Before
+  public void setUp() throws Exception {
+    servlet.setRegistry(registry);
+    servlet.setUrlGenerator(urlGenerator);
+    servlet.setCacheProvider(new LruCacheProvider(10));
+
+    expect(urlGenerator.validateJsUrl(JS_URL + '?' + QUERY))
+        .andReturn(UrlValidationStatus.VALID_VERSIONED).anyTimes();
+  }
+
+  private void expectRequest(String acceptEncoding, String ifNoneMatch) {
+    expect(request.getRequestURL()).andReturn(new StringBuffer(JS_URL)).anyTimes();
+    expect(request.getRequestURI()).andReturn("/gadgets/js/foo:bar.js").anyTimes();
+    expect(request.getQueryString()).andReturn(QUERY).anyTimes();
+    expect(request.getParameter("container")).andReturn("default").anyTimes();
+    expect(request.getHeader("Accept-Encoding")).andReturn(acceptEncoding).anyTimes();
+    expect(request.getHeader("If-None-Match")).andReturn(ifNoneMatch).anyTimes();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void expectResources(int registrationCount, int times) {
+    expect(registry.getRegistrationCount()).andReturn(registrationCount).anyTimes();
+    List<FeatureResource> resources
+        = ImmutableList.<FeatureResource>of(new FeatureResource.Simple(CONTENT, CONTENT));
+    expect(registry.getFeatureResources(isA(GadgetContext.class),
+        eq(ImmutableSortedSet.of("bar", "foo")), (List<String>) isNull()))
+        .andReturn(resources).times(times);
+  }
+
+  private String ungzip(byte[] data) throws Exception {
+    return new String(IOUtils.toByteArray(
+        new GZIPInputStream(new ByteArrayInputStream(data))), "UTF-8");
+  }
+
+  @Test
+  public void servesPlainContent() throws Exception {
+    expectResources(0, 1);
+    expectRequest(null, null);
+    replay();
+
+    servlet.doGet(request, recorder);
+
+    assertEquals(HttpServletResponse.SC_OK, recorder.getHttpStatusCode());
+    assertEquals(CONTENT + ";\n", recorder.getResponseAsString());
+    assertNull(recorder.getHeader("Content-Encoding"));
+    assertEquals("Accept-Encoding", recorder.getHeader("Vary"));
+    assertNotNull(recorder.getHeader("ETag"));
+  }
+
+  @Test
+  public void servesGzippedContent() throws Exception {
+    expectResources(0, 1);
+    expectRequest("deflate, gzip", null);
+    replay();
+
+    servlet.doGet(request, recorder);
+
+    assertEquals(HttpServletResponse.SC_OK, recorder.getHttpStatusCode());
+    assertEquals("gzip", recorder.getHeader("Content-Encoding"));
+    assertEquals("Accept-Encoding", recorder.getHeader("Vary"));
+    assertEquals(CONTENT + ";\n", ungzip(recorder.getResponseAsBytes()));
+  }
+
+  @Test
+  public void bundleCachedBetweenRequests() throws Exception {
+    expectResources(0, 1);
+    expectRequest("gzip", null);
+    replay();
+
+    servlet.doGet(request, recorder);
+    HttpServletResponseRecorder second = new HttpServletResponseRecorder(response);
+    servlet.doGet(request, second);
+
+    verify();
+    assertEquals(recorder.getHeader("ETag"), second.getHeader("ETag"));
+    assertTrue(Arrays.equals(recorder.getResponseAsBytes(), second.getResponseAsBytes()));
+  }
+
+  @Test
+  public void bundleRebuiltWhenFeaturesRegistered() throws Exception {
+    expectResources(0, 1);
+    expectRequest(null, null);
+    replay();
+
+    servlet.doGet(request, recorder);
+
+    reset(registry);
+    expectResources(1, 1);
+    replay(registry);
+
+    servlet.doGet(request, new HttpServletResponseRecorder(response));
+    verify();
+  }
+
+  @Test
+  public void notModifiedWhenEtagMatches() throws Exception {
+    expectResources(0, 1);
+    expectRequest("gzip", null);
+    replay();
+    servlet.doGet(request, recorder);
+    String etag = recorder.getHeader("ETag");
+
+    reset(request);
+    expectRequest("gzip", "\"other\", " + etag);
+    replay(request);
+    HttpServletResponseRecorder second = new HttpServletResponseRecorder(response);
+    servlet.doGet(request, second);
+
+    assertEquals(HttpServletResponse.SC_NOT_MODIFIED, second.getHttpStatusCode());
+    assertEquals(etag, second.getHeader("ETag"));
+    assertEquals(0, second.getResponseAsBytes().length);
+  }
+
+  @Test
+  public void plainEtagDoesNotMatchGzippedContent() throws Exception {
+    expectResources(0, 1);
+    expectRequest(null, null);
+    replay();
+    servlet.doGet(request, recorder);
+    String etag = recorder.getHeader("ETag");
+
+    reset(request);
+    expectRequest("gzip", etag);
+    replay(request);
+    HttpServletResponseRecorder second = new HttpServletResponseRecorder(response);
+    servlet.doGet(request, second);
+
+    assertEquals(HttpServletResponse.SC_OK, second.getHttpStatusCode());
+    assertFalse(etag.equals(second.getHeader("ETag")));
+  }
+
+  @Test
+  public void ifModifiedSinceIgnoredWhenEtagDoesNotMatch() throws Exception {
+    expectResources(0, 1);
+    expectRequest(null, "\"stale\"");
+    expect(request.getHeader("If-Modified-Since"))
+        .andReturn("Sat, 01 Jan 2000 00:00:00 GMT").anyTimes();
+    replay();
+
+    servlet.doGet(request, recorder);
+
+    assertEquals(HttpServletResponse.SC_OK, recorder.getHttpStatusCode());
+    assertEquals(CONTENT + ";\n", recorder.getResponseAsString());
+  }
+
+  @Test
+  public void acceptsGzip() {
+    assertTrue(JsServlet.acceptsGzip("gzip"));
+    assertTrue(JsServlet.acceptsGzip("deflate, x-gzip;q=0.5"));
+    assertTrue(JsServlet.acceptsGzip("*"));
+    assertFalse(JsServlet.acceptsGzip(null));
+    assertFalse(JsServlet.acceptsGzip("deflate"));
+    assertFalse(JsServlet.acceptsGzip("gzip;q=0"));
+    assertFalse(JsServlet.acceptsGzip("gzip; q=0.0"));
+  }
+
+  @Test
+  public void etagMatches() {
+    assertTrue(JsServlet.etagMatches("\"abc\"", "\"abc\""));
+    assertTrue(JsServlet.etagMatches("\"def\", W/\"abc\"", "\"abc\""));
+    assertTrue(JsServlet.etagMatches("*", "\"abc\""));
+    assertFalse(JsServlet.etagMatches("\"abcd\"", "\"abc\""));
+  }
+}
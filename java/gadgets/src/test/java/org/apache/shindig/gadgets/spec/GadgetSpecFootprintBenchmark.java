@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.spec;
+
+import org.apache.shindig.common.uri.Uri;
+
+/**
+ * Measures how much heap cached gadget specs retain.
+ *
+ * Builds the given number of specs from a small representative corpus and reports the heap
+ * retained per spec. The figure depends on the VM and on how thoroughly it collects when asked
+ * to, so compare runs on the same VM only.
+ */
+public class GadgetSpecFootprintBenchmark {
+
+  private static final String[] CORPUS = {
+      // A minimal gadget.
+      "<Module>" +
+      "<ModulePrefs title='Hello %d'/>" +
+      "<Content type='html'>Hello, world %d!</Content>" +
+      "</Module>",
+
+      // A typical directory gadget.
+      "<Module>" +
+      "<ModulePrefs title='__MSG_title__ %d' description='__MSG_description__' " +
+      "    author='Author %d' author_email='author@example.org' " +
+      "    screenshot='http://example.org/screenshot.png' " +
+      "    thumbnail='http://example.org/thumbnail.png' height='250' scrolling='true'>" +
+      "  <Require feature='opensocial-0.8'/>" +
+      "  <Require feature='dynamic-height'/>" +
+      "  <Require feature='settitle'/>" +
+      "  <Optional feature='views'/>" +
+      "  <Require feature='locked-domain'/>" +
+      "  <Icon type='image/png'>http://example.org/icon.png</Icon>" +
+      "  <Locale messages='messages/ALL_ALL.xml'/>" +
+      "  <Locale lang='de' messages='messages/de_ALL.xml'/>" +
+      "  <Locale lang='fr' messages='messages/fr_ALL.xml'/>" +
+      "  <Locale lang='en'>" +
+      "    <msg name='title'>Gadget %d</msg>" +
+      "    <msg name='description'>A gadget</msg>" +
+      "  </Locale>" +
+      "  <Link rel='icon' href='http://example.org/favicon.ico'/>" +
+      "</ModulePrefs>" +
+      "<UserPref name='color' display_name='Color' datatype='enum' default_value='red'>" +
+      "  <EnumValue value='red' display_value='Red'/>" +
+      "  <EnumValue value='green' display_value='Green'/>" +
+      "  <EnumValue value='blue' display_value='Blue'/>" +
+      "</UserPref>" +
+      "<UserPref name='count' display_name='Count' default_value='5'/>" +
+      "<Content type='html' view='home,profile'><![CDATA[" +
+      "<div id='content_%d'>__UP_color__</div>" +
+      "<script>gadgets.window.adjustHeight();</script>" +
+      "]]></Content>" +
+      "<Content type='html' view='canvas'><![CDATA[" +
+      "<div id='canvas_%d'>Canvas view</div>" +
+      "<script>gadgets.window.setTitle('__MSG_title__');</script>" +
+      "]]></Content>" +
+      "</Module>",
+
+      // A url type gadget with feature params and extra elements.
+      "<Module>" +
+      "<ModulePrefs title='Url %d'>" +
+      "  <Require feature='opensocial-0.8'>" +
+      "    <Param name='url'>http://example.org/param</Param>" +
+      "  </Require>" +
+      "  <Require feature='tabs'/>" +
+      "  <NavigationItem title='Item %d'><AppParameter key='k' value='v'/></NavigationItem>" +
+      "</ModulePrefs>" +
+      "<Content type='url' href='http://example.org/gadget%d.html'/>" +
+      "</Module>",
+  };
+
+  private static long usedMemory() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // A single gc isn't guaranteed to collect everything.
+    for (int i = 0; i < 5; ++i) {
+      System.gc();
+      Thread.sleep(50);
+      used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+    return used;
+  }
+
+  private static void run(int numSpecs) throws Exception {
+    String[] xml = new String[numSpecs];
+    for (int i = 0; i < numSpecs; ++i) {
+      xml[i] = CORPUS[i % CORPUS.length].replace("%d", String.valueOf(i));
+    }
+
+    GadgetSpec[] specs = new GadgetSpec[numSpecs];
+    long before = usedMemory();
+    for (int i = 0; i < numSpecs; ++i) {
+      specs[i] = new GadgetSpec(Uri.parse("http://example.org/gadget" + i + ".xml"), xml[i]);
+    }
+    long after = usedMemory();
+
+    System.out.println("Specs: " + numSpecs + ", ~" + (after - before) / numSpecs +
+        " bytes/spec retained");
+    // Keep the specs reachable until they have been measured.
+    System.out.println("First view: " + specs[0].getView(GadgetSpec.DEFAULT_VIEW).getContent());
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 1) {
+      System.err.println("Args: <num-specs>");
+      System.exit(1);
+    }
+
+    String specsArg = args[0];
+    int numSpecs = -1;
+    try {
+      numSpecs = Integer.parseInt(specsArg);
+    } catch (Exception e) {
+      System.err.println("Invalid num-specs argument: " + specsArg + ", reason: " + e);
+    }
+    try {
+      run(numSpecs);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.spec;
+
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.xml.XmlUtil;
+
+import com.google.common.collect.Lists;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Compares parse throughput and allocation of the DOM and streaming gadget spec parsers.
+ *
+ * Run with a directory of gadget specs, eg. javascript/samplecontainer/examples. Any file that
+ * either parser rejects is left out. Allocation is estimated from the heap in use before and
+ * after each run with collection suppressed as far as possible, so treat it as approximate and
+ * run with a large young generation (eg. -Xmn512m).
+ */
+public class GadgetSpecParserBenchmark {
+  private static final Uri SPEC_URL = Uri.parse("http://example.org/g.xml");
+
+  private final List<String> specs = Lists.newArrayList();
+  private int numRuns;
+  private boolean warmup;
+
+  private GadgetSpecParserBenchmark(File dir, int numRuns) throws Exception {
+    loadSpecs(dir);
+
+    this.numRuns = 10;
+    warmup = true;
+    runAll();
+    //Sleep to let JIT kick in
+    Thread.sleep(10000L);
+    this.numRuns = numRuns;
+    warmup = false;
+    runAll();
+  }
+
+  private void loadSpecs(File dir) throws Exception {
+    File[] files = dir.isDirectory() ? dir.listFiles() : new File[] { dir };
+    for (File file : files) {
+      if (!file.isFile() || !file.getName().endsWith(".xml")) {
+        continue;
+      }
+      String xml = FileUtils.readFileToString(file, "UTF-8");
+      try {
+        new GadgetSpec(SPEC_URL, XmlUtil.parse(xml), xml);
+        StaxGadgetSpecParser.parse(SPEC_URL, xml);
+        specs.add(xml);
+      } catch (Exception e) {
+        System.err.println("Skipping " + file + ": " + e);
+      }
+    }
+  }
+
+  private void runAll() throws Exception {
+    long bytes = 0;
+    for (String xml : specs) {
+      bytes += xml.length();
+    }
+    output("Specs: " + specs.size() + ", " + bytes + " chars -----------------");
+    timeDomParser();
+    timeStreamingParser();
+  }
+
+  private void output(String string) {
+    if (!warmup) {
+      System.out.println(string);
+    }
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private void report(String name, long millis, long allocated, int parsed) {
+    int total = numRuns * specs.size();
+    output(name + " [" + millis + " ms total: " + ((double) millis) / total + "ms/spec, " +
+        ((double) total * 1000) / Math.max(millis, 1) + " specs/s, ~" +
+        allocated / Math.max(total, 1) + " bytes/spec allocated, " + parsed + " views]");
+  }
+
+  private void timeDomParser() throws Exception {
+    System.gc();
+    long memory = usedMemory();
+    long start = System.currentTimeMillis();
+    int parsed = 0;
+    for (int i = 0; i < numRuns; ++i) {
+      for (String xml : specs) {
+        parsed += new GadgetSpec(SPEC_URL, XmlUtil.parse(xml), xml).getViews().size();
+      }
+    }
+    long millis = System.currentTimeMillis() - start;
+    report("DOM parser", millis, usedMemory() - memory, parsed);
+  }
+
+  private void timeStreamingParser() throws Exception {
+    System.gc();
+    long memory = usedMemory();
+    long start = System.currentTimeMillis();
+    int parsed = 0;
+    for (int i = 0; i < numRuns; ++i) {
+      for (String xml : specs) {
+        parsed += StaxGadgetSpecParser.parse(SPEC_URL, xml).getViews().size();
+      }
+    }
+    long millis = System.currentTimeMillis() - start;
+    report("Streaming parser", millis, usedMemory() - memory, parsed);
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      System.err.println("Args: <spec-dir> <num-runs>");
+      System.exit(1);
+    }
+
+    String dirArg = args[0];
+    String runsArg = args[1];
+    int numRuns = -1;
+    try {
+      numRuns = Integer.parseInt(runsArg);
+    } catch (Exception e) {
+      System.err.println("Invalid num-runs argument: " + runsArg + ", reason: " + e);
+    }
+    try {
+      new GadgetSpecParserBenchmark(new File(dirArg), numRuns);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -22,11 +22,14 @@ package org.apache.shindig.gadgets.spec;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.common.xml.XmlUtil;
+import org.apache.shindig.gadgets.variables.SubstitutionTemplate;
 import org.apache.shindig.gadgets.variables.Substitutions;
 import org.apache.shindig.gadgets.variables.Substitutions.Type;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.EnumSet;
+
 public class GadgetSpecTest extends Assert {
   private static final Uri SPEC_URL = Uri.parse("http://example.org/g.xml");
 
@@ -115,4 +118,87 @@ public class GadgetSpecTest extends Assert {
     assertEquals(100, spec.getAttribute("foo"));
     assertEquals("baz", spec.getAttribute("bar"));
   }
+
+  @Test
+  public void testSubstitutionWithoutPlaceholdersReturnsSpec() throws Exception {
+    String xml = "<Module>" +
+                 "<ModulePrefs title=\"title\"><Link rel='icon' href='http://example.org/i'/>" +
+                 "</ModulePrefs>" +
+                 "<UserPref name=\"foo\" display_name=\"Foo\"/>" +
+                 "<Content type=\"html\">Hello, __world__!</Content>" +
+                 "</Module>";
+    GadgetSpec baseSpec = new GadgetSpec(SPEC_URL, xml);
+    assertTrue(baseSpec.getPlaceholderTypes().isEmpty());
+
+    Substitutions substituter = new Substitutions();
+    substituter.addSubstitution(Type.MESSAGE, "world", "planet");
+    assertSame(baseSpec, baseSpec.substitute(substituter));
+  }
+
+  @Test
+  public void testSubstitutionSharesUnchangedSections() throws Exception {
+    String xml = "<Module>" +
+                 "<ModulePrefs title=\"title\"/>" +
+                 "<UserPref name=\"foo\" display_name=\"__MSG_foo__\"/>" +
+                 "<UserPref name=\"bar\"/>" +
+                 "<Content type=\"html\" view=\"home\">Hello, __UP_foo__!</Content>" +
+                 "<Content type=\"html\" view=\"canvas\">Hello!</Content>" +
+                 "</Module>";
+    GadgetSpec baseSpec = new GadgetSpec(SPEC_URL, xml);
+    assertEquals(EnumSet.of(Type.MESSAGE, Type.USER_PREF), baseSpec.getPlaceholderTypes());
+
+    Substitutions substituter = new Substitutions();
+    substituter.addSubstitution(Type.USER_PREF, "foo", "world");
+    GadgetSpec spec = baseSpec.substitute(substituter);
+
+    assertNotSame(baseSpec, spec);
+    assertSame(baseSpec.getModulePrefs(), spec.getModulePrefs());
+    assertSame(baseSpec.getUserPrefs(), spec.getUserPrefs());
+    assertSame(baseSpec.getView("canvas"), spec.getView("canvas"));
+    assertEquals("Hello, world!", spec.getView("home").getContent());
+    assertEquals("__MSG_foo__", spec.getUserPrefs().get(0).getDisplayName());
+  }
+
+  @Test
+  public void testSubstitutionResolvesRelativeHrefs() throws Exception {
+    String xml = "<Module>" +
+                 "<ModulePrefs title=\"title\"><Preload href=\"preload.json\"/></ModulePrefs>" +
+                 "<Content type=\"url\" href=\"content.html\"/>" +
+                 "</Module>";
+    GadgetSpec spec = new GadgetSpec(SPEC_URL, xml).substitute(new Substitutions());
+
+    assertEquals(SPEC_URL.resolve(Uri.parse("preload.json")),
+        spec.getModulePrefs().getPreloads().get(0).getHref());
+    assertEquals(SPEC_URL.resolve(Uri.parse("content.html")),
+        spec.getView(GadgetSpec.DEFAULT_VIEW).getHref());
+  }
+
+  @Test
+  public void substitutionOnlyTouchesViewsThatAreRead() throws Exception {
+    StringBuilder xml = new StringBuilder("<Module><ModulePrefs title='title'/>");
+    for (int i = 0; i < 50; ++i) {
+      xml.append("<Content type='html' view='view").append(i).append("'>")
+         .append("Hello, __MSG_world__ ").append(i).append("</Content>");
+    }
+    xml.append("</Module>");
+    GadgetSpec baseSpec = new GadgetSpec(SPEC_URL, xml.toString());
+
+    final int[] substituted = new int[1];
+    Substitutions substituter = new Substitutions() {
+      @Override
+      public String substituteString(SubstitutionTemplate template) {
+        substituted[0]++;
+        return super.substituteString(template);
+      }
+    };
+    substituter.addSubstitution(Type.MESSAGE, "world", "planet");
+
+    GadgetSpec spec = baseSpec.substitute(substituter);
+    assertEquals(50, spec.getViews().size());
+    assertEquals(0, substituted[0]);
+
+    assertEquals("Hello, planet 7", spec.getView("view7").getContent());
+    assertEquals("Hello, planet 7", spec.getView("view7").getContent());
+    assertEquals(1, substituted[0]);
+  }
 }
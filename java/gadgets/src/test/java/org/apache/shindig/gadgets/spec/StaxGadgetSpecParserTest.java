@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.spec;
+
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.xml.XmlUtil;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Checks that the streaming parser produces exactly the spec that the DOM parser does.
+ */
+public class StaxGadgetSpecParserTest extends Assert {
+  private static final Uri SPEC_URL = Uri.parse("http://example.org/g.xml");
+
+  private static GadgetSpec parseDom(String xml) throws Exception {
+    return new GadgetSpec(SPEC_URL, XmlUtil.parse(xml), xml);
+  }
+
+  private static void assertSameSpec(String xml) throws Exception {
+    GadgetSpec expected = parseDom(xml);
+    GadgetSpec actual = StaxGadgetSpecParser.parse(SPEC_URL, xml);
+
+    assertEquals(expected.toString(), actual.toString());
+    assertEquals(expected.getChecksum(), actual.getChecksum());
+    assertEquals(expected.getModulePrefs().toString(), actual.getModulePrefs().toString());
+    assertEquals(expected.getUserPrefs().size(), actual.getUserPrefs().size());
+    assertEquals(expected.getViews().keySet(), actual.getViews().keySet());
+    for (Map.Entry<String, View> entry : expected.getViews().entrySet()) {
+      View view = entry.getValue();
+      View other = actual.getView(entry.getKey());
+      assertEquals(view.getContent(), other.getContent());
+      assertEquals(view.getType(), other.getType());
+      assertEquals(view.getHref(), other.getHref());
+      assertEquals(view.getAttributes(), other.getAttributes());
+      assertEquals(view.getPreferredHeight(), other.getPreferredHeight());
+      assertEquals(view.needsUserPrefSubstitution(), other.needsUserPrefSubstitution());
+      assertEquals(view.getPipelinedData() == null, other.getPipelinedData() == null);
+      if (view.getPipelinedData() != null) {
+        assertEquals(view.getPipelinedData().needsOwner(), other.getPipelinedData().needsOwner());
+        assertEquals(view.getPipelinedData().needsViewer(),
+            other.getPipelinedData().needsViewer());
+      }
+    }
+  }
+
+  private static void assertSameFailure(String xml) throws Exception {
+    Class<?> expected = null;
+    try {
+      parseDom(xml);
+    } catch (Exception e) {
+      expected = e.getClass();
+    }
+    assertNotNull("DOM parser accepted " + xml, expected);
+    try {
+      StaxGadgetSpecParser.parse(SPEC_URL, xml);
+      fail("Streaming parser accepted " + xml);
+    } catch (Exception e) {
+      assertEquals(expected, e.getClass());
+    }
+  }
+
+  @Test
+  public void basic() throws Exception {
+    assertSameSpec("<Module>" +
+        "<ModulePrefs title='title' height='100'/>" +
+        "<UserPref name='foo' datatype='enum' default_value='a'>" +
+        "  <EnumValue value='a' display_value='A'/><EnumValue value='b'/>" +
+        "</UserPref>" +
+        "<Content type='html'>Hello!</Content>" +
+        "</Module>");
+  }
+
+  @Test
+  public void leadingWhitespaceAndProlog() throws Exception {
+    assertSameSpec("\n  <?xml version='1.0' encoding='UTF-8'?>\n" +
+        "<!-- comment -->" +
+        "<Module><ModulePrefs title='title'/><Content>x</Content></Module>\n<!-- trailer -->");
+  }
+
+  @Test
+  public void contentWithCdataAndMarkup() throws Exception {
+    assertSameSpec("<Module><ModulePrefs title='t'/>" +
+        "<Content type='html' view='home,canvas' preferred_height='200' foo='bar'>" +
+        "before <![CDATA[<b>bold & </b>]]> &amp; &lt;" +
+        "<span>inline <em>markup</em></span><!-- ignored -->after" +
+        "</Content>" +
+        "<Content type='html' view='canvas'><![CDATA[ more]]></Content>" +
+        "<Content type='html' view='profile'></Content>" +
+        "</Module>");
+  }
+
+  @Test
+  public void contentWithHrefAndPipelinedData() throws Exception {
+    assertSameSpec("<Module xmlns:os='" + PipelinedData.OPENSOCIAL_NAMESPACE + "'>" +
+        "<ModulePrefs title='t'><Require feature='opensocial-data'/></ModulePrefs>" +
+        "<Content href='http://example.org/proxied' authz='signed' sign_viewer='false'>" +
+        "  <os:ViewerRequest key='viewer'/>" +
+        "  <os:OwnerRequest key='owner'/>" +
+        "  <os:HttpRequest key='json' href='http://example.org/json'/>" +
+        "</Content>" +
+        "</Module>");
+  }
+
+  @Test
+  public void proxiedViewSplitOverContentElements() throws Exception {
+    String os = "<Module xmlns:os='" + PipelinedData.OPENSOCIAL_NAMESPACE + "'>" +
+        "<ModulePrefs title='t'><Require feature='opensocial-data'/></ModulePrefs>";
+    // The href is carried over to later Content elements of the same view.
+    assertSameSpec(os +
+        "<Content view='a,b' href='http://example.org/proxied' authz='signed'>" +
+        "  <os:ViewerRequest key='viewer'/>" +
+        "</Content>" +
+        "<Content view='a' sign_viewer='false'>" +
+        "  <os:OwnerRequest key='owner'/>" +
+        "</Content>" +
+        "<Content view='b'>text<![CDATA[ and cdata ]]>" +
+        "  <os:OwnerRequest key='owner'/>more" +
+        "</Content>" +
+        "</Module>");
+    // The href is only set by a later Content element.
+    assertSameSpec(os +
+        "<Content view='a'><os:ViewerRequest key='viewer'/></Content>" +
+        "<Content view='a' href='http://example.org/proxied' authz='signed'>no requests</Content>" +
+        "</Module>");
+  }
+
+  @Test
+  public void namespacedAttributes() throws Exception {
+    assertSameSpec("<Module xmlns:x='http://example.org/x'>" +
+        "<ModulePrefs title='t' x:extra='1'/>" +
+        "<Content type='html' x:foo='bar' xmlns:y='http://example.org/y'>hi</Content>" +
+        "</Module>");
+  }
+
+  @Test
+  public void inlineMessageBundles() throws Exception {
+    String xml = "<Module><ModulePrefs title='__MSG_title__'>" +
+        "<Locale lang='en'>" +
+        "  <msg name='title'>Title</msg>" +
+        "  <msg name='cdata'><![CDATA[<b>bold</b>]]></msg>" +
+        "  <msg name='mixed'>a <!-- comment -->b<![CDATA[c]]>&amp;</msg>" +
+        "</Locale>" +
+        "<Locale lang='fr' country='FR' language_direction='rtl'>" +
+        "  <msg name='title'>Titre</msg>" +
+        "</Locale>" +
+        "</ModulePrefs>" +
+        "<Content type='html'>__MSG_title__</Content>" +
+        "</Module>";
+    assertSameSpec(xml);
+
+    GadgetSpec expected = parseDom(xml);
+    GadgetSpec actual = StaxGadgetSpecParser.parse(SPEC_URL, xml);
+    Locale en = new Locale("en", "ALL");
+    assertEquals(expected.getModulePrefs().getLocale(en).getMessageBundle().getMessages(),
+        actual.getModulePrefs().getLocale(en).getMessageBundle().getMessages());
+  }
+
+  @Test
+  public void unknownElementsSkipped() throws Exception {
+    assertSameSpec("<Module>" +
+        "<Unknown><Content>not a view</Content></Unknown>" +
+        "<ModulePrefs title='t'/>" +
+        "<x:Content xmlns:x='http://example.org/x'>not a view either</x:Content>" +
+        "<Content>view</Content>" +
+        "</Module>");
+  }
+
+  @Test
+  public void invalidSpecs() throws Exception {
+    // Malformed xml.
+    assertSameFailure("<Module><ModulePrefs title='t'/><Content>x</Module>");
+    assertSameFailure("<Module><ModulePrefs title='t'/></Module><Module/>");
+    assertSameFailure("<Module><Unknown><a></b></Unknown></Module>");
+    assertSameFailure("");
+    // Invalid specs.
+    assertSameFailure("<Module><Content>x</Content></Module>");
+    assertSameFailure("<Module><ModulePrefs title='t'/><ModulePrefs title='t'/></Module>");
+    assertSameFailure("<Module><ModulePrefs title='t'/><UserPref/></Module>");
+    assertSameFailure("<Module><ModulePrefs title='t'/>" +
+        "<Content type='url'>no href</Content></Module>");
+  }
+
+  @Test
+  public void externalEntitiesNotResolved() throws Exception {
+    String xml = "<!DOCTYPE Module [" +
+        "<!ENTITY ext SYSTEM 'file:///etc/passwd'>]>" +
+        "<Module><ModulePrefs title='t'/><Content>a&ext;b</Content></Module>";
+    assertSameSpec(xml);
+    assertEquals("ab", StaxGadgetSpecParser.parse(SPEC_URL, xml).getView("default").getContent());
+  }
+
+  @Test
+  public void internalEntitiesExpandedLikeDom() throws Exception {
+    assertSameSpec("<?xml version='1.0'?><!-- spec -->\n<!DOCTYPE Module [" +
+        "<!ENTITY greeting 'Hello'>]>" +
+        "<Module><ModulePrefs title='&greeting;'/><Content>&greeting;!</Content></Module>");
+  }
+
+  @Test
+  public void entityExpansionLimited() throws Exception {
+    StringBuilder xml = new StringBuilder("<!DOCTYPE Module [<!ENTITY a0 'lol'>");
+    for (int i = 1; i < 10; i++) {
+      xml.append("<!ENTITY a").append(i).append(" '");
+      for (int j = 0; j < 10; j++) {
+        xml.append("&a").append(i - 1).append(';');
+      }
+      xml.append("'>");
+    }
+    xml.append("]><Module><ModulePrefs title='t'/><Content>&a9;</Content></Module>");
+    assertSameFailure(xml.toString());
+  }
+
+  @Test
+  public void doctypeOnlyDetectedBeforeRootElement() throws Exception {
+    assertTrue(StaxGadgetSpecParser.hasDoctype(
+        "<?xml version='1.0'?>\n<!DOCTYPE Module><Module/>"));
+    assertTrue(StaxGadgetSpecParser.hasDoctype("<!-- a --> <!DOCTYPE Module><Module/>"));
+    assertFalse(StaxGadgetSpecParser.hasDoctype("<Module><Content><![CDATA[" +
+        "<!DOCTYPE html><html/>]]></Content></Module>"));
+  }
+}
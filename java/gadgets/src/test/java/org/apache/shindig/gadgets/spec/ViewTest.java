@@ -29,6 +29,8 @@ import org.apache.shindig.gadgets.variables.Substitutions.Type;
 import org.junit.Assert;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
@@ -198,6 +200,52 @@ public class ViewTest {
     assertEquals(SPEC_URL.resolve(Uri.parse("/bar")), view.getHref());
   }
 
+  @Test
+  public void substitutedContentReusedAcrossThreads() throws Exception {
+    String xml = "<Content type='html'>Hello, __MSG_world__!</Content>";
+    View view = new View("test", Arrays.asList(XmlUtil.parse(xml)), SPEC_URL);
+
+    Substitutions substituter = new Substitutions();
+    substituter.addSubstitution(Type.MESSAGE, "world", "planet");
+    final View substituted = view.substitute(substituter);
+
+    final String[] results = new String[8];
+    Thread[] threads = new Thread[results.length];
+    for (int i = 0; i < threads.length; ++i) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          results[index] = substituted.getContent();
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    for (String result : results) {
+      assertSame(results[0], result);
+    }
+    assertEquals("Hello, planet!", results[0]);
+    assertEquals("Hello, __MSG_world__!", view.getContent());
+  }
+
+  @Test
+  public void hrefContentReplacesSubstitutedContent() throws Exception {
+    String xml = "<Content type='html' href='http://example.org/proxied'>__MSG_world__</Content>";
+    Substitutions substituter = new Substitutions();
+    substituter.addSubstitution(Type.MESSAGE, "world", "planet");
+    View view = new View("test", Arrays.asList(XmlUtil.parse(xml)), SPEC_URL)
+        .substitute(substituter);
+
+    view.setHrefContent("fetched");
+
+    assertEquals("fetched", view.getContent());
+    assertNull(view.getHref());
+  }
+
   @Test
   public void authAttributes() throws Exception {
     String xml = "<Content type='html' sign_owner='false' sign_viewer='false' foo='bar' " +
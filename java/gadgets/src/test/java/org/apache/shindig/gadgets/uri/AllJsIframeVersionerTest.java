@@ -28,15 +28,10 @@ import static org.junit.Assert.assertEquals;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.gadgets.features.FeatureRegistry;
-import org.apache.shindig.gadgets.features.FeatureResource;
 
 import org.junit.Before;
 import org.junit.Test;
 
-import com.google.common.collect.Lists;
-
-import java.util.List;
-
 public class AllJsIframeVersionerTest {
   // Underscores that neither of these values are even read.
   private static final Uri GADGET_URI = null;
@@ -51,9 +46,7 @@ public class AllJsIframeVersionerTest {
     String debugContent = "FEATURE_DEBUG_CONTENT";
     featureChecksum = HashUtil.checksum((featureContent + debugContent).getBytes());
     FeatureRegistry registry = createMock(FeatureRegistry.class);
-    FeatureResource resource = new FeatureResource.Simple(featureContent, debugContent);
-    List<FeatureResource> allResources = Lists.newArrayList(resource);
-    expect(registry.getAllFeatures()).andReturn(allResources).once();
+    expect(registry.getAllFeaturesChecksum()).andReturn(featureChecksum).once();
     replay(registry);
     versioner = new AllJsIframeVersioner(registry);
     verify(registry);
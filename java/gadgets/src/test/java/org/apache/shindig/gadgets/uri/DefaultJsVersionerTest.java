@@ -32,6 +32,7 @@ import static org.junit.Assert.assertSame;
 
 import com.google.common.collect.Lists;
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.features.FeatureRegistry;
 import org.apache.shindig.gadgets.features.FeatureResource;
@@ -149,5 +150,7 @@ public class DefaultJsVersionerTest {
     List<FeatureResource> resources = Lists.newArrayList(resource);
     expect(registry.getFeatureResources(isA(GadgetContext.class), eq(libs),
         EasyMock.<List<String>>isNull())).andReturn(resources).anyTimes();
+    // Once only: the versioner caches it.
+    expect(registry.getChecksum(resources)).andReturn(HashUtil.checksum(content.getBytes())).once();
   }
 }
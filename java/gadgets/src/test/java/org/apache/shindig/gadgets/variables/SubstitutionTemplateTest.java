@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.variables;
+
+import org.apache.shindig.gadgets.variables.Substitutions.Type;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Random;
+
+public class SubstitutionTemplateTest extends Assert {
+  private Substitutions subst;
+
+  @Before
+  public void setUp() throws Exception {
+    subst = new Substitutions();
+    subst.addSubstitution(Type.MESSAGE, "hello", "Hello, __UP_name__ __MSG_world__");
+    subst.addSubstitution(Type.MESSAGE, "world", "world");
+    subst.addSubstitution(Type.USER_PREF, "name", "Bob");
+    subst.addSubstitution(Type.BIDI, "DIR", "rtl");
+    subst.addSubstitution(Type.MODULE, "ID", "3");
+  }
+
+  private void assertSameResult(String input) {
+    assertEquals(subst.substituteString(input),
+        subst.substituteString(SubstitutionTemplate.compile(input)));
+  }
+
+  @Test
+  public void literal() throws Exception {
+    SubstitutionTemplate template = SubstitutionTemplate.compile("no __ variables __here");
+    assertTrue(template.getPlaceholderTypes().isEmpty());
+    assertSame(template.getSource(), subst.substituteString(template));
+  }
+
+  @Test
+  public void placeholderTypes() throws Exception {
+    SubstitutionTemplate template
+        = SubstitutionTemplate.compile("__MSG_hello__ __BIDI_DIR__ __UP_unclosed");
+    assertEquals(EnumSet.of(Type.MESSAGE, Type.BIDI), template.getPlaceholderTypes());
+  }
+
+  @Test
+  public void allTypes() throws Exception {
+    String input = "<div dir='__BIDI_DIR__' id='m__MODULE_ID__'>__MSG_hello__!</div>";
+    assertEquals("<div dir='rtl' id='m3'>Hello, Bob __MSG_world__!</div>",
+        subst.substituteString(SubstitutionTemplate.compile(input)));
+    assertSameResult(input);
+  }
+
+  @Test
+  public void unknownAndOverlappingVariables() throws Exception {
+    assertSameResult("___MODULE_ID__");
+    assertSameResult("__UP_missing____UP_name__");
+    assertSameResult("__UP_name____UP_name__");
+    assertSameResult("__MSG_hello___MSG_world__");
+    assertSameResult("____MSG_world____");
+    assertSameResult("__UP_name__BIDI_DIR__");
+  }
+
+  @Test
+  public void randomInputs() throws Exception {
+    String[] pieces = {"__", "_", "__MSG_", "__UP_", "__BIDI_", "__MODULE_", "hello", "world",
+        "name", "DIR", "ID", "x"};
+    Random random = new Random(0);
+    for (int i = 0; i < 10000; ++i) {
+      StringBuilder input = new StringBuilder();
+      for (int j = random.nextInt(12); j > 0; --j) {
+        input.append(pieces[random.nextInt(pieces.length)]);
+      }
+      assertSameResult(input.toString());
+    }
+  }
+}
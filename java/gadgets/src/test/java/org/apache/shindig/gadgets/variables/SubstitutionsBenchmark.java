@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.variables;
+
+import org.apache.shindig.gadgets.variables.Substitutions.Type;
+
+import java.util.Random;
+
+/**
+ * Compares substitution of a plain string with substitution of a precompiled template, over
+ * about 100 KB of content that references a few hundred messages and user prefs.
+ */
+public class SubstitutionsBenchmark {
+  private static final int CONTENT_SIZE = 100 * 1024;
+  private static final int NUM_MESSAGES = 500;
+  private static final int NUM_PREFS = 20;
+
+  private final String content;
+  private final Substitutions substituter;
+  private int numRuns;
+  private boolean warmup;
+
+  private SubstitutionsBenchmark(int numRuns) throws Exception {
+    Random random = new Random(42L);
+    substituter = new Substitutions();
+    for (int i = 0; i < NUM_MESSAGES; ++i) {
+      substituter.addSubstitution(Type.MESSAGE, "msg" + i, "Message number " + i);
+    }
+    for (int i = 0; i < NUM_PREFS; ++i) {
+      substituter.addSubstitution(Type.USER_PREF, "pref" + i, "value" + i);
+    }
+    BidiSubstituter.addSubstitutions(substituter, BidiSubstituter.LTR);
+    substituter.addSubstitution(Type.MODULE, "ID", "0");
+
+    StringBuilder buf = new StringBuilder(CONTENT_SIZE + 100);
+    while (buf.length() < CONTENT_SIZE) {
+      buf.append("<div class='item' dir='__BIDI_DIR__' id='m___MODULE_ID___")
+         .append(buf.length())
+         .append("'>");
+      switch (random.nextInt(4)) {
+        case 0:
+          buf.append("__UP_pref").append(random.nextInt(NUM_PREFS)).append("__");
+          break;
+        case 1:
+          buf.append("var foo__bar = some_var__; // __not_a_var__");
+          break;
+        default:
+          buf.append("__MSG_msg").append(random.nextInt(NUM_MESSAGES)).append("__");
+      }
+      buf.append(" Lorem ipsum dolor sit amet, consectetur adipisicing elit.</div>\n");
+    }
+    content = buf.toString();
+
+    this.numRuns = 100;
+    warmup = true;
+    runAll();
+    //Sleep to let JIT kick in
+    Thread.sleep(10000L);
+    this.numRuns = numRuns;
+    warmup = false;
+    runAll();
+  }
+
+  private void runAll() {
+    output("Content: " + content.length() + " chars -----------------");
+    timeSubstituteString();
+    timeCompile();
+    timeSubstituteTemplate();
+  }
+
+  private void output(String string) {
+    if (!warmup) {
+      System.out.println(string);
+    }
+  }
+
+  private void timeSubstituteString() {
+    long start = System.currentTimeMillis();
+    int length = 0;
+    for (int i = 0; i < numRuns; ++i) {
+      length += substituter.substituteString(content).length();
+    }
+    long millis = System.currentTimeMillis() - start;
+    output("substituteString(String) [" + millis + " ms total: " +
+        ((double) millis) / numRuns + "ms/run, " + length / numRuns + " chars]");
+  }
+
+  private void timeCompile() {
+    long start = System.currentTimeMillis();
+    int refs = 0;
+    for (int i = 0; i < numRuns; ++i) {
+      refs += SubstitutionTemplate.compile(content).getReferenceCount();
+    }
+    long millis = System.currentTimeMillis() - start;
+    output("compile [" + millis + " ms total: " +
+        ((double) millis) / numRuns + "ms/run, " + refs / numRuns + " references]");
+  }
+
+  private void timeSubstituteTemplate() {
+    SubstitutionTemplate template = SubstitutionTemplate.compile(content);
+    long start = System.currentTimeMillis();
+    int length = 0;
+    for (int i = 0; i < numRuns; ++i) {
+      length += substituter.substituteString(template).length();
+    }
+    long millis = System.currentTimeMillis() - start;
+    output("substituteString(SubstitutionTemplate) [" + millis + " ms total: " +
+        ((double) millis) / numRuns + "ms/run, " + length / numRuns + " chars]");
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 1) {
+      System.err.println("Args: <num-runs>");
+      System.exit(1);
+    }
+
+    String runsArg = args[0];
+    int numRuns = -1;
+    try {
+      numRuns = Integer.parseInt(runsArg);
+    } catch (Exception e) {
+      System.err.println("Invalid num-runs argument: " + runsArg + ", reason: " + e);
+    }
+    try {
+      new SubstitutionsBenchmark(numRuns);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -27,6 +27,9 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 public class SubstitutionsTest extends Assert {
   private Substitutions subst;
 
@@ -56,6 +59,25 @@ public class SubstitutionsTest extends Assert {
     assertEquals("Greetings, world!", subst.substituteString(msg));
   }
 
+  @Test
+  public void findPlaceholders() throws Exception {
+    Set<Type> types = EnumSet.noneOf(Type.class);
+    Substitutions.findPlaceholders("plain __ text __", types);
+    Substitutions.findPlaceholders(null, types);
+    assertTrue(types.isEmpty());
+
+    Substitutions.findPlaceholders("__MSG_foo__ and ___UP_bar__", types);
+    assertEquals(EnumSet.of(Type.MESSAGE, Type.USER_PREF), types);
+  }
+
+  @Test
+  public void hasSubstitutions() throws Exception {
+    assertFalse(subst.hasSubstitutions(EnumSet.allOf(Type.class)));
+    subst.addSubstitution(Type.BIDI, "DIR", "rtl");
+    assertTrue(subst.hasSubstitutions(EnumSet.of(Type.MESSAGE, Type.BIDI)));
+    assertFalse(subst.hasSubstitutions(EnumSet.of(Type.MESSAGE, Type.USER_PREF)));
+  }
+
   @Test
   public void testCorrectOrder() throws Exception {
     String msg = "__UP_hello__, __MSG_world__!";
@@ -19,6 +19,7 @@
 package org.apache.shindig.gadgets.variables;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.GadgetContext;
@@ -94,10 +95,22 @@ public class VariableSubstituterTest {
     assertEquals("I heart shindig", spec.getModulePrefs().getTitle());
   }
 
+  @Test
+  public void specWithoutPlaceholdersNotCopied() throws Exception {
+    String xml = "<Module><ModulePrefs title='plain'/><Content>__no_vars__</Content></Module>";
+    GadgetSpec spec = new GadgetSpec(Uri.parse("http://example.org/g.xml"), xml);
+
+    assertSame(spec, substituter.substitute(new GadgetContext(), spec));
+    assertEquals(0, messageBundleFactory.calls);
+  }
+
   private static class FakeMessageBundleFactory implements MessageBundleFactory {
 
+    private int calls;
+
     public MessageBundle getBundle(GadgetSpec spec, Locale locale, boolean ignoreCache)
         throws GadgetException {
+      calls++;
       LocaleSpec localeSpec = spec.getModulePrefs().getLocale(locale);
       if (localeSpec == null) {
         return MessageBundle.EMPTY;